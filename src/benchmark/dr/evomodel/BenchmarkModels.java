@@ -0,0 +1,132 @@
+/*
+ * BenchmarkModels.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package benchmark.dr.evomodel;
+
+import dr.evolution.alignment.Alignment;
+import dr.evolution.alignment.ConvertAlignment;
+import dr.evolution.alignment.SimpleAlignment;
+import dr.evolution.coalescent.CoalescentSimulator;
+import dr.evolution.coalescent.ConstantPopulation;
+import dr.evolution.datatype.Codons;
+import dr.evolution.datatype.DataType;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.sequence.Sequence;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.evolution.util.Units;
+import dr.evomodel.tree.DefaultTreeModel;
+import dr.evomodel.tree.TreeModel;
+import dr.math.MathUtils;
+
+/**
+ * Shared fixtures for the JMH benchmarks: random taxa, coalescent trees and alignments of a given size.
+ * All randomness comes from MathUtils so a fixed seed gives the same fixture in every fork.
+ */
+public class BenchmarkModels {
+
+    public static final long SEED = 666;
+
+    private BenchmarkModels() {
+        // static helpers only
+    }
+
+    public static Taxa createTaxa(int taxonCount) {
+        Taxa taxa = new Taxa();
+        for (int i = 0; i < taxonCount; i++) {
+            taxa.addTaxon(new Taxon("taxon" + (i + 1)));
+        }
+        return taxa;
+    }
+
+    /**
+     * Simulates a tree under a constant size coalescent, scaled so the root height is roughly one
+     * regardless of the number of taxa.
+     */
+    public static DefaultTreeModel createRandomTree(Taxa taxa) {
+        ConstantPopulation constant = new ConstantPopulation(Units.Type.SUBSTITUTIONS);
+        constant.setN0(0.5);
+
+        CoalescentSimulator simulator = new CoalescentSimulator();
+        Tree tree = simulator.simulateTree(taxa, constant);
+        return new DefaultTreeModel("treeModel", tree);
+    }
+
+    /**
+     * Creates an alignment of uniformly drawn states. With more than a handful of taxa every site is
+     * almost surely a unique pattern, so the site count is also the pattern count. Codon alignments are
+     * built from random sense codons as nucleotides and converted, as the parsers do.
+     */
+    public static Alignment createRandomAlignment(Taxa taxa, DataType dataType, int siteCount) {
+        if (dataType instanceof Codons) {
+            Codons codons = (Codons) dataType;
+            SimpleAlignment nucleotides = new SimpleAlignment();
+            nucleotides.setDataType(Nucleotides.INSTANCE);
+            for (int i = 0; i < taxa.getTaxonCount(); i++) {
+                StringBuilder sequence = new StringBuilder();
+                for (int j = 0; j < siteCount; j++) {
+                    sequence.append(codons.getTriplet(MathUtils.nextInt(codons.getStateCount())));
+                }
+                nucleotides.addSequence(new Sequence(taxa.getTaxon(i), sequence.toString()));
+            }
+            return new ConvertAlignment(codons, nucleotides);
+        }
+
+        SimpleAlignment alignment = new SimpleAlignment();
+        alignment.setDataType(dataType);
+
+        int stateCount = dataType.getStateCount();
+        for (int i = 0; i < taxa.getTaxonCount(); i++) {
+            int[] states = new int[siteCount];
+            for (int j = 0; j < siteCount; j++) {
+                states[j] = MathUtils.nextInt(stateCount);
+            }
+            alignment.addSequence(new Sequence(taxa.getTaxon(i), dataType, states));
+        }
+        return alignment;
+    }
+
+    /**
+     * Moves the height of a randomly chosen internal, non-root node uniformly between its oldest child
+     * and its parent, the same kind of local change a node height operator makes.
+     */
+    public static void moveRandomNodeHeight(TreeModel treeModel) {
+        NodeRef node;
+        do {
+            node = treeModel.getInternalNode(MathUtils.nextInt(treeModel.getInternalNodeCount()));
+        } while (treeModel.isRoot(node));
+
+        double lower = Math.max(
+                treeModel.getNodeHeight(treeModel.getChild(node, 0)),
+                treeModel.getNodeHeight(treeModel.getChild(node, 1)));
+        double upper = treeModel.getNodeHeight(treeModel.getParent(node));
+
+        treeModel.setNodeHeight(node, lower + MathUtils.nextDouble() * (upper - lower));
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * CoalescentLikelihoodBenchmark.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package benchmark.dr.evomodel.coalescent;
+
+import benchmark.dr.evomodel.BenchmarkModels;
+import dr.evolution.coalescent.IntervalList;
+import dr.evolution.util.Units;
+import dr.evomodel.bigfasttree.BigFastTreeIntervals;
+import dr.evomodel.coalescent.CoalescentLikelihood;
+import dr.evomodel.coalescent.TreeIntervals;
+import dr.evomodel.coalescent.demographicmodel.ConstantPopulationModel;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the constant size coalescent likelihood over both interval implementations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoalescentLikelihoodBenchmark {
+
+    @Param({"16", "256", "4096"})
+    public int taxonCount;
+
+    @Param({"treeIntervals", "bigFastTreeIntervals"})
+    public String intervals;
+
+    private TreeModel treeModel;
+    private Parameter popSize;
+    private CoalescentLikelihood likelihood;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        MathUtils.setSeed(BenchmarkModels.SEED);
+
+        treeModel = BenchmarkModels.createRandomTree(BenchmarkModels.createTaxa(taxonCount));
+
+        IntervalList intervalList;
+        if (intervals.equals("treeIntervals")) {
+            intervalList = new TreeIntervals(treeModel);
+        } else if (intervals.equals("bigFastTreeIntervals")) {
+            intervalList = new BigFastTreeIntervals(treeModel);
+        } else {
+            throw new IllegalArgumentException("Unknown intervals: " + intervals);
+        }
+
+        popSize = new Parameter.Default(0.5);
+        likelihood = new CoalescentLikelihood(intervalList,
+                new ConstantPopulationModel(popSize, Units.Type.SUBSTITUTIONS));
+        likelihood.getLogLikelihood();
+    }
+
+    @Benchmark
+    public double fullEvaluation() {
+        likelihood.makeDirty();
+        return likelihood.getLogLikelihood();
+    }
+
+    @Benchmark
+    public double nodeHeightUpdate() {
+        likelihood.storeModelState();
+
+        BenchmarkModels.moveRandomNodeHeight(treeModel);
+        double logL = likelihood.getLogLikelihood();
+
+        likelihood.restoreModelState();
+        return logL;
+    }
+
+    @Benchmark
+    public double populationSizeUpdate() {
+        likelihood.storeModelState();
+
+        popSize.setParameterValue(0, 0.5 * Math.exp(MathUtils.nextGaussian() * 0.1));
+        double logL = likelihood.getLogLikelihood();
+
+        likelihood.restoreModelState();
+        return logL;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * GMRFSkygridLikelihoodBenchmark.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package benchmark.dr.evomodel.coalescent;
+
+import benchmark.dr.evomodel.BenchmarkModels;
+import dr.evolution.coalescent.IntervalList;
+import dr.evomodel.bigfasttree.BigFastTreeIntervals;
+import dr.evomodel.coalescent.GMRFSkygridLikelihood;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the GMRF skygrid likelihood (coalescent plus GMRF smoothing prior) for a single tree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GMRFSkygridLikelihoodBenchmark {
+
+    @Param({"16", "256", "4096"})
+    public int taxonCount;
+
+    @Param({"50", "500"})
+    public int gridPointCount;
+
+    private TreeModel treeModel;
+    private Parameter logPopSize;
+    private GMRFSkygridLikelihood likelihood;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        MathUtils.setSeed(BenchmarkModels.SEED);
+
+        treeModel = BenchmarkModels.createRandomTree(BenchmarkModels.createTaxa(taxonCount));
+
+        List<IntervalList> intervalsList = new ArrayList<IntervalList>();
+        intervalsList.add(new BigFastTreeIntervals(treeModel));
+
+        // the dimension is set by the likelihood to gridPointCount + 1
+        logPopSize = new Parameter.Default(0.0);
+
+        likelihood = new GMRFSkygridLikelihood(intervalsList,
+                logPopSize,
+                null,
+                new Parameter.Default(1.0),
+                new Parameter.Default(1.0),
+                null,
+                null,
+                false,
+                treeModel.getNodeHeight(treeModel.getRoot()) * 1.5,
+                gridPointCount,
+                null,
+                new Parameter.Default(1.0));
+        likelihood.getLogLikelihood();
+    }
+
+    @Benchmark
+    public double fullEvaluation() {
+        likelihood.makeDirty();
+        return likelihood.getLogLikelihood();
+    }
+
+    @Benchmark
+    public double nodeHeightUpdate() {
+        likelihood.storeModelState();
+
+        BenchmarkModels.moveRandomNodeHeight(treeModel);
+        double logL = likelihood.getLogLikelihood();
+
+        likelihood.restoreModelState();
+        return logL;
+    }
+
+    @Benchmark
+    public double populationSizeUpdate() {
+        likelihood.storeModelState();
+
+        int index = MathUtils.nextInt(logPopSize.getDimension());
+        logPopSize.setParameterValue(index, MathUtils.nextGaussian() * 0.1);
+        double logL = likelihood.getLogLikelihood();
+
+        likelihood.restoreModelState();
+        return logL;
+    }
+}
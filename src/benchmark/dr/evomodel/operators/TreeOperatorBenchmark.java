@@ -0,0 +1,97 @@
+/*
+ * TreeOperatorBenchmark.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package benchmark.dr.evomodel.operators;
+
+import benchmark.dr.evomodel.BenchmarkModels;
+import dr.evomodel.operators.ExchangeOperator;
+import dr.evomodel.operators.SubtreeSlideOperator;
+import dr.evomodel.operators.UniformNodeHeightOperator;
+import dr.evomodel.operators.WilsonBalding;
+import dr.evomodel.tree.DefaultTreeModel;
+import dr.inference.operators.AdaptationMode;
+import dr.inference.operators.MCMCOperator;
+import dr.math.MathUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks a proposal from the common tree operators followed by a rejection, as the MCMC does it:
+ * store the tree, operate, reject and restore. No likelihood is attached so this measures the operator
+ * and the tree bookkeeping only.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TreeOperatorBenchmark {
+
+    @Param({"16", "256", "4096"})
+    public int taxonCount;
+
+    @Param({"subtreeSlide", "narrowExchange", "wideExchange", "wilsonBalding", "uniformNodeHeight"})
+    public String operatorName;
+
+    private DefaultTreeModel treeModel;
+    private MCMCOperator operator;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        MathUtils.setSeed(BenchmarkModels.SEED);
+
+        treeModel = BenchmarkModels.createRandomTree(BenchmarkModels.createTaxa(taxonCount));
+
+        if (operatorName.equals("subtreeSlide")) {
+            operator = new SubtreeSlideOperator(treeModel, 1.0, 0.0, true, false, false, false,
+                    AdaptationMode.ADAPTATION_OFF, 0.234);
+        } else if (operatorName.equals("narrowExchange")) {
+            operator = new ExchangeOperator(ExchangeOperator.NARROW, treeModel, 1.0);
+        } else if (operatorName.equals("wideExchange")) {
+            operator = new ExchangeOperator(ExchangeOperator.WIDE, treeModel, 1.0);
+        } else if (operatorName.equals("wilsonBalding")) {
+            operator = new WilsonBalding(treeModel, 1.0);
+        } else if (operatorName.equals("uniformNodeHeight")) {
+            operator = new UniformNodeHeightOperator(treeModel, 1.0);
+        } else {
+            throw new IllegalArgumentException("Unknown operator: " + operatorName);
+        }
+    }
+
+    @Benchmark
+    public double proposeAndReject() {
+        treeModel.storeModelState();
+
+        double hastingsRatio = operator.operate();
+        operator.reject();
+
+        treeModel.restoreModelState();
+        return hastingsRatio;
+    }
+}
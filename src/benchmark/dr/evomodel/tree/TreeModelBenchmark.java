@@ -0,0 +1,80 @@
+/*
+ * TreeModelBenchmark.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package benchmark.dr.evomodel.tree;
+
+import benchmark.dr.evomodel.BenchmarkModels;
+import dr.evomodel.tree.TreeModel;
+import dr.math.MathUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the TreeModel store/restore cycle that surrounds every MCMC step, with and without an
+ * intervening node height change.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TreeModelBenchmark {
+
+    @Param({"16", "256", "4096"})
+    public int taxonCount;
+
+    private TreeModel treeModel;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        MathUtils.setSeed(BenchmarkModels.SEED);
+
+        treeModel = BenchmarkModels.createRandomTree(BenchmarkModels.createTaxa(taxonCount));
+    }
+
+    @Benchmark
+    public void storeRestore() {
+        treeModel.storeModelState();
+        treeModel.restoreModelState();
+    }
+
+    @Benchmark
+    public void storeChangeRestore() {
+        treeModel.storeModelState();
+        BenchmarkModels.moveRandomNodeHeight(treeModel);
+        treeModel.restoreModelState();
+    }
+
+    @Benchmark
+    public void storeChangeAccept() {
+        treeModel.storeModelState();
+        BenchmarkModels.moveRandomNodeHeight(treeModel);
+        treeModel.acceptModelState();
+    }
+}
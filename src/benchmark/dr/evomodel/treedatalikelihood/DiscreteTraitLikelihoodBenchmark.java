@@ -0,0 +1,154 @@
+/*
+ * DiscreteTraitLikelihoodBenchmark.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package benchmark.dr.evomodel.treedatalikelihood;
+
+import benchmark.dr.evomodel.BenchmarkModels;
+import dr.evolution.alignment.SimpleSiteList;
+import dr.evolution.datatype.GeneralDataType;
+import dr.evolution.util.Taxa;
+import dr.evomodel.branchmodel.HomogeneousBranchModel;
+import dr.evomodel.branchratemodel.DefaultBranchRateModel;
+import dr.evomodel.siteratemodel.GammaSiteRateModel;
+import dr.evomodel.substmodel.ComplexSubstitutionModel;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.treedatalikelihood.JavaDataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.TreeDataLikelihood;
+import dr.evomodel.treelikelihood.PartialsRescalingScheme;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the likelihood of a discrete trait with many states (as in discrete phylogeography)
+ * under an irreversible model, comparing transition matrices from the eigen-decomposition with
+ * applying the matrix exponential to the partials. Each proposal changes one rate of the generator,
+ * as a GLM coefficient or BSSVS indicator move would, so the eigen path decomposes the matrix again.
+ * The eigen path keeps K x K matrices for every branch, so it needs a large heap when K = 1000.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DiscreteTraitLikelihoodBenchmark {
+
+    @Param({"50", "100", "250", "500", "1000"})
+    public int stateCount;
+
+    @Param({"eigen", "action"})
+    public String transitionProbabilities;
+
+    /**
+     * The proportion of non-zero rates, e.g., the proportion of indicators switched on under BSSVS.
+     */
+    @Param({"1.0", "0.05"})
+    public double rateDensity;
+
+    @Param({"64"})
+    public int taxonCount;
+
+    private TreeModel treeModel;
+    private Parameter rates;
+    private TreeDataLikelihood likelihood;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        MathUtils.setSeed(BenchmarkModels.SEED);
+
+        Taxa taxa = BenchmarkModels.createTaxa(taxonCount);
+        treeModel = BenchmarkModels.createRandomTree(taxa);
+
+        String[] stateCodes = new String[stateCount];
+        for (int i = 0; i < stateCount; i++) {
+            stateCodes[i] = "location" + (i + 1);
+        }
+        GeneralDataType dataType = new GeneralDataType(stateCodes);
+
+        SimpleSiteList patterns = new SimpleSiteList(dataType, taxa);
+        int[] pattern = new int[taxonCount];
+        for (int i = 0; i < taxonCount; i++) {
+            pattern[i] = MathUtils.nextInt(stateCount);
+        }
+        patterns.addPattern(pattern);
+
+        double[] rateValues = new double[stateCount * (stateCount - 1)];
+        for (int i = 0; i < rateValues.length; i++) {
+            rateValues[i] = (MathUtils.nextDouble() < rateDensity ? MathUtils.nextExponential(1.0) : 0.0);
+        }
+        rates = new Parameter.Default(rateValues);
+
+        double[] frequencies = new double[stateCount];
+        java.util.Arrays.fill(frequencies, 1.0 / stateCount);
+        FrequencyModel frequencyModel = new FrequencyModel(dataType, new Parameter.Default(frequencies));
+        ComplexSubstitutionModel substitutionModel = new ComplexSubstitutionModel("complex", dataType,
+                frequencyModel, rates);
+
+        JavaDataLikelihoodDelegate delegate = new JavaDataLikelihoodDelegate(treeModel, patterns,
+                new HomogeneousBranchModel(substitutionModel), new GammaSiteRateModel("siteModel"),
+                false, PartialsRescalingScheme.DEFAULT, true, transitionProbabilities.equals("action"));
+
+        likelihood = new TreeDataLikelihood(delegate, treeModel, new DefaultBranchRateModel());
+        likelihood.getLogLikelihood();
+    }
+
+    /**
+     * Scales one non-zero rate and recomputes, then restores: the cost of a move on the generator.
+     */
+    @Benchmark
+    public double rateUpdate() {
+        likelihood.storeModelState();
+
+        int index;
+        do {
+            index = MathUtils.nextInt(rates.getDimension());
+        } while (rates.getParameterValue(index) == 0.0);
+        rates.setParameterValue(index, rates.getParameterValue(index) * Math.exp(MathUtils.nextDouble() - 0.5));
+        double logL = likelihood.getLogLikelihood();
+
+        likelihood.restoreModelState();
+        return logL;
+    }
+
+    /**
+     * Changes one node height and recomputes, then restores: only the partials above the node change.
+     */
+    @Benchmark
+    public double nodeHeightUpdate() {
+        likelihood.storeModelState();
+
+        BenchmarkModels.moveRandomNodeHeight(treeModel);
+        double logL = likelihood.getLogLikelihood();
+
+        likelihood.restoreModelState();
+        return logL;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * TreeDataLikelihoodBenchmark.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package benchmark.dr.evomodel.treedatalikelihood;
+
+import benchmark.dr.evomodel.BenchmarkModels;
+import dr.evolution.alignment.Alignment;
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.datatype.AminoAcids;
+import dr.evolution.datatype.Codons;
+import dr.evolution.datatype.DataType;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.util.Taxa;
+import dr.evomodel.branchmodel.BranchModel;
+import dr.evomodel.branchmodel.HomogeneousBranchModel;
+import dr.evomodel.branchratemodel.DefaultBranchRateModel;
+import dr.evomodel.siteratemodel.GammaSiteRateModel;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.SubstitutionModel;
+import dr.evomodel.substmodel.aminoacid.EmpiricalAminoAcidModel;
+import dr.evomodel.substmodel.aminoacid.WAG;
+import dr.evomodel.substmodel.codon.GY94CodonModel;
+import dr.evomodel.substmodel.nucleotide.HKY;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.treedatalikelihood.BeagleDataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.DataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.JavaDataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.PreOrderSettings;
+import dr.evomodel.treedatalikelihood.TreeDataLikelihood;
+import dr.evomodel.treelikelihood.PartialsRescalingScheme;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks TreeDataLikelihood with the BEAGLE and pure Java delegates for nucleotide, amino acid and
+ * codon data. The beagle variants fail in setup when the native library is not installed; JMH reports
+ * them as errors and carries on with the rest.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TreeDataLikelihoodBenchmark {
+
+    @Param({"16", "64", "256"})
+    public int taxonCount;
+
+    @Param({"100", "1000"})
+    public int patternCount;
+
+    @Param({"4", "20", "61"})
+    public int stateCount;
+
+    @Param({"java", "beagle"})
+    public String delegate;
+
+    @Param({"4"})
+    public int categoryCount;
+
+    private TreeModel treeModel;
+    private TreeDataLikelihood likelihood;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        MathUtils.setSeed(BenchmarkModels.SEED);
+
+        Taxa taxa = BenchmarkModels.createTaxa(taxonCount);
+        treeModel = BenchmarkModels.createRandomTree(taxa);
+
+        DataType dataType = getDataType(stateCount);
+        Alignment alignment = BenchmarkModels.createRandomAlignment(taxa, dataType, patternCount);
+        SitePatterns patterns = new SitePatterns(alignment, null, 0, -1, 1, true);
+
+        BranchModel branchModel = new HomogeneousBranchModel(createSubstitutionModel(dataType));
+        GammaSiteRateModel siteRateModel = new GammaSiteRateModel("gamma", 0.5, categoryCount);
+
+        DataLikelihoodDelegate dataLikelihoodDelegate;
+        if (delegate.equals("java")) {
+            dataLikelihoodDelegate = new JavaDataLikelihoodDelegate(treeModel, patterns, branchModel, siteRateModel,
+                    false, PartialsRescalingScheme.DEFAULT, true);
+        } else if (delegate.equals("beagle")) {
+            dataLikelihoodDelegate = new BeagleDataLikelihoodDelegate(treeModel, patterns, branchModel, siteRateModel,
+                    false, false, PartialsRescalingScheme.DEFAULT, true, PreOrderSettings.getDefault());
+        } else {
+            throw new IllegalArgumentException("Unknown delegate: " + delegate);
+        }
+
+        likelihood = new TreeDataLikelihood(dataLikelihoodDelegate, treeModel, new DefaultBranchRateModel());
+        likelihood.getLogLikelihood();
+    }
+
+    /**
+     * Recomputes every transition matrix and partial; the cost of the first evaluation in a chain and
+     * of any move that touches the substitution model.
+     */
+    @Benchmark
+    public double fullEvaluation() {
+        likelihood.makeDirty();
+        return likelihood.getLogLikelihood();
+    }
+
+    /**
+     * Changes one node height and recomputes, then restores: the typical cost of a tree move.
+     */
+    @Benchmark
+    public double nodeHeightUpdate() {
+        // the likelihood stores and restores the tree along with its own state
+        likelihood.storeModelState();
+
+        BenchmarkModels.moveRandomNodeHeight(treeModel);
+        double logL = likelihood.getLogLikelihood();
+
+        likelihood.restoreModelState();
+        return logL;
+    }
+
+    private static DataType getDataType(int stateCount) {
+        switch (stateCount) {
+            case 4:
+                return Nucleotides.INSTANCE;
+            case 20:
+                return AminoAcids.INSTANCE;
+            case 61:
+                return Codons.UNIVERSAL;
+            default:
+                throw new IllegalArgumentException("Unsupported state count: " + stateCount);
+        }
+    }
+
+    private static SubstitutionModel createSubstitutionModel(DataType dataType) {
+        int stateCount = dataType.getStateCount();
+        double[] frequencies = new double[stateCount];
+        for (int i = 0; i < stateCount; i++) {
+            frequencies[i] = 1.0 / stateCount;
+        }
+        FrequencyModel frequencyModel = new FrequencyModel(dataType, new Parameter.Default(frequencies));
+
+        if (dataType == Nucleotides.INSTANCE) {
+            return new HKY(new Parameter.Default(2.0), frequencyModel);
+        } else if (dataType == AminoAcids.INSTANCE) {
+            return new EmpiricalAminoAcidModel(WAG.INSTANCE, frequencyModel);
+        } else {
+            return new GY94CodonModel((Codons) dataType, new Parameter.Default(0.5), new Parameter.Default(2.0),
+                    frequencyModel);
+        }
+    }
+}
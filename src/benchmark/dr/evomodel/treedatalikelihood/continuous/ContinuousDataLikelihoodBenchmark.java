@@ -0,0 +1,142 @@
+/*
+ * ContinuousDataLikelihoodBenchmark.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package benchmark.dr.evomodel.treedatalikelihood.continuous;
+
+import benchmark.dr.evomodel.BenchmarkModels;
+import dr.evomodel.branchratemodel.BranchRateModel;
+import dr.evomodel.branchratemodel.DefaultBranchRateModel;
+import dr.evomodel.continuous.MultivariateDiffusionModel;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.treedatalikelihood.TreeDataLikelihood;
+import dr.evomodel.treedatalikelihood.continuous.*;
+import dr.evomodel.treedatalikelihood.continuous.cdi.PrecisionType;
+import dr.inference.model.CompoundParameter;
+import dr.inference.model.MatrixParameter;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the ContinuousDataLikelihoodDelegate under multivariate Brownian motion with a full
+ * precision matrix, with a fraction of the tip values missing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContinuousDataLikelihoodBenchmark {
+
+    @Param({"16", "64", "256", "1024"})
+    public int taxonCount;
+
+    @Param({"2", "8"})
+    public int dimTrait;
+
+    @Param({"0.1"})
+    public double missingFraction;
+
+    private TreeModel treeModel;
+    private TreeDataLikelihood likelihood;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        MathUtils.setSeed(BenchmarkModels.SEED);
+
+        treeModel = BenchmarkModels.createRandomTree(BenchmarkModels.createTaxa(taxonCount));
+
+        // Data, named and ordered as the tips of the tree
+        Parameter[] tipTraits = new Parameter[taxonCount];
+        for (int i = 0; i < taxonCount; i++) {
+            double[] values = new double[dimTrait];
+            for (int j = 0; j < dimTrait; j++) {
+                values[j] = MathUtils.nextGaussian();
+            }
+            tipTraits[i] = new Parameter.Default(treeModel.getTaxonId(i), values);
+        }
+        CompoundParameter traitParameter = new CompoundParameter("trait", tipTraits);
+
+        boolean[] missingIndicators = new boolean[traitParameter.getDimension()];
+        for (int i = 0; i < missingIndicators.length; i++) {
+            missingIndicators[i] = MathUtils.nextDouble() < missingFraction;
+        }
+
+        ContinuousTraitDataModel dataModel = new ContinuousTraitDataModel("dataModel", traitParameter,
+                missingIndicators, true, dimTrait, PrecisionType.FULL);
+
+        // Diffusion, with a diagonally dominant precision matrix
+        Parameter[] precisionRows = new Parameter[dimTrait];
+        for (int i = 0; i < dimTrait; i++) {
+            double[] row = new double[dimTrait];
+            for (int j = 0; j < dimTrait; j++) {
+                row[j] = (i == j) ? dimTrait : 0.5;
+            }
+            precisionRows[i] = new Parameter.Default(row);
+        }
+        MultivariateDiffusionModel diffusionModel = new MultivariateDiffusionModel(
+                new MatrixParameter("precisionMatrix", precisionRows));
+
+        // Root prior
+        ConjugateRootTraitPrior rootPrior = new ConjugateRootTraitPrior(
+                new Parameter.Default(dimTrait, 0.0), new Parameter.Default(10.0));
+
+        BranchRateModel rateModel = new DefaultBranchRateModel();
+        ContinuousRateTransformation rateTransformation = new ContinuousRateTransformation.Default(
+                treeModel, false, false);
+
+        DiffusionProcessDelegate diffusionProcessDelegate = new HomogeneousDiffusionModelDelegate(
+                treeModel, diffusionModel);
+
+        ContinuousDataLikelihoodDelegate likelihoodDelegate = new ContinuousDataLikelihoodDelegate(treeModel,
+                diffusionProcessDelegate, dataModel, rootPrior, rateTransformation, rateModel, true);
+
+        likelihood = new TreeDataLikelihood(likelihoodDelegate, treeModel, rateModel);
+        likelihood.getLogLikelihood();
+    }
+
+    @Benchmark
+    public double fullEvaluation() {
+        likelihood.makeDirty();
+        return likelihood.getLogLikelihood();
+    }
+
+    @Benchmark
+    public double nodeHeightUpdate() {
+        // the likelihood stores and restores the tree along with its own state
+        likelihood.storeModelState();
+
+        BenchmarkModels.moveRandomNodeHeight(treeModel);
+        double logL = likelihood.getLogLikelihood();
+
+        likelihood.restoreModelState();
+        return logL;
+    }
+}
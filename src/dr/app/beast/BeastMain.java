@@ -35,6 +35,8 @@ import dr.app.plugin.Plugin;
 import dr.app.plugin.PluginLoader;
 import dr.app.util.Arguments;
 import dr.app.util.Utils;
+import dr.inference.loggers.AsyncLogWriter;
+import dr.inference.markovchain.OperatorMetrics;
 import dr.inference.mcmc.MCMC;
 import dr.inference.mcmcmc.MCMCMC;
 import dr.inference.mcmcmc.MCMCMCOptions;
@@ -372,6 +374,9 @@ public class BeastMain {
                         new Arguments.LongOption("tests", "The number of full evaluation tests to perform (default 1000)"),
                         new Arguments.RealOption("threshold", 0.0, Double.MAX_VALUE, "Full evaluation test threshold (default 0.1)"),
                         new Arguments.Option(OperatorSchedule.SHOW_OPERATORS, "Print transition kernel performance to file"),
+                        new Arguments.StringOption("operator_metrics", "FILENAME", "Periodically write per-operator timings to a file (JSON lines, or Prometheus text if it ends in .prom)"),
+                        new Arguments.LongOption("operator_metrics_every", "Specify the frequency (in states) at which operator metrics are written"),
+                        new Arguments.Option("async_logging", "Format and write file logs on a background thread (and gzip compress those named *.gz)"),
 
                         new Arguments.Option("adaptation_off", "Don't adapt operator sizes"),
                         new Arguments.RealOption("adaptation_target", 0.0, 1.0, "Target acceptance rate for adaptive operators (default 0.234)"),
@@ -421,6 +426,8 @@ public class BeastMain {
                         new Arguments.LongOption("save_every", "Specify a frequency to save the state file"),
                         new Arguments.StringOption("save_state", "FILENAME", "Specify a filename to save state to"),
                         new Arguments.Option("full_checkpoint_precision", "Use hex-encoded doubles in checkpoint files"),
+                        new Arguments.StringOption("save_state_format", new String[]{"binary", "text"}, false,
+                                "Specify the format of checkpoint files (binary incremental or text; default text)"),
                         new Arguments.Option("force_resume", "Force resuming from a saved state"),
 
                         new Arguments.StringOption("citations_file", "FILENAME", "Specify a filename to write a citation list to"),
@@ -724,6 +731,16 @@ public class BeastMain {
             System.setProperty(OperatorSchedule.SHOW_OPERATORS, Boolean.TRUE.toString());
         }
 
+        if (arguments.hasOption("operator_metrics")) {
+            System.setProperty(OperatorMetrics.OPERATOR_METRICS, arguments.getStringOption("operator_metrics"));
+        }
+        if (arguments.hasOption("async_logging")) {
+            System.setProperty(AsyncLogWriter.ASYNC_LOGGING, Boolean.TRUE.toString());
+        }
+        if (arguments.hasOption("operator_metrics_every")) {
+            System.setProperty(OperatorMetrics.OPERATOR_METRICS_EVERY, Long.toString(arguments.getLongOption("operator_metrics_every")));
+        }
+
         if (!usingSMC) {
             // ignore these other options
 
@@ -761,6 +778,11 @@ public class BeastMain {
                 System.setProperty(BeastCheckpointer.FULL_CHECKPOINT_PRECISION, "true");
             }
 
+            if (arguments.hasOption("save_state_format")) {
+                String format = arguments.getStringOption("save_state_format");
+                System.setProperty(BeastCheckpointer.CHECKPOINT_FORMAT, format);
+            }
+
             if (arguments.hasOption("force_resume")) {
                 System.setProperty("force.resume", Boolean.TRUE.toString());
             }
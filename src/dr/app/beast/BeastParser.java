@@ -41,6 +41,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.lang.reflect.Field;
 import java.util.*;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
 /**
@@ -53,11 +54,17 @@ public class BeastParser extends XMLParser {
     public static final String RELEASE ="release";
     public static final String DEV = "development";
     public static final String PARSER_PROPERTIES_SUFFIX ="_parsers.properties";
+    // set to false to load every parser at start up rather than those used by the document
+    public static final String LAZY_PARSERS = "lazy_parsers";
     public String parsers;
 
     public BeastParser(String[] args, List<String> additionalParsers, boolean verbose, boolean parserWarnings, boolean strictXML, Version version) {
         super(verbose, parserWarnings, strictXML, version);
 
+        final long startTime = System.nanoTime();
+        // verbose lists every parser so needs them all loaded
+        lazyParsers = !verbose && Boolean.parseBoolean(System.getProperty(LAZY_PARSERS, "true"));
+
         //add BEAST citation
         addCitable(BeastVersion.INSTANCE);
         //add BEAGLE citation
@@ -94,7 +101,7 @@ public class BeastParser extends XMLParser {
             }
 
             // always load release_parsers.properties !!!
-            loadProperties(this.getClass(), RELEASE + PARSER_PROPERTIES_SUFFIX, verbose, this.parserWarnings, false);
+            registerParsers(this.getClass(), RELEASE + PARSER_PROPERTIES_SUFFIX, verbose, this.parserWarnings, false);
 
             // suppose to load developement_parsers.properties
             if (parsers != null && (!parsers.equalsIgnoreCase(RELEASE))) {
@@ -103,18 +110,20 @@ public class BeastParser extends XMLParser {
                     System.out.println("Loading additional development parsers from " + parsers + PARSER_PROPERTIES_SUFFIX
                             + ", which is additional set of parsers only available for development version ...");
                 }
-                loadProperties(this.getClass(), parsers + PARSER_PROPERTIES_SUFFIX, verbose, this.parserWarnings, true);
+                registerParsers(this.getClass(), parsers + PARSER_PROPERTIES_SUFFIX, verbose, this.parserWarnings, true);
             }
             // load additional parsers
             if (additionalParsers != null) {
                 for (String addParsers : additionalParsers) {
-                    loadProperties(this.getClass(), addParsers + PARSER_PROPERTIES_SUFFIX, verbose, verbose, true);
+                    registerParsers(this.getClass(), addParsers + PARSER_PROPERTIES_SUFFIX, verbose, verbose, true);
                 }
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
 
+        registryTime = System.nanoTime() - startTime;
+
         // Now search the package hierarchy for 'beast.properties' files.
 //        try {
 //            loadProperties(this.getClass(), verbose);
@@ -123,6 +132,39 @@ public class BeastParser extends XMLParser {
 //        }
     }
 
+    /**
+     * Registers the parsers of a *.properties file. If there is an up to date index for the file the
+     * element names are registered without loading the parser classes, which are then loaded when an
+     * element first appears in the document. Otherwise all the parsers are loaded now.
+     */
+    private void registerParsers(Class c, String parsersFile, boolean verbose, boolean parserWarning, boolean canReplace) throws IOException {
+        ParserIndex index = lazyParsers ? ParserIndex.read(c, parsersFile) : null;
+        if (index == null) {
+            unindexedParsersFiles.add(parsersFile);
+            loadProperties(c, parsersFile, verbose, parserWarning, canReplace);
+            return;
+        }
+
+        for (Map.Entry<String, List<String>> entry : index.getSources().entrySet()) {
+            final Supplier<XMLObjectParser> loader = new DeferredParserLoader(entry.getKey());
+            // as when the parsers are loaded, warn once per parser rather than once per element name
+            boolean replaced = false;
+            for (String name : entry.getValue()) {
+                try {
+                    replaced |= addDeferredXMLObjectParser(name, loader, canReplace);
+                } catch (IllegalArgumentException iae) {
+                    System.err.println("\nFailed to load parser: " + iae.getMessage());
+                    System.err.println("line = " + entry.getKey() + "\n");
+                }
+            }
+            if (parserWarning && replaced) {
+                System.out.println("WARNING: parser - " + entry.getKey() + " in " + parsersFile + " is duplicated, "
+                        + "which is REPLACING the same parser loaded previously.\n");
+            }
+        }
+        indexedElementCount += index.getElementCount();
+    }
+
     /**
      * Load the parser for *.properties file
      * @param c               BeastParser
@@ -207,8 +249,25 @@ public class BeastParser extends XMLParser {
         }
     }
 
+    /**
+     * @return a one line summary of the time taken to set up the parsers, and to load those used so far
+     */
+    public String getParserLoadingReport() {
+        if (indexedElementCount == 0) {
+            return String.format("Loaded all parsers in %.0f ms", registryTime / 1.0E6);
+        }
+        String report = String.format("Indexed %d parser elements in %.0f ms; loaded %d parsers on demand in %.0f ms",
+                indexedElementCount, registryTime / 1.0E6, deferredLoadCount, deferredLoadTime / 1.0E6);
+        if (unindexedParsersFiles.size() > 0) {
+            report += " (no up to date index, so loaded all parsers from " + unindexedParsersFiles + ")";
+        }
+        return report;
+    }
+
     @Override
     protected void executingRunnable() {
+        Logger.getLogger("dr.apps.beast").info(getParserLoadingReport());
+
         //Logger.getLogger("dr.app.beast").info("\nCitations for this analysis: ");
         Logger.getLogger("dr.util").info("\nCitations for this analysis: ");
 
@@ -267,5 +326,42 @@ public class BeastParser extends XMLParser {
 
         //**************** all other parsers are read at runtime from property lists *********************
     }
+
+    /**
+     * Loads the parser from one line of a parsers file the first time any of its elements are used.
+     */
+    private class DeferredParserLoader implements Supplier<XMLObjectParser> {
+
+        DeferredParserLoader(String source) {
+            this.source = source;
+        }
+
+        public XMLObjectParser get() {
+            if (!loaded) {
+                loaded = true;
+                final long startTime = System.nanoTime();
+                try {
+                    parser = ParserIndex.loadParser(source);
+                    deferredLoadCount++;
+                } catch (Exception e) {
+                    System.err.println("\nFailed to load parser: " + e.getMessage());
+                    System.err.println("line = " + source + "\n");
+                }
+                deferredLoadTime += System.nanoTime() - startTime;
+            }
+            return parser;
+        }
+
+        private final String source;
+        private XMLObjectParser parser = null;
+        private boolean loaded = false;
+    }
+
+    private final boolean lazyParsers;
+    private final List<String> unindexedParsersFiles = new ArrayList<String>();
+    private long registryTime = 0;
+    private int indexedElementCount = 0;
+    private int deferredLoadCount = 0;
+    private long deferredLoadTime = 0;
 }
 
@@ -0,0 +1,259 @@
+/*
+ * ParserIndex.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.app.beast;
+
+import dr.xml.XMLObjectParser;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * An index of the parsers listed in a *_parsers.properties file, mapping each element name to
+ * the class (or static field of a class) that provides its parser. It is generated at build time
+ * by main() and lets BeastParser register the element names without loading any parser classes.
+ *
+ * The index records a checksum of the properties file it was generated from, and is ignored if
+ * the properties file has since changed.
+ */
+public class ParserIndex {
+
+    public static final String PARSER_INDEX_SUFFIX = "_parsers.index";
+
+    private static final String CHECKSUM_PREFIX = "# checksum ";
+    private static final String FIELD_SEPARATOR = "#";
+
+    private ParserIndex(String parsersFile, long checksum) {
+        this.parsersFile = parsersFile;
+        this.checksum = checksum;
+    }
+
+    /**
+     * @return the parser sources in the order they appear in the properties file, each mapped to
+     * the element names of its parser. A source is either a class name or class#field.
+     */
+    public Map<String, List<String>> getSources() {
+        return sources;
+    }
+
+    public int getElementCount() {
+        int count = 0;
+        for (List<String> names : sources.values()) {
+            count += names.size();
+        }
+        return count;
+    }
+
+    public String getParsersFile() {
+        return parsersFile;
+    }
+
+    /**
+     * Reads the index for the given parsers file (e.g. release_parsers.properties) from the same
+     * location as the class c.
+     *
+     * @return the index, or null if there is no index or it is out of date
+     */
+    public static ParserIndex read(Class c, String parsersFile) throws IOException {
+        final InputStream indexStream = c.getResourceAsStream(getIndexFileName(parsersFile));
+        if (indexStream == null) {
+            return null;
+        }
+        final InputStream propertiesStream = c.getResourceAsStream(parsersFile);
+        if (propertiesStream == null) {
+            indexStream.close();
+            return null;
+        }
+
+        final ParserIndex index = new ParserIndex(parsersFile, checksum(propertiesStream));
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(indexStream, "UTF-8"));
+        try {
+            String line = reader.readLine();
+            if (line == null || !line.startsWith(CHECKSUM_PREFIX) ||
+                    Long.parseLong(line.substring(CHECKSUM_PREFIX.length()).trim(), 16) != index.checksum) {
+                return null;
+            }
+            while ((line = reader.readLine()) != null) {
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                int tab = line.indexOf('\t');
+                if (tab < 0) {
+                    return null;
+                }
+                index.addElement(line.substring(0, tab), line.substring(tab + 1));
+            }
+        } catch (NumberFormatException nfe) {
+            return null;
+        } finally {
+            reader.close();
+        }
+        return index;
+    }
+
+    /**
+     * Creates the index of a parsers file by loading every parser it lists.
+     */
+    public static ParserIndex create(Class c, String parsersFile) throws IOException {
+        final InputStream stream = c.getResourceAsStream(parsersFile);
+        if (stream == null) {
+            throw new RuntimeException("Parsers file not found: " + parsersFile);
+        }
+        final ParserIndex index = new ParserIndex(parsersFile, checksum(c.getResourceAsStream(parsersFile)));
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                try {
+                    Class parser = Class.forName(line);
+                    if (XMLObjectParser.class.isAssignableFrom(parser)) {
+                        index.addParser(line, (XMLObjectParser) parser.newInstance());
+                    } else {
+                        boolean parserFound = false;
+                        for (Field field : parser.getDeclaredFields()) {
+                            if (XMLObjectParser.class.isAssignableFrom(field.getType())) {
+                                index.addParser(line + FIELD_SEPARATOR + field.getName(), (XMLObjectParser) field.get(null));
+                                parserFound = true;
+                            }
+                        }
+                        if (!parserFound) {
+                            throw new IllegalArgumentException(parser.getName() + " is not of type XMLObjectParser " +
+                                    "and doesn't contain any static members of this type");
+                        }
+                    }
+                } catch (Exception e) {
+                    // as in BeastParser, a bad line is reported but doesn't stop the others loading
+                    System.err.println("\nFailed to index parser: " + e.getMessage());
+                    System.err.println("line = " + line + "\n");
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return index;
+    }
+
+    /**
+     * Loads the parser for a source of this index.
+     *
+     * @param source a class name or class#field
+     */
+    public static XMLObjectParser loadParser(String source) throws Exception {
+        int separator = source.indexOf(FIELD_SEPARATOR);
+        if (separator < 0) {
+            return (XMLObjectParser) Class.forName(source).newInstance();
+        }
+        Field field = Class.forName(source.substring(0, separator)).getDeclaredField(source.substring(separator + 1));
+        return (XMLObjectParser) field.get(null);
+    }
+
+    public void write(Writer writer) throws IOException {
+        PrintWriter pw = new PrintWriter(writer);
+        pw.println(CHECKSUM_PREFIX + Long.toHexString(checksum));
+        pw.println("# Generated from " + parsersFile + " by " + ParserIndex.class.getName() + " - do not edit");
+        for (Map.Entry<String, List<String>> entry : sources.entrySet()) {
+            for (String name : entry.getValue()) {
+                pw.println(name + "\t" + entry.getKey());
+            }
+        }
+        pw.flush();
+    }
+
+    public static String getIndexFileName(String parsersFile) {
+        return parsersFile.substring(0, parsersFile.length() - BeastParser.PARSER_PROPERTIES_SUFFIX.length())
+                + PARSER_INDEX_SUFFIX;
+    }
+
+    private void addParser(String source, XMLObjectParser parser) {
+        for (String name : parser.getParserNames()) {
+            addElement(name, source);
+        }
+    }
+
+    private void addElement(String name, String source) {
+        List<String> names = sources.get(source);
+        if (names == null) {
+            names = new ArrayList<String>();
+            sources.put(source, names);
+        }
+        names.add(name);
+    }
+
+    private static long checksum(InputStream stream) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[8192];
+        try {
+            int n;
+            while ((n = stream.read(buffer)) > 0) {
+                crc.update(buffer, 0, n);
+            }
+        } finally {
+            stream.close();
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Writes the indices of the given parsers files into a class output directory.
+     * Usage: ParserIndex outputDir release_parsers.properties [development_parsers.properties ...]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: ParserIndex outputDir parsersFile...");
+            System.exit(1);
+        }
+
+        File dir = new File(args[0], BeastParser.class.getPackage().getName().replace('.', File.separatorChar));
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create directory: " + dir);
+        }
+
+        for (int i = 1; i < args.length; i++) {
+            ParserIndex index = create(BeastParser.class, args[i]);
+            File file = new File(dir, getIndexFileName(args[i]));
+            Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            try {
+                index.write(writer);
+            } finally {
+                writer.close();
+            }
+            System.out.println("Indexed " + index.getElementCount() + " elements from " + args[i] + " in " + file);
+        }
+    }
+
+    private final String parsersFile;
+    private final long checksum;
+    private final Map<String, List<String>> sources = new LinkedHashMap<String, List<String>>();
+}
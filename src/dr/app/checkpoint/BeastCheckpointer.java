@@ -42,6 +42,8 @@ import dr.inference.state.*;
 import dr.math.MathUtils;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
@@ -73,6 +75,14 @@ public class BeastCheckpointer implements StateLoaderSaver {
 
     public final static String FULL_CHECKPOINT_PRECISION = "full.checkpoint.precision";
 
+    public final static String CHECKPOINT_FORMAT = "checkpoint.format";
+    public final static String CHECKPOINT_SNAPSHOT_EVERY = "checkpoint.snapshot.every";
+
+    public enum Format {
+        BINARY,
+        TEXT
+    }
+
     private String loadStateFileName;
     private String saveStateFileName;
     private String stemFileName;
@@ -81,6 +91,10 @@ public class BeastCheckpointer implements StateLoaderSaver {
 
     private boolean useFullPrecision;
 
+    // text is the default; the binary incremental format has to be asked for with checkpoint.format
+    protected Format format = Format.TEXT;
+    private BinaryCheckpointFormat binaryFormat;
+
     private final List<MarkovChainListener> listeners = new ArrayList<MarkovChainListener>();
 
     public static synchronized BeastCheckpointer getInstance(String checkpointFileName, int checkpointEvery, int checkpointFinal, boolean overwrite) {
@@ -130,6 +144,12 @@ public class BeastCheckpointer implements StateLoaderSaver {
         useFullPrecision = (System.getProperty(FULL_CHECKPOINT_PRECISION) != null) &&
                 System.getProperty(FULL_CHECKPOINT_PRECISION).equalsIgnoreCase("true");
 
+        // binary incremental checkpoints only when asked for (hex-encoded doubles are only written as text)
+        String formatName = System.getProperty(CHECKPOINT_FORMAT);
+        if (formatName != null && !useFullPrecision) {
+            format = Format.valueOf(formatName.toUpperCase());
+        }
+
         Factory.INSTANCE = new Factory() {
             @Override
             public StateLoader getInitialStateLoader() {
@@ -266,6 +286,25 @@ public class BeastCheckpointer implements StateLoaderSaver {
     }
 
     protected boolean writeStateToFile(File file, long state, double lnL, MarkovChain markovChain) {
+        if (format == Format.BINARY) {
+            try {
+                getBinaryFormat().write(file, state, lnL, markovChain);
+            } catch (IOException ioe) {
+                System.err.println("Unable to write file: " + ioe.getMessage());
+                return false;
+            }
+        } else if (!writeTextStateToFile(file, state, lnL, markovChain)) {
+            return false;
+        }
+
+        return writeListenerCheckpoints(file, state, markovChain);
+    }
+
+    /**
+     * Writes the state in the original tab-delimited text format which can be read and edited
+     * by other tools (e.g., CheckPointUpdaterApp).
+     */
+    protected boolean writeTextStateToFile(File file, long state, double lnL, MarkovChain markovChain) {
         OperatorSchedule operatorSchedule = markovChain.getSchedule();
 
         OutputStream fileOut = null;
@@ -415,6 +454,21 @@ public class BeastCheckpointer implements StateLoaderSaver {
 
     protected long readStateFromFile(File file, MarkovChain markovChain, double[] lnL) {
 
+        if (BinaryCheckpointFormat.isBinaryCheckpoint(file)) {
+            boolean useCheckpointSeed = System.getProperty(BeastCheckpointer.CHECKPOINT_SEED) != null;
+            long state;
+            try {
+                state = getBinaryFormat().read(file, markovChain, lnL, useCheckpointSeed);
+            } catch (IOException ioe) {
+                throw new RuntimeException("Unable to read file: " + ioe.getMessage());
+            }
+            if (useCheckpointSeed) {
+                MathUtils.setSeed(Long.parseLong(System.getProperty(BeastCheckpointer.CHECKPOINT_SEED)));
+            }
+            readListenerCheckpoints(file, state, markovChain);
+            return state;
+        }
+
         DoubleParser parser = useFullPrecision ? DoubleParser.HEX : DoubleParser.TEXT;
 
         OperatorSchedule operatorSchedule = markovChain.getSchedule();
@@ -600,7 +654,8 @@ public class BeastCheckpointer implements StateLoaderSaver {
             }
 
             line = in.readLine();
-            fields = line.split("\t");
+            // a model without trees has nothing more to read
+            fields = line != null ? line.split("\t") : new String[]{""};
             // Read in all (possibly more than one) trees
             while (fields[0].equals("tree")) {
 
@@ -740,9 +795,78 @@ public class BeastCheckpointer implements StateLoaderSaver {
             throw new RuntimeException("Unable to read file: " + ioe.getMessage());
         }
 
+        readListenerCheckpoints(file, state, markovChain);
+
         return state;
     }
 
+    /**
+     * Writes the state of each CheckpointedChainListener of the chain to a file next to the state file,
+     * headed by the state number so that it is only restored with the matching chain state.
+     */
+    private boolean writeListenerCheckpoints(File file, long state, MarkovChain markovChain) {
+        for (MarkovChainListener listener : markovChain.getMarkovChainListeners()) {
+            if (listener instanceof CheckpointedChainListener) {
+                CheckpointedChainListener checkpointed = (CheckpointedChainListener) listener;
+                File listenerFile = new File(file.getPath() + "." + checkpointed.getCheckpointName());
+                File tmpFile = new File(listenerFile.getPath() + ".tmp");
+                try {
+                    PrintStream out = new PrintStream(new FileOutputStream(tmpFile));
+                    out.print("state\t");
+                    out.println(state);
+                    checkpointed.writeCheckpoint(out);
+                    out.close();
+                    if (out.checkError()) {
+                        throw new IOException("error writing " + tmpFile);
+                    }
+                    Files.move(tmpFile.toPath(), listenerFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException ioe) {
+                    System.err.println("Unable to write file: " + ioe.getMessage());
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void readListenerCheckpoints(File file, long state, MarkovChain markovChain) {
+        for (MarkovChainListener listener : markovChain.getMarkovChainListeners()) {
+            if (listener instanceof CheckpointedChainListener) {
+                CheckpointedChainListener checkpointed = (CheckpointedChainListener) listener;
+                File listenerFile = new File(file.getPath() + "." + checkpointed.getCheckpointName());
+                if (!listenerFile.isFile()) {
+                    System.out.println("No saved state for " + checkpointed.getCheckpointName() + " (" + listenerFile + "); starting it afresh.");
+                    continue;
+                }
+                try {
+                    BufferedReader in = new BufferedReader(new FileReader(listenerFile));
+                    try {
+                        String line = in.readLine();
+                        String[] fields = line != null ? line.split("\t") : new String[0];
+                        if (fields.length != 2 || !fields[0].equals("state") || Long.parseLong(fields[1]) != state) {
+                            // e.g., the state file was rolled back to an earlier complete record
+                            System.out.println("Saved state for " + checkpointed.getCheckpointName() +
+                                    " is not from state " + state + "; starting it afresh.");
+                            continue;
+                        }
+                        checkpointed.readCheckpoint(in);
+                    } finally {
+                        in.close();
+                    }
+                } catch (IOException ioe) {
+                    throw new RuntimeException("Unable to read file: " + ioe.getMessage());
+                }
+            }
+        }
+    }
+
+    private BinaryCheckpointFormat getBinaryFormat() {
+        if (binaryFormat == null) {
+            binaryFormat = new BinaryCheckpointFormat(Integer.parseInt(System.getProperty(CHECKPOINT_SNAPSHOT_EVERY, "10")));
+        }
+        return binaryFormat;
+    }
+
     class CheckpointPrintStream extends PrintStream {
         public CheckpointPrintStream(OutputStream out) {
             super(out);
@@ -0,0 +1,811 @@
+/*
+ * BinaryCheckpointFormat.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.app.checkpoint;
+
+import dr.evolution.tree.NodeRef;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.tree.TreeParameterModel;
+import dr.inference.markovchain.MarkovChain;
+import dr.inference.model.Model;
+import dr.inference.model.Parameter;
+import dr.inference.operators.AdaptableMCMCOperator;
+import dr.inference.operators.MCMCOperator;
+import dr.inference.operators.OperatorSchedule;
+import dr.math.MathUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A compact binary checkpoint format. A file consists of a checksummed header describing the
+ * structure of the model (so a state file can only be loaded into the same XML) followed by one
+ * full snapshot record and any number of delta records, each holding only the parameters and
+ * trees that changed since the previous record. Every record carries its own CRC32 so a record
+ * that was only partially written (e.g., the job was killed mid-save) is ignored on loading and
+ * the chain resumes from the last complete record.
+ *
+ * Only the writing is incremental: each save still copies every parameter and tree in order to
+ * find what has changed, so a save costs time in proportion to the size of the state. Parameters
+ * can be changed quietly (without firing events) so listeners cannot be relied on to say what is
+ * dirty.
+ */
+public class BinaryCheckpointFormat {
+
+    private static final byte[] MAGIC = "BEASTCKP".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+
+    private static final byte SNAPSHOT_RECORD = 1;
+    private static final byte DELTA_RECORD = 2;
+
+    private static final byte TREE_FULL = 1;
+    private static final byte TREE_HEIGHTS = 2;
+
+    private final int snapshotEvery;
+
+    // the state written by the last save, against which deltas are computed
+    private Image lastImage = null;
+    private File lastFile = null;
+    private long lastFileLength = -1;
+    private int deltasSinceSnapshot = 0;
+
+    // the objects being checkpointed, found once rather than on every save
+    private Structure structure = null;
+
+    /**
+     * @param snapshotEvery the number of delta records to append before a new full snapshot is written
+     */
+    public BinaryCheckpointFormat(int snapshotEvery) {
+        this.snapshotEvery = snapshotEvery;
+    }
+
+    /**
+     * Tests whether a file starts with the binary checkpoint magic number.
+     * @param file the state file
+     * @return true if the file is a binary checkpoint
+     */
+    public static boolean isBinaryCheckpoint(File file) {
+        byte[] bytes = new byte[MAGIC.length];
+        try (InputStream in = new FileInputStream(file)) {
+            int read = 0;
+            while (read < bytes.length) {
+                int n = in.read(bytes, read, bytes.length - read);
+                if (n < 0) {
+                    return false;
+                }
+                read += n;
+            }
+        } catch (IOException ioe) {
+            return false;
+        }
+        return Arrays.equals(bytes, MAGIC);
+    }
+
+    /**
+     * Writes the current state of the chain. If the previous save went to the same file, and that
+     * file has not been touched since, then only a delta record is appended; otherwise a new
+     * file with a full snapshot is written.
+     */
+    public synchronized void write(File file, long state, double lnL, MarkovChain markovChain) throws IOException {
+        Structure structure = getStructure(markovChain.getSchedule());
+        Image image = Image.capture(structure, state, lnL);
+
+        boolean appendDelta = lastImage != null
+                && file.equals(lastFile)
+                && file.length() == lastFileLength
+                && deltasSinceSnapshot < snapshotEvery
+                && lastImage.isCompatible(image);
+
+        if (appendDelta) {
+            byte[] payload = writeDelta(lastImage, image);
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file, true))) {
+                writeRecord(new DataOutputStream(out), DELTA_RECORD, payload);
+            }
+            deltasSinceSnapshot++;
+        } else {
+            // write the snapshot to a temporary file and then move it over the original so that
+            // an interrupted save never destroys the previous checkpoint
+            File tmpFile = new File(file.getPath() + ".tmp");
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmpFile))) {
+                DataOutputStream dataOut = new DataOutputStream(out);
+                writeHeader(dataOut, structure);
+                writeRecord(dataOut, SNAPSHOT_RECORD, writeSnapshot(image));
+            }
+            try {
+                Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException amnse) {
+                Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            deltasSinceSnapshot = 0;
+        }
+
+        lastImage = image;
+        lastFile = file;
+        lastFileLength = file.length();
+    }
+
+    private Structure getStructure(OperatorSchedule schedule) {
+        if (structure == null || !structure.isCurrent(schedule)) {
+            structure = new Structure(schedule);
+        }
+        return structure;
+    }
+
+    /**
+     * Reads a binary state file and restores the chain to the last complete record in it.
+     * @param lnL if not null, the saved log likelihood is returned in the first element
+     * @return the state number
+     */
+    public long read(File file, MarkovChain markovChain, double[] lnL, boolean useCheckpointSeed) throws IOException {
+        Structure structure = new Structure(markovChain.getSchedule());
+
+        Image image;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            readHeader(in, structure);
+
+            byte[] payload = readRecord(in, SNAPSHOT_RECORD);
+            if (payload == null) {
+                throw new RuntimeException("Binary state file does not contain a complete snapshot");
+            }
+            image = readSnapshot(structure, payload);
+
+            int deltaCount = 0;
+            while ((payload = readRecord(in, DELTA_RECORD)) != null) {
+                image = readDelta(image, payload);
+                deltaCount++;
+            }
+            System.out.println("Restored state " + image.state + " from snapshot and " + deltaCount + " incremental records");
+        }
+
+        image.apply(structure, useCheckpointSeed);
+
+        if (lnL != null) {
+            lnL[0] = image.lnL;
+        }
+
+        return image.state;
+    }
+
+    private static void writeHeader(DataOutputStream out, Structure structure) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(bytes);
+        header.writeInt(VERSION);
+        header.writeInt(structure.parameters.size());
+        header.writeInt(structure.operators.size());
+        header.writeInt(structure.trees.size());
+        header.writeLong(structure.fingerprint());
+        header.flush();
+
+        out.write(MAGIC);
+        out.write(bytes.toByteArray());
+        out.writeLong(crc(bytes.toByteArray()));
+    }
+
+    private static void readHeader(DataInputStream in, Structure structure) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new RuntimeException("Not a binary BEAST state file");
+        }
+        byte[] header = new byte[4 * 4 + 8];
+        in.readFully(header);
+        if (in.readLong() != crc(header)) {
+            throw new RuntimeException("Binary state file header is corrupt (checksum mismatch)");
+        }
+        DataInputStream headerIn = new DataInputStream(new ByteArrayInputStream(header));
+        int version = headerIn.readInt();
+        if (version != VERSION) {
+            throw new RuntimeException("Unsupported binary state file version: " + version);
+        }
+        int parameterCount = headerIn.readInt();
+        int operatorCount = headerIn.readInt();
+        int treeCount = headerIn.readInt();
+        long fingerprint = headerIn.readLong();
+        if (parameterCount != structure.parameters.size() || operatorCount != structure.operators.size() ||
+                treeCount != structure.trees.size() || fingerprint != structure.fingerprint()) {
+            throw new RuntimeException("Binary state file was not created from the same model: expecting " +
+                    structure.parameters.size() + " parameters, " + structure.operators.size() + " operators and " +
+                    structure.trees.size() + " trees, found " + parameterCount + ", " + operatorCount + " and " + treeCount);
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, byte type, byte[] payload) throws IOException {
+        out.writeByte(type);
+        out.writeInt(payload.length);
+        out.writeLong(crc(payload));
+        out.write(payload);
+        out.flush();
+    }
+
+    /**
+     * @return the payload of the next record or null if there are no further complete records
+     */
+    private static byte[] readRecord(DataInputStream in, byte expectedType) throws IOException {
+        int type = in.read();
+        if (type < 0) {
+            return null;
+        }
+        try {
+            if (type != expectedType) {
+                throw new RuntimeException("Unexpected record type in binary state file: " + type);
+            }
+            int length = in.readInt();
+            long checksum = in.readLong();
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            if (checksum != crc(payload)) {
+                System.err.println("Ignoring corrupt record at end of binary state file (checksum mismatch)");
+                return null;
+            }
+            return payload;
+        } catch (EOFException eofe) {
+            System.err.println("Ignoring truncated record at end of binary state file");
+            return null;
+        }
+    }
+
+    private static long crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return crc.getValue();
+    }
+
+    private static byte[] writeSnapshot(Image image) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(bytes, 1 << 16));
+
+        writeCommon(out, image);
+
+        for (double[] values : image.parameterValues) {
+            out.writeInt(values.length);
+            writeDoubles(out, values);
+        }
+
+        for (TreeImage tree : image.trees) {
+            writeFullTree(out, tree);
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Image readSnapshot(Structure structure, byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        Image image = new Image(structure.parameters.size(), structure.operators.size(), structure.trees.size());
+
+        readCommon(in, image);
+
+        for (int i = 0; i < image.parameterValues.length; i++) {
+            image.parameterValues[i] = readDoubles(in, in.readInt());
+        }
+
+        for (int i = 0; i < image.trees.length; i++) {
+            image.trees[i] = readFullTree(in);
+        }
+
+        return image;
+    }
+
+    private static byte[] writeDelta(Image previous, Image image) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(bytes, 1 << 16));
+
+        writeCommon(out, image);
+
+        int changedCount = 0;
+        for (int i = 0; i < image.parameterValues.length; i++) {
+            if (!Arrays.equals(previous.parameterValues[i], image.parameterValues[i])) {
+                changedCount++;
+            }
+        }
+        out.writeInt(changedCount);
+        for (int i = 0; i < image.parameterValues.length; i++) {
+            double[] values = image.parameterValues[i];
+            if (!Arrays.equals(previous.parameterValues[i], values)) {
+                out.writeInt(i);
+                out.writeInt(values.length);
+                writeDoubles(out, values);
+            }
+        }
+
+        changedCount = 0;
+        for (int i = 0; i < image.trees.length; i++) {
+            if (!previous.trees[i].equals(image.trees[i])) {
+                changedCount++;
+            }
+        }
+        out.writeInt(changedCount);
+        for (int i = 0; i < image.trees.length; i++) {
+            TreeImage last = previous.trees[i];
+            TreeImage tree = image.trees[i];
+            if (!last.equals(tree)) {
+                out.writeInt(i);
+                if (last.hasSameTopology(tree)) {
+                    // only the node heights and traits have changed so write these sparsely
+                    out.writeByte(TREE_HEIGHTS);
+                    writeSparse(out, last.heights, tree.heights);
+                    for (int j = 0; j < tree.traits.length; j++) {
+                        writeSparse(out, last.traits[j], tree.traits[j]);
+                    }
+                } else {
+                    out.writeByte(TREE_FULL);
+                    writeFullTree(out, tree);
+                }
+            }
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Image readDelta(Image previous, byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        Image image = previous.copy();
+
+        readCommon(in, image);
+
+        int changedCount = in.readInt();
+        for (int k = 0; k < changedCount; k++) {
+            int index = in.readInt();
+            image.parameterValues[index] = readDoubles(in, in.readInt());
+        }
+
+        changedCount = in.readInt();
+        for (int k = 0; k < changedCount; k++) {
+            int index = in.readInt();
+            byte kind = in.readByte();
+            if (kind == TREE_HEIGHTS) {
+                TreeImage tree = previous.trees[index].copy();
+                readSparse(in, tree.heights);
+                for (int j = 0; j < tree.traits.length; j++) {
+                    readSparse(in, tree.traits[j]);
+                }
+                image.trees[index] = tree;
+            } else if (kind == TREE_FULL) {
+                image.trees[index] = readFullTree(in);
+            } else {
+                throw new RuntimeException("Unknown tree record in binary state file: " + kind);
+            }
+        }
+
+        return image;
+    }
+
+    private static void writeCommon(DataOutputStream out, Image image) throws IOException {
+        out.writeLong(image.state);
+        out.writeDouble(image.lnL);
+        out.writeInt(image.rng.length);
+        for (int value : image.rng) {
+            out.writeInt(value);
+        }
+        for (int i = 0; i < image.acceptCounts.length; i++) {
+            out.writeLong(image.acceptCounts[i]);
+            out.writeLong(image.rejectCounts[i]);
+            out.writeDouble(image.adaptableParameters[i]);
+            out.writeLong(image.adaptationCounts[i]);
+        }
+    }
+
+    private static void readCommon(DataInputStream in, Image image) throws IOException {
+        image.state = in.readLong();
+        image.lnL = in.readDouble();
+        image.rng = new int[in.readInt()];
+        for (int i = 0; i < image.rng.length; i++) {
+            image.rng[i] = in.readInt();
+        }
+        for (int i = 0; i < image.acceptCounts.length; i++) {
+            image.acceptCounts[i] = in.readLong();
+            image.rejectCounts[i] = in.readLong();
+            image.adaptableParameters[i] = in.readDouble();
+            image.adaptationCounts[i] = in.readLong();
+        }
+    }
+
+    private static void writeFullTree(DataOutputStream out, TreeImage tree) throws IOException {
+        int nodeCount = tree.heights.length;
+        out.writeInt(nodeCount);
+        out.writeInt(tree.taxa.length);
+        out.writeInt(tree.traits.length);
+        for (String taxon : tree.taxa) {
+            out.writeUTF(taxon);
+        }
+        writeDoubles(out, tree.heights);
+        for (int i = 0; i < nodeCount; i++) {
+            out.writeInt(tree.parents[i]);
+            out.writeByte(tree.childOrder[i]);
+        }
+        for (double[] trait : tree.traits) {
+            writeDoubles(out, trait);
+        }
+    }
+
+    private static TreeImage readFullTree(DataInputStream in) throws IOException {
+        int nodeCount = in.readInt();
+        TreeImage tree = new TreeImage(nodeCount, in.readInt(), in.readInt());
+        for (int i = 0; i < tree.taxa.length; i++) {
+            tree.taxa[i] = in.readUTF();
+        }
+        readDoubles(in, tree.heights);
+        for (int i = 0; i < nodeCount; i++) {
+            tree.parents[i] = in.readInt();
+            tree.childOrder[i] = in.readByte();
+        }
+        for (double[] trait : tree.traits) {
+            readDoubles(in, trait);
+        }
+        return tree;
+    }
+
+    private static void writeSparse(DataOutputStream out, double[] previous, double[] values) throws IOException {
+        int count = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (Double.doubleToRawLongBits(previous[i]) != Double.doubleToRawLongBits(values[i])) {
+                count++;
+            }
+        }
+        out.writeInt(count);
+        for (int i = 0; i < values.length; i++) {
+            if (Double.doubleToRawLongBits(previous[i]) != Double.doubleToRawLongBits(values[i])) {
+                out.writeInt(i);
+                out.writeDouble(values[i]);
+            }
+        }
+    }
+
+    private static void readSparse(DataInputStream in, double[] values) throws IOException {
+        int count = in.readInt();
+        for (int k = 0; k < count; k++) {
+            int index = in.readInt();
+            values[index] = in.readDouble();
+        }
+    }
+
+    private static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+        for (double value : values) {
+            out.writeDouble(value);
+        }
+    }
+
+    private static double[] readDoubles(DataInputStream in, int length) throws IOException {
+        return readDoubles(in, new double[length]);
+    }
+
+    private static double[] readDoubles(DataInputStream in, double[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readDouble();
+        }
+        return values;
+    }
+
+    /**
+     * The (ordered) set of checkpointed objects in the currently running model.
+     */
+    private static class Structure {
+        final List<Parameter> parameters = new ArrayList<Parameter>();
+        final List<MCMCOperator> operators = new ArrayList<MCMCOperator>();
+        final List<TreeModel> trees = new ArrayList<TreeModel>();
+        final List<List<TreeParameterModel>> traitModels = new ArrayList<List<TreeParameterModel>>();
+
+        private final OperatorSchedule schedule;
+        private final int connectedParameterCount;
+        private final int connectedModelCount;
+
+        Structure(OperatorSchedule schedule) {
+            this.schedule = schedule;
+            connectedParameterCount = Parameter.CONNECTED_PARAMETER_SET.size();
+            connectedModelCount = Model.CONNECTED_MODEL_SET.size();
+
+            for (Parameter parameter : Parameter.CONNECTED_PARAMETER_SET) {
+                if (!parameter.isImmutable()) {
+                    parameters.add(parameter);
+                }
+            }
+            for (int i = 0; i < schedule.getOperatorCount(); i++) {
+                operators.add(schedule.getOperator(i));
+            }
+            for (Model model : Model.CONNECTED_MODEL_SET) {
+                if (model instanceof TreeModel) {
+                    trees.add((TreeModel) model);
+                }
+            }
+            for (TreeModel tree : trees) {
+                List<TreeParameterModel> linked = new ArrayList<TreeParameterModel>();
+                for (Model model : Model.CONNECTED_MODEL_SET) {
+                    if (model instanceof TreeParameterModel && ((TreeParameterModel) model).getTreeModel() == tree) {
+                        linked.add((TreeParameterModel) model);
+                    }
+                }
+                traitModels.add(linked);
+            }
+        }
+
+        /**
+         * @return true if nothing has been added to the model or the schedule since this was made
+         */
+        boolean isCurrent(OperatorSchedule schedule) {
+            return schedule == this.schedule &&
+                    schedule.getOperatorCount() == operators.size() &&
+                    Parameter.CONNECTED_PARAMETER_SET.size() == connectedParameterCount &&
+                    Model.CONNECTED_MODEL_SET.size() == connectedModelCount;
+        }
+
+        /**
+         * A checksum over the dimensions of the parameters and the names of the operators and
+         * trees, used as a rudimentary check that the state file came from the same XML. As in
+         * the text format, parameters are matched by order rather than by name: the node
+         * parameters of a tree are connected in an order that depends on its topology, so their
+         * names don't line up between the saving and the resumed run.
+         */
+        long fingerprint() {
+            CRC32 crc = new CRC32();
+            StringBuilder sb = new StringBuilder();
+            for (Parameter parameter : parameters) {
+                sb.append(parameter.getDimension()).append('\n');
+            }
+            for (MCMCOperator operator : operators) {
+                sb.append(operator.getOperatorName()).append('\n');
+            }
+            for (int i = 0; i < trees.size(); i++) {
+                sb.append(trees.get(i).getModelName()).append('\t').append(trees.get(i).getNodeCount())
+                        .append('\t').append(traitModels.get(i).size()).append('\n');
+            }
+            byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+            crc.update(bytes, 0, bytes.length);
+            return crc.getValue();
+        }
+    }
+
+    /**
+     * A primitive copy of the complete chain state.
+     */
+    private static class Image {
+        long state;
+        double lnL;
+        int[] rng;
+
+        final double[][] parameterValues;
+
+        final long[] acceptCounts;
+        final long[] rejectCounts;
+        final double[] adaptableParameters;
+        final long[] adaptationCounts;
+
+        final TreeImage[] trees;
+
+        Image(int parameterCount, int operatorCount, int treeCount) {
+            parameterValues = new double[parameterCount][];
+            acceptCounts = new long[operatorCount];
+            rejectCounts = new long[operatorCount];
+            adaptableParameters = new double[operatorCount];
+            adaptationCounts = new long[operatorCount];
+            trees = new TreeImage[treeCount];
+        }
+
+        static Image capture(Structure structure, long state, double lnL) {
+            Image image = new Image(structure.parameters.size(), structure.operators.size(), structure.trees.size());
+            image.state = state;
+            image.lnL = lnL;
+            image.rng = MathUtils.getRandomState();
+
+            for (int i = 0; i < image.parameterValues.length; i++) {
+                Parameter parameter = structure.parameters.get(i);
+                double[] values = new double[parameter.getDimension()];
+                for (int dim = 0; dim < values.length; dim++) {
+                    values[dim] = parameter.getParameterUntransformedValue(dim);
+                }
+                image.parameterValues[i] = values;
+            }
+
+            for (int i = 0; i < image.acceptCounts.length; i++) {
+                MCMCOperator operator = structure.operators.get(i);
+                image.acceptCounts[i] = operator.getAcceptCount();
+                image.rejectCounts[i] = operator.getRejectCount();
+                if (operator instanceof AdaptableMCMCOperator) {
+                    image.adaptableParameters[i] = ((AdaptableMCMCOperator) operator).getAdaptableParameter();
+                    image.adaptationCounts[i] = ((AdaptableMCMCOperator) operator).getAdaptationCount();
+                }
+            }
+
+            for (int i = 0; i < image.trees.length; i++) {
+                image.trees[i] = TreeImage.capture(structure.trees.get(i), structure.traitModels.get(i));
+            }
+
+            return image;
+        }
+
+        Image copy() {
+            Image image = new Image(parameterValues.length, acceptCounts.length, trees.length);
+            image.state = state;
+            image.lnL = lnL;
+            image.rng = rng;
+            System.arraycopy(parameterValues, 0, image.parameterValues, 0, parameterValues.length);
+            System.arraycopy(trees, 0, image.trees, 0, trees.length);
+            return image;
+        }
+
+        boolean isCompatible(Image other) {
+            if (parameterValues.length != other.parameterValues.length ||
+                    acceptCounts.length != other.acceptCounts.length ||
+                    trees.length != other.trees.length) {
+                return false;
+            }
+            for (int i = 0; i < trees.length; i++) {
+                if (trees[i].heights.length != other.trees[i].heights.length ||
+                        trees[i].traits.length != other.trees[i].traits.length) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void apply(Structure structure, boolean useCheckpointSeed) {
+            for (int i = 0; i < parameterValues.length; i++) {
+                Parameter parameter = structure.parameters.get(i);
+                double[] values = parameterValues[i];
+                if (values.length != parameter.getDimension()) {
+                    System.err.println("Unable to match state parameter dimension: " + values.length + ", expecting " +
+                            parameter.getDimension() + " for parameter: " + parameter.getParameterName());
+                }
+                if ("branchRates.categories.rootNodeNumber".equals(parameter.getParameterName())) {
+                    parameter.setParameterValue(0, values[0]);
+                } else {
+                    for (int dim = 0; dim < Math.min(values.length, parameter.getDimension()); dim++) {
+                        try {
+                            parameter.setParameterUntransformedValue(dim, values[dim]);
+                        } catch (RuntimeException rte) {
+                            System.err.println(rte);
+                        }
+                    }
+                }
+            }
+
+            for (int i = 0; i < acceptCounts.length; i++) {
+                MCMCOperator operator = structure.operators.get(i);
+                operator.setAcceptCount(acceptCounts[i]);
+                operator.setRejectCount(rejectCounts[i]);
+                if (operator instanceof AdaptableMCMCOperator) {
+                    ((AdaptableMCMCOperator) operator).setAdaptableParameter(adaptableParameters[i]);
+                    ((AdaptableMCMCOperator) operator).setAdaptationCount(adaptationCounts[i]);
+                }
+            }
+
+            // load the tree models last as we get the node heights from the tree (not the parameters which
+            // which may not be associated with the right node
+            for (int i = 0; i < trees.length; i++) {
+                trees[i].apply(structure.trees.get(i), structure.traitModels.get(i));
+            }
+
+            if (!useCheckpointSeed) {
+                MathUtils.setRandomState(rng);
+            }
+        }
+    }
+
+    /**
+     * A primitive copy of a tree using the same node numbering as the text format.
+     */
+    private static class TreeImage {
+        final String[] taxa;
+        final double[] heights;
+        final int[] parents;
+        final int[] childOrder;
+        final double[][] traits;
+
+        TreeImage(int nodeCount, int taxonCount, int traitCount) {
+            taxa = new String[taxonCount];
+            heights = new double[nodeCount];
+            parents = new int[nodeCount];
+            childOrder = new int[nodeCount];
+            traits = new double[traitCount][nodeCount];
+        }
+
+        static TreeImage capture(TreeModel treeModel, List<TreeParameterModel> traitModels) {
+            int nodeCount = treeModel.getNodeCount();
+            TreeImage tree = new TreeImage(nodeCount, treeModel.getExternalNodeCount(), traitModels.size());
+
+            for (int i = 0; i < nodeCount; i++) {
+                NodeRef node = treeModel.getNode(i);
+                int number = node.getNumber();
+                tree.heights[number] = treeModel.getNodeHeight(node);
+                if (treeModel.isExternal(node)) {
+                    tree.taxa[number] = treeModel.getNodeTaxon(node).getId();
+                }
+
+                NodeRef parent = treeModel.getParent(node);
+                if (parent != null) {
+                    tree.parents[number] = parent.getNumber();
+                    if (treeModel.getChild(parent, 0) == node) {
+                        tree.childOrder[number] = 0;
+                    } else if (treeModel.getChild(parent, 1) == node) {
+                        tree.childOrder[number] = 1;
+                    } else {
+                        throw new RuntimeException("Operation currently only supported for nodes with 2 children.");
+                    }
+                    for (int j = 0; j < tree.traits.length; j++) {
+                        tree.traits[j][number] = traitModels.get(j).getNodeValue(treeModel, node);
+                    }
+                } else {
+                    tree.parents[number] = -1;
+                    tree.childOrder[number] = -1;
+                }
+            }
+
+            return tree;
+        }
+
+        TreeImage copy() {
+            TreeImage tree = new TreeImage(heights.length, taxa.length, traits.length);
+            System.arraycopy(taxa, 0, tree.taxa, 0, taxa.length);
+            System.arraycopy(heights, 0, tree.heights, 0, heights.length);
+            System.arraycopy(parents, 0, tree.parents, 0, parents.length);
+            System.arraycopy(childOrder, 0, tree.childOrder, 0, childOrder.length);
+            for (int j = 0; j < traits.length; j++) {
+                System.arraycopy(traits[j], 0, tree.traits[j], 0, traits[j].length);
+            }
+            return tree;
+        }
+
+        boolean hasSameTopology(TreeImage other) {
+            return Arrays.equals(parents, other.parents) &&
+                    Arrays.equals(childOrder, other.childOrder) &&
+                    Arrays.equals(taxa, other.taxa);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TreeImage)) {
+                return false;
+            }
+            TreeImage other = (TreeImage) o;
+            return hasSameTopology(other) &&
+                    Arrays.equals(heights, other.heights) &&
+                    Arrays.deepEquals(traits, other.traits);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(heights);
+        }
+
+        void apply(TreeModel treeModel, List<TreeParameterModel> traitModels) {
+            treeModel.beginTreeEdit();
+            treeModel.adoptTreeStructure(parents, heights, childOrder, taxa);
+            if (traitModels.size() > 0) {
+                System.out.println("adopting " + traitModels.size() + " trait models to treeModel " + treeModel.getId());
+                treeModel.adoptTraitData(parents, new ArrayList<TreeParameterModel>(traitModels), traits, taxa);
+            }
+            treeModel.endTreeEdit();
+        }
+    }
+}
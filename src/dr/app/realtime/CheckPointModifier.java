@@ -28,6 +28,7 @@
 package dr.app.realtime;
 
 import dr.app.checkpoint.BeastCheckpointer;
+import dr.app.checkpoint.BinaryCheckpointFormat;
 import dr.evolution.tree.BranchRates;
 import dr.evolution.tree.NodeRef;
 import dr.evomodel.branchratemodel.DiscretizedBranchRates;
@@ -82,6 +83,11 @@ public class CheckPointModifier extends BeastCheckpointer {
 
     protected long readStateFromFile(File file, MarkovChain markovChain, double[] lnL) {
 
+        if (BinaryCheckpointFormat.isBinaryCheckpoint(file)) {
+            throw new RuntimeException("Updating binary state files is not supported: rerun BEAST with " +
+                    "'-save_state_format text' (the default) to write a text state file");
+        }
+
         OperatorSchedule operatorSchedule = markovChain.getSchedule();
         long state = -1;
 
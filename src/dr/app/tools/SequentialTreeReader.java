@@ -28,14 +28,17 @@
 package dr.app.tools;
 
 import dr.evolution.io.Importer;
-import dr.evolution.io.NexusImporter;
-import dr.evolution.io.TreeImporter;
+import dr.evolution.io.IndexedTreeFile;
 import dr.evolution.tree.Tree;
 
-import java.io.FileReader;
+import java.io.File;
 import java.io.IOException;
 
 
+/**
+ * Reads trees from a trees file one at a time, without holding them all in memory. The file is
+ * indexed so trees can be requested in any order.
+ */
 public class SequentialTreeReader {
 
     private static final Boolean DEBUG = false;
@@ -43,22 +46,22 @@ public class SequentialTreeReader {
     private final String inputFileName;
     private final int burnin;
     private static BaseTreeTool.TreeProgressPrinter progressPrinter = new BaseTreeTool.TreeProgressPrinter(System.err);
-    private int totalTrees;
     private int totalUsedTrees;
 
     private Tree currentTree;
     private int currentIndex;
 
-    private final FileReader reader;
-    private final TreeImporter importer;
+    private final IndexedTreeFile treeFile;
 
 
     SequentialTreeReader(String inputFileName, int burnin) throws IOException {
         this.inputFileName = inputFileName;
         this.burnin = burnin;
-        this.reader = new FileReader(inputFileName);
-        this.importer = new NexusImporter(reader, false);
-
+        try {
+            this.treeFile = new IndexedTreeFile(new File(inputFileName), false);
+        } catch (Importer.ImportException e) {
+            throw new IOException("Error Parsing Input Tree: " + e.getMessage());
+        }
     }
 
 
@@ -72,44 +75,25 @@ public class SequentialTreeReader {
             throw new RuntimeException("Tree " + index + " was requested, but burnin is set at " + burnin + ".");
         }
 
-        try {
+        if (index >= treeFile.getTreeCount()) {
+            progressPrinter.printSummary(treeFile.getTreeCount(), totalUsedTrees, burnin);
+            return null;
+        }
+
+        if (currentTree == null || index != currentIndex) {
             if (currentTree == null) {
                 progressPrinter.printReadingTrees();
-                currentTree = importer.importNextTree();
-                currentIndex = 0;
-                totalTrees = 1;
-                totalUsedTrees = 1;
             }
-
-            if (index < currentIndex) {
-                throw new RuntimeException("The last tree accessed was " + currentIndex + ", but " + index +
-                        " was requested. Cannot go backwards. (for developers: consider using BaseTreeTools.readTrees)");
-            } else if (index == currentIndex) {
-                return currentTree;
-            } else {
-                for (int i = currentIndex; i < index; i++) {
-
-
-                    if (importer.hasTree()) {
-                        progressPrinter.printProgress(totalTrees);
-                        currentTree = importer.importNextTree();
-                        totalTrees++;
-                    } else {
-                        reader.close();
-                        progressPrinter.printSummary(totalTrees, totalUsedTrees, burnin);
-                        return null;
-                    }
-                }
-
-                totalUsedTrees++;
-                currentIndex = index;
-                return currentTree;
+            try {
+                currentTree = treeFile.getTree(index);
+            } catch (Importer.ImportException e) {
+                System.err.println("Error Parsing Input Tree: " + e.getMessage());
+                return null;
             }
-
-        } catch (Importer.ImportException e) {
-            reader.close();
-            System.err.println("Error Parsing Input Tree: " + e.getMessage());
-            return null;
+            progressPrinter.printProgress(index);
+            currentIndex = index;
+            totalUsedTrees++;
         }
+        return currentTree;
     }
 }
@@ -30,6 +30,7 @@ package dr.app.tools;
 import dr.app.beast.BeastVersion;
 import dr.app.util.Arguments;
 import dr.evolution.io.Importer;
+import dr.evolution.io.IndexedTreeFile;
 import dr.evolution.io.NewickImporter;
 import dr.evolution.io.NexusImporter;
 import dr.evolution.io.TreeImporter;
@@ -43,6 +44,8 @@ import dr.geo.contouring.*;
 import dr.geo.math.SphericalPolarCoordinates;
 import dr.inference.trace.TraceDistribution;
 import dr.inference.trace.TraceType;
+import dr.math.MathUtils;
+import dr.math.RandomStream;
 import dr.math.distributions.MultivariateNormalDistribution;
 import dr.util.HeapSort;
 import dr.util.Version;
@@ -54,6 +57,12 @@ import java.awt.geom.Point2D;
 import java.io.*;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import static dr.evolution.util.TimeScale.DAYS_PER_YEAR;
 
@@ -136,6 +145,7 @@ public class TimeSlicer {
     public static final boolean GREATCIRCLEDISTANCE = true;
     public static final String SUBSTITUTION = "N";
     public static final String DESCENDENTS = "descendents";
+    public static final String THREADS = "threads";
 
     public static final String[] falseTrue = {"false", "true"};
 
@@ -146,7 +156,8 @@ public class TimeSlicer {
                       boolean trueNoise, double mrsd, ContourMode contourMode, SliceMode sliceMode,
                       final boolean summarizeRoot, final boolean summarizeTips, Normalization normalize, boolean getSDR, boolean getSNR,
                       String progress, boolean branchNormalization, BranchSet branchset, Set taxaSet, int grid,
-                      double latMin, double latMax, double longMin, double longMax, Set descendentTaxaSet, String rateString) {
+                      double latMin, double latMax, double longMin, double longMax, Set descendentTaxaSet, String rateString,
+                      int threadCount) {
 
         this.traits = traits;
         traitCount = traits.length;
@@ -176,6 +187,8 @@ public class TimeSlicer {
 
         gridSize = grid;
 
+        this.threadCount = threadCount;
+
         if (progress != null) {
             if (progress.equalsIgnoreCase("true")) {
                 sliceProgressReport = true;
@@ -196,15 +209,7 @@ public class TimeSlicer {
             }
         }
 
-        values = new ArrayList<List<List<Trait>>>(sliceCount);
-        for (int i = 0; i < sliceCount; i++) {
-            List<List<Trait>> thisSlice = new ArrayList<List<Trait>>(traitCount);
-            values.add(thisSlice);
-            for (int j = 0; j < traitCount; j++) {
-                List<Trait> thisTraitSlice = new ArrayList<Trait>();
-                thisSlice.add(thisTraitSlice);
-            }
-        }
+        values = createSliceValues();
         if (summarizeRoot) {
             rootValues = new ArrayList<List<Trait>>(traitCount);
             for (int k = 0; k < traitCount; k++) {
@@ -372,23 +377,33 @@ public class TimeSlicer {
                 rootElement.addContent(documentElement);
             }
 
-            if (sliceHeights == null) {
-                for (double hpdValue : hpdValues) {
-                    summarizeSlice(0, Double.NaN, contours, points, outputFormat, hpdValue);
-                }
-            } else {
-                if (outputFormat == OutputFormat.TAB) {
-                    if (mostRecentSamplingDate > 0) {
-                        tabOutput.append("trait\t" + "sliceTime\t" + "mean\t" + "stdev\t" + "HPDlow\t" + "HPDup");
-                    } else {
-                        tabOutput.append("trait\t" + "sliceHeight\t" + "mean\t" + "stdev\t" + "HPDlow\t" + "HPDup");
+            if (contours) {
+                startContours(hpdValues);
+            }
+
+            try {
+                if (sliceHeights == null) {
+                    for (int k = 0; k < hpdValues.length; k++) {
+                        summarizeSlice(0, Double.NaN, contours, points, outputFormat, hpdValues[k], k);
                     }
-                }
-                for (int i = 0; i < sliceHeights.length; i++) {
-                    for (double hpdValue : hpdValues) {
-                        summarizeSlice(i, sliceHeights[i], contours, points, outputFormat, hpdValue);
+                } else {
+                    if (outputFormat == OutputFormat.TAB) {
+                        if (mostRecentSamplingDate > 0) {
+                            tabOutput.append("trait\t" + "sliceTime\t" + "mean\t" + "stdev\t" + "HPDlow\t" + "HPDup");
+                        } else {
+                            tabOutput.append("trait\t" + "sliceHeight\t" + "mean\t" + "stdev\t" + "HPDlow\t" + "HPDup");
+                        }
+                    }
+                    for (int i = 0; i < sliceHeights.length; i++) {
+                        for (int k = 0; k < hpdValues.length; k++) {
+                            summarizeSlice(i, sliceHeights[i], contours, points, outputFormat, hpdValues[k], k);
+                        }
                     }
                 }
+            } finally {
+                if (summaryPool != null) {
+                    summaryPool.shutdownNow();
+                }
             }
 
             if (summarizeRoot) {
@@ -450,8 +465,8 @@ public class TimeSlicer {
             double[][] sliceTreeDiffusionCoefficientVariances = new double[sliceTreeDiffusionCoefficientVarianceArrays.size()][sliceCount];
             //double[][] sliceTreeWeightedAverageDiffusionCoefficients = new double[sliceTreeDistanceArrays.size()][sliceCount];
             for (int q = 0; q < sliceTreeDistanceArrays.size(); q++) {
-                double[] distanceArray = (double[]) sliceTreeDistanceArrays.get(q);
-                double[] timeArray = (double[]) sliceTreeTimeArrays.get(q);
+                double[] distanceArray = sliceTreeDistanceArrays.get(q);
+                double[] timeArray = sliceTreeTimeArrays.get(q);
 
                 double[] maxDistanceFromRootArray = null;
                 double[] maxPathDistanceArray = null;
@@ -460,11 +475,11 @@ public class TimeSlicer {
                 double[] diffusionCoefficientVarianceArray = null;
 
                 if (sdr) {
-                    maxPathDistanceArray = (double[]) sliceTreeMaxPathDistanceArrays.get(q);
-                    maxDistanceFromRootArray = (double[]) sliceTreeMaxDistanceFromRootArrays.get(q);
-                    timeFromRootArray = (double[]) sliceTreeTimeFromRootArrays.get(q);
-                    diffusionCoefficientArray = (double[]) sliceTreeDiffusionCoefficientArrays.get(q);
-                    diffusionCoefficientVarianceArray = (double[]) sliceTreeDiffusionCoefficientVarianceArrays.get(q);
+                    maxPathDistanceArray = sliceTreeMaxPathDistanceArrays.get(q);
+                    maxDistanceFromRootArray = sliceTreeMaxDistanceFromRootArrays.get(q);
+                    timeFromRootArray = sliceTreeTimeFromRootArrays.get(q);
+                    diffusionCoefficientArray = sliceTreeDiffusionCoefficientArrays.get(q);
+                    diffusionCoefficientVarianceArray = sliceTreeDiffusionCoefficientVarianceArrays.get(q);
 
                 }
 
@@ -489,15 +504,15 @@ public class TimeSlicer {
 
             if (sliceCount > 1) {
                 for (int s = 0; s < sliceTreeDistanceArrays.size(); s++) {
-                    double[] distanceArray = (double[]) sliceTreeDistanceArrays.get(s);
-                    double[] timeArray = (double[]) sliceTreeTimeArrays.get(s);
+                    double[] distanceArray = sliceTreeDistanceArrays.get(s);
+                    double[] timeArray = sliceTreeTimeArrays.get(s);
                     double[] maxDistanceFromRootArray = null;
                     double[] maxPathDistanceArray = null;
                     double[] timeFromRoot = null;
                     if (sdr){
-                        maxPathDistanceArray = (double[]) sliceTreeMaxPathDistanceArrays.get(s);
-                        maxDistanceFromRootArray = (double[]) sliceTreeMaxDistanceFromRootArrays.get(s);
-                        timeFromRoot = (double[]) sliceTreeTimeFromRootArrays.get(s);
+                        maxPathDistanceArray = sliceTreeMaxPathDistanceArrays.get(s);
+                        maxDistanceFromRootArray = sliceTreeMaxDistanceFromRootArrays.get(s);
+                        timeFromRoot = sliceTreeTimeFromRootArrays.get(s);
                     }
 
                     for (int t = 0; t < (sliceCount - 1); t++) {
@@ -505,7 +520,7 @@ public class TimeSlicer {
                             sliceTreeMaxDistanceFromRootRates[s][t] = (maxDistanceFromRootArray[t]) / (timeFromRoot[t]);
                             sliceTreeMaxPathRates[s][t] = (maxPathDistanceArray[t]) / (timeFromRoot[t]);
                         }
-                        if ((timeArray[t] - timeArray[t + 1]) > ((Double) treeLengths.get(s) * treeLengthPercentage)) {
+                        if ((timeArray[t] - timeArray[t + 1]) > (treeLengths.get(s) * treeLengthPercentage)) {
                             sliceTreeWeightedAverageRates[s][t] = (distanceArray[t] - distanceArray[t + 1]) / (timeArray[t] - timeArray[t + 1]);
                             sliceTreeDistancesToSummarize[s][t] = (distanceArray[t]);
                             sliceTreeIntervalDistances[s][t] = (distanceArray[t] - distanceArray[t + 1]);
@@ -530,7 +545,7 @@ public class TimeSlicer {
                         }
                     }
 
-                    if ((timeArray[sliceCount - 1]) > ((Double) treeLengths.get(s) * treeLengthPercentage)) {
+                    if ((timeArray[sliceCount - 1]) > (treeLengths.get(s) * treeLengthPercentage)) {
                         sliceTreeWeightedAverageRates[s][sliceCount - 1] = (distanceArray[sliceCount - 1]) / (timeArray[sliceCount - 1]);
                         sliceTreeDistancesToSummarize[s][sliceCount - 1] = (distanceArray[sliceCount - 1]);
                         sliceTreeIntervalDistances[s][sliceCount - 1] = (distanceArray[sliceCount - 1]);
@@ -555,16 +570,16 @@ public class TimeSlicer {
                 }
             } else {
                 for (int s = 0; s < sliceTreeDistanceArrays.size(); s++) {
-                    double[] distanceArray = (double[]) sliceTreeDistanceArrays.get(s);
-                    double[] timeArray = (double[]) sliceTreeTimeArrays.get(s);
+                    double[] distanceArray = sliceTreeDistanceArrays.get(s);
+                    double[] timeArray = sliceTreeTimeArrays.get(s);
                     sliceTreeWeightedAverageRates[s][0] = distanceArray[0] / timeArray[0];
                     sliceTreeDistancesToSummarize[s][0] = distanceArray[0];
                     sliceTreeIntervalDistances[s][0] = distanceArray[0];
                     //sliceTreeWeightedAverageDiffusionCoefficients[s][0] = Math.pow(distanceArray[0],2.0)/(4.0*timeArray[0]);
                     if (sdr){
-                        double[] maxPathDistanceArray = (double[]) sliceTreeMaxPathDistanceArrays.get(s);
-                        double[] maxDistanceFromRootArray = (double[]) sliceTreeMaxDistanceFromRootArrays.get(s);
-                        double[] timeFromRoot = (double[]) sliceTreeTimeFromRootArrays.get(s);
+                        double[] maxPathDistanceArray = sliceTreeMaxPathDistanceArrays.get(s);
+                        double[] maxDistanceFromRootArray = sliceTreeMaxDistanceFromRootArrays.get(s);
+                        double[] timeFromRoot = sliceTreeTimeFromRootArrays.get(s);
                         sliceTreeMaxPathRates[s][0] = maxPathDistanceArray[0] / timeFromRoot[0];
                         sliceTreeMaxDistanceFromRootRates[s][0] = maxDistanceFromRootArray[0] / timeFromRoot[0];
                      }
@@ -870,7 +885,7 @@ public class TimeSlicer {
 
     }
 
-    private void summarizeSlice(int slice, double sliceValue, boolean contours, boolean points, OutputFormat outputFormat, double hpdValue) {
+    private void summarizeSlice(int slice, double sliceValue, boolean contours, boolean points, OutputFormat outputFormat, double hpdValue, int hpdIndex) {
 
         //if (outputFormat == OutputFormat.TAB)
         //    throw new RuntimeException("Only XML/KML output is implemented");
@@ -899,8 +914,8 @@ public class TimeSlicer {
             }
         }
 
-        List<List<Trait>> thisSlice = values.get(slice);
-        int traitCount = thisSlice.size();
+        SliceValues[] thisSlice = values[slice];
+        int traitCount = thisSlice.length;
 
         for (int traitIndex = 0; traitIndex < traitCount; traitIndex++) {
 
@@ -910,9 +925,9 @@ public class TimeSlicer {
 //                        hpdValue);
 //
 //            } else {
-            summarizeSliceTrait(contourElement, pointsElement, slice, thisSlice.get(traitIndex), traitIndex, sliceValue,
+            summarizeSliceTrait(contourElement, pointsElement, slice, thisSlice[traitIndex], traitIndex, sliceValue,
                     outputFormat,
-                    hpdValue);
+                    hpdValue, hpdIndex);
 
 //            }
         }
@@ -936,17 +951,17 @@ public class TimeSlicer {
         }
     }
 
-    private void summarizeSliceTrait(Element contourElement, Element pointsElement, int slice, List<Trait> thisTrait, int traitIndex, double sliceValue,
+    private void summarizeSliceTrait(Element contourElement, Element pointsElement, int slice, SliceValues thisTrait, int traitIndex, double sliceValue,
                                      OutputFormat outputFormat,
-                                     double hpdValue) {
+                                     double hpdValue, int hpdIndex) {
 
         if (thisTrait.size() == 0) {
             return;
         }
 
-        boolean isNumber = thisTrait.get(0).isNumber();
-        boolean isMultivariate = thisTrait.get(0).isMultivariate();
-        int dim = thisTrait.get(0).getDim();
+        boolean isNumber = thisTrait.isNumber();
+        boolean isMultivariate = thisTrait.isMultivariate();
+        int dim = thisTrait.getDim();
         boolean isBivariate = isMultivariate && dim == 2;
         if (sliceProgressReport) {
             progressStream.print("slice " + sliceValue + "\t");
@@ -972,27 +987,12 @@ public class TimeSlicer {
                 }
             }
 
-            int count = thisTrait.size();
-//            System.out.println("count = "+count+", dim = "+dim);
-            double[][] y = new double[dim][count];
-            for (int i = 0; i < count; i++) {
-                Trait trait = thisTrait.get(i);
-                double[] value = trait.getValue();
-
-                for (int j = 0; j < dim; j++) {
-                    y[j][i] = value[j];
-                }
-            }
-//            System.out.println(y.length+"\t"+y[0].length);
+            double[][] y = thisTrait.getValues();
 
             if (outputFormat == OutputFormat.XML || outputFormat == OutputFormat.TAB) {
                 // Compute marginal means and standard deviations
                 for (int j = 0; j < dim; j++) {
-                    List<Double> x = new ArrayList();
-                    for (int k = 0; k < y[j].length; k++) {
-                        x.add(y[j][k]);
-                    }
-                    TraceDistribution trace = new TraceDistribution(x, TraceType.REAL);
+                    TraceDistribution trace = new TraceDistribution(y[j], TraceType.REAL, false);
                     Element statsElement = new Element("stats");
                     addDimInfo(statsElement, j, dim);
                     StringBuilder sb = new StringBuilder();
@@ -1049,7 +1049,11 @@ public class TimeSlicer {
 
                 if (contourElement != null) {
                     String name = "" + date + "_hpd" + hpdValue;
-                    generateContours(name, contourElement, traitElement, y, slice, date, sliceValue, hpdValue);
+                    ContourPath[] paths = null;
+                    if (contourFutures != null) {
+                        paths = getContourPaths(contourFutures.get((slice * traitCount + traitIndex) * contourHPDCount + hpdIndex));
+                    }
+                    generateContours(name, contourElement, traitElement, y, slice, date, sliceValue, hpdValue, paths);
                 }
 
             }
@@ -1121,23 +1125,20 @@ public class TimeSlicer {
     }
 
     private void generateContours(String name, Element sliceElement, Element traitElement, double[][] y, int slice, double date, double height, double hpdValue) {
+        generateContours(name, sliceElement, traitElement, y, slice, date, height, hpdValue, null);
+    }
+
+    /**
+     * @param paths the contours if they have already been made, or null to make them here
+     */
+    private void generateContours(String name, Element sliceElement, Element traitElement, double[][] y, int slice, double date, double height, double hpdValue, ContourPath[] paths) {
         //to test how much points are within the polygons
         double numberOfPointsInPolygons = 0;
         double totalArea = 0;
 
-        ContourMaker contourMaker;
-        if (contourMode == ContourMode.JAVA)
-//            contourMaker = new KernelDensityEstimator2D(y[0], y[1], gridSize);
-            contourMaker = new KernelDensityEstimator2D(y[0], y[1], BANDWIDTHLIMIT);
-        else if (contourMode == ContourMode.R)
-            contourMaker = new ContourWithR(y[0], y[1], gridSize);
-        else if (contourMode == ContourMode.SNYDER)
-//            contourMaker = new ContourWithSynder(y[0], y[1], gridSize);
-            contourMaker = new ContourWithSynder(y[0], y[1], BANDWIDTHLIMIT);
-        else
-            throw new RuntimeException("Unimplemented ContourModel!");
-
-        ContourPath[] paths = contourMaker.getContourPaths(hpdValue);
+        if (paths == null) {
+            paths = makeContourPaths(y, hpdValue);
+        }
         int pathCounter = 1;
         for (ContourPath path : paths) {
 
@@ -1186,6 +1187,68 @@ public class TimeSlicer {
         }
     }
 
+    private ContourPath[] makeContourPaths(double[][] y, double hpdValue) {
+        ContourMaker contourMaker;
+        if (contourMode == ContourMode.JAVA)
+//            contourMaker = new KernelDensityEstimator2D(y[0], y[1], gridSize);
+            contourMaker = new KernelDensityEstimator2D(y[0], y[1], BANDWIDTHLIMIT);
+        else if (contourMode == ContourMode.R)
+            contourMaker = new ContourWithR(y[0], y[1], gridSize);
+        else if (contourMode == ContourMode.SNYDER)
+//            contourMaker = new ContourWithSynder(y[0], y[1], gridSize);
+            contourMaker = new ContourWithSynder(y[0], y[1], BANDWIDTHLIMIT);
+        else
+            throw new RuntimeException("Unimplemented ContourModel!");
+
+        return contourMaker.getContourPaths(hpdValue);
+    }
+
+    /**
+     * Starts making the contours of all the bivariate slices on a pool of threads so they are
+     * ready, or being made, when each slice is output in turn. The contours with R are always
+     * made as the slices are output as R can only be used from one thread.
+     */
+    private void startContours(double[] hpdValues) {
+        if (threadCount <= 1 || contourMode == ContourMode.R) {
+            return;
+        }
+
+        summaryPool = Executors.newFixedThreadPool(threadCount);
+        contourFutures = new ArrayList<Future<ContourPath[]>>(sliceCount * traitCount * hpdValues.length);
+        contourHPDCount = hpdValues.length;
+        for (int i = 0; i < sliceCount; i++) {
+            for (int j = 0; j < traitCount; j++) {
+                final SliceValues thisTrait = values[i][j];
+                boolean bivariate = thisTrait.size() > 0 && thisTrait.isNumber() && thisTrait.isMultivariate() && thisTrait.getDim() == 2;
+                for (int k = 0; k < hpdValues.length; k++) {
+                    if (bivariate) {
+                        final double hpdValue = hpdValues[k];
+                        contourFutures.add(summaryPool.submit(new Callable<ContourPath[]>() {
+                            public ContourPath[] call() {
+                                return makeContourPaths(thisTrait.getValues(), hpdValue);
+                            }
+                        }));
+                    } else {
+                        contourFutures.add(null);
+                    }
+                }
+            }
+        }
+    }
+
+    private ContourPath[] getContourPaths(Future<ContourPath[]> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
     public static int getNumberOfPointsInPolygon(double[][] pointsArray, Polygon2D testPolygon) {
         int numberOfPointsInPolygon = 0;
         for (int x = 0; x < pointsArray[0].length; x++) {
@@ -1442,7 +1505,7 @@ public class TimeSlicer {
         StringBuilder sb = new StringBuilder("slice");
         for (int i = 0; i < traits.length; i++) {
             // Load first value to check dimensionality
-            Trait trait = values.get(0).get(i).get(0);
+            SliceValues trait = values[0][i];
             if (trait.isMultivariate()) {
                 int dim = trait.getDim();
                 for (int j = 1; j <= dim; j++)
@@ -1491,14 +1554,13 @@ public class TimeSlicer {
 //        return treeList;
 //    }
 
-    private void readAndAnalyzeTrees(String treeFileName, int burnin, int skipEvery,
-                                     String[] traits, double[] slices,
-                                     boolean impute, boolean trueNoise, Normalization normalize,
-                                     boolean divideByBranchLength, BranchSet branchset, Set taxaSet)
+    private void readAndAnalyzeTrees(final String treeFileName, int burnin, int skipEvery,
+                                     final String[] traits, final double[] slices,
+                                     final boolean impute, final boolean trueNoise, final Normalization normalize,
+                                     final boolean divideByBranchLength, final BranchSet branchset, final Set taxaSet)
             throws IOException, Importer.ImportException {
 
         int totalTrees = 10000;
-        int totalStars = 0;
 
         progressStream.println("Reading and analyzing trees (bar assumes 10,000 trees)...");
         progressStream.println("0              25             50             75            100");
@@ -1507,35 +1569,369 @@ public class TimeSlicer {
         int stepSize = totalTrees / 60;
         if (stepSize < 1) stepSize = 1;
 
+        long startTime = System.currentTimeMillis();
+
         BufferedReader reader1 = new BufferedReader(new FileReader(treeFileName));
 
         String line1 = reader1.readLine();
-        TreeImporter importer1;
-        if (line1.toUpperCase().startsWith("#NEXUS")) {
-            importer1 = new NexusImporter(new FileReader(treeFileName));
+        reader1.close();
+
+        // The trees are analyzed in batches on a pool of worker threads, each batch into its own
+        // lists of values, and the batches are added to the slices in the order of the trees. Only
+        // a few batches are waiting or being analyzed at once so the memory used doesn't depend on
+        // the number of trees.
+        ExecutorService pool = (threadCount > 1 ? Executors.newFixedThreadPool(threadCount) : null);
+        LinkedList<Future<TreeBatch>> futures = new LinkedList<Future<TreeBatch>>();
+        int totalStars = 0;
+        IndexedTreeFile indexedTreeFile = null;
+
+        try {
+            if (line1.toUpperCase().startsWith("#NEXUS")) {
+                // NEXUS trees files are indexed so the trees can also be parsed by the workers
+                final IndexedTreeFile treeFile = new IndexedTreeFile(new File(treeFileName), false);
+                indexedTreeFile = treeFile;
+                totalTrees = treeFile.getTreeCount();
+
+                int[] indices = new int[TREE_BATCH_SIZE];
+                int count = 0;
+                for (int i = 0; i < totalTrees; i++) {
+                    if (i % skipEvery == 0) {
+                        treesRead++;
+                        if (i >= burnin) {
+                            indices[count] = i;
+                            count++;
+                        }
+                    }
+                    if (count == TREE_BATCH_SIZE || (i == totalTrees - 1 && count > 0)) {
+                        final int[] batchIndices = Arrays.copyOf(indices, count);
+                        totalStars = submitBatch(pool, futures, new Callable<TreeBatch>() {
+                            public TreeBatch call() throws Exception {
+                                TreeBatch batch = new TreeBatch();
+                                for (int index : batchIndices) {
+                                    analyzeTree(treeFile.getTree(index), traits, slices, impute, trueNoise, normalize,
+                                            divideByBranchLength, branchset, taxaSet, batch);
+                                }
+                                return batch;
+                            }
+                        }, createBatchStream(impute && trueNoise), i + 1, stepSize, totalStars);
+                        count = 0;
+                    }
+                }
+            } else {
+                TreeImporter importer1 = new NewickImporter(new FileReader(treeFileName));
+                totalTrees = 0;
+
+                List<Tree> trees = new ArrayList<Tree>(TREE_BATCH_SIZE);
+                while (importer1.hasTree()) {
+                    Tree treeTime = importer1.importNextTree();
+                    if (totalTrees % skipEvery == 0) {
+                        treesRead++;
+                        if (totalTrees >= burnin) {
+                            trees.add(treeTime);
+                        }
+                    }
+                    totalTrees++;
+
+                    if (trees.size() == TREE_BATCH_SIZE || (!importer1.hasTree() && trees.size() > 0)) {
+                        final List<Tree> batchTrees = trees;
+                        totalStars = submitBatch(pool, futures, new Callable<TreeBatch>() {
+                            public TreeBatch call() {
+                                TreeBatch batch = new TreeBatch();
+                                for (Tree tree : batchTrees) {
+                                    analyzeTree(tree, traits, slices, impute, trueNoise, normalize,
+                                            divideByBranchLength, branchset, taxaSet, batch);
+                                }
+                                return batch;
+                            }
+                        }, createBatchStream(impute && trueNoise), totalTrees, stepSize, totalStars);
+                        trees = new ArrayList<Tree>(TREE_BATCH_SIZE);
+                    }
+                }
+            }
+
+            while (!futures.isEmpty()) {
+                addBatch(futures.removeFirst().get());
+            }
+            if (indexedTreeFile != null) {
+                indexedTreeFile.close();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Importer.ImportException) {
+                throw (Importer.ImportException) e.getCause();
+            } else if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+        progressStream.print("\n");
+
+        double seconds = (System.currentTimeMillis() - startTime) / 1000.0;
+        progressStream.println(String.format("Analyzed %d trees in %.1f secs (%.1f trees/sec)",
+                treesAnalyzed, seconds, treesAnalyzed / Math.max(seconds, 0.001)));
+    }
+
+    /**
+     * Analyzes a batch of trees on the pool, or straight away if there isn't one. If there are
+     * already enough batches in hand then this waits for the first to finish and adds it to the
+     * slices.
+     *
+     * @param treeCount the number of trees read once this batch is analyzed, for the progress bar
+     * @return the number of stars in the progress bar
+     */
+    private int submitBatch(ExecutorService pool, LinkedList<Future<TreeBatch>> futures, final Callable<TreeBatch> batchTask,
+                            final RandomStream stream, int treeCount, int stepSize, int totalStars) throws InterruptedException, ExecutionException {
+        Callable<TreeBatch> task = batchTask;
+        if (stream != null) {
+            // the batch draws from its own stream on whichever thread it runs
+            task = new Callable<TreeBatch>() {
+                public TreeBatch call() throws Exception {
+                    RandomStream previous = MathUtils.getThreadStream();
+                    MathUtils.setThreadStream(stream);
+                    try {
+                        return batchTask.call();
+                    } finally {
+                        MathUtils.setThreadStream(previous);
+                    }
+                }
+            };
+        }
+        if (pool == null) {
+            FutureTask<TreeBatch> future = new FutureTask<TreeBatch>(task);
+            future.run();
+            futures.add(future);
         } else {
-            importer1 = new NewickImporter(new FileReader(treeFileName));
+            futures.add(pool.submit(task));
+        }
+
+        while (futures.size() > 2 * threadCount) {
+            addBatch(futures.removeFirst().get());
+        }
+
+        while (totalStars < treeCount / stepSize) {
+            progressStream.print("*");
+            totalStars++;
+            if (totalStars % 61 == 0)
+                progressStream.print("\n");
+            progressStream.flush();
+        }
+        return totalStars;
+    }
+
+    /**
+     * Imputation with noise draws from a random stream of the batch's own, derived from the seed
+     * and the number of the batch, so the draws don't depend on how the batches are scheduled.
+     */
+    private RandomStream createBatchStream(boolean needed) {
+        if (!needed) {
+            return null;
+        }
+        return MathUtils.createStream(batchStreamCount++);
+    }
+
+    private SliceValues[][] createSliceValues() {
+        SliceValues[][] sliceValues = new SliceValues[sliceCount][traitCount];
+        for (int i = 0; i < sliceCount; i++) {
+            for (int j = 0; j < traitCount; j++) {
+                sliceValues[i][j] = new SliceValues();
+            }
         }
-        totalTrees = 0;
+        return sliceValues;
+    }
 
-        while (importer1.hasTree()) {
-            Tree treeTime = importer1.importNextTree();
-            if (totalTrees % skipEvery == 0) {
-                treesRead++;
-                if (totalTrees >= burnin) {
-                    analyzeTree(treeTime, traits, slices, impute, trueNoise, normalize, divideByBranchLength, branchset, taxaSet);
+    /**
+     * Adds the values from a batch of trees to those from the trees before it.
+     */
+    private void addBatch(TreeBatch batch) {
+        for (int i = 0; i < sliceCount; i++) {
+            for (int j = 0; j < traitCount; j++) {
+                values[i][j].addAll(batch.values[i][j]);
+            }
+        }
+        if (rootValues != null) {
+            for (int j = 0; j < traitCount; j++) {
+                rootValues.get(j).addAll(batch.rootValues.get(j));
+            }
+        }
+        if (tipValues != null && batch.tipValues.size() > 0) {
+            if (tipValues.size() == 0) {
+                for (int i = 0; i < batch.tipValues.size(); i++) {
+                    List<List<Trait>> thisTip = new ArrayList<List<Trait>>(traitCount);
+                    tipValues.add(thisTip);
+                    for (int j = 0; j < traitCount; j++) {
+                        thisTip.add(new ArrayList<Trait>());
+                    }
                 }
+                tipNames.addAll(batch.tipNames);
             }
-            if (totalTrees > 0 && totalTrees % stepSize == 0) {
-                progressStream.print("*");
-                totalStars++;
-                if (totalStars % 61 == 0)
-                    progressStream.print("\n");
-                progressStream.flush();
+            for (int i = 0; i < tipValues.size(); i++) {
+                for (int j = 0; j < traitCount; j++) {
+                    tipValues.get(i).get(j).addAll(batch.tipValues.get(i).get(j));
+                }
             }
-            totalTrees++;
         }
-        progressStream.print("\n");
+
+        sliceTreeDistanceArrays.addAll(batch.sliceTreeDistanceArrays);
+        sliceTreeTimeArrays.addAll(batch.sliceTreeTimeArrays);
+        sliceTreeMaxPathDistanceArrays.addAll(batch.sliceTreeMaxPathDistanceArrays);
+        sliceTreeMaxDistanceFromRootArrays.addAll(batch.sliceTreeMaxDistanceFromRootArrays);
+        sliceTreeTimeFromRootArrays.addAll(batch.sliceTreeTimeFromRootArrays);
+        sliceTreeDiffusionCoefficientArrays.addAll(batch.sliceTreeDiffusionCoefficientArrays);
+        sliceTreeDiffusionCoefficientVarianceArrays.addAll(batch.sliceTreeDiffusionCoefficientVarianceArrays);
+        treeLengths.addAll(batch.treeLengths);
+        treesAnalyzed += batch.treesAnalyzed;
+    }
+
+    /**
+     * The values collected from a batch of trees.
+     */
+    private class TreeBatch {
+        final SliceValues[][] values = createSliceValues();
+        final List<List<Trait>> rootValues;
+        final List<List<List<Trait>>> tipValues;
+        final List<String> tipNames = new ArrayList<String>();
+
+        final List<double[]> sliceTreeDistanceArrays = new ArrayList<double[]>();
+        final List<double[]> sliceTreeTimeArrays = new ArrayList<double[]>();
+        final List<double[]> sliceTreeMaxPathDistanceArrays = new ArrayList<double[]>();
+        final List<double[]> sliceTreeMaxDistanceFromRootArrays = new ArrayList<double[]>();
+        final List<double[]> sliceTreeTimeFromRootArrays = new ArrayList<double[]>();
+        final List<double[]> sliceTreeDiffusionCoefficientArrays = new ArrayList<double[]>();
+        final List<double[]> sliceTreeDiffusionCoefficientVarianceArrays = new ArrayList<double[]>();
+        final List<Double> treeLengths = new ArrayList<Double>();
+        int treesAnalyzed = 0;
+
+        TreeBatch() {
+            if (TimeSlicer.this.rootValues != null) {
+                rootValues = new ArrayList<List<Trait>>(traitCount);
+                for (int k = 0; k < traitCount; k++) {
+                    rootValues.add(new ArrayList<Trait>());
+                }
+            } else {
+                rootValues = null;
+            }
+            tipValues = (TimeSlicer.this.tipValues != null ? new ArrayList<List<List<Trait>>>() : null);
+        }
+    }
+
+    /**
+     * The values of a trait in a slice from all the trees. Numbers are kept in a growable array of
+     * doubles rather than as Trait objects, which take several times the memory. Traits that are
+     * not numbers are kept as they are.
+     */
+    static class SliceValues {
+
+        void add(Trait trait) {
+            if (size() == 0) {
+                isNumber = trait.isNumber();
+                isMultivariate = trait.isMultivariate();
+                dim = trait.getDim();
+                if (!isNumber) {
+                    traits = new ArrayList<Trait>();
+                }
+            }
+
+            if (traits != null) {
+                traits.add(trait);
+                return;
+            }
+
+            if (trait.getDim() != dim) {
+                throw new RuntimeException("Trait values in a slice have different dimensions");
+            }
+            ensureCapacity(count + 1);
+            double[] value = trait.getValue();
+            System.arraycopy(value, 0, values, count * dim, dim);
+            count++;
+        }
+
+        void addAll(SliceValues other) {
+            if (other.size() == 0) {
+                return;
+            }
+            if (size() == 0) {
+                isNumber = other.isNumber;
+                isMultivariate = other.isMultivariate;
+                dim = other.dim;
+                if (!isNumber) {
+                    traits = new ArrayList<Trait>();
+                }
+            }
+
+            if ((traits == null) != (other.traits == null) || dim != other.dim) {
+                throw new RuntimeException("Trait values in a slice have different types");
+            }
+            if (traits != null) {
+                traits.addAll(other.traits);
+                return;
+            }
+
+            ensureCapacity(count + other.count);
+            System.arraycopy(other.values, 0, values, count * dim, other.count * dim);
+            count += other.count;
+        }
+
+        int size() {
+            return (traits != null ? traits.size() : count);
+        }
+
+        boolean isNumber() {
+            return isNumber;
+        }
+
+        boolean isMultivariate() {
+            return isMultivariate;
+        }
+
+        int getDim() {
+            return dim;
+        }
+
+        /**
+         * @return the values as an array for each dimension
+         */
+        double[][] getValues() {
+            if (traits != null) {
+                throw new RuntimeException("Trait values are not numbers");
+            }
+            double[][] y = new double[dim][count];
+            for (int i = 0; i < count; i++) {
+                for (int j = 0; j < dim; j++) {
+                    y[j][i] = values[i * dim + j];
+                }
+            }
+            return y;
+        }
+
+        String toString(int index) {
+            if (traits != null) {
+                return traits.get(index).toString();
+            }
+            StringBuilder sb = new StringBuilder(Double.toString(values[index * dim]));
+            for (int j = 1; j < dim; j++)
+                sb.append(sep).append(values[index * dim + j]);
+            return sb.toString();
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity * dim > values.length) {
+                values = Arrays.copyOf(values, Math.max(capacity * dim, values.length * 2));
+            }
+        }
+
+        private boolean isNumber;
+        private boolean isMultivariate;
+        private int dim;
+        private double[] values = new double[0];
+        private int count = 0;
+        private List<Trait> traits = null;
     }
 
     class Trait {
@@ -1616,16 +2012,16 @@ public class TimeSlicer {
         }
     }
 
-    private List<List<List<Trait>>> values;
+    private SliceValues[][] values;
     private List<List<Trait>> rootValues;
     private List<List<List<Trait>>> tipValues;
     private List<String> tipNames;
 
     private void outputSlice(int slice, double sliceValue) {
 
-        List<List<Trait>> thisSlice = values.get(slice);
-        int traitCount = thisSlice.size();
-        int valueCount = thisSlice.get(0).size();
+        SliceValues[] thisSlice = values[slice];
+        int traitCount = thisSlice.length;
+        int valueCount = thisSlice[0].size();
 
         StringBuilder sb = new StringBuilder();
 
@@ -1636,7 +2032,7 @@ public class TimeSlicer {
                 sb.append(sliceValue);
             for (int t = 0; t < traitCount; t++) {
                 sb.append(sep);
-                sb.append(thisSlice.get(t).get(v));
+                sb.append(thisSlice[t].toString(v));
             }
             sb.append("\n");
         }
@@ -1700,7 +2096,7 @@ public class TimeSlicer {
 
     private void analyzeTree(Tree treeTime, String[] traits, double[] slices, boolean impute,
                              boolean trueNoise, Normalization normalize, boolean divideByBranchlength,
-                             BranchSet branchset, Set taxaSet) {
+                             BranchSet branchset, Set taxaSet, TreeBatch batch) {
 
         double[][] precision = null;
 
@@ -1729,17 +2125,17 @@ public class TimeSlicer {
         }
 
 
-        if (tipValues != null && tipValues.size() == 0) {
+        if (batch.tipValues != null && batch.tipValues.size() == 0) {
             // this is the first tree so initialize the tip value lists
             for (int i = 0; i < treeTime.getExternalNodeCount(); i++) {
                 List<List<Trait>> thisTip = new ArrayList<List<Trait>>(traitCount);
-                tipValues.add(thisTip);
+                batch.tipValues.add(thisTip);
                 for (int j = 0; j < traitCount; j++) {
                     List<Trait> thisTipTrait = new ArrayList<Trait>();
                     thisTip.add(thisTipTrait);
                 }
 
-                tipNames.add(treeTime.getNodeTaxon(treeTime.getExternalNode(i)).getId());
+                batch.tipNames.add(treeTime.getNodeTaxon(treeTime.getExternalNode(i)).getId());
             }
 
         }
@@ -1762,7 +2158,7 @@ public class TimeSlicer {
         double[][] treeSliceDiffusionCoefficients = new double[sliceCount][treeTime.getNodeCount() - 1];
         double[] treeSliceBranchCount = new double[sliceCount];
 
-        treeLengths.add(TreeUtils.getTreeLength(treeTime, treeTime.getRoot()));
+        batch.treeLengths.add(TreeUtils.getTreeLength(treeTime, treeTime.getRoot()));
 
         for (int x = 0; x < treeTime.getNodeCount(); x++) {
 
@@ -1914,10 +2310,10 @@ public class TimeSlicer {
 
                         if (proceed) {
 
-                            List<List<Trait>> thisSlice = values.get(i);
+                            SliceValues[] thisSlice = batch.values[i];
                             for (int j = 0; j < traitCount; j++) {
 
-                                List<Trait> thisTraitSlice = thisSlice.get(j);
+                                SliceValues thisTraitSlice = thisSlice[j];
                                 Object tmpTrait = treeTime.getNodeAttribute(node, traits[j]);
                                 if (tmpTrait == null) {
                                     System.err.println("Trait '" + traits[j] + "' not found on branch.");
@@ -1934,9 +2330,11 @@ public class TimeSlicer {
                                         Double rateAttribute = (Double) treeTime.getNodeAttribute(node, rateAttributeString);
                                         if (rateAttribute != null) {
                                             rate = rateAttribute;
-                                            if (outputRateWarning) {
-                                                progressStream.println("Warning: using "+rateAttributeString+" as rate attribute during imputation!");
-                                                outputRateWarning = false;
+                                            synchronized (this) {
+                                                if (outputRateWarning) {
+                                                    progressStream.println("Warning: using "+rateAttributeString+" as rate attribute during imputation!");
+                                                    outputRateWarning = false;
+                                                }
                                             }
                                         }
                                     }
@@ -1998,8 +2396,8 @@ public class TimeSlicer {
                     }
                 }
 
-                if (tipValues != null && treeTime.isExternal(node)) {
-                    List<List<Trait>> thisTip = tipValues.get(x);
+                if (batch.tipValues != null && treeTime.isExternal(node)) {
+                    List<List<Trait>> thisTip = batch.tipValues.get(x);
 
                     for (int j = 0; j < traitCount; j++) {
                         Object tmpTrait = treeTime.getNodeAttribute(node, traits[j]);
@@ -2021,9 +2419,9 @@ public class TimeSlicer {
                             height = slices[i + 1];
                         }
                         if ((slices[i] < nodeHeight && height >= nodeHeight)){
-                            List<List<Trait>> thisSlice = values.get(i);
+                            SliceValues[] thisSlice = batch.values[i];
                             for (int j = 0; j < traitCount; j++) {
-                                List<Trait> thisTraitSlice = thisSlice.get(j);
+                                SliceValues thisTraitSlice = thisSlice[j];
                                 Object tmpTrait = treeTime.getNodeAttribute(node, traits[j]);
                                 if (tmpTrait == null) {
                                     System.err.println("Trait '" + traits[j] + "' not found on node.");
@@ -2039,9 +2437,9 @@ public class TimeSlicer {
                     }
                 }
 
-                if (rootValues != null) {
+                if (batch.rootValues != null) {
                     for (int j = 0; j < traitCount; j++) {
-                        List<Trait> thisRootTrait = rootValues.get(j);
+                        List<Trait> thisRootTrait = batch.rootValues.get(j);
                         Object tmpTrait = treeTime.getNodeAttribute(node, traits[j]);
                         if (tmpTrait == null) {
                             System.err.println("Trait '" + traits[j] + "' not found on root node.");
@@ -2058,12 +2456,12 @@ public class TimeSlicer {
         //System.out.println(Tree.Utils.getTreeLength(treeTime, treeTime.getRoot())+"\t"+test);
 
         if (sdr || snr) {
-            sliceTreeDistanceArrays.add(treeSliceDistance);
-            sliceTreeTimeArrays.add(treeSliceTime);
+            batch.sliceTreeDistanceArrays.add(treeSliceDistance);
+            batch.sliceTreeTimeArrays.add(treeSliceTime);
             if (sdr){
-                sliceTreeMaxPathDistanceArrays.add(treeSliceMaxDistance);
-                sliceTreeMaxDistanceFromRootArrays.add(maxDistanceFromRoot);
-                sliceTreeTimeFromRootArrays.add(treeTimeFromRoot);
+                batch.sliceTreeMaxPathDistanceArrays.add(treeSliceMaxDistance);
+                batch.sliceTreeMaxDistanceFromRootArrays.add(maxDistanceFromRoot);
+                batch.sliceTreeTimeFromRootArrays.add(treeTimeFromRoot);
                 for (int i = 0; i < treeSliceDiffusionCoefficientA.length; i++) {
                     //treeSliceDiffusionCoefficientWA[i] = treeSliceDiffusionCoefficientWA[i]/treeSliceTime[i];
                     treeSliceDiffusionCoefficientA[i] = treeSliceDiffusionCoefficientA[i] / treeSliceBranchCount[i];
@@ -2073,8 +2471,8 @@ public class TimeSlicer {
                     treeSliceDiffusionCoefficientV[i] = treeSliceDiffusionCoefficientV[i] / treeSliceBranchCount[i];
                     //System.out.println(treeSliceTime[i]+"\t"+treeLengths.get(i));
                 }
-                sliceTreeDiffusionCoefficientArrays.add(treeSliceDiffusionCoefficientA);
-                sliceTreeDiffusionCoefficientVarianceArrays.add(treeSliceDiffusionCoefficientV);
+                batch.sliceTreeDiffusionCoefficientArrays.add(treeSliceDiffusionCoefficientA);
+                batch.sliceTreeDiffusionCoefficientVarianceArrays.add(treeSliceDiffusionCoefficientV);
             }
         }
 
@@ -2088,7 +2486,7 @@ public class TimeSlicer {
 //            dispersalrates.add(dispersalNativeRate+"\t"+dispersalKilometerRate);
 //        }
 
-        treesAnalyzed++;
+        batch.treesAnalyzed++;
 
     }
 
@@ -2151,6 +2549,7 @@ public class TimeSlicer {
 
     private int traitCount;
     private int sliceCount;
+    private int threadCount;
     private String[] traits;
     private double[] sliceHeights;
     private boolean sliceProgressReport;
@@ -2183,19 +2582,27 @@ public class TimeSlicer {
 //        }
 //    }
 
-    private ArrayList sliceTreeDistanceArrays = new ArrayList();
-    private ArrayList sliceTreeTimeArrays = new ArrayList();
-    private ArrayList sliceTreeMaxPathDistanceArrays = new ArrayList();
-    private ArrayList sliceTreeMaxDistanceFromRootArrays = new ArrayList();
-    private ArrayList sliceTreeTimeFromRootArrays = new ArrayList();
-    private ArrayList sliceTreeDiffusionCoefficientArrays = new ArrayList();
-    private ArrayList sliceTreeDiffusionCoefficientVarianceArrays = new ArrayList();
+    private List<double[]> sliceTreeDistanceArrays = new ArrayList<double[]>();
+    private List<double[]> sliceTreeTimeArrays = new ArrayList<double[]>();
+    private List<double[]> sliceTreeMaxPathDistanceArrays = new ArrayList<double[]>();
+    private List<double[]> sliceTreeMaxDistanceFromRootArrays = new ArrayList<double[]>();
+    private List<double[]> sliceTreeTimeFromRootArrays = new ArrayList<double[]>();
+    private List<double[]> sliceTreeDiffusionCoefficientArrays = new ArrayList<double[]>();
+    private List<double[]> sliceTreeDiffusionCoefficientVarianceArrays = new ArrayList<double[]>();
     private boolean sdr;
     private boolean snr;
-    private ArrayList treeLengths = new ArrayList();
+    private List<Double> treeLengths = new ArrayList<Double>();
 
     private boolean outputRateWarning = true;
 
+    private static final int TREE_BATCH_SIZE = 100;
+
+    private ExecutorService summaryPool = null;
+    // the contours of each slice, trait and HPD value in turn
+    private List<Future<ContourPath[]>> contourFutures = null;
+    private int contourHPDCount;
+    private long batchStreamCount = 0;
+
 
     private Trait imputeValue(Trait nodeTrait, Trait parentTrait, double time, double nodeHeight, double parentHeight, double[][] precision, double rate, boolean trueNoise) {
         if (!nodeTrait.isNumber()) {
@@ -2660,6 +3067,7 @@ public class TimeSlicer {
         double longMin = -Double.MAX_VALUE;
         String rateString = "location.rate";
         Set descendents = null;
+        int threadCount = Runtime.getRuntime().availableProcessors();
 
 //        if (args.length == 0) {
 //          // TODO Make flash GUI
@@ -2712,7 +3120,8 @@ public class TimeSlicer {
                         new Arguments.RealOption(LONGMAX, "specifies the maximum longitude for a child node for a branch to be included in the summary [default=MAX_VALUE]"),
                         new Arguments.RealOption(LONGMIN, "specifies the minimum longitude for a child node for a branch to be included in the summary [default=MIN_VALUE]"),
                         new Arguments.IntegerOption(GRIDSIZE, "the grid size for contouring [default=200]"),
-                        new Arguments.StringOption(DESCENDENTS, "descendent taxa", "specifies a branch based on the descendent taxa [default=all branches]")
+                        new Arguments.StringOption(DESCENDENTS, "descendent taxa", "specifies a branch based on the descendent taxa [default=all branches]"),
+                        new Arguments.IntegerOption(THREADS, "the number of threads used to analyze the trees and make the contours [default=the number of available processors]")
 
                 });
 
@@ -2982,6 +3391,10 @@ public class TimeSlicer {
                 grid = arguments.getIntegerOption(GRIDSIZE);
             }
 
+            if (arguments.hasOption(THREADS)) {
+                threadCount = arguments.getIntegerOption(THREADS);
+            }
+
 
 
         } catch (Arguments.ArgumentException e) {
@@ -3013,7 +3426,7 @@ public class TimeSlicer {
 
         TimeSlicer timeSlicer = new TimeSlicer(inputFileName, burnin, skipEvery, traitNames, sliceHeights, impute,
                 trueNoise, mrsd, contourMode, sliceMode,summarizeRoot, summarizeTips, normalize, getSDR, getSNR, progress,
-                branchNormalization, set, taxaSet, grid, latMin, latMax, longMin, longMax, descendents, rateString);
+                branchNormalization, set, taxaSet, grid, latMin, latMax, longMin, longMax, descendents, rateString, threadCount);
         timeSlicer.output(outputFileName, summaryOnly, summarizeRoot, summarizeTips, contours, points, outputFormat, hpdValues, outputFileSDR, outputFileSNR);
 
         System.exit(0);
@@ -31,8 +31,7 @@ import dr.app.beast.BeastVersion;
 import dr.app.tools.NexusExporter;
 import dr.app.util.Arguments;
 import dr.evolution.io.Importer;
-import dr.evolution.io.NexusImporter;
-import dr.evolution.io.TreeImporter;
+import dr.evolution.io.IndexedTreeFile;
 import dr.evolution.tree.MutableTree;
 import dr.evolution.tree.NodeRef;
 import dr.evolution.tree.Tree;
@@ -62,6 +61,18 @@ public class LogCombiner {
     public LogCombiner(long[] burnins, long resample, String[] inputFileNames, String outputFileName, boolean treeFiles,
                        boolean convertToDecimal, boolean stripAnnotations,
                        boolean renumberOutput, boolean useScale, double scale) throws IOException {
+        this(burnins, resample, inputFileNames, outputFileName, treeFiles, convertToDecimal, stripAnnotations,
+                renumberOutput, useScale, scale, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threadCount the number of threads used to read the files. If this is greater than 0
+     *                    then the files are streamed (unless the trees need to be processed) otherwise
+     *                    they are read line by line.
+     */
+    public LogCombiner(long[] burnins, long resample, String[] inputFileNames, String outputFileName, boolean treeFiles,
+                       boolean convertToDecimal, boolean stripAnnotations,
+                       boolean renumberOutput, boolean useScale, double scale, int threadCount) throws IOException {
 
         System.out.println("Creating combined " + (treeFiles ? "tree" : "log") + " file: '" + outputFileName + "'");
 
@@ -83,6 +94,14 @@ public class LogCombiner {
 
         System.out.println();
 
+        if (threadCount > 0 && StreamingLogCombiner.canStream(treeFiles, convertToDecimal, stripAnnotations)) {
+            System.out.println();
+            new StreamingLogCombiner(threadCount, StreamingLogCombiner.DEFAULT_CHUNK_SIZE).combine(
+                    burnins, resample, inputFileNames, outputFileName, treeFiles,
+                    convertToDecimal, renumberOutput, useScale, scale);
+            return;
+        }
+
         PrintWriter writer = new PrintWriter(new FileOutputStream(outputFileName));
 
         boolean firstFile = true;
@@ -131,25 +150,21 @@ public class LogCombiner {
             if (treeFiles) {
 
                 if (processTrees) { // then we need to read each tree and write it.
-                    TreeImporter importer = new NexusImporter(new FileReader(inputFile), stripAnnotations);
                     try {
-                        while (importer.hasTree()) {
-                            Tree tree = importer.importNextTree();
+                        // the trees are indexed so only those that are written need to be parsed
+                        IndexedTreeFile treeFile = new IndexedTreeFile(inputFile, stripAnnotations);
+                        for (int j = 0; j < treeFile.getTreeCount(); j++) {
                             if (firstTree) {
-                                startLog(tree, writer);
+                                startLog(treeFile.getTree(j), writer);
                                 firstTree = false;
                             }
 
-                            String name = tree.getId();
-                            if (name == null) {
+                            long state = treeFile.getState(j);
+                            if (state == IndexedTreeFile.NO_STATE) {
                                 System.err.println("ERROR: Trees do not give state numbers as tree attributes.");
                                 return;
                             }
 
-                            // split on underscore in STATE_xxxx
-                            String[] bits = name.split("_");
-                            long state = Long.parseLong(bits[1]);
-
                             if (stateStep < 0 && state > 0) {
                                 stateStep = state;
                             }
@@ -185,15 +200,16 @@ public class LogCombiner {
                                 if (!renumberOutput) {
                                     stateLineEntry = stateCount;
                                 } else {
-                                    stateLineEntry = stateCount / (resample / stateStep);
+                                    stateLineEntry = (resample > 0 ? stateCount / (resample / stateStep) : stateCount);
                                 }
 
                                 if (logThis) {
-                                    writeTree(stateLineEntry, tree, convertToDecimal, writer);
+                                    writeTree(stateLineEntry, treeFile.getTree(j), convertToDecimal, writer);
                                 }
 
                             }
                         }
+                        treeFile.close();
                     } catch (Importer.ImportException e) {
                         System.err.println("Error Parsing Input Tree: " + e.getMessage());
                         return;
@@ -263,7 +279,7 @@ public class LogCombiner {
 //                                	System.out.println("stateStep: " + stateStep);
 //                                	System.out.println("resample / stateStep: " + (resample / stateStep));
 
-                                        stateLineEntry = stateCount / (resample / stateStep);
+                                        stateLineEntry = (resample > 0 ? stateCount / (resample / stateStep) : stateCount);
                                     }
 
                                     if (logThis) {
@@ -384,7 +400,7 @@ public class LogCombiner {
 //                                	System.out.println("stateStep: " + stateStep);
 //                                	System.out.println("resample / stateStep: " + (resample / stateStep));
 
-                                    stateLineEntry = stateCount / (resample / stateStep);
+                                    stateLineEntry = (resample > 0 ? stateCount / (resample / stateStep) : stateCount);
                                 }
 
                                 if (logThis) {
@@ -583,7 +599,7 @@ public class LogCombiner {
     private static final DecimalFormat decimalFormatter = new DecimalFormat("#.############", new DecimalFormatSymbols(Locale.US));
     private static final DecimalFormat scientificFormatter = new DecimalFormat("#.############E0", new DecimalFormatSymbols(Locale.US));
 
-    private String reformatNumbers(String line, boolean convertDecimal, boolean useScale, double scale) {
+    static String reformatNumbers(String line, boolean convertDecimal, boolean useScale, double scale) {
         StringBuilder outLine = new StringBuilder();
 
         Pattern pattern = Pattern.compile("\\d+\\.\\d+(E[\\-\\d\\.]+)?");
@@ -743,6 +759,8 @@ public class LogCombiner {
                             new Arguments.RealOption("scale", "a scaling factor that will multiply any time units by this value"),
                             new Arguments.Option("strip", "strip out all annotations (trees only)"),
                             new Arguments.Option("renumber", "this option renumbers output states consecutively"),
+                            new Arguments.IntegerOption("threads", "the number of threads used to read the files " +
+                                    "(default is the number of available processors, 0 reads them line by line)"),
                             new Arguments.Option("help", "option to print this message")
                     });
 
@@ -784,6 +802,11 @@ public class LogCombiner {
                 useScale = true;
             }
 
+            int threadCount = Runtime.getRuntime().availableProcessors();
+            if (arguments.hasOption("threads")) {
+                threadCount = arguments.getIntegerOption("threads");
+            }
+
             String[] args2 = arguments.getLeftoverArguments();
 
             if (args2.length < 2) {
@@ -798,7 +821,7 @@ public class LogCombiner {
             String outputFileName = args2[args2.length - 1];
 
             new LogCombiner(new long[]{burnin}, resample, inputFileNames, outputFileName, treeFiles, convertToDecimal,
-                    stripAnnotations, renumberOutput, useScale, scale);
+                    stripAnnotations, renumberOutput, useScale, scale, threadCount);
 
             System.out.println("Finished.");
         }
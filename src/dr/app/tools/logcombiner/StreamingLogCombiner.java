@@ -0,0 +1,567 @@
+/*
+ * StreamingLogCombiner.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.app.tools.logcombiner;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Combines log files or tree files (without re-writing the trees) by streaming them. Each input file is
+ * memory-mapped and divided into chunks which are scanned for state lines on a pool of threads. The chunks
+ * are then passed, in order, to a single writer which applies the burn-in, resampling and renumbering
+ * rules (these depend on the preceding lines so can't be done in parallel) and writes the output. Only a
+ * fixed number of chunks are in memory at any one time so the memory used doesn't depend on file size.
+ *
+ * The output is identical to that of the line-by-line combination in LogCombiner.
+ *
+ * @version $
+ */
+public class StreamingLogCombiner {
+
+    public static final int DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    // how far past the end of a chunk is mapped to finish its last line, doubled as often as needed
+    // up to the longest line that can span the end of a chunk
+    private static final long MAP_OVERRUN = 1L << 20;
+    private static final long MAX_LINE_LENGTH = 1L << 30;
+
+    private static final byte[] TREE_PREFIX = "tree STATE_".getBytes();
+
+    public StreamingLogCombiner(int threadCount, int chunkSize) {
+        this.threadCount = Math.max(1, threadCount);
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @return whether the files can be combined by streaming (trees can't be processed as text)
+     */
+    public static boolean canStream(boolean treeFiles, boolean convertToDecimal, boolean stripAnnotations) {
+        return !treeFiles || !(convertToDecimal || stripAnnotations);
+    }
+
+    public void combine(long[] burnins, long resample, String[] inputFileNames, String outputFileName, boolean treeFiles,
+                        boolean convertToDecimal, boolean renumberOutput, boolean useScale, double scale) throws IOException {
+
+        for (String inputFileName : inputFileNames) {
+            File inputFile = new File(inputFileName);
+            if (!inputFile.exists()) {
+                System.err.println(inputFileName + " does not exist!");
+                return;
+            } else if (inputFile.isDirectory()) {
+                System.err.println(inputFileName + " is a directory.");
+                return;
+            }
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(outputFileName), 1 << 20);
+
+        try {
+            StateFilter filter = new StateFilter(resample, renumberOutput, !treeFiles);
+            String[] titles = null;
+
+            for (int i = 0; i < inputFileNames.length; i++) {
+                long burnin = burnins[0];
+                if (burnins.length > i) {
+                    burnin = burnins[i];
+                }
+                filter.burnin = burnin;
+
+                if (burnin > 0) {
+                    System.out.print("Combining file: '" + inputFileNames[i] + "' removing burnin: " + burnin);
+                } else {
+                    System.out.print("Combining file: '" + inputFileNames[i] + "' without removing burnin");
+                }
+                if (resample > 0) {
+                    System.out.print(", resampling with frequency: " + resample);
+                }
+                if (useScale) {
+                    System.out.println(", rescaling by: " + scale);
+                } else {
+                    System.out.println();
+                }
+
+                try (FileChannel channel = new RandomAccessFile(inputFileNames[i], "r").getChannel()) {
+                    HeaderReader header = new HeaderReader(channel);
+                    String line = header.readLine();
+
+                    if (treeFiles) {
+                        // skip (or write) the headers
+                        while (line != null && !line.trim().startsWith("tree ")) {
+                            if (i == 0) {
+                                writeLine(out, line);
+                            }
+                            line = header.readLine();
+                        }
+                        if (line == null) {
+                            continue;
+                        }
+                    } else {
+                        // lines starting with [ or # are comments
+                        while (line != null && (line.startsWith("[") || line.startsWith("#"))) {
+                            line = header.readLine();
+                        }
+                        if (line == null) {
+                            continue;
+                        }
+                        if (titles == null) {
+                            titles = line.split("\t");
+                            writeLine(out, line);
+                        } else {
+                            String[] newTitles = line.split("\t");
+                            if (newTitles.length != titles.length) {
+                                System.err.println("ERROR: The number of columns in file, " + inputFileNames[i] + ", does not match that of the first file");
+                                return;
+                            }
+                            for (int k = 0; k < newTitles.length; k++) {
+                                if (!newTitles[k].equals(titles[k])) {
+                                    System.err.println("WARNING: The column heading, " + newTitles[k] + " in file, " + inputFileNames[i] + ", does not match the first file's heading, " + titles[k]);
+                                }
+                            }
+                        }
+                        // the data start after the titles
+                        header.readLine();
+                    }
+
+                    long dataStart = header.getLineStart();
+
+                    LineFormatter formatter = treeFiles ? null : new LineFormatter(titles, convertToDecimal, useScale, scale);
+                    if (!combineFile(pool, channel, dataStart, formatter, filter, out)) {
+                        return;
+                    }
+                }
+            }
+
+            if (treeFiles) {
+                writeLine(out, "End;");
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } finally {
+            pool.shutdownNow();
+            out.close();
+        }
+    }
+
+    /**
+     * Scans the chunks of a file in parallel and writes them in order.
+     * @return false if an error means the combination should stop
+     */
+    private boolean combineFile(ExecutorService pool, final FileChannel channel, final long dataStart,
+                                final LineFormatter formatter, StateFilter filter, OutputStream out)
+            throws IOException, InterruptedException {
+
+        final long fileSize = channel.size();
+        long chunkStart = dataStart;
+
+        Deque<Future<Chunk>> pending = new ArrayDeque<>();
+        int maxPending = threadCount * 2;
+
+        while (chunkStart < fileSize || !pending.isEmpty()) {
+            while (chunkStart < fileSize && pending.size() < maxPending) {
+                final long start = chunkStart;
+                final long end = Math.min(fileSize, chunkStart + chunkSize);
+                pending.add(pool.submit(new Callable<Chunk>() {
+                    @Override
+                    public Chunk call() throws IOException {
+                        return scanChunk(channel, fileSize, start, end, start == dataStart, formatter);
+                    }
+                }));
+                chunkStart = end;
+            }
+
+            Chunk chunk;
+            try {
+                chunk = pending.removeFirst().get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            }
+
+            if (!writeChunk(chunk, filter, out)) {
+                for (Future<Chunk> future : pending) {
+                    future.cancel(true);
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds and processes all the lines that start in the byte range [start, end).
+     */
+    private Chunk scanChunk(FileChannel channel, long fileSize, long start, long end, boolean isFirst,
+                            LineFormatter formatter) throws IOException {
+        long overrun = MAP_OVERRUN;
+        long mapEnd = Math.min(fileSize, end + overrun);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, mapEnd - start);
+        int limit = (int) (end - start);
+        int mapLimit = buffer.limit();
+
+        Chunk chunk = new Chunk();
+
+        int pos = 0;
+        if (!isFirst) {
+            // a line belongs to the chunk its first character is in so skip the tail of the previous line
+            byte previous = channel.map(FileChannel.MapMode.READ_ONLY, start - 1, 1).get(0);
+            if (previous != '\n') {
+                pos = indexOf(buffer, '\n', 0, mapLimit);
+                pos = (pos < 0 ? mapLimit : pos + 1);
+            }
+        }
+
+        while (pos < limit) {
+            int lineEnd = indexOf(buffer, '\n', pos, mapLimit);
+            while (lineEnd < 0 && mapEnd < fileSize) {
+                // the last line runs past the mapped overrun so map more of the file
+                if (overrun >= MAX_LINE_LENGTH) {
+                    throw new IOException("Line longer than " + MAX_LINE_LENGTH + " bytes at position " + (start + pos));
+                }
+                overrun = Math.min(2 * overrun, MAX_LINE_LENGTH);
+                mapEnd = Math.min(fileSize, end + overrun);
+                int from = mapLimit;
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, mapEnd - start);
+                mapLimit = buffer.limit();
+                lineEnd = indexOf(buffer, '\n', from, mapLimit);
+            }
+            if (lineEnd < 0) {
+                lineEnd = mapLimit;
+            }
+            int next = lineEnd + 1;
+            if (lineEnd > pos && buffer.get(lineEnd - 1) == '\r') {
+                lineEnd -= 1;
+            }
+
+            if (formatter == null) {
+                scanTreeLine(buffer, pos, lineEnd, chunk);
+            } else {
+                byte[] bytes = new byte[lineEnd - pos];
+                ((ByteBuffer) buffer.duplicate().position(pos)).get(bytes);
+                formatter.formatLine(new String(bytes, CHARSET), chunk);
+            }
+
+            pos = next;
+        }
+
+        return chunk;
+    }
+
+    /**
+     * A tree line is kept if it is of the form 'tree STATE_[digits][whitespace]...' in which case
+     * the text after the state number is copied as bytes.
+     */
+    private static void scanTreeLine(ByteBuffer buffer, int pos, int lineEnd, Chunk chunk) {
+        if (lineEnd - pos <= TREE_PREFIX.length) {
+            return;
+        }
+        for (int i = 0; i < TREE_PREFIX.length; i++) {
+            if (buffer.get(pos + i) != TREE_PREFIX[i]) {
+                return;
+            }
+        }
+        int p = pos + TREE_PREFIX.length;
+        int digitStart = p;
+        while (p < lineEnd && buffer.get(p) >= '0' && buffer.get(p) <= '9') {
+            p++;
+        }
+        if (p == digitStart || p == lineEnd || !Character.isWhitespace((char) buffer.get(p))) {
+            return;
+        }
+
+        long state;
+        try {
+            byte[] digits = new byte[p - digitStart];
+            ((ByteBuffer) buffer.duplicate().position(digitStart)).get(digits);
+            state = Long.parseLong(new String(digits, CHARSET));
+        } catch (NumberFormatException nfe) {
+            return;
+        }
+
+        byte[] text = new byte[lineEnd - p];
+        ((ByteBuffer) buffer.duplicate().position(p)).get(text);
+        chunk.add(state, 0, true, text);
+    }
+
+    private static int indexOf(ByteBuffer buffer, char ch, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == ch) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Applies the state filter to each line of the chunk and writes the ones that are logged.
+     * @return false if there was an error
+     */
+    private boolean writeChunk(Chunk chunk, StateFilter filter, OutputStream out) throws IOException {
+        for (int i = 0; i < chunk.count; i++) {
+            long entry;
+            try {
+                entry = filter.filter(chunk.states[i], chunk.columnCounts[i], chunk.valid[i]);
+            } catch (IllegalArgumentException iae) {
+                System.err.println("ERROR: " + iae.getMessage());
+                return false;
+            }
+            if (entry != StateFilter.SKIP) {
+                if (!filter.isLog) {
+                    out.write(TREE_PREFIX);
+                }
+                out.write(Long.toString(entry).getBytes(CHARSET));
+                out.write(chunk.text[i]);
+                out.write(LINE_SEPARATOR);
+            }
+        }
+        return true;
+    }
+
+    private static void writeLine(OutputStream out, String line) throws IOException {
+        out.write(line.getBytes(CHARSET));
+        out.write(LINE_SEPARATOR);
+    }
+
+    /**
+     * The lines found in a chunk of a file. The text is what follows the state number in the output.
+     */
+    private static final class Chunk {
+        void add(long state, int columnCount, boolean valid, byte[] text) {
+            if (count == states.length) {
+                int capacity = count * 2;
+                states = Arrays.copyOf(states, capacity);
+                columnCounts = Arrays.copyOf(columnCounts, capacity);
+                this.valid = Arrays.copyOf(this.valid, capacity);
+                this.text = Arrays.copyOf(this.text, capacity);
+            }
+            states[count] = state;
+            columnCounts[count] = columnCount;
+            this.valid[count] = valid;
+            this.text[count] = text;
+            count++;
+        }
+
+        int count = 0;
+        long[] states = new long[256];
+        int[] columnCounts = new int[256];
+        boolean[] valid = new boolean[256];
+        byte[][] text = new byte[256][];
+    }
+
+    /**
+     * Parses and checks the lines of a log file and reformats the values (this is the part of
+     * LogCombiner's line processing that doesn't depend on the previous lines).
+     */
+    private static final class LineFormatter {
+        LineFormatter(String[] titles, boolean convertToDecimal, boolean useScale, double scale) {
+            this.titles = titles;
+            this.convertToDecimal = convertToDecimal;
+            this.useScale = useScale;
+            this.scale = scale;
+        }
+
+        void formatLine(String line, Chunk chunk) {
+            String[] parts = line.split("\t");
+
+            long state;
+            try {
+                state = Long.parseLong(parts[0]);
+            } catch (NumberFormatException nfe) {
+                return;
+            }
+
+            for (int j = 1; j < parts.length; j++) {
+                try {
+                    if (!parts[j].startsWith("{")) {
+                        // complex log values start with a curly bracket - otherwise attempt to parse
+                        // it as a number. If it fails, skip the line as a possible corruption.
+                        Double.valueOf(parts[j]);
+                    }
+                } catch (NumberFormatException nfe) {
+                    chunk.add(state, parts.length, false, null);
+                    return;
+                }
+            }
+
+            StringBuilder text = new StringBuilder();
+            for (int j = 1; j < parts.length; j++) {
+                String value = parts[j];
+
+                if (useScale) {
+                    if (titles[j].equals("clock.rate") || titles[j].startsWith("skyline.popSize")) {
+                        value = LogCombiner.reformatNumbers(value, convertToDecimal, true, 1.0 / scale);
+                    } else if (titles[j].equals("treeModel.rootHeight")) {
+                        value = LogCombiner.reformatNumbers(value, convertToDecimal, true, scale);
+                    }
+                } else if (convertToDecimal) {
+                    value = LogCombiner.reformatNumbers(value, convertToDecimal, false, 1.0);
+                }
+                text.append("\t").append(value);
+            }
+            chunk.add(state, parts.length, true, text.toString().getBytes(CHARSET));
+        }
+
+        private final String[] titles;
+        private final boolean convertToDecimal;
+        private final boolean useScale;
+        private final double scale;
+    }
+
+    /**
+     * The burn-in, resampling and renumbering rules of LogCombiner. These depend on all the preceding
+     * lines so this is applied to each line in order.
+     */
+    private static final class StateFilter {
+        static final long SKIP = Long.MIN_VALUE;
+
+        StateFilter(long resample, boolean renumberOutput, boolean isLog) {
+            this.resample = resample;
+            this.renumberOutput = renumberOutput;
+            this.isLog = isLog;
+            stateCount = (renumberOutput ? -1 : 0);
+        }
+
+        /**
+         * @return the state number to write for this line or SKIP
+         */
+        long filter(long state, int columns, boolean valid) {
+            if (stateStep < 0 && state > 0) {
+                stateStep = state;
+                columnCount = columns;
+            }
+
+            // if the columnCount is not the same then perhaps the line is corrupt so skip it.
+            if (state < burnin || (isLog && (columns != columnCount || !valid))) {
+                return SKIP;
+            }
+
+            if (stateStep > 0) {
+                if (!renumberOutput) {
+                    stateCount += stateStep;
+                } else {
+                    stateCount += 1;
+                }
+            }
+
+            if (resample >= 0) {
+                if (resample % stateStep != 0) {
+                    throw new IllegalArgumentException("Resampling frequency is not a multiple of existing sampling frequency");
+                }
+            }
+
+            boolean logThis;
+            if (resample < 0) {
+                logThis = true;
+            } else if (!renumberOutput) {
+                logThis = (stateCount % resample == 0);
+            } else {
+                logThis = ((stateCount * stateStep) % resample == 0);
+            }
+
+            if (!logThis) {
+                return SKIP;
+            }
+
+            if (!renumberOutput || resample <= 0) {
+                return stateCount;
+            } else {
+                return stateCount / (resample / stateStep);
+            }
+        }
+
+        long burnin = -1;
+        final long resample;
+        final boolean renumberOutput;
+        final boolean isLog;
+
+        long stateCount;
+        long stateStep = -1;
+        int columnCount = 0;
+    }
+
+    /**
+     * Reads the header lines of a file keeping track of the byte offset of each line.
+     */
+    private static final class HeaderReader {
+        HeaderReader(FileChannel channel) throws IOException {
+            this.in = new BufferedInputStream(java.nio.channels.Channels.newInputStream(channel.position(0)), 1 << 16);
+        }
+
+        String readLine() throws IOException {
+            lineStart = position;
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            int b = in.read();
+            if (b < 0) {
+                return null;
+            }
+            while (b >= 0 && b != '\n') {
+                bytes.write(b);
+                position++;
+                b = in.read();
+            }
+            if (b == '\n') {
+                position++;
+            }
+            byte[] line = bytes.toByteArray();
+            int length = line.length;
+            if (length > 0 && line[length - 1] == '\r') {
+                length--;
+            }
+            return new String(line, 0, length, CHARSET);
+        }
+
+        /**
+         * @return the offset of the start of the last line read
+         */
+        long getLineStart() {
+            return lineStart;
+        }
+
+        private final InputStream in;
+        private long position = 0;
+        private long lineStart = 0;
+    }
+
+    // the input and output use the platform encoding as the line by line combination does
+    private static final Charset CHARSET = Charset.defaultCharset();
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(CHARSET);
+
+    private final int threadCount;
+    private final int chunkSize;
+}
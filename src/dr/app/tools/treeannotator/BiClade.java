@@ -54,8 +54,14 @@ class BiClade implements Clade {
         this.taxon = taxon;
     }
 
-    public BiClade(Object key, int size) {
-        this.index = -1;
+    /**
+     * Clade without the sub-clades
+     * @param key the key of the clade
+     * @param size number of tips in the clade
+     * @param index the lowest tip number in the clade
+     */
+    public BiClade(Object key, int size, int index) {
+        this.index = index;
         count = 0;
         credibility = 1.0;
         this.size = size;
@@ -164,21 +170,20 @@ class BiClade implements Clade {
         return key;
     }
 
+    /**
+     * Makes the key for the union of two child clades. Tips are keyed by their index (an Integer)
+     * and all other clades by a CladeKey.
+     */
     public static Object makeKey(Object key1, Object key2) {
-        BitSet bits = new BitSet();
-        if (key1 instanceof Integer) {
-            bits.set((Integer) key1);
-        } else {
-            assert key1 instanceof BitSet;
-            bits.or((BitSet) key1);
-        }
-        if (key2 instanceof Integer) {
-            bits.set((Integer) key2);
-        } else {
-            assert key2 instanceof BitSet;
-            bits.or((BitSet) key2);
+        return CladeKey.combine(toCladeKey(key1), toCladeKey(key2));
+    }
+
+    private static CladeKey toCladeKey(Object key) {
+        if (key instanceof Integer) {
+            return CladeKey.getTipKey((Integer) key);
         }
-        return bits;
+        assert key instanceof CladeKey;
+        return (CladeKey) key;
     }
 
 //    public boolean equals(Object o) {
@@ -0,0 +1,91 @@
+/*
+ * CladeKey.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.app.tools.treeannotator;
+
+/**
+ * A compact, fixed size key for a clade. Each tip is given a pseudo-random 128 bit value and the key
+ * of a clade is the sum (modulo 2^64 in each half) of the values of its tips. The key of a clade is
+ * therefore just the sum of the keys of its two child clades so it is built in constant time and
+ * space regardless of the number of taxa (unlike a BitSet). Two different clades will share a key
+ * with a probability of order 2^-128.
+ *
+ * @version $
+ */
+final class CladeKey {
+
+    private CladeKey(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * @return the key of the tip with the given index
+     */
+    static CladeKey getTipKey(int index) {
+        return new CladeKey(mix(index + GOLDEN_GAMMA), mix(~index * GOLDEN_GAMMA));
+    }
+
+    /**
+     * @return the key of the union of two disjoint clades
+     */
+    static CladeKey combine(CladeKey key1, CladeKey key2) {
+        return new CladeKey(key1.high + key2.high, key1.low + key2.low);
+    }
+
+    /**
+     * SplitMix64 finaliser
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CladeKey)) return false;
+        CladeKey key = (CladeKey) o;
+        return high == key.high && low == key.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (low ^ (low >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", high, low);
+    }
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private final long high;
+    private final long low;
+}
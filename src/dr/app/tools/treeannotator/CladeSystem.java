@@ -32,9 +32,12 @@ import dr.evolution.tree.Tree;
 import dr.evolution.util.Taxon;
 import dr.evolution.util.TaxonList;
 import dr.stats.DiscreteStatistics;
+import dr.util.Pair;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * @author Andrew Rambaut
@@ -42,7 +45,7 @@ import java.util.Map;
  */
 final class CladeSystem {
     private final boolean keepSubClades;
-    private double treeCount = 0;
+    private int treeCount = 0;
 
     /**
      * Constructor starting with an empty clade system
@@ -67,19 +70,57 @@ final class CladeSystem {
             setTaxonList(tree);
         }
 
-        if (treeCount == 0) {
-            // these will always be the same so create them once
-            addTipClades(tree);
+        CladeCounts counts = createCladeCounts();
+        counts.add(tree);
+        addCladeCounts(counts);
+    }
+
+    /**
+     * Creates an empty set of clade counts for this clade system. The taxon list must have been
+     * set before this is called. The counts can be accumulated on any thread and then added to
+     * the clade system with addCladeCounts.
+     */
+    public CladeCounts createCladeCounts() {
+        if (taxonList == null) {
+            throw new IllegalStateException("The taxon list must be set before counting clades");
         }
+        return new CladeCounts(taxonList.getTaxonCount());
+    }
 
-        // Recurse over the tree and add all the clades (or increment their
-        // frequency if already present). The root clade is added too (for
-        // annotation purposes).
-        rootClade = addClades(tree, tree.getRoot());
+    /**
+     * Adds a set of clade counts to the clade system, creating any new clades. This is
+     * synchronized so that multiple threads can add their counts as they finish.
+     */
+    public synchronized void addCladeCounts(CladeCounts counts) {
+        for (CladeCount tipCount : counts.tipCounts) {
+            Clade clade = tipClades.get(tipCount.key);
+            clade.setCount(clade.getCount() + tipCount.count);
+        }
 
-        assert rootClade.getSize() == tree.getExternalNodeCount();
+        for (CladeCount cladeCount : counts.cladeCounts.values()) {
+            Clade clade = cladeMap.get(cladeCount.key);
+            if (clade == null) {
+                clade = new BiClade(cladeCount.key, cladeCount.size, cladeCount.index);
+                cladeMap.put(cladeCount.key, clade);
+            }
+            clade.setCount(clade.getCount() + cladeCount.count);
 
-        treeCount += 1;
+            if (cladeCount.size == taxonList.getTaxonCount()) {
+                rootClade = clade;
+            }
+        }
+
+        if (keepSubClades) {
+            // all the clades now exist so the sub-clades can be linked up
+            for (CladeCount cladeCount : counts.cladeCounts.values()) {
+                BiClade clade = (BiClade) cladeMap.get(cladeCount.key);
+                for (Pair<Object, Object> subClade : cladeCount.subClades) {
+                    clade.addSubClades(getClade(subClade.first), getClade(subClade.second));
+                }
+            }
+        }
+
+        treeCount += counts.treeCount;
     }
 
     public void setTaxonList(TaxonList taxonList) {
@@ -88,6 +129,10 @@ final class CladeSystem {
         for (int i = 0; i < taxonList.getTaxonCount(); i++) {
             taxonNumberMap.put(taxonList.getTaxon(i), i);
         }
+
+        // these will always be the same so create them once
+        tipClades.clear();
+        addTipClades(taxonList);
     }
 
     public Clade getRootClade() {
@@ -95,67 +140,99 @@ final class CladeSystem {
     }
 
     /**
-     * add all the tips in a tree
+     * add all the tips in the taxon list
      */
-    private void addTipClades(Tree tree) {
-        for (int i = 0; i < tree.getExternalNodeCount(); i++) {
-            NodeRef tip = tree.getExternalNode(i);
-            int index = tip.getNumber();
-            Taxon taxon = tree.getNodeTaxon(tip);
-            if (taxonNumberMap != null) {
-                index = taxonNumberMap.get(taxon);
-            }
-            Clade clade = new BiClade(index, taxon);
-            tipClades.put(index, clade);
+    private void addTipClades(TaxonList taxonList) {
+        for (int i = 0; i < taxonList.getTaxonCount(); i++) {
+            Clade clade = new BiClade(i, taxonList.getTaxon(i));
+            tipClades.put(i, clade);
+        }
+    }
+
+    private int getTipIndex(Tree tree, NodeRef node) {
+        if (taxonNumberMap != null) {
+            return taxonNumberMap.get(tree.getNodeTaxon(node));
         }
+        return node.getNumber();
     }
 
     /**
-     * recursively add all the clades in a tree
+     * The clade counts for a set of trees, independent of the clade system so that trees can
+     * be processed in parallel and the counts merged.
      */
-    private Clade addClades(Tree tree, NodeRef node) {
-        Clade clade;
-        if (tree.isExternal(node)) {
-            // all tip clades should already be there
-            int index = node.getNumber();
-            if (taxonNumberMap != null) {
-                index = taxonNumberMap.get(tree.getNodeTaxon(node));
+    public final class CladeCounts {
+        private CladeCounts(int tipCount) {
+            tipCounts = new CladeCount[tipCount];
+            for (int i = 0; i < tipCount; i++) {
+                tipCounts[i] = new CladeCount(i, 1, i);
             }
-            clade = tipClades.get(index);
-//            assert clade != null && clade.getTaxon().equals(tree.getNodeTaxon(node));
-        } else {
-            assert tree.getChildCount(node) == 2 : "requires a strictly bifurcating tree";
-
-            Clade clade1 = addClades(tree, tree.getChild(node, 0));
-            Clade clade2 = addClades(tree, tree.getChild(node, 1));
-            clade = getOrAddClade(clade1, clade2);
         }
-        assert clade != null;
 
-        clade.setCount(clade.getCount() + 1);
+        /**
+         * adds all the clades in the tree
+         */
+        public void add(Tree tree) {
+            CladeCount root = addClades(tree, tree.getRoot());
+            assert root.size == tree.getExternalNodeCount();
+            treeCount += 1;
+        }
 
-        return clade;
-    }
+        public int getTreeCount() {
+            return treeCount;
+        }
 
-    /**
-     * see if a clade exists otherwise create it
-     */
-    private Clade getOrAddClade(Clade child1, Clade child2) {
-        Object key = BiClade.makeKey(child1.getKey(), child2.getKey());
-        BiClade clade = (BiClade)cladeMap.get(key);
-        if (clade == null) {
-            if (keepSubClades) {
-                clade = new BiClade(child1, child2);
+        /**
+         * recursively add all the clades in a tree
+         */
+        private CladeCount addClades(Tree tree, NodeRef node) {
+            CladeCount cladeCount;
+            if (tree.isExternal(node)) {
+                cladeCount = tipCounts[getTipIndex(tree, node)];
             } else {
-                clade = new BiClade(key, child1.getSize() + child2.getSize());
-            }
-            cladeMap.put(clade.getKey(), clade);
-        } else {
-            if (keepSubClades) {
-                clade.addSubClades(child1, child2);
+                assert tree.getChildCount(node) == 2 : "requires a strictly bifurcating tree";
+
+                CladeCount child1 = addClades(tree, tree.getChild(node, 0));
+                CladeCount child2 = addClades(tree, tree.getChild(node, 1));
+                if (child2.index < child1.index) {
+                    CladeCount tmp = child1;
+                    child1 = child2;
+                    child2 = tmp;
+                }
+
+                Object key = BiClade.makeKey(child1.key, child2.key);
+                cladeCount = cladeCounts.get(key);
+                if (cladeCount == null) {
+                    cladeCount = new CladeCount(key, child1.size + child2.size, child1.index);
+                    cladeCounts.put(key, cladeCount);
+                }
+                if (keepSubClades) {
+                    cladeCount.subClades.add(new Pair<>(child1.key, child2.key));
+                }
             }
+
+            cladeCount.count += 1;
+
+            return cladeCount;
         }
-        return clade;
+
+        private final CladeCount[] tipCounts;
+        private final Map<Object, CladeCount> cladeCounts = new HashMap<>();
+        private int treeCount = 0;
+    }
+
+    private final class CladeCount {
+        CladeCount(Object key, int size, int index) {
+            this.key = key;
+            this.size = size;
+            this.index = index;
+            subClades = (keepSubClades && size > 1 ? new HashSet<>() : null);
+        }
+
+        final Object key;
+        final int size;
+        final int index;
+        final Set<Pair<Object, Object>> subClades;
+        int count = 0;
     }
 
     public Clade getClade(Object key) {
@@ -174,10 +251,7 @@ final class CladeSystem {
         Object key;
 
         if (tree.isExternal(node)) {
-            key = node.getNumber();
-            if (taxonNumberMap != null) {
-                key = taxonNumberMap.get(tree.getNodeTaxon(node));
-            }
+            key = getTipIndex(tree, node);
         } else {
             assert tree.getChildCount(node) == 2;
 
@@ -340,7 +414,7 @@ final class CladeSystem {
     Map<Taxon, Integer> taxonNumberMap = null;
 
     private final Map<Object, Clade> tipClades = new HashMap<>();
-   private final Map<Object, Clade> cladeMap = new HashMap<>();
+    private final Map<Object, Clade> cladeMap = new HashMap<>();
 
     Clade rootClade;
 
@@ -33,9 +33,9 @@ import dr.app.tools.NexusExporter;
 import dr.app.tools.logcombiner.LogCombiner;
 import dr.app.util.Arguments;
 import dr.evolution.io.Importer;
+import dr.evolution.io.IndexedTreeFile;
 import dr.evolution.io.NewickImporter;
 import dr.evolution.io.NexusImporter;
-import dr.evolution.io.TreeImporter;
 import dr.evolution.tree.FlexibleTree;
 import dr.evolution.tree.MutableTree;
 import dr.evolution.tree.NodeRef;
@@ -50,6 +50,7 @@ import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * @author Andrew Rambaut
@@ -64,6 +65,7 @@ public class TreeAnnotator extends BaseTreeTool {
 
     private static final HeightsSummary DEFAULT_HEIGHTS_SUMMARY = HeightsSummary.MEAN_HEIGHTS;
     private static final boolean COUNT_TREES = true;
+    private static final int TREE_BATCH_SIZE = 100;
 
     // Messages to stderr, output to stdout
     private static PrintStream progressStream = System.err;
@@ -71,7 +73,10 @@ public class TreeAnnotator extends BaseTreeTool {
     private final CollectionAction collectionAction;
     private final AnnotationAction annotationAction;
 
+    private final int threadCount;
+
     private TaxonList taxa = null;
+    private IndexedTreeFile treeFile = null;
     private int totalTrees;
     private int totalTreesUsed;
     private long maxState;
@@ -122,12 +127,15 @@ public class TreeAnnotator extends BaseTreeTool {
                          Target targetOption,
                          String targetTreeFileName,
                          String referenceTreeFileName,
+                         int threadCount,
                          String inputFileName,
                          String outputFileName
     ) throws IOException {
 
         long totalStartTime = System.currentTimeMillis();
 
+        this.threadCount = threadCount;
+
         collectionAction = new CollectionAction();
 
         collectionAction.addAttributeName("height");
@@ -233,17 +241,27 @@ public class TreeAnnotator extends BaseTreeTool {
 
     private void countTrees(String inputFileName) throws IOException {
         progressStream.println("Counting trees...");
-        Reader reader = new BufferedReader(new FileReader(inputFileName));
-        TreeImporter importer = new BEASTTreesImporter(reader);
-        totalTrees = importer.countTrees();
-        if (totalTrees == 0) {
-            totalTrees = 10000;
-        }
-        reader.close();
+        totalTrees = getTreeFile(inputFileName).getTreeCount();
         progressStream.println("Total number of trees: " + totalTrees);
         progressStream.println();
     }
 
+    /**
+     * The trees file is indexed once and then each pass over it can go straight to the trees after
+     * the burnin, and parse them on any thread.
+     */
+    private IndexedTreeFile getTreeFile(String inputFileName) throws IOException {
+        if (treeFile == null) {
+            try {
+                treeFile = new IndexedTreeFile(new File(inputFileName), true);
+            } catch (Importer.ImportException e) {
+                System.err.println("Error Parsing Input Tree: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+        return treeFile;
+    }
+
     private int readTrees(String inputFileName, int burninTrees, long burninStates, CladeSystem cladeSystem) throws IOException {
         long timeElapsed;
         long startTime;
@@ -258,34 +276,33 @@ public class TreeAnnotator extends BaseTreeTool {
 
         startTime = System.currentTimeMillis();
 
+        // The trees are parsed and have their clades counted in batches on a pool of worker
+        // threads. Each batch is counted separately and merged into the clade system. The number
+        // of batches waiting or being processed is limited so the memory used doesn't depend on
+        // the number of trees.
+        final ExecutorService pool = (threadCount > 1 ? Executors.newFixedThreadPool(threadCount) : null);
+        final Semaphore batchPermits = new Semaphore(Math.max(1, threadCount) * 2);
+        final List<Future<?>> futures = new ArrayList<>();
+
         try {
-            // read the first tree using NexusImport to get the taxon list and tip number to taxon mapping
-//            Reader reader = new BufferedReader(new FileReader(inputFileName));
-//            NexusImporter nexusImporter = new NexusImporter(reader, true);
-//            taxa = nexusImporter.importTree(null);
-//
-//            reader = new BufferedReader(new FileReader(inputFileName));
-//            BEASTTreesImporter importer = new BEASTTreesImporter(reader, false);
-//            importer.setTaxonList(taxa);
+            final IndexedTreeFile treeFile = getTreeFile(inputFileName);
+
+            if (taxa == null) {
+                Tree tree = treeFile.getTree(0);
+                taxa = new Taxa(tree);
+                cladeSystem.setTaxonList(tree);
+            }
 
-            Reader reader = new BufferedReader(new FileReader(inputFileName));
-            NexusImporter importer = new NexusImporter(reader, true);
+            int batchStart = -1;
 
             totalTrees = 0;
-            while (importer.hasTree()) {
-                Tree tree = importer.importNextTree();
+            for (int i = 0; i < treeFile.getTreeCount(); i++) {
                 long state = 0;
 
-                if (taxa == null) {
-                    taxa = new Taxa(tree);
-                }
-
                 if (burninStates > 0) {
-                    // if burnin has been specified in states, try to parse it out...
-                    String name = tree.getId().trim();
-
-                    if (name.startsWith("STATE_")) {
-                        state = Long.parseLong(name.split("_")[1]);
+                    // if burnin has been specified in states, try to get it from the tree name...
+                    if (treeFile.getState(i) != IndexedTreeFile.NO_STATE) {
+                        state = treeFile.getState(i);
                         maxState = state;
                     } else {
                         maxState = state;
@@ -302,7 +319,13 @@ public class TreeAnnotator extends BaseTreeTool {
                         burnin = totalTrees;
                     }
 
-                    cladeSystem.add(tree);
+                    if (batchStart < 0) {
+                        batchStart = i;
+                    }
+                    if (i + 1 - batchStart == TREE_BATCH_SIZE) {
+                        futures.add(submitBatch(pool, batchPermits, treeFile, batchStart, i + 1, cladeSystem));
+                        batchStart = -1;
+                    }
 
                     totalTreesUsed += 1;
                 }
@@ -314,10 +337,25 @@ public class TreeAnnotator extends BaseTreeTool {
                 totalTrees++;
             }
 
-            reader.close();
+            if (batchStart >= 0) {
+                futures.add(submitBatch(pool, batchPermits, treeFile, batchStart, treeFile.getTreeCount(), cladeSystem));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
         } catch (Importer.ImportException e) {
             System.err.println("Error Parsing Input Tree: " + e.getMessage());
             System.exit(1);
+        } catch (ExecutionException e) {
+            System.err.println("Error Parsing Input Tree: " + e.getCause().getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
         }
         timeElapsed =  (System.currentTimeMillis() - startTime) / 1000;
         progressStream.println("* [" + timeElapsed + " secs]");
@@ -336,6 +374,37 @@ public class TreeAnnotator extends BaseTreeTool {
         return burnin;
     }
 
+    /**
+     * Parses a batch of trees and adds their clades to the clade system. If there is no pool then
+     * this is done on the calling thread, otherwise this blocks until a permit is available.
+     */
+    private Future<?> submitBatch(ExecutorService pool, final Semaphore batchPermits, final IndexedTreeFile treeFile,
+                                  final int from, final int to, final CladeSystem cladeSystem) throws InterruptedException {
+        Callable<Void> task = new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                try {
+                    CladeSystem.CladeCounts counts = cladeSystem.createCladeCounts();
+                    for (int i = from; i < to; i++) {
+                        counts.add(treeFile.getTree(i));
+                    }
+                    cladeSystem.addCladeCounts(counts);
+                } finally {
+                    batchPermits.release();
+                }
+                return null;
+            }
+        };
+
+        batchPermits.acquire();
+        if (pool == null) {
+            FutureTask<Void> future = new FutureTask<>(task);
+            future.run();
+            return future;
+        }
+        return pool.submit(task);
+    }
+
     private void collectNodeAttributes(CladeSystem cladeSystem, String inputFileName, int burnin) throws IOException {
         progressStream.println("Collecting node information...");
         progressStream.println("0              25             50             75            100");
@@ -344,20 +413,16 @@ public class TreeAnnotator extends BaseTreeTool {
         int stepSize = totalTrees / 60;
         if (stepSize < 1) stepSize = 1;
 
-        Reader reader = new BufferedReader(new FileReader(inputFileName));
-//         TreeImporter importer = new BEASTTreesImporter(reader, true);
-        TreeImporter importer = new NexusImporter(reader, true);
+        IndexedTreeFile treeFile = getTreeFile(inputFileName);
 
         long startTime = System.currentTimeMillis();
 
         totalTreesUsed = 0;
         try {
             boolean firstTree = true;
-            int counter = 0;
-            while (importer.hasTree()) {
-                Tree tree = importer.importNextTree();
-
+            for (int counter = 0; counter < treeFile.getTreeCount(); counter++) {
                 if (counter >= burnin) {
+                    Tree tree = treeFile.getTree(counter);
                     if (firstTree) {
                         setupAttributes(tree);
                         firstTree = false;
@@ -370,8 +435,6 @@ public class TreeAnnotator extends BaseTreeTool {
                     progressStream.print("*");
                     progressStream.flush();
                 }
-                counter++;
-
             }
             cladeSystem.calculateCladeCredibilities(totalTreesUsed);
         } catch (Importer.ImportException e) {
@@ -381,7 +444,6 @@ public class TreeAnnotator extends BaseTreeTool {
         long timeElapsed =  (System.currentTimeMillis() - startTime) / 1000;
         progressStream.println("* [" + timeElapsed + " secs]");
         progressStream.println();
-        reader.close();
     }
 
     public void setupAttributes(Tree tree) {
@@ -456,15 +518,12 @@ public class TreeAnnotator extends BaseTreeTool {
         int stepSize = totalTrees / 60;
         if (stepSize < 1) stepSize = 1;
 
-        int counter = 0;
         int bestTreeNumber = 0;
-//        TreeImporter importer = new BEASTTreesImporter(new FileReader(inputFileName), false);
-        TreeImporter importer = new NexusImporter(new FileReader(inputFileName), true);
+        IndexedTreeFile treeFile = getTreeFile(inputFileName);
         try {
-            while (importer.hasTree()) {
-                Tree tree = importer.importNextTree();
-
+            for (int counter = 0; counter < treeFile.getTreeCount(); counter++) {
                 if (counter >= burnin) {
+                    Tree tree = treeFile.getTree(counter);
                     double score = scoreTree(tree, cladeSystem);
 //                    progressStream.println(score);
                     if (score > bestScore) {
@@ -477,7 +536,6 @@ public class TreeAnnotator extends BaseTreeTool {
                     progressStream.print("*");
                     progressStream.flush();
                 }
-                counter++;
             }
         } catch (Importer.ImportException e) {
             System.err.println("Error Parsing Input Tree: " + e.getMessage());
@@ -669,6 +727,7 @@ public class TreeAnnotator extends BaseTreeTool {
 
         boolean forceIntegerToDiscrete = false;
         boolean computeESS = false;
+        int threadCount = Runtime.getRuntime().availableProcessors();
 
         if (args.length == 0) {
             System.setProperty("com.apple.macos.useScreenMenuBar", "true");
@@ -745,6 +804,7 @@ public class TreeAnnotator extends BaseTreeTool {
                         targetOption,
                         targetTreeFileName,
                         referenceTreeFileName,
+                        threadCount,
                         inputFileName,
                         outputFileName);
 
@@ -778,7 +838,8 @@ public class TreeAnnotator extends BaseTreeTool {
                         new Arguments.Option("help", "option to print this message"),
                         new Arguments.Option("forceDiscrete", "forces integer traits to be treated as discrete traits."),
                         new Arguments.StringOption("hpd2D", "the HPD interval to be used for the bivariate traits", "specifies a (vector of comma separated) HPD proportion(s)"),
-                        new Arguments.Option("ess", "compute ess for branch parameters")
+                        new Arguments.Option("ess", "compute ess for branch parameters"),
+                        new Arguments.IntegerOption("threads", "the number of threads used to read the trees (default is the number of available processors)")
                 });
 
         try {
@@ -859,6 +920,10 @@ public class TreeAnnotator extends BaseTreeTool {
             referenceTreeFileName = arguments.getStringOption("reference");
         }
 
+        if (arguments.hasOption("threads")) {
+            threadCount = arguments.getIntegerOption("threads");
+        }
+
         final String[] args2 = arguments.getLeftoverArguments();
 
         switch (args2.length) {
@@ -886,6 +951,7 @@ public class TreeAnnotator extends BaseTreeTool {
                 target,
                 targetTreeFileName,
                 referenceTreeFileName,
+                threadCount,
                 inputFileName,
                 outputFileName);
 
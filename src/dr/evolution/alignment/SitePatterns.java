@@ -31,11 +31,16 @@ import dr.evolution.datatype.AminoAcids;
 import dr.evolution.datatype.Codons;
 import dr.evolution.datatype.DataType;
 import dr.evolution.datatype.Nucleotides;
+import dr.evolution.sequence.Sequence;
 import dr.evolution.util.Taxon;
 import dr.evolution.util.TaxonList;
 import dr.util.Pair;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static dr.evolution.alignment.SitePatterns.CompressionType.*;
 
@@ -67,6 +72,11 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
 
     public static final int MINIMUM_UNAMBIGUOUS = 2;
 
+    /**
+     * the number of sites that are read and hashed together when compressing patterns
+     */
+    private static final int CHUNK_SIZE = 1024;
+
     private final boolean isCompressed;
 
     /**
@@ -108,6 +118,11 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
 
     private boolean uncertainSites = false;
 
+    /**
+     * the unique patterns, packed and hashed - only used while the patterns are being added
+     */
+    private PatternTable patternTable = null;
+
     /**
      * Constructor
      */
@@ -265,6 +280,10 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
             System.err.println("Creating SitePatterns using compression type: " + compression.toString());
         }
 
+        if (compression != UNCOMPRESSED && !uncertainSites) {
+            patternTable = new PatternTable(siteList.getPatternLength(), getBitsPerState(siteList.getDataType()), 1024);
+        }
+
         if (compression == AMBIGUOUS_CONSTANT || compression == AMBIGUOUS_UNIQUE) {
             // if the patterns are to be compressed then create the constant sites initially
             for (int i = 0; i < siteList.getStateCount(); i++) {
@@ -276,30 +295,34 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
             }
         }
 
-        int site = 0;
         int count = 0;
 
-        for (int i = from; i <= to; i += every) {
-            int[] pattern = siteList.getSitePattern(i);
-            double weight = siteList.getPatternWeight(i);
-
-            if (uncertainSites) {
-                sitePatternIndices[site] = addUncertainPattern(pattern, weight, siteList.getUncertainSitePattern(i));
-            } else{
-                // @todo - what is `strip` being used for?
-                if (!strip || !isInvariant(pattern, false) ||
-                        (!isGapped(pattern) &&
-                                !isAmbiguous(pattern) &&
-                                !isUnknown(pattern))) {
+        if (patternTable != null) {
+            // compressed certain patterns are hashed, in parallel for long alignments
+            count = addSitePatterns(siteList, from, to, every, strip);
+            patternTable = null;
+        } else {
+            int site = 0;
 
-                    sitePatternIndices[site] = addPattern(pattern, weight, compression);
+            for (int i = from; i <= to; i += every) {
+                int[] pattern = siteList.getSitePattern(i);
+                double weight = siteList.getPatternWeight(i);
 
-                    count += 1;
+                if (uncertainSites) {
+                    sitePatternIndices[site] = addUncertainPattern(pattern, weight, siteList.getUncertainSitePattern(i));
                 } else {
-                    sitePatternIndices[site] = -1;
+                    // @todo - what is `strip` being used for?
+                    if (!strip || !isStrippable(pattern)) {
+
+                        sitePatternIndices[site] = addPattern(pattern, weight, compression);
+
+                        count += 1;
+                    } else {
+                        sitePatternIndices[site] = -1;
+                    }
                 }
+                site++;
             }
-            site++;
         }
 
         if (DEBUG) {
@@ -358,6 +381,16 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
      */
     private int addPattern(int[] pattern, double weight, CompressionType compression) {
 
+        if (compression != UNCOMPRESSED && patternTable != null) {
+            long[] key = new long[patternTable.getWordCount()];
+            if (!patternTable.pack(pattern, key)) {
+                repackPatternTable();
+                key = new long[patternTable.getWordCount()];
+                patternTable.pack(pattern, key);
+            }
+            return addPackedPattern(key, 0, PatternTable.hash(key, 0, key.length), pattern, weight);
+        }
+
         if (compression != UNCOMPRESSED) {
             // this will compress unique patterns, further compression of ambiguously similar
             // patterns is done in a later step
@@ -380,6 +413,216 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
         return index;
     }
 
+    /**
+     * adds a packed pattern to the hashed pattern list with the given weight
+     *
+     * @param pattern the unpacked pattern or null to unpack it if it is new
+     * @return the index of the pattern in the pattern list
+     */
+    private int addPackedPattern(long[] key, int offset, int hash, int[] pattern, double weight) {
+        int index = patternTable.indexOf(key, offset, hash);
+        if (index < 0) {
+            index = patternTable.add(key, offset, hash);
+            patterns[index] = (pattern != null ? pattern : patternTable.unpack(index));
+            weights[index] = weight;
+            patternCount++;
+        } else {
+            weights[index] += weight;
+        }
+        return index;
+    }
+
+    /**
+     * Adds the patterns of a range of sites to the hashed pattern list. The sites are read and
+     * hashed in chunks, in parallel for alignments if there is more than one processor, and the unique patterns
+     * of each chunk are merged in order so the patterns are numbered and weighted just as if the
+     * sites had been added one at a time.
+     *
+     * @return the number of sites added (i.e., not stripped)
+     */
+    private int addSitePatterns(final SiteList siteList, final int from, final int to, final int every, final boolean strip) {
+        final int chunkCount = ((((to - from) / every) + 1) + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        // other site lists may not be safe to read from several threads
+        final int threadCount = (siteList instanceof SimpleAlignment ?
+                Math.min(chunkCount, Runtime.getRuntime().availableProcessors()) : 1);
+
+        final ExecutorService pool = (threadCount > 1 ? Executors.newFixedThreadPool(threadCount) : null);
+        final Deque<Future<PatternChunk>> pending = new ArrayDeque<>();
+        int count = 0;
+        try {
+            int nextChunk = 0;
+            int chunk = 0;
+            while (chunk < chunkCount) {
+                PatternChunk result;
+                if (pool != null) {
+                    // keep a few chunks ahead of the merging so the threads stay busy
+                    while (nextChunk < chunkCount && pending.size() < 2 * threadCount) {
+                        final int c = nextChunk;
+                        final int bitsPerState = patternTable.getBitsPerState();
+                        pending.add(pool.submit(() -> readChunk(siteList, from, to, every, strip, c, bitsPerState)));
+                        nextChunk++;
+                    }
+                    result = pending.poll().get();
+                } else {
+                    result = readChunk(siteList, from, to, every, strip, chunk, patternTable.getBitsPerState());
+                }
+
+                if (result.outOfRange) {
+                    // a state didn't fit so start again from this chunk with room for any state
+                    repackPatternTable();
+                    for (Future<PatternChunk> future : pending) {
+                        future.cancel(false);
+                    }
+                    pending.clear();
+                    nextChunk = chunk;
+                    continue;
+                }
+
+                count += mergeChunk(result);
+                chunk++;
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted while compressing site patterns");
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Reads the sites of a chunk and finds their unique patterns. This doesn't change any fields
+     * so it can be run for several chunks at once.
+     */
+    private PatternChunk readChunk(SiteList siteList, int from, int to, int every, boolean strip, int chunk, int bitsPerState) {
+        final int firstSite = chunk * CHUNK_SIZE;
+        final int siteCount = Math.min(CHUNK_SIZE, ((to - from) / every) + 1 - firstSite);
+        final int patternLength = siteList.getPatternLength();
+        final int firstIndex = from + firstSite * every;
+
+        final PatternChunk result = new PatternChunk(firstSite, siteCount, new PatternTable(patternLength, bitsPerState, siteCount));
+        final PatternTable table = result.table;
+        final int wordCount = table.getWordCount();
+
+        // the sites' patterns are packed a taxon at a time, noting which sites are invariant as we go
+        final long[] keys = new long[siteCount * wordCount];
+        final int[] firstStates = new int[siteCount];
+        final boolean[] variable = new boolean[siteCount];
+        final int[] states = new int[siteCount];
+
+        int[][] sitePatterns = null;
+        SimpleAlignment alignment = null;
+        char[] chars = null;
+        int gapState = 0;
+        if (siteList instanceof SimpleAlignment) {
+            // copy the chunk of each plain sequence in one go rather than reading a state at a time
+            alignment = (SimpleAlignment) siteList;
+            chars = new char[(siteCount - 1) * every + 1];
+            gapState = alignment.getDataType().getGapState();
+        } else {
+            sitePatterns = new int[siteCount][];
+            for (int k = 0; k < siteCount; k++) {
+                sitePatterns[k] = siteList.getSitePattern(firstIndex + k * every);
+            }
+        }
+
+        for (int j = 0; j < patternLength; j++) {
+            if (alignment != null && alignment.getSequence(j).getClass() != Sequence.class) {
+                // subclasses (e.g., DelimitedSequence) may not hold their states as single characters
+                for (int k = 0; k < siteCount; k++) {
+                    states[k] = alignment.getState(j, firstIndex + k * every);
+                }
+            } else if (alignment != null) {
+                Sequence sequence = alignment.getSequence(j);
+                DataType dataType = sequence.getDataType();
+                int length = Math.max(0, Math.min(chars.length, sequence.getLength() - firstIndex));
+                if (length > 0) {
+                    sequence.getChars(firstIndex, firstIndex + length, chars, 0);
+                }
+                for (int k = 0; k < siteCount; k++) {
+                    int i = k * every;
+                    states[k] = (i < length ? dataType.getState(chars[i]) : gapState);
+                }
+            } else {
+                for (int k = 0; k < siteCount; k++) {
+                    states[k] = sitePatterns[k][j];
+                }
+            }
+
+            if (j == 0) {
+                System.arraycopy(states, 0, firstStates, 0, siteCount);
+            } else {
+                for (int k = 0; k < siteCount; k++) {
+                    variable[k] |= (states[k] != firstStates[k]);
+                }
+            }
+
+            if (!table.pack(j, states, siteCount, keys)) {
+                result.outOfRange = true;
+                return result;
+            }
+        }
+
+        for (int k = 0; k < siteCount; k++) {
+            if (strip && !variable[k] && isStrippable(firstStates[k])) {
+                result.siteIndices[k] = -1;
+                continue;
+            }
+            int offset = k * wordCount;
+            int hash = PatternTable.hash(keys, offset, wordCount);
+            int index = table.indexOf(keys, offset, hash);
+            if (index < 0) {
+                index = table.add(keys, offset, hash);
+            }
+            result.weights[index] += siteList.getPatternWeight(firstIndex + k * every);
+            result.siteIndices[k] = index;
+            result.count++;
+        }
+        return result;
+    }
+
+    /**
+     * Adds the unique patterns of a chunk to the pattern list and sets the pattern indices of its sites.
+     *
+     * @return the number of sites added
+     */
+    private int mergeChunk(PatternChunk chunk) {
+        PatternTable table = chunk.table;
+        int[] indices = new int[table.size()];
+        for (int i = 0; i < table.size(); i++) {
+            indices[i] = addPackedPattern(table.getWords(), i * table.getWordCount(), table.getHash(i), null, chunk.weights[i]);
+        }
+        for (int k = 0; k < chunk.siteIndices.length; k++) {
+            int index = chunk.siteIndices[k];
+            sitePatternIndices[chunk.firstSite + k] = (index >= 0 ? indices[index] : -1);
+        }
+        return chunk.count;
+    }
+
+    /**
+     * Rebuilds the pattern table with room for any int state.
+     */
+    private void repackPatternTable() {
+        patternTable = new PatternTable(patternTable.getPatternLength(), Integer.SIZE, Math.max(patternCount, 1024));
+        long[] key = new long[patternTable.getWordCount()];
+        for (int i = 0; i < patternCount; i++) {
+            patternTable.pack(patterns[i], key);
+            patternTable.add(key, 0, PatternTable.hash(key, 0, key.length));
+        }
+    }
+
+    /**
+     * @return the number of bits needed to pack any state of the data type including gaps and unknowns
+     */
+    private static int getBitsPerState(DataType dataType) {
+        int stateCount = Math.max(dataType.getAmbiguousStateCount(),
+                Math.max(dataType.getGapState(), dataType.getUnknownState()) + 1);
+        return Math.min(Integer.SIZE, Math.max(1, Integer.SIZE - Integer.numberOfLeadingZeros(stateCount - 1)));
+    }
+
     /**
      * adds an uncertain pattern (a matrix of probabilities) to the pattern list with the given weight
      *
@@ -487,6 +730,21 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
         }
     }
 
+    /**
+     * @return true if the pattern is invariant and contains gaps, ambiguities or unknowns so it
+     * would be stripped
+     */
+    private boolean isStrippable(int[] pattern) {
+        return isInvariant(pattern, false) && isStrippable(pattern[0]);
+    }
+
+    /**
+     * @return true if an invariant pattern of this state would be stripped
+     */
+    private boolean isStrippable(int state) {
+        return getDataType().isGapState(state) || getDataType().isAmbiguousState(state) || getDataType().isUnknownState(state);
+    }
+
     /**
      * @return true if the pattern contains a gap state
      */
@@ -897,4 +1155,193 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
         xhtml += "</pre>";
         return xhtml;
     }
+
+    /**
+     * The unique patterns of a chunk of sites with their weights, and the pattern of each site.
+     */
+    private static final class PatternChunk {
+        PatternChunk(int firstSite, int siteCount, PatternTable table) {
+            this.firstSite = firstSite;
+            this.table = table;
+            this.weights = new double[siteCount];
+            this.siteIndices = new int[siteCount];
+        }
+
+        final int firstSite;
+        final PatternTable table;
+        final double[] weights;
+        final int[] siteIndices;
+        int count = 0;
+        boolean outOfRange = false;
+    }
+
+    /**
+     * An open addressing hash table of site patterns, each packed into a few longs with a fixed
+     * number of bits per state. The patterns are numbered in the order they are added and are
+     * stored one after another in a single array.
+     */
+    private static final class PatternTable {
+        PatternTable(int patternLength, int bitsPerState, int capacity) {
+            this.patternLength = patternLength;
+            this.bitsPerState = bitsPerState;
+            this.statesPerWord = Long.SIZE / bitsPerState;
+            this.wordCount = Math.max(1, (patternLength + statesPerWord - 1) / statesPerWord);
+            this.mask = (bitsPerState == Integer.SIZE ? 0xFFFFFFFFL : (1L << bitsPerState) - 1);
+
+            words = new long[capacity * wordCount];
+            hashes = new int[capacity];
+            slots = new int[Integer.highestOneBit(Math.max(capacity, 8)) * 4];
+        }
+
+        int getPatternLength() {
+            return patternLength;
+        }
+
+        int getBitsPerState() {
+            return bitsPerState;
+        }
+
+        int getWordCount() {
+            return wordCount;
+        }
+
+        int size() {
+            return size;
+        }
+
+        long[] getWords() {
+            return words;
+        }
+
+        int getHash(int index) {
+            return hashes[index];
+        }
+
+        /**
+         * Packs a pattern into key.
+         *
+         * @return false if a state doesn't fit in the bits per state
+         */
+        boolean pack(int[] pattern, long[] key) {
+            Arrays.fill(key, 0L);
+            for (int word = 0, i = 0; i < patternLength; word++) {
+                for (int shift = 0; shift + bitsPerState <= Long.SIZE && i < patternLength; shift += bitsPerState, i++) {
+                    long state = pattern[i];
+                    if (bitsPerState < Integer.SIZE && (state < 0 || state > mask)) {
+                        return false;
+                    }
+                    key[word] |= (state & mask) << shift;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Packs the states at one position of a run of patterns into their keys, which are
+         * stored one after another.
+         *
+         * @return false if a state doesn't fit in the bits per state
+         */
+        boolean pack(int position, int[] states, int count, long[] keys) {
+            final int word = position / statesPerWord;
+            final int shift = (position % statesPerWord) * bitsPerState;
+            for (int k = 0; k < count; k++) {
+                long state = states[k];
+                if (bitsPerState < Integer.SIZE && (state < 0 || state > mask)) {
+                    return false;
+                }
+                keys[k * wordCount + word] |= (state & mask) << shift;
+            }
+            return true;
+        }
+
+        int[] unpack(int index) {
+            int[] pattern = new int[patternLength];
+            for (int word = index * wordCount, i = 0; i < patternLength; word++) {
+                for (int shift = 0; shift + bitsPerState <= Long.SIZE && i < patternLength; shift += bitsPerState, i++) {
+                    pattern[i] = (int) ((words[word] >>> shift) & mask);
+                }
+            }
+            return pattern;
+        }
+
+        static int hash(long[] key, int offset, int wordCount) {
+            long h = 0;
+            for (int i = 0; i < wordCount; i++) {
+                h = (h ^ key[offset + i]) * 0x9E3779B97F4A7C15L;
+                h ^= h >>> 32;
+            }
+            return (int) (h ^ (h >>> 16));
+        }
+
+        /**
+         * @return the index of the pattern or -1 if it isn't in the table
+         */
+        int indexOf(long[] key, int offset, int hash) {
+            int slotMask = slots.length - 1;
+            for (int slot = hash & slotMask; slots[slot] != 0; slot = (slot + 1) & slotMask) {
+                int index = slots[slot] - 1;
+                if (hashes[index] == hash && equals(index, key, offset)) {
+                    return index;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Adds a pattern that isn't already in the table.
+         *
+         * @return the index of the pattern
+         */
+        int add(long[] key, int offset, int hash) {
+            if (size == hashes.length) {
+                hashes = Arrays.copyOf(hashes, size * 2);
+                words = Arrays.copyOf(words, size * 2 * wordCount);
+            }
+            if (size * 2 >= slots.length) {
+                rehash(slots.length * 2);
+            }
+            System.arraycopy(key, offset, words, size * wordCount, wordCount);
+            hashes[size] = hash;
+            insert(size);
+            return size++;
+        }
+
+        private boolean equals(int index, long[] key, int offset) {
+            int start = index * wordCount;
+            for (int i = 0; i < wordCount; i++) {
+                if (words[start + i] != key[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void insert(int index) {
+            int slotMask = slots.length - 1;
+            int slot = hashes[index] & slotMask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & slotMask;
+            }
+            slots[slot] = index + 1;
+        }
+
+        private void rehash(int slotCount) {
+            slots = new int[slotCount];
+            for (int i = 0; i < size; i++) {
+                insert(i);
+            }
+        }
+
+        private final int patternLength;
+        private final int bitsPerState;
+        private final int statesPerWord;
+        private final int wordCount;
+        private final long mask;
+
+        private long[] words;
+        private int[] hashes;
+        private int[] slots;
+        private int size = 0;
+    }
 }
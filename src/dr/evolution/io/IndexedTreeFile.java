@@ -0,0 +1,407 @@
+/*
+ * IndexedTreeFile.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.evolution.io;
+
+import dr.evolution.tree.Tree;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * Random access to the trees of a NEXUS trees file such as a BEAST tree log. The file is memory
+ * mapped and indexed by the byte offsets of its TREE commands, so any tree can be read without
+ * reading the ones before it. Trees are only parsed when they are requested, straight from the
+ * mapped file, and getTree can be called from several threads at once to parse trees in parallel.
+ *
+ * The index is saved next to the trees file (with the suffix .idx) and is reused as long as the
+ * trees file has the same length and modification time.
+ */
+public class IndexedTreeFile implements Closeable {
+
+    public static final String INDEX_FILE_SUFFIX = ".idx";
+
+    private static final int INDEX_MAGIC = 0x42544958; // "BTIX"
+    private static final int INDEX_VERSION = 1;
+
+    // each mapped region is at most 1GB so files of any size can be mapped
+    private static final int REGION_SHIFT = 30;
+    private static final long REGION_MASK = (1L << REGION_SHIFT) - 1;
+
+    public static final long NO_STATE = -1;
+
+    /**
+     * @param file               the trees file
+     * @param ignoreMetaComments if true then the meta comments ([&...]) in the trees are not parsed
+     */
+    public IndexedTreeFile(File file, boolean ignoreMetaComments) throws IOException, Importer.ImportException {
+        this.file = file;
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            length = channel.size();
+            regions = new MappedByteBuffer[(int) ((length + REGION_MASK) >>> REGION_SHIFT)];
+            for (int i = 0; i < regions.length; i++) {
+                long position = (long) i << REGION_SHIFT;
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(length - position, 1L << REGION_SHIFT));
+            }
+        } finally {
+            // the mappings remain valid once the file is closed
+            randomAccessFile.close();
+        }
+
+        if (!readIndex(getIndexFile())) {
+            buildIndex();
+            writeIndex(getIndexFile());
+        }
+
+        if (treeCount == 0) {
+            throw new NexusImporter.MissingBlockException("No trees found in " + file.getName());
+        }
+
+        // read the header up to the first tree to get the taxa and the translation table
+        byte[] header = new byte[(int) treeStarts[0]];
+        for (int i = 0; i < header.length; i++) {
+            header[i] = byteAt(i);
+        }
+        headerImporter = new NexusImporter(new StringReader(new String(header, StandardCharsets.UTF_8) + "\nEnd;"), ignoreMetaComments);
+        headerImporter.hasTree();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getTreeCount() {
+        return treeCount;
+    }
+
+    /**
+     * @return the state number of the given tree (from its name, STATE_x), or NO_STATE if it
+     * doesn't have one
+     */
+    public long getState(int index) {
+        return states[index];
+    }
+
+    /**
+     * @return the index of the first tree with a state number of at least the given state, or the
+     * tree count if there is none. This assumes the state numbers increase through the file.
+     */
+    public int getFirstTreeIndex(long state) {
+        int index = Arrays.binarySearch(states, 0, treeCount, state);
+        if (index < 0) {
+            return -index - 1;
+        }
+        while (index > 0 && states[index - 1] == state) {
+            index--;
+        }
+        return index;
+    }
+
+    /**
+     * Parses a tree. This is thread safe.
+     */
+    public Tree getTree(int index) throws IOException, Importer.ImportException {
+        if (index < 0 || index >= treeCount) {
+            throw new IndexOutOfBoundsException("Tree " + index + " requested but there are " + treeCount + " trees");
+        }
+        Tree tree = headerImporter.parseTreeCommand(new TreeCommandReader(treeStarts[index], treeEnds[index]));
+        if (tree == null) {
+            throw new Importer.BadFormatException("Unable to read tree " + index + " of " + file.getName());
+        }
+        return tree;
+    }
+
+    /**
+     * Releases the file. The trees can't be read after this.
+     */
+    public void close() {
+        Arrays.fill(regions, null);
+    }
+
+    private File getIndexFile() {
+        return new File(file.getPath() + INDEX_FILE_SUFFIX);
+    }
+
+    private byte byteAt(long position) {
+        return regions[(int) (position >>> REGION_SHIFT)].get((int) (position & REGION_MASK));
+    }
+
+    /**
+     * Finds the TREE (or UTREE) commands that start a line. A command ends at the first ';' that
+     * is not in a comment. A final command with no ';' is ignored as the file may still be being
+     * written.
+     */
+    private void buildIndex() {
+        treeCount = 0;
+        treeStarts = new long[1024];
+        treeEnds = new long[1024];
+        states = new long[1024];
+
+        long position = 0;
+        while (position < length) {
+            // at the start of a line
+            byte b = byteAt(position);
+            while ((b == ' ' || b == '\t') && ++position < length) {
+                b = byteAt(position);
+            }
+
+            long start = position;
+            int keyword = matchTreeKeyword(position);
+            if (keyword > 0) {
+                position += keyword;
+                int depth = 0;
+                while (position < length) {
+                    b = byteAt(position++);
+                    if (b == '[') {
+                        depth++;
+                    } else if (b == ']') {
+                        depth--;
+                    } else if (b == ';' && depth <= 0) {
+                        addTree(start, position, parseState(start + keyword, position));
+                        break;
+                    }
+                }
+            }
+
+            while (position < length && byteAt(position++) != '\n') {
+                // skip to the next line
+            }
+        }
+    }
+
+    /**
+     * @return the length of the keyword and the following white space if a TREE or UTREE command
+     * starts at the given position, otherwise 0
+     */
+    private int matchTreeKeyword(long position) {
+        int offset = 0;
+        if (matchIgnoreCase(position, "utree")) {
+            offset = 5;
+        } else if (matchIgnoreCase(position, "tree")) {
+            offset = 4;
+        } else {
+            return 0;
+        }
+        if (position + offset >= length) {
+            return 0;
+        }
+        byte b = byteAt(position + offset);
+        return (b == ' ' || b == '\t' ? offset + 1 : 0);
+    }
+
+    private boolean matchIgnoreCase(long position, String keyword) {
+        if (position + keyword.length() > length) {
+            return false;
+        }
+        for (int i = 0; i < keyword.length(); i++) {
+            if (Character.toLowerCase((char) byteAt(position + i)) != keyword.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the state number from a tree name of the form STATE_x.
+     */
+    private long parseState(long position, long end) {
+        while (position < end && (byteAt(position) == ' ' || byteAt(position) == '\t' || byteAt(position) == '*')) {
+            position++;
+        }
+        final String prefix = "STATE_";
+        for (int i = 0; i < prefix.length(); i++) {
+            if (position + i >= end || byteAt(position + i) != prefix.charAt(i)) {
+                return NO_STATE;
+            }
+        }
+        position += prefix.length();
+
+        long state = 0;
+        boolean hasDigits = false;
+        while (position < end) {
+            byte b = byteAt(position);
+            if (b < '0' || b > '9') {
+                break;
+            }
+            state = state * 10 + (b - '0');
+            hasDigits = true;
+            position++;
+        }
+        return (hasDigits ? state : NO_STATE);
+    }
+
+    private void addTree(long start, long end, long state) {
+        if (treeCount == treeStarts.length) {
+            int capacity = treeCount * 2;
+            treeStarts = Arrays.copyOf(treeStarts, capacity);
+            treeEnds = Arrays.copyOf(treeEnds, capacity);
+            states = Arrays.copyOf(states, capacity);
+        }
+        treeStarts[treeCount] = start;
+        treeEnds[treeCount] = end;
+        states[treeCount] = state;
+        treeCount++;
+    }
+
+    private boolean readIndex(File indexFile) {
+        if (!indexFile.isFile()) {
+            return false;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 1 << 16));
+            try {
+                if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION ||
+                        in.readLong() != length || in.readLong() != file.lastModified()) {
+                    return false;
+                }
+                int count = in.readInt();
+                long[] starts = new long[count];
+                long[] ends = new long[count];
+                long[] treeStates = new long[count];
+                for (int i = 0; i < count; i++) {
+                    starts[i] = in.readLong();
+                    ends[i] = in.readLong();
+                    treeStates[i] = in.readLong();
+                }
+                treeCount = count;
+                treeStarts = starts;
+                treeEnds = ends;
+                states = treeStates;
+                return true;
+            } finally {
+                in.close();
+            }
+        } catch (IOException ioe) {
+            // just rebuild it
+            return false;
+        }
+    }
+
+    private void writeIndex(File indexFile) {
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile), 1 << 16));
+            try {
+                out.writeInt(INDEX_MAGIC);
+                out.writeInt(INDEX_VERSION);
+                out.writeLong(length);
+                out.writeLong(file.lastModified());
+                out.writeInt(treeCount);
+                for (int i = 0; i < treeCount; i++) {
+                    out.writeLong(treeStarts[i]);
+                    out.writeLong(treeEnds[i]);
+                    out.writeLong(states[i]);
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException ioe) {
+            // the index is only a cache so carry on without saving it
+            Logger.getLogger("dr.evolution.io").fine("Unable to save tree file index " + indexFile + ": " + ioe.getMessage());
+            indexFile.delete();
+        }
+    }
+
+    /**
+     * Decodes (UTF-8) one tree command straight from the mapped file, followed by the end of the
+     * block that NexusImporter expects after it.
+     */
+    private class TreeCommandReader extends Reader {
+
+        TreeCommandReader(long start, long end) {
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() {
+            if (pendingChar >= 0) {
+                int ch = pendingChar;
+                pendingChar = -1;
+                return ch;
+            }
+            if (position >= end) {
+                return (trailerIndex < TRAILER.length() ? TRAILER.charAt(trailerIndex++) : -1);
+            }
+
+            int b = byteAt(position++) & 0xFF;
+            if (b < 0x80) {
+                return b;
+            }
+
+            int extra = (b >= 0xF0 ? 3 : (b >= 0xE0 ? 2 : 1));
+            int codePoint = b & (0x3F >> extra);
+            for (int i = 0; i < extra && position < end; i++) {
+                codePoint = (codePoint << 6) | (byteAt(position++) & 0x3F);
+            }
+            if (Character.isSupplementaryCodePoint(codePoint)) {
+                pendingChar = Character.lowSurrogate(codePoint);
+                return Character.highSurrogate(codePoint);
+            }
+            return codePoint;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int count) {
+            for (int i = 0; i < count; i++) {
+                int ch = read();
+                if (ch < 0) {
+                    return (i == 0 ? -1 : i);
+                }
+                buffer[offset + i] = (char) ch;
+            }
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private long position;
+        private final long end;
+        private int trailerIndex = 0;
+        private int pendingChar = -1;
+    }
+
+    private static final String TRAILER = "\nEnd;";
+
+    private final File file;
+    private final long length;
+    private final MappedByteBuffer[] regions;
+    private final NexusImporter headerImporter;
+
+    private int treeCount;
+    private long[] treeStarts;
+    private long[] treeEnds;
+    private long[] states;
+}
@@ -370,6 +370,23 @@ public class NexusImporter extends Importer implements SequenceImporter, TreeImp
         return tree;
     }
 
+    /**
+     * Parses a single TREE command (e.g., 'tree STATE_0 = (...);') using the translation list of the
+     * trees block this importer is reading (hasTree() must have been called). The command is read by
+     * a separate importer so this can be called concurrently from multiple threads to parse trees
+     * that have been read as text.
+     * @param treeCommand a reader of the TREE command, which must be followed by the end of the block ('End;')
+     * @return the tree or null if the reader didn't start with a TREE command
+     */
+    public Tree parseTreeCommand(Reader treeCommand) throws IOException, ImportException {
+        if (!isReadingTreesBlock) {
+            throw new MissingBlockException("TREES block has not been read");
+        }
+        NexusImporter importer = new NexusImporter(treeCommand, ignoreMetaComments);
+        String[] token = new String[] { importer.readToken(";") };
+        return importer.readNextTree(translationList, token, null);
+    }
+
     public boolean startReadingTrees(TaxonList[] taxonList) throws IOException, ImportException {
         boolean done = false;
 
@@ -30,10 +30,8 @@ package dr.evolution.io;
 import dr.evolution.tree.Tree;
 import dr.util.Identifiable;
 
-import java.io.BufferedReader;
-import java.io.EOFException;
-import java.io.IOException;
-import java.io.Reader;
+import java.io.*;
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -51,7 +49,7 @@ public class TreeTrace implements Identifiable {
         if (startIndex < 0) {
             startIndex = 0;
         }
-        return trees.size() - startIndex;
+        return size() - startIndex;
     }
 
     public Tree getTree(int index, int burnin) {
@@ -59,9 +57,33 @@ public class TreeTrace implements Identifiable {
         if (startIndex < 0) {
             startIndex = 0;
         }
+        if (treeFile != null) {
+            return getIndexedTree(index + startIndex);
+        }
         return trees.get(index + startIndex);
     }
 
+    private int size() {
+        return (treeFile != null ? treeFile.getTreeCount() : trees.size());
+    }
+
+    /**
+     * Trees read from an indexed file are parsed when first requested and then kept for as long
+     * as there is memory to spare.
+     */
+    private Tree getIndexedTree(int index) {
+        Tree tree = (treeCache[index] != null ? treeCache[index].get() : null);
+        if (tree == null) {
+            try {
+                tree = treeFile.getTree(index);
+            } catch (IOException | Importer.ImportException e) {
+                throw new RuntimeException("Error reading tree " + index + " of " + treeFile.getFile() + ": " + e.getMessage());
+            }
+            treeCache[index] = new SoftReference<Tree>(tree);
+        }
+        return tree;
+    }
+
     public void add(Tree tree) {
         trees.add(tree);
     }
@@ -83,7 +105,7 @@ public class TreeTrace implements Identifiable {
     }
 
     public int getMaximumState() {
-        return (trees.size() - 1) * stepSize + minState;
+        return (size() - 1) * stepSize + minState;
     }
 
     public String getId() {
@@ -95,11 +117,51 @@ public class TreeTrace implements Identifiable {
     }
 
     private ArrayList<Tree> trees = new ArrayList<Tree>();
+    private IndexedTreeFile treeFile = null;
+    private SoftReference<Tree>[] treeCache = null;
 
     private int minState;
     private int stepSize;
     private String id;
 
+    /**
+     * Loads the trace of trees from a file. A NEXUS file with BEAST state numbers is indexed rather
+     * than read, and its trees are only parsed when they are used, so trees in the burnin are never
+     * parsed and the trees don't all need to fit in memory.
+     *
+     * @param file the file to load the trees from
+     * @return the TreeTrace
+     * @throws dr.evolution.io.Importer.ImportException
+     *                             thrown when tree file is not correctly formatted
+     * @throws java.io.IOException if general I/O error occurs
+     */
+    @SuppressWarnings("unchecked")
+    public static TreeTrace loadTreeTrace(File file) throws IOException, Importer.ImportException {
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        String line = reader.readLine();
+        reader.close();
+
+        if (line != null && line.toUpperCase().startsWith("#NEXUS")) {
+            IndexedTreeFile treeFile = new IndexedTreeFile(file, false);
+
+            if (treeFile.getTreeCount() < 2) {
+                throw new Importer.ImportException("Less than two trees in the trace file");
+            }
+
+            if (treeFile.getState(0) != IndexedTreeFile.NO_STATE && treeFile.getState(1) != IndexedTreeFile.NO_STATE) {
+                TreeTrace trace = new TreeTrace();
+                trace.treeFile = treeFile;
+                trace.treeCache = new SoftReference[treeFile.getTreeCount()];
+                trace.setMinimumState((int) treeFile.getState(0));
+                trace.setStepSize((int) (treeFile.getState(1) - treeFile.getState(0)));
+                return trace;
+            }
+            treeFile.close();
+        }
+
+        return loadTreeTrace(new FileReader(file));
+    }
+
     /**
      * Loads the trace for with trees from a reader
      *
@@ -301,8 +301,32 @@ public class BigFastTreeIntervals extends AbstractModel implements Units, TreeIn
         return this.tree;
     }
 
+    /**
+     * @return the range of intervals that changed in the last calculation of the intervals, or null if none did
+     */
+    public IntervalChangedEvent getChangedIntervals() {
+        if (!intervalsKnown) {
+            calculateIntervals();
+        }
+        if (lastChangedLast < 0) {
+            return null;
+        }
+        // the interval ending at event i is interval i - 1
+        return new IntervalChangedEvent.AffectedIntervals(Math.max(lastChangedFirst - 1, 0), Math.max(lastChangedLast - 1, 0));
+    }
+
+    private void addChangedEvents(int first, int last) {
+        lastChangedFirst = Math.min(lastChangedFirst, first);
+        lastChangedLast = Math.max(lastChangedLast, last);
+        changedFirst = Math.min(changedFirst, first);
+        changedLast = Math.max(changedLast, last);
+    }
+
     @Override
     public void calculateIntervals() {
+        lastChangedFirst = Integer.MAX_VALUE;
+        lastChangedLast = -1;
+
         //If dirty we rebuild the evens and sort them using parallel sort
         if (dirty) {
             // Resort nodes by heights
@@ -319,6 +343,7 @@ public class BigFastTreeIntervals extends AbstractModel implements Units, TreeIn
                 throw new IllegalArgumentException("The first event is not a sample event");
             }
             events.setEvent(lastTime, IntervalType.SAMPLE, nodes[0].getNumber(), 0,-1, 0);
+            events.setNodeOrder(nodes[0].getNumber(), 0);
 
             int lineages = 1;
             for (int i = 1; i < nodes.length; i++) {
@@ -338,6 +363,7 @@ public class BigFastTreeIntervals extends AbstractModel implements Units, TreeIn
                 lastTime = time;
             }
             intervalsKnown = true;
+            addChangedEvents(0, events.size() - 1);
 
         } else if (onlyUpdateTimes) {
             for (int i = 0; i < events.size(); i++) {
@@ -345,9 +371,15 @@ public class BigFastTreeIntervals extends AbstractModel implements Units, TreeIn
                 events.updateEventTime(newTime, i);
             }
             onlyUpdateTimes = false;
+            addChangedEvents(0, events.size() - 1);
         } else {
             for (int node : updatedNodes) {
+                int oldPosition = events.getNodePosition(node);
                 events.updateForChangedNode(node, tree.getNodeHeight(tree.getNode(node)));
+                int newPosition = events.getNodePosition(node);
+                // the events between the old and new positions are shifted and the interval of the next one changes
+                addChangedEvents(Math.min(oldPosition, newPosition),
+                        Math.min(Math.max(oldPosition, newPosition) + 1, events.size() - 1));
             }
         }
 
@@ -417,7 +449,12 @@ public class BigFastTreeIntervals extends AbstractModel implements Units, TreeIn
         storedUpdatedNodes.addAll(updatedNodes);
 //        Collections.copy(storedUpdatedNodes, updatedNodes);
         storedIntervalsKnown = intervalsKnown;
-        storedEvents.copyEvents(events);
+        // only the events changed since the last store or restore differ
+        if (changedLast >= 0) {
+            storedEvents.copyEvents(events, changedFirst, changedLast);
+        }
+        changedFirst = Integer.MAX_VALUE;
+        changedLast = -1;
         storedOnlyUpdateTimes = onlyUpdateTimes;
     }
 
@@ -427,7 +464,11 @@ public class BigFastTreeIntervals extends AbstractModel implements Units, TreeIn
         List<Integer> tmp2 = storedUpdatedNodes;
         storedUpdatedNodes = updatedNodes;
         updatedNodes = tmp2;
-        events.copyEvents(storedEvents);
+        if (changedLast >= 0) {
+            events.copyEvents(storedEvents, changedFirst, changedLast);
+        }
+        changedFirst = Integer.MAX_VALUE;
+        changedLast = -1;
         intervalsKnown = storedIntervalsKnown;
 
         onlyUpdateTimes = storedOnlyUpdateTimes;
@@ -598,6 +639,22 @@ public class BigFastTreeIntervals extends AbstractModel implements Units, TreeIn
             System.arraycopy(source.intervals, 0, intervals, 0, numberOfEvents);
         }
 
+        /**
+         * Copies the events from first to last inclusive. The events outside this range must be the same in both
+         * so the nodes in the range are also the same (in a different order).
+         */
+        public void copyEvents(Events source, int first, int last) {
+            int length = last - first + 1;
+            System.arraycopy(source.nodes, first, nodes, first, length);
+            System.arraycopy(source.times, first, times, first, length);
+            System.arraycopy(source.lineageCounts, first, lineageCounts, first, length);
+            System.arraycopy(source.intervalTypes, first, intervalTypes, first, length);
+            System.arraycopy(source.intervals, first, intervals, first, length);
+            for (int i = first; i <= last; i++) {
+                nodeOrder[nodes[i]] = i;
+            }
+        }
+
         /**
          * A pivate method that uses a binary search algorithm to find the first entry in the sorted event array
          * with a time greater than the proved value
@@ -695,6 +752,12 @@ public class BigFastTreeIntervals extends AbstractModel implements Units, TreeIn
     protected boolean onlyUpdateTimes;
     private boolean storedOnlyUpdateTimes;
 
+    // the range of events changed since the last store or restore, and in the last calculation
+    private int changedFirst = Integer.MAX_VALUE;
+    private int changedLast = -1;
+    private int lastChangedFirst = Integer.MAX_VALUE;
+    private int lastChangedLast = -1;
+
     private final TreeModel tree;
     protected boolean dirty;
     private int intervalCount = 0;
@@ -27,10 +27,8 @@
 
 package dr.evomodel.bigfasttree.thorney;
 
-import java.util.Arrays;
 import java.util.List;
 
-import dr.evolution.tree.NodeRef;
 import dr.evolution.tree.Tree;
 import dr.evomodel.treedatalikelihood.*;
 import dr.evomodel.treedatalikelihood.TreeTraversal.TraversalType;
@@ -45,6 +43,18 @@ import dr.inference.model.Variable.ChangeType;
 // branch length likelihood delegate is like a substitution model.
 // 
 
+/**
+ * The log likelihood is a sum of independent terms, one for each branch, so the term (and, if a
+ * gradient has been asked for, its derivative with respect to the branch length) is cached for
+ * every branch along with a running sum. Only the branches named in the branch operations are
+ * recomputed, so the cost of an evaluation is proportional to the number of nodes touched rather
+ * than the size of the tree.
+ *
+ * Each branch has two buffers for its terms. The first time a branch changes after a store its
+ * buffer is flipped and the branch is noted, so store and restore only touch the branches that
+ * changed. The running sum is recomputed from the terms every FULL_SUM_INTERVAL evaluations to
+ * stop rounding errors from accumulating.
+ */
 public class ThorneyDataLikelihoodDelegate extends AbstractModel implements DataLikelihoodDelegate {
     final static String NAME="ThorneyDataLikelihoodDelegate";
 
@@ -59,16 +69,16 @@ public class ThorneyDataLikelihoodDelegate extends AbstractModel implements Data
         this.branchLengthLikelihoodDelegate = branchLengthLikelihoodDelegate;
         totalCalculationCount=0;
 
-        updateNode = new boolean[tree.getNodeCount()];
-        Arrays.fill(updateNode, true);
+        int nodeCount = tree.getNodeCount();
 
-        storedUpdateNode  = new boolean[tree.getNodeCount()];
-        
-        branchLengths = new double[tree.getNodeCount()];
-        storedBranchLengths = new double[tree.getNodeCount()];
+        branchLengths = new double[2][nodeCount];
+        branchLogL = new double[2][nodeCount];
+        branchGradient = new double[2][nodeCount];
+        currentBuffer = new int[nodeCount];
 
-        branchLogL = new double[tree.getNodeCount()];
-        storedBranchLogL = new double[tree.getNodeCount()];
+        changedNodes = new int[nodeCount];
+        changed = new boolean[nodeCount];
+        changedCount = 0;
     }
 
     @Override
@@ -93,92 +103,117 @@ public class ThorneyDataLikelihoodDelegate extends AbstractModel implements Data
      * Forces a complete recalculation of the likelihood next time getLikelihood is called
      */
     public void makeDirty() {
-        //check the substitution model
+        // every branch will be in the next branch operations, so just make sure the sum is redone
+        evaluationsSinceFullSum = FULL_SUM_INTERVAL;
     }
 
     @Override
     public void storeState() {
-        // TODO Auto-generated method stub
-
-        System.arraycopy(branchLogL, 0, storedBranchLogL, 0, branchLogL.length);
-        System.arraycopy(branchLengths, 0, storedBranchLengths, 0, storedBranchLengths.length);    }
+        for (int i = 0; i < changedCount; i++) {
+            changed[changedNodes[i]] = false;
+        }
+        changedCount = 0;
+        storedLogL = logL;
+    }
 
     @Override
     public void restoreState() {
-        double[] tmp = storedBranchLogL;
-        storedBranchLogL=branchLogL;
-        branchLogL=tmp;
-    
-        double[] tmp1 = storedBranchLengths;
-        storedBranchLengths = branchLengths;
-        branchLengths = tmp1;
+        for (int i = 0; i < changedCount; i++) {
+            int nodeIndex = changedNodes[i];
+            currentBuffer[nodeIndex] = 1 - currentBuffer[nodeIndex];
+            changed[nodeIndex] = false;
+        }
+        changedCount = 0;
+        logL = storedLogL;
     }
 
     @Override
     public double calculateLikelihood(List<BranchOperation> branchOperations, List<NodeOperation> nodeOperations,
             int rootNodeNumber) throws LikelihoodException {
-                // summing this way accounts for numerical stability but feels like over kill
-                for (BranchOperation branchOperation : branchOperations) {
-                    NodeRef node = tree.getNode(branchOperation.getBranchNumber());
-                    updateNode(node);
-                    branchLengths[node.getNumber()] = branchOperation.getBranchLength();
-                }
-                NodeRef root = tree.getNode(rootNodeNumber);
-                int rootChild1 = tree.getChild(root, 0).getNumber();
-                int rootChild2 = tree.getChild(root, 1).getNumber();
-                updateNode[rootChild1] = updateNode[rootChild1] || updateNode[rootChild2] ;
-
-                totalCalculationCount+=1;
 
-                return calculateLogLikelihood(root, rootNodeNumber, rootChild1,rootChild2);
+        for (BranchOperation branchOperation : branchOperations) {
+            int nodeIndex = branchOperation.getBranchNumber();
+            double branchLength = branchOperation.getBranchLength();
+            MutationList mutations = mutationMap.getMutations(tree.getNode(nodeIndex));
 
+            double gradient = 0.0;
+            if (trackGradient) {
+                // the derivative with respect to the branch length is that with respect to time at a rate of 1
+                gradient = branchLengthLikelihoodDelegate.getGradientWrtTime(mutations, branchLength, 1.0);
+            }
+            setBranch(nodeIndex, branchLength, branchLengthLikelihoodDelegate.getLogLikelihood(mutations, branchLength), gradient);
+        }
 
-    }
+        // the root has no branch, but it may have had one before a change of topology
+        if (branchLogL[currentBuffer[rootNodeNumber]][rootNodeNumber] != 0.0 ||
+                branchGradient[currentBuffer[rootNodeNumber]][rootNodeNumber] != 0.0) {
+            setBranch(rootNodeNumber, 0.0, 0.0, 0.0);
+        }
 
-    public double calculateLogLikelihood(NodeRef node, int root, int rootChild1, int rootChild2){
-        int nodeIndex = node.getNumber();
-
-        if (updateNode[nodeIndex]) {
-            double logL;
-            if(nodeIndex==root){
-                logL=0;
-            }else{
-                MutationList mutations = mutationMap.getMutations(node); //TODO make branchMutations
-                double branchLength = branchLengths[nodeIndex];
-//                    if (nodeIndex == rootChild1) {
-//                        // sum the branches on both sides of the root
-//                        NodeRef node2 = tree.getNode(rootChild2);
-//                        time += tree.getBranchLength(node2);
-//                        mutations += branchLengthProvider.getBranchLength(tree, node2);
-//                    }
-//                gamma.setScale(1.0);
-//                branchLogL[i] = gamma.logPdf(x);
-// get mutations/ get branch length / have substitution model handy and return the likelihood of seeing all this mutations 
-                logL = branchLengthLikelihoodDelegate.getLogLikelihood(mutations, branchLength);  // Substitution model
+        totalCalculationCount += 1;
+        evaluationsSinceFullSum += 1;
 
+        if (evaluationsSinceFullSum >= FULL_SUM_INTERVAL) {
+            logL = 0.0;
+            for (int i = 0; i < currentBuffer.length; i++) {
+                logL += branchLogL[currentBuffer[i]][i];
             }
-            for (int i = 0; i < tree.getChildCount(node); i++) {
-                logL += this.calculateLogLikelihood(tree.getChild(node, i),root,rootChild1,rootChild2);
-            }
-            branchLogL[nodeIndex] = logL;
-            updateNode[nodeIndex] = false;
+            evaluationsSinceFullSum = 0;
         }
-        return branchLogL[nodeIndex];
+
+        return logL;
     }
+
     /**
-     * Set update flag for node and remove it's old contribution to the likelihood.
-     * Also handle the root and children so that the 1 branch between children is marked as updated.
-     * @param node
+     * Replaces the terms of a branch, flipping its buffer the first time it changes after a store,
+     * and updates the running sum.
      */
-    protected void updateNode(NodeRef node) {
+    private void setBranch(int nodeIndex, double branchLength, double branchLogLikelihood, double gradient) {
+        logL -= branchLogL[currentBuffer[nodeIndex]][nodeIndex];
+
+        if (!changed[nodeIndex]) {
+            changed[nodeIndex] = true;
+            changedNodes[changedCount] = nodeIndex;
+            changedCount++;
+            currentBuffer[nodeIndex] = 1 - currentBuffer[nodeIndex];
+        }
 
-        updateNode[node.getNumber()] = true;
-        NodeRef parent = tree.getParent(node);
-        if (parent != null && !updateNode[parent.getNumber()]) {
-            updateNode(parent);
+        int buffer = currentBuffer[nodeIndex];
+        branchLengths[buffer][nodeIndex] = branchLength;
+        branchLogL[buffer][nodeIndex] = branchLogLikelihood;
+        branchGradient[buffer][nodeIndex] = gradient;
+
+        logL += branchLogLikelihood;
+    }
+
+    /**
+     * Starts keeping the derivative of each branch's term with respect to its length (in the
+     * units of the branch operations). Those of the current branches are computed straight away
+     * from their cached lengths (if there has been an evaluation yet).
+     */
+    public void setTrackGradient(boolean trackGradient) {
+        if (trackGradient && !this.trackGradient && totalCalculationCount > 0) {
+            for (int i = 0; i < currentBuffer.length; i++) {
+                int buffer = currentBuffer[i];
+                if (i != tree.getRoot().getNumber()) {
+                    branchGradient[buffer][i] = branchLengthLikelihoodDelegate.getGradientWrtTime(
+                            mutationMap.getMutations(tree.getNode(i)), branchLengths[buffer][i], 1.0);
+                }
+            }
         }
+        this.trackGradient = trackGradient;
     }
 
+    /**
+     * @return the derivative of the log likelihood with respect to the length of the branch above
+     * the node (in the units of the branch operations), as of the last evaluation.
+     */
+    public double getBranchGradient(int nodeIndex) {
+        if (!trackGradient) {
+            throw new IllegalStateException("The gradient is not being kept: call setTrackGradient(true) first");
+        }
+        return branchGradient[currentBuffer[nodeIndex]][nodeIndex];
+    }
 
     @Override
     public int getTraitCount() {
@@ -276,6 +311,8 @@ public class ThorneyDataLikelihoodDelegate extends AbstractModel implements Data
         return branchLengthLikelihoodDelegate;
     }
 
+    private static final int FULL_SUM_INTERVAL = 10000;
+
     private long totalCalculationCount;
 
     private final MutationBranchMap mutationMap;
@@ -283,15 +320,24 @@ public class ThorneyDataLikelihoodDelegate extends AbstractModel implements Data
     private final Tree tree;
     private BranchLengthLikelihoodDelegate branchLengthLikelihoodDelegate;
 
-        /**
-     * Flags to specify which nodes are to be updated
+    /**
+     * The length, log likelihood and gradient of each branch, in two buffers indexed by currentBuffer
+     */
+    private final double[][] branchLengths;
+    private final double[][] branchLogL;
+    private final double[][] branchGradient;
+    private final int[] currentBuffer;
+
+    /**
+     * The branches whose buffers have been flipped since the last store
      */
-    protected boolean[] updateNode;
-    protected boolean[] storedUpdateNode;
+    private final int[] changedNodes;
+    private final boolean[] changed;
+    private int changedCount;
 
-    private double[] branchLengths;
-    private double[] storedBranchLengths;
+    private double logL = 0.0;
+    private double storedLogL = 0.0;
+    private int evaluationsSinceFullSum = 0;
 
-    private double[] branchLogL;
-    private double[] storedBranchLogL;
+    private boolean trackGradient = false;
 }
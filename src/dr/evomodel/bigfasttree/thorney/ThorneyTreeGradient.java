@@ -59,7 +59,7 @@ public class ThorneyTreeGradient implements GradientWrtParameterProvider, Report
         this.branchGradient = new double[tree.getNodeCount() - 1];
         this.indexHelper = new TreeParameterModel(tree, new Parameter.Default(branchGradient), false);
         this.branchRateModel = likelihood.getBranchRateModel();
-
+        this.dataLikelihoodDelegate.setTrackGradient(true);
 
     }
 
@@ -78,13 +78,19 @@ public class ThorneyTreeGradient implements GradientWrtParameterProvider, Report
         return nodeHeightProxyParameter.getDimension();
     }
 
+    /**
+     * The delegate keeps the derivative of each branch's term with respect to its length and updates
+     * it with the likelihood, for the touched branches only, so here it just needs the chain rule
+     * for the rate.
+     */
     private void calculateBranchGradient() {
+        // brings the delegate's cached branch terms up to date
+        likelihood.getLogLikelihood();
+
         for (int i = 0; i < tree.getNodeCount() - 1; i++) {
             NodeRef node = tree.getNode(indexHelper.getNodeNumberFromParameterIndex(i));
-            double time = tree.getBranchLength(node);
-            MutationList mutations = dataLikelihoodDelegate.getMutationMap().getMutations(node);
             double rate = branchRateModel.getBranchRate(tree,node);
-            branchGradient[i] = dataLikelihoodDelegate.getBranchLengthLikelihoodDelegate().getGradientWrtTime(mutations, time, rate);
+            branchGradient[i] = dataLikelihoodDelegate.getBranchGradient(node.getNumber()) * rate;
         }
     }
 
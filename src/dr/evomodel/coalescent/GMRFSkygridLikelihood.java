@@ -35,10 +35,10 @@ import dr.inference.model.Likelihood;
 import dr.inference.model.MatrixParameter;
 import dr.inference.model.Model;
 import dr.inference.model.Parameter;
+import dr.math.matrixAlgebra.TridiagonalPrecisionMatrix;
 import dr.util.Author;
 import dr.util.Citable;
 import dr.util.Citation;
-import no.uib.cipr.matrix.DenseVector;
 import no.uib.cipr.matrix.SymmTridiagMatrix;
 
 import java.util.ArrayList;
@@ -84,8 +84,12 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
     private final List<Parameter> covPrecParametersRecent;
     private final List<Parameter> covPrecParametersDistant;
 
-    private List<SymmTridiagMatrix> weightMatricesForMissingCovRecent;
-    private List<SymmTridiagMatrix> weightMatricesForMissingCovDistant;
+    private List<TridiagonalPrecisionMatrix> precisionMatricesForMissingCovRecent;
+    private List<TridiagonalPrecisionMatrix> precisionMatricesForMissingCovDistant;
+    private double[][] missingCovRecent;
+    private double[][] missingCovDistant;
+
+    private double[] covariateEffects;
 
     private int[] firstObservedIndex;
     private int[] lastObservedIndex;
@@ -846,7 +850,8 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
     private void setupGMRFWeightsForMissingCov() {
 
         if(firstObservedIndex != null){
-            weightMatricesForMissingCovRecent = new ArrayList<SymmTridiagMatrix>();
+            precisionMatricesForMissingCovRecent = new ArrayList<TridiagonalPrecisionMatrix>();
+            missingCovRecent = new double[covPrecParametersRecent.size()][];
 
             for (int i = 0; i < covPrecParametersRecent.size(); i++) {
                 double[] offdiagRec = new double[firstObservedIndex[i] - 2];
@@ -861,13 +866,15 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
                 }
                 diagRec[0] = 1.0;
 
-                weightMatricesForMissingCovRecent.add(i, new SymmTridiagMatrix(diagRec, offdiagRec));
+                precisionMatricesForMissingCovRecent.add(i, new TridiagonalPrecisionMatrix(diagRec, offdiagRec));
+                missingCovRecent[i] = new double[diagRec.length];
             }
 
         }
 
         if(lastObservedIndex != null) {
-            weightMatricesForMissingCovDistant = new ArrayList<SymmTridiagMatrix>();
+            precisionMatricesForMissingCovDistant = new ArrayList<TridiagonalPrecisionMatrix>();
+            missingCovDistant = new double[covPrecParametersDistant.size()][];
 
             for (int i = 0; i < covPrecParametersDistant.size(); i++) {
                 double[] offdiag = new double[fieldLength - lastObservedIndex[i] - 1];
@@ -887,35 +894,14 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
                 //Take care of the endpoint
                 diag[fieldLength - lastObservedIndex[i] - 1] = 1.0;
 
-                weightMatricesForMissingCovDistant.add(i, new SymmTridiagMatrix(diag, offdiag));
+                precisionMatricesForMissingCovDistant.add(i, new TridiagonalPrecisionMatrix(diag, offdiag));
+                missingCovDistant[i] = new double[diag.length];
             }
         }
 
     }
 
 
-    private SymmTridiagMatrix getScaledWeightMatrixForMissingCovRecent(double precision, int covIndex, int firstObs) {
-        SymmTridiagMatrix a = weightMatricesForMissingCovRecent.get(covIndex).copy();
-        for (int i = 0; i < a.numRows() - 1; i++) {
-            a.set(i, i, a.get(i, i) * precision);
-            a.set(i + 1, i, a.get(i + 1, i) * precision);
-        }
-        a.set(firstObs - 2, firstObs - 2,
-                a.get(firstObs - 2, firstObs - 2) * precision);
-        return a;
-    }
-
-    private SymmTridiagMatrix getScaledWeightMatrixForMissingCovDistant(double precision, int covIndex, int lastObs) {
-        SymmTridiagMatrix a = weightMatricesForMissingCovDistant.get(covIndex).copy();
-        for (int i = 0; i < a.numRows() - 1; i++) {
-            a.set(i, i, a.get(i, i) * precision);
-            a.set(i + 1, i, a.get(i + 1, i) * precision);
-        }
-        a.set(fieldLength - lastObs - 1, fieldLength - lastObs - 1,
-                a.get(fieldLength - lastObs - 1, fieldLength - lastObs - 1) * precision);
-        return a;
-    }
-
     public int nLoci() {
         // return treeList.size();
         return intervalsList.size();
@@ -990,46 +976,26 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
     }
 
     public double[] getGradientLogDensity() {
-        double [] gradLogDens = new double [popSizeParameter.getSize()];
-        double[] currentGamma = popSizeParameter.getParameterValues();
-        int popSizeDim = popSizeParameter.getSize();
-
-        // handle covariate case later
-        gradLogDens[0] = precisionParameter.getParameterValue(0)*(currentGamma[0]-currentGamma[1])
-                + numCoalEvents[0] - sufficientStatistics[0]*Math.exp(-currentGamma[0]);
+        final int popSizeDim = popSizeParameter.getSize();
+        double[] gradLogDens = new double[popSizeDim];
 
-        gradLogDens[popSizeDim-1] = precisionParameter.getParameterValue(0)*(currentGamma[popSizeDim-1]-currentGamma[popSizeDim-2])
-                + numCoalEvents[popSizeDim-1] - sufficientStatistics[popSizeDim-1]*Math.exp(-currentGamma[popSizeDim-1]);
-
-        if(beta != null) {
+        // only the first row of each covariate enters here
+        double[] field = getFieldValues();
+        if (beta != null) {
             for (int k = 0; k < beta.size(); k++) {
-
-                Parameter b = beta.get(k);
-                MatrixParameter covariate = covariates.get(k);
-
-                gradLogDens[0] = gradLogDens[0] - precisionParameter.getParameterValue(0) * covariate.getParameterValue(0, 0) * b.getParameterValue(0)
-                        + precisionParameter.getParameterValue(0) * covariate.getParameterValue(0, 1) * b.getParameterValue(0);
-
-                gradLogDens[popSizeDim - 1] = gradLogDens[popSizeDim - 1] - precisionParameter.getParameterValue(0) * covariate.getParameterValue(0, popSizeDim - 1) * b.getParameterValue(0)
-                        + precisionParameter.getParameterValue(0) * covariate.getParameterValue(0, popSizeDim - 2) * b.getParameterValue(0);
+                final double b = beta.get(k).getParameterValue(0);
+                final MatrixParameter covariate = covariates.get(k);
+                for (int i = 0; i < popSizeDim; i++) {
+                    field[i] -= covariate.getParameterValue(0, i) * b;
+                }
             }
         }
 
-        for(int i = 1; i<(popSizeDim-1); i++){
-            gradLogDens[i] = precisionParameter.getParameterValue(0)*(-currentGamma[i-1] + 2*currentGamma[i] - currentGamma[i+1])
-                    + numCoalEvents[i] - sufficientStatistics[i]*Math.exp(-currentGamma[i]);
-
-            if(beta != null) {
-                for (int k = 0; k < beta.size(); k++) {
+        // precision * W * (gamma - Z beta), with the unit lambda this has always used
+        getPrecisionMatrix(precisionParameter.getParameterValue(0), 1.0).multiply(field, gradLogDens);
 
-                    Parameter bk = beta.get(k);
-                    MatrixParameter covk = covariates.get(k);
-
-                    gradLogDens[i] = gradLogDens[i] + precisionParameter.getParameterValue(0) * covk.getParameterValue(0, i - 1) * bk.getParameterValue(0)
-                            - 2 * precisionParameter.getParameterValue(0) * covk.getParameterValue(0, i) * bk.getParameterValue(0)
-                            + precisionParameter.getParameterValue(0) * covk.getParameterValue(0, i + 1) * bk.getParameterValue(0);
-                }
-            }
+        for (int i = 0; i < popSizeDim; i++) {
+            gradLogDens[i] += numCoalEvents[i] - sufficientStatistics[i] * Math.exp(-popSizeParameter.getParameterValue(i));
         }
 
         return gradLogDens;
@@ -1048,7 +1014,7 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
 
         SkygridHelper() { }
 
-        void updateGammaWithCovariates(DenseVector currentGamma) {
+        void updateGammaWithCovariates(double[] currentGamma) {
             // Do nothing
         }
 
@@ -1068,17 +1034,15 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
                 intervalsKnown = true;
             }
 
-            DenseVector diagonal1 = new DenseVector(fieldLength);
-            DenseVector currentGamma = new DenseVector(popSizeParameter.getParameterValues());
+            double[] currentGamma = getFieldValues();
 
             updateGammaWithCovariates(currentGamma);
 
             double currentLike = handleMissingValues();
 
-            SymmTridiagMatrix currentQ = getScaledWeightMatrix(precisionParameter.getParameterValue(0), lambdaParameter.getParameterValue(0));
-            currentQ.mult(currentGamma, diagonal1);
+            TridiagonalPrecisionMatrix currentQ = getPrecisionMatrix(precisionParameter.getParameterValue(0), lambdaParameter.getParameterValue(0));
 
-            currentLike += 0.5 * (fieldLength - 1) * Math.log(precisionParameter.getParameterValue(0)) - 0.5 * currentGamma.dot(diagonal1);
+            currentLike += 0.5 * (fieldLength - 1) * Math.log(precisionParameter.getParameterValue(0)) - 0.5 * currentQ.quadraticForm(currentGamma);
             if (lambdaParameter.getParameterValue(0) == 1) {
                 currentLike -= (fieldLength - 1) / 2.0 * LOG_TWO_TIMES_PI;
             } else {
@@ -1094,7 +1058,7 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
         SkygridCovariateHelper() { }
 
         @Override
-        protected void updateGammaWithCovariates(DenseVector currentGamma) {
+        protected void updateGammaWithCovariates(double[] currentGamma) {
 
             assert (beta != null);
 
@@ -1102,8 +1066,12 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
 
             if (NEW_APPROACH) {
 
-                final int N = currentGamma.size();
-                double[] update = new double[N];
+                final int N = currentGamma.length;
+                if (covariateEffects == null || covariateEffects.length != N) {
+                    covariateEffects = new double[N];
+                }
+                final double[] update = covariateEffects;
+                Arrays.fill(update, 0.0);
 
                 if (dMatrix != null) {
                     final int K = dMatrix.getColumnDimension();
@@ -1146,21 +1114,16 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
                 }
 
                 for (int i = 0; i < N; ++i) {
-                    currentGamma.set(i, currentGamma.get(i) - update[i]);
+                    currentGamma[i] = currentGamma[i] - update[i];
                 }
 
             } else {
-                DenseVector currentBeta = new DenseVector(beta.size());
-
-                for (int i = 0; i < beta.size(); i++) {
-                    currentBeta.set(i, beta.get(i).getParameterValue(0));
-                }
-
                 if (covariates != null) {
 
                     for (int i = 0; i < covariates.size(); i++) {
+                        final double currentBeta = beta.get(i).getParameterValue(0);
                         for (int j = 0; j < covariates.get(i).getColumnDimension(); j++) {
-                            currentGamma.set(j, currentGamma.get(j) - covariates.get(i).getParameterValue(0, j) * currentBeta.get(i));
+                            currentGamma[j] = currentGamma[j] - covariates.get(i).getParameterValue(0, j) * currentBeta;
                         }
                     }
                 }
@@ -1181,32 +1144,25 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
             assert (covariates != null);
             assert (covPrecParametersDistant != null);
 
-            int numMissing;
-            DenseVector tempVectMissingCov;
-            SymmTridiagMatrix missingCovQ;
-            DenseVector tempVectMissingCov2;
-            int numMissingRecent;
-
             double currentLike = 0.0;
 
             if(lastObservedIndex != null) {
                 for (int i = 0; i < covPrecParametersDistant.size(); i++) {
 
-                    numMissing = fieldLength - lastObservedIndex[i];
-                    tempVectMissingCov = new DenseVector(numMissing);
-                    tempVectMissingCov2 = new DenseVector(numMissing);
+                    final int numMissing = fieldLength - lastObservedIndex[i];
+                    final double precision = covPrecParametersDistant.get(i).getParameterValue(0);
+                    final double[] missingCov = missingCovDistant[i];
 
-                    missingCovQ = getScaledWeightMatrixForMissingCovDistant(covPrecParametersDistant.get(i).getParameterValue(0), i,
-                            lastObservedIndex[i]);
+                    TridiagonalPrecisionMatrix missingCovQ = precisionMatricesForMissingCovDistant.get(i);
+                    missingCovQ.setScale(precision, 1.0);
 
                     for (int j = 0; j < numMissing; j++) {
-                        tempVectMissingCov.set(j, covariates.get(distIndices[i] - 1).getParameterValue(0, lastObservedIndex[i] + j) -
-                                covariates.get(distIndices[i] - 1).getParameterValue(0, lastObservedIndex[i] - 1));
+                        missingCov[j] = covariates.get(distIndices[i] - 1).getParameterValue(0, lastObservedIndex[i] + j) -
+                                covariates.get(distIndices[i] - 1).getParameterValue(0, lastObservedIndex[i] - 1);
                     }
 
-                    missingCovQ.mult(tempVectMissingCov, tempVectMissingCov2);
-                    currentLike += 0.5 * (numMissing) * Math.log(covPrecParametersDistant.get(i).getParameterValue(0))
-                            - 0.5 * tempVectMissingCov.dot(tempVectMissingCov2);
+                    currentLike += 0.5 * (numMissing) * Math.log(precision)
+                            - 0.5 * missingCovQ.quadraticForm(missingCov);
                 }
             }
 
@@ -1214,21 +1170,20 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
 
                 for (int i = 0; i < covPrecParametersRecent.size(); i++) {
 
-                    numMissingRecent = firstObservedIndex[i]-1;
-                    tempVectMissingCov = new DenseVector(numMissingRecent);
-                    tempVectMissingCov2 = new DenseVector(numMissingRecent);
+                    final int numMissingRecent = firstObservedIndex[i]-1;
+                    final double precision = covPrecParametersRecent.get(i).getParameterValue(0);
+                    final double[] missingCov = missingCovRecent[i];
 
-                    missingCovQ = getScaledWeightMatrixForMissingCovRecent(covPrecParametersRecent.get(i).getParameterValue(0), i,
-                            firstObservedIndex[i]);
+                    TridiagonalPrecisionMatrix missingCovQ = precisionMatricesForMissingCovRecent.get(i);
+                    missingCovQ.setScale(precision, 1.0);
 
                     for (int j = 0; j < numMissingRecent; j++) {
-                        tempVectMissingCov.set(j, covariates.get(recIndices[i] - 1).getParameterValue(0, j) -
-                                covariates.get(recIndices[i] - 1).getParameterValue(0, firstObservedIndex[i]-1));
+                        missingCov[j] = covariates.get(recIndices[i] - 1).getParameterValue(0, j) -
+                                covariates.get(recIndices[i] - 1).getParameterValue(0, firstObservedIndex[i]-1);
                     }
 
-                    missingCovQ.mult(tempVectMissingCov, tempVectMissingCov2);
-                    currentLike += 0.5 * (numMissingRecent) * Math.log(covPrecParametersRecent.get(i).getParameterValue(0))
-                            - 0.5 * tempVectMissingCov.dot(tempVectMissingCov2);
+                    currentLike += 0.5 * (numMissingRecent) * Math.log(precision)
+                            - 0.5 * missingCovQ.quadraticForm(missingCov);
                 }
             }
             return currentLike;
@@ -38,10 +38,10 @@ import dr.inference.model.Model;
 import dr.inference.model.Parameter;
 import dr.inference.model.Variable;
 import dr.math.MathUtils;
+import dr.math.matrixAlgebra.TridiagonalPrecisionMatrix;
 import dr.util.Author;
 import dr.util.Citable;
 import dr.util.Citation;
-import no.uib.cipr.matrix.DenseVector;
 import no.uib.cipr.matrix.SymmTridiagMatrix;
 
 import java.util.Collections;
@@ -84,6 +84,11 @@ public class GMRFSkyrideLikelihood extends AbstractCoalescentLikelihood implemen
 
     protected SymmTridiagMatrix weightMatrix;
     protected SymmTridiagMatrix storedWeightMatrix;
+
+    // scaled copy of weightMatrix, refreshed only when weightMatrix is replaced
+    private TridiagonalPrecisionMatrix precisionMatrix;
+    private SymmTridiagMatrix precisionMatrixStructure;
+    private double[] fieldValues;
     protected MatrixParameter dMatrix;
     protected boolean timeAwareSmoothing = TIME_AWARE_IS_ON_BY_DEFAULT;
     protected boolean rescaleByRootHeight;
@@ -391,6 +396,37 @@ public class GMRFSkyrideLikelihood extends AbstractCoalescentLikelihood implemen
         return a;
     }
 
+    /**
+     * Returns weightMatrix scaled as by getScaledWeightMatrix(precision, lambda) without making a copy.
+     * The result is only valid until the next call.
+     */
+    protected TridiagonalPrecisionMatrix getPrecisionMatrix(double precision, double lambda) {
+        if (precisionMatrix == null || precisionMatrix.getDimension() != weightMatrix.numRows()) {
+            precisionMatrix = new TridiagonalPrecisionMatrix(weightMatrix.numRows());
+            precisionMatrixStructure = null;
+        }
+        if (precisionMatrixStructure != weightMatrix) {
+            precisionMatrix.setStructure(weightMatrix.getDiagonal(), weightMatrix.getOffDiagonal());
+            precisionMatrixStructure = weightMatrix;
+        }
+        precisionMatrix.setScale(precision, lambda);
+        return precisionMatrix;
+    }
+
+    /**
+     * @return the current values of the population size parameter, in an array owned by this likelihood
+     */
+    protected double[] getFieldValues() {
+        final int dim = popSizeParameter.getDimension();
+        if (fieldValues == null || fieldValues.length != dim) {
+            fieldValues = new double[dim];
+        }
+        for (int i = 0; i < dim; i++) {
+            fieldValues[i] = popSizeParameter.getParameterValue(i);
+        }
+        return fieldValues;
+    }
+
     public void setupCoalescentIntervals() {
 //        this.intervalList.calculateIntervals(); // Done lazily in IntervalList
         setupSufficientStatistics();
@@ -493,7 +529,8 @@ public class GMRFSkyrideLikelihood extends AbstractCoalescentLikelihood implemen
         super.storeState();
         System.arraycopy(coalescentIntervals, 0, storedCoalescentIntervals, 0, coalescentIntervals.length);
         System.arraycopy(sufficientStatistics, 0, storedSufficientStatistics, 0, sufficientStatistics.length);
-        storedWeightMatrix = weightMatrix.copy();
+        // weightMatrix is replaced, never modified, when the weights change
+        storedWeightMatrix = weightMatrix;
         storedLogFieldLikelihood = logFieldLikelihood;
     }
 
@@ -537,15 +574,13 @@ public class GMRFSkyrideLikelihood extends AbstractCoalescentLikelihood implemen
         makeIntervalsKnown();
 
         double currentLike = 0;
-        DenseVector diagonal1 = new DenseVector(fieldLength);
-        DenseVector currentGamma = new DenseVector(popSizeParameter.getParameterValues());
+        double[] currentGamma = getFieldValues();
 
-        SymmTridiagMatrix currentQ = getScaledWeightMatrix(precisionParameter.getParameterValue(0), lambdaParameter.getParameterValue(0));
-        currentQ.mult(currentGamma, diagonal1);
+        TridiagonalPrecisionMatrix currentQ = getPrecisionMatrix(precisionParameter.getParameterValue(0), lambdaParameter.getParameterValue(0));
 
 //        currentLike += 0.5 * logGeneralizedDeterminant(currentQ) - 0.5 * currentGamma.dot(diagonal1);
 
-        currentLike += 0.5 * (fieldLength - 1) * Math.log(precisionParameter.getParameterValue(0)) - 0.5 * currentGamma.dot(diagonal1);
+        currentLike += 0.5 * (fieldLength - 1) * Math.log(precisionParameter.getParameterValue(0)) - 0.5 * currentQ.quadraticForm(currentGamma);
         if (lambdaParameter.getParameterValue(0) == 1) {
             currentLike -= (fieldLength - 1) / 2.0 * LOG_TWO_TIMES_PI;
         } else {
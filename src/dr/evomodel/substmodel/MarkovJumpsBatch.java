@@ -0,0 +1,161 @@
+/*
+ * MarkovJumpsBatch.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package dr.evomodel.substmodel;
+
+import dr.inference.markovjumps.MarkovJumpsCore;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Computes the conditional expected Markov jumps (or rewards) for a set of registers on the same substitution
+ * model together, one branch at a time, so that the work which doesn't depend on the register is only done once.
+ * <p>
+ * The integrals of Equation (37) of Minin and Suchard depend only on the eigenvalues and the branch length so they
+ * are shared by all registers and kept for each branch (slot) until either changes. When only a few
+ * (parent state, child state) elements are needed, each is computed as a weighted sum over the rate registration
+ * matrix in the eigen basis, with the weights shared by all registers, rather than by computing the whole matrix
+ * for each register.
+ */
+public class MarkovJumpsBatch {
+
+    // only keep the integrals for each slot if they take less than this many doubles
+    private static final int MAX_CACHE_SIZE = 1 << 22;
+
+    public MarkovJumpsBatch(List<MarkovJumpsSubstitutionModel> models, int slotCount) {
+        this.models = models.toArray(new MarkovJumpsSubstitutionModel[models.size()]);
+        SubstitutionModel substModel = this.models[0].getSubstitutionModel();
+        for (MarkovJumpsSubstitutionModel model : this.models) {
+            if (model.getSubstitutionModel() != substModel) {
+                throw new IllegalArgumentException("All the registers in a batch must use the same substitution model");
+            }
+        }
+
+        stateCount = this.models[0].stateCount;
+        stateCount2 = stateCount * stateCount;
+        markovJumpsCore = new MarkovJumpsCore(stateCount);
+
+        if ((long) slotCount * stateCount2 <= MAX_CACHE_SIZE) {
+            auxInts = new double[slotCount][];
+            cachedTimes = new double[slotCount];
+            cachedVersions = new int[slotCount];
+        } else {
+            // just remember the last integrals
+            auxInts = new double[1][];
+            cachedTimes = new double[1];
+            cachedVersions = new int[1];
+        }
+        Arrays.fill(cachedVersions, -1);
+
+        ievcRateRegEvecs = new double[this.models.length][];
+        weights = new double[stateCount2];
+        countMatrix = new double[stateCount2];
+    }
+
+    public int getRegisterCount() {
+        return models.length;
+    }
+
+    /**
+     * Computes the conditional expectations for the given (from, to) pairs of states for all registers.
+     *
+     * @param slot            the branch (and rate category), used to cache the integrals
+     * @param time            the branch length in expected substitutions
+     * @param transitionProbs the transition probabilities for the branch
+     * @param offset          the offset of the transition probability matrix in transitionProbs
+     * @param from            the parent states
+     * @param to              the child states
+     * @param pairCount       the number of pairs of states
+     * @param values          filled with the expectation for register k and pair p in values[k][p]
+     */
+    public void computeCondStatMarkovJumps(int slot,
+                                           double time,
+                                           double[] transitionProbs,
+                                           int offset,
+                                           int[] from,
+                                           int[] to,
+                                           int pairCount,
+                                           double[][] values) {
+
+        for (int k = 0; k < models.length; k++) {
+            ievcRateRegEvecs[k] = models[k].getIevcRateRegEvec();
+        }
+        EigenDecomposition eigenDecomposition = models[0].getEigenDecomposition();
+        double[] evec = eigenDecomposition.getEigenVectors();
+        double[] ievc = eigenDecomposition.getInverseEigenVectors();
+
+        double[] auxInt = getAuxInt(slot, time, eigenDecomposition.getEigenValues(), models[0].getEigenVersion());
+
+        if (pairCount <= stateCount) {
+            // O(stateCount^2) per pair and register
+            for (int p = 0; p < pairCount; p++) {
+                MarkovJumpsCore.computeElementWeights(evec, ievc, auxInt, from[p], to[p], stateCount, weights);
+                double probability = transitionProbs[offset + from[p] * stateCount + to[p]];
+                for (int k = 0; k < models.length; k++) {
+                    values[k][p] = MarkovJumpsCore.dotProduct(weights, ievcRateRegEvecs[k], stateCount2) / probability;
+                }
+            }
+        } else {
+            // O(stateCount^3) per register
+            for (int k = 0; k < models.length; k++) {
+                markovJumpsCore.computeJointStatMarkovJumpsAuxInt(evec, ievc, auxInt, ievcRateRegEvecs[k], countMatrix);
+                for (int p = 0; p < pairCount; p++) {
+                    int index = from[p] * stateCount + to[p];
+                    values[k][p] = countMatrix[index] / transitionProbs[offset + index];
+                }
+            }
+        }
+    }
+
+    private double[] getAuxInt(int slot, double time, double[] eval, int version) {
+        int index = (auxInts.length == 1 ? 0 : slot);
+        if (auxInts[index] == null) {
+            auxInts[index] = new double[stateCount2];
+        }
+        if (cachedVersions[index] != version || cachedTimes[index] != time) {
+            markovJumpsCore.computeAuxInt(eval, time, auxInts[index]);
+            cachedVersions[index] = version;
+            cachedTimes[index] = time;
+        }
+        return auxInts[index];
+    }
+
+    private final MarkovJumpsSubstitutionModel[] models;
+    private final int stateCount;
+    private final int stateCount2;
+    private final MarkovJumpsCore markovJumpsCore;
+
+    private final double[][] auxInts;
+    private final double[] cachedTimes;
+    private final int[] cachedVersions;
+
+    private final double[][] ievcRateRegEvecs;
+    private final double[] weights;
+    private final double[] countMatrix;
+}
@@ -36,6 +36,8 @@ import dr.inference.model.Model;
 import dr.inference.model.Parameter;
 import dr.inference.model.Variable;
 
+import java.util.Arrays;
+
 /**
  * @author Marc Suchard
  * @author Vladimir Minin
@@ -138,6 +140,9 @@ public class MarkovJumpsSubstitutionModel extends AbstractModel {
             throw new RuntimeException("Unknown expectation type in MarkovJumps");
         }
 
+        // the substitution model replaces its eigen decomposition when it changes or is restored
+        updateEigenDecomposition();
+
         if (PRECOMPUTE) {
             MarkovJumpsCore.matrixMultiply(rateReg, eigenDecomposition.getEigenVectors(),
                     stateCount, tmp1);
@@ -148,6 +153,51 @@ public class MarkovJumpsSubstitutionModel extends AbstractModel {
         regRateChanged = false;
     }
 
+    private void updateEigenDecomposition() {
+        EigenDecomposition current = substModel.getEigenDecomposition();
+        if (current == null) {
+            return;
+        }
+        eigenDecomposition = current;
+
+        double[] eval = eigenDecomposition.getEigenValues();
+        if (eigenValues == null || !Arrays.equals(eval, eigenValues)) {
+            eigenValues = eval.clone();
+            eigenVersion++;
+        }
+    }
+
+    /**
+     * @return the current eigen decomposition of the substitution model
+     */
+    public EigenDecomposition getEigenDecomposition() {
+        if (regRateChanged) {
+            makeRateRegistrationMatrix(registration, rateReg, ievcRateRegEvec);
+        }
+        return eigenDecomposition;
+    }
+
+    /**
+     * @return a number that changes whenever the eigenvalues of the substitution model change, so that
+     * quantities that only depend on the eigenvalues can be cached
+     */
+    public int getEigenVersion() {
+        if (regRateChanged) {
+            makeRateRegistrationMatrix(registration, rateReg, ievcRateRegEvec);
+        }
+        return eigenVersion;
+    }
+
+    /**
+     * @return the rate registration matrix in the eigen basis, ievc %*% rateReg %*% evec
+     */
+    public double[] getIevcRateRegEvec() {
+        if (regRateChanged) {
+            makeRateRegistrationMatrix(registration, rateReg, ievcRateRegEvec);
+        }
+        return ievcRateRegEvec;
+    }
+
     public double getMarginalRate() {
 
         if (regRateChanged) {
@@ -242,7 +292,8 @@ public class MarkovJumpsSubstitutionModel extends AbstractModel {
     }
 
     protected void restoreState() {
-        // Do nothing
+        // the substitution model may have gone back to a previous eigen decomposition
+        regRateChanged = true;
     }
 
     protected void acceptState() {
@@ -259,7 +310,9 @@ public class MarkovJumpsSubstitutionModel extends AbstractModel {
     protected double[] registration;
 
     protected SubstitutionModel substModel;
-    private final EigenDecomposition eigenDecomposition;
+    private EigenDecomposition eigenDecomposition;
+    private double[] eigenValues = null;
+    private int eigenVersion = 0;
     private final MarkovJumpsCore markovJumpsCore;
 
     private boolean regRateChanged = true;
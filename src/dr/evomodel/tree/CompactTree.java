@@ -0,0 +1,348 @@
+/*
+ * CompactTree.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.evomodel.tree;
+
+import dr.evolution.tree.FlexibleTree;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Taxon;
+import dr.evolution.util.TaxonList;
+import dr.util.Attributable;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A view of one tree of a CompactTreeStore at a time. Loading another tree overwrites the node
+ * arrays in place, so the node objects stay the same and nothing is allocated, and reports the
+ * nodes whose height or children have changed. The previous tree is kept so that it can be
+ * restored by swapping back.
+ *
+ * The trees have no node attributes and all node rates are 1.
+ */
+public class CompactTree implements Tree {
+
+    public CompactTree(CompactTreeStore store) {
+        this.store = store;
+        this.taxa = store.getTaxa();
+        this.taxonCount = store.getTaxonCount();
+        this.nodeCount = store.getNodeCount();
+
+        nodes = new Node[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            nodes[i] = new Node(i);
+        }
+
+        for (int k = 0; k < 2; k++) {
+            parents[k] = new int[nodeCount];
+            children[k] = new int[2 * nodeCount];
+            heights[k] = new double[nodeCount];
+        }
+        newParents = new int[nodeCount];
+        newChildren = new int[2 * nodeCount];
+        newHeights = new double[nodeCount];
+    }
+
+    public CompactTreeStore getStore() {
+        return store;
+    }
+
+    /**
+     * @return the index in the store of the current tree, or -1 if none has been loaded
+     */
+    public int getTreeIndex() {
+        return treeIndex[current];
+    }
+
+    /**
+     * Loads a tree from the store.
+     *
+     * @param changedNodes filled with the numbers of the nodes whose heights or children differ from
+     *                     the previous tree (may be null)
+     * @return the number of changed nodes
+     */
+    public int load(int index, int[] changedNodes) {
+        store.getTree(index, newParents, newHeights);
+
+        // the stored tree is kept, so only overwrite the other buffer
+        int target = (current == stored ? 1 - current : current);
+        int[] oldChildren = children[current];
+        double[] oldHeights = heights[current];
+        boolean first = (treeIndex[current] < 0);
+
+        for (int i = taxonCount; i < nodeCount; i++) {
+            newChildren[2 * i] = -1;
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            int parent = newParents[i];
+            if (parent >= 0) {
+                // children are found in increasing order which is the canonical order
+                int slot = (newChildren[2 * parent] < 0 ? 2 * parent : 2 * parent + 1);
+                newChildren[slot] = i;
+            }
+        }
+
+        int changedCount = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            boolean changed = first || newHeights[i] != oldHeights[i] ||
+                    (i >= taxonCount && (newChildren[2 * i] != oldChildren[2 * i] ||
+                            newChildren[2 * i + 1] != oldChildren[2 * i + 1]));
+            if (changed) {
+                if (changedNodes != null) {
+                    changedNodes[changedCount] = i;
+                }
+                changedCount++;
+            }
+        }
+
+        System.arraycopy(newParents, 0, parents[target], 0, nodeCount);
+        System.arraycopy(newChildren, 0, children[target], 0, 2 * nodeCount);
+        System.arraycopy(newHeights, 0, heights[target], 0, nodeCount);
+        treeIndex[target] = index;
+        current = target;
+
+        return changedCount;
+    }
+
+    /**
+     * Keeps the current tree so it can be restored.
+     */
+    public void store() {
+        stored = current;
+    }
+
+    /**
+     * Goes back to the tree that was current when store() was last called.
+     */
+    public void restore() {
+        current = stored;
+    }
+
+    // **************************************************************
+    // Tree IMPLEMENTATION
+    // **************************************************************
+
+    public NodeRef getRoot() {
+        return nodes[nodeCount - 1];
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public NodeRef getNode(int i) {
+        return nodes[i];
+    }
+
+    public NodeRef getInternalNode(int i) {
+        return nodes[taxonCount + i];
+    }
+
+    public NodeRef getExternalNode(int i) {
+        return nodes[i];
+    }
+
+    public int getExternalNodeCount() {
+        return taxonCount;
+    }
+
+    public int getInternalNodeCount() {
+        return nodeCount - taxonCount;
+    }
+
+    public Taxon getNodeTaxon(NodeRef node) {
+        return (node.getNumber() < taxonCount ? taxa.getTaxon(node.getNumber()) : null);
+    }
+
+    public boolean hasNodeHeights() {
+        return true;
+    }
+
+    public double getNodeHeight(NodeRef node) {
+        return heights[current][node.getNumber()];
+    }
+
+    public boolean hasBranchLengths() {
+        return true;
+    }
+
+    public double getBranchLength(NodeRef node) {
+        int parent = parents[current][node.getNumber()];
+        if (parent < 0) {
+            return 0.0;
+        }
+        return heights[current][parent] - heights[current][node.getNumber()];
+    }
+
+    public double getNodeRate(NodeRef node) {
+        return 1.0;
+    }
+
+    public Object getNodeAttribute(NodeRef node, String name) {
+        return null;
+    }
+
+    public Iterator getNodeAttributeNames(NodeRef node) {
+        return Collections.emptyIterator();
+    }
+
+    public boolean isExternal(NodeRef node) {
+        return node.getNumber() < taxonCount;
+    }
+
+    public boolean isRoot(NodeRef node) {
+        return node.getNumber() == nodeCount - 1;
+    }
+
+    public int getChildCount(NodeRef node) {
+        return (node.getNumber() < taxonCount ? 0 : 2);
+    }
+
+    public NodeRef getChild(NodeRef node, int j) {
+        return nodes[children[current][2 * node.getNumber() + j]];
+    }
+
+    public NodeRef getParent(NodeRef node) {
+        int parent = parents[current][node.getNumber()];
+        return (parent < 0 ? null : nodes[parent]);
+    }
+
+    public Tree getCopy() {
+        return new FlexibleTree(this);
+    }
+
+    // **************************************************************
+    // TaxonList IMPLEMENTATION
+    // **************************************************************
+
+    public int getTaxonCount() {
+        return taxonCount;
+    }
+
+    public Taxon getTaxon(int taxonIndex) {
+        return taxa.getTaxon(taxonIndex);
+    }
+
+    public String getTaxonId(int taxonIndex) {
+        return taxa.getTaxonId(taxonIndex);
+    }
+
+    public int getTaxonIndex(String id) {
+        return taxa.getTaxonIndex(id);
+    }
+
+    public int getTaxonIndex(Taxon taxon) {
+        return taxa.getTaxonIndex(taxon);
+    }
+
+    public List<Taxon> asList() {
+        return taxa.asList();
+    }
+
+    public Object getTaxonAttribute(int taxonIndex, String name) {
+        return taxa.getTaxonAttribute(taxonIndex, name);
+    }
+
+    public Iterator<Taxon> iterator() {
+        return taxa.iterator();
+    }
+
+    // **************************************************************
+    // Units, Identifiable and Attributable IMPLEMENTATION
+    // **************************************************************
+
+    public Type getUnits() {
+        return units;
+    }
+
+    public void setUnits(Type units) {
+        this.units = units;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public void setAttribute(String name, Object value) {
+        if (attributes == null) {
+            attributes = new Attributable.AttributeHelper();
+        }
+        attributes.setAttribute(name, value);
+    }
+
+    public Object getAttribute(String name) {
+        return (attributes == null ? null : attributes.getAttribute(name));
+    }
+
+    public Iterator<String> getAttributeNames() {
+        return (attributes == null ? Collections.<String>emptyIterator() : attributes.getAttributeNames());
+    }
+
+    private static final class Node implements NodeRef {
+        Node(int number) {
+            this.number = number;
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        public void setNumber(int n) {
+            throw new UnsupportedOperationException("The nodes of a CompactTree can't be renumbered");
+        }
+
+        private final int number;
+    }
+
+    private final CompactTreeStore store;
+    private final TaxonList taxa;
+    private final int taxonCount;
+    private final int nodeCount;
+    private final Node[] nodes;
+
+    // two copies of the tree, the current one and the stored (or previous) one
+    private final int[][] parents = new int[2][];
+    private final int[][] children = new int[2][];
+    private final double[][] heights = new double[2][];
+    private final int[] treeIndex = {-1, -1};
+    private int current = 0;
+    private int stored = 0;
+
+    private final int[] newParents;
+    private final int[] newChildren;
+    private final double[] newHeights;
+
+    private Type units = Type.GENERATIONS;
+    private String id = null;
+    private Attributable.AttributeHelper attributes = null;
+}
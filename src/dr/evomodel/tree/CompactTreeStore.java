@@ -0,0 +1,316 @@
+/*
+ * CompactTreeStore.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.evomodel.tree;
+
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.TaxonList;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A compact store of a set of rooted binary trees on the same taxa, such as a posterior sample.
+ * Each tree is kept as an array of parent indices and an array of node heights (in double or single
+ * precision) rather than as a graph of node objects, which takes about a tenth of the memory. The
+ * store can be kept in memory or in a file that is memory mapped, so it needn't be in the heap at all,
+ * and the file can be reused by later runs.
+ *
+ * The nodes of each tree are numbered canonically: the tips by their index in the taxon list and the
+ * internal nodes in post-order with the children of each node ordered by their smallest tip index.
+ * Two trees with the same topology therefore have the same numbering, the root is always the last
+ * node, and the children of a node are the nodes that have it as parent, in index order.
+ */
+public class CompactTreeStore {
+
+    private static final int FILE_MAGIC = 0x42435453; // "BCTS"
+    private static final int FILE_VERSION = 1;
+
+    private CompactTreeStore(TaxonList taxa, int treeCount, boolean singlePrecision) {
+        this.taxa = taxa;
+        this.taxonCount = taxa.getTaxonCount();
+        this.nodeCount = 2 * taxonCount - 1;
+        this.treeCount = treeCount;
+        this.singlePrecision = singlePrecision;
+        this.recordSize = nodeCount * (4 + (singlePrecision ? 4 : 8));
+        this.treesPerRegion = Math.max(1, Integer.MAX_VALUE / recordSize);
+        this.regions = new ByteBuffer[(treeCount + treesPerRegion - 1) / treesPerRegion];
+    }
+
+    /**
+     * Creates an empty store in memory.
+     */
+    public static CompactTreeStore create(TaxonList taxa, int treeCount, boolean singlePrecision) {
+        CompactTreeStore store = new CompactTreeStore(taxa, treeCount, singlePrecision);
+        for (int r = 0; r < store.regions.length; r++) {
+            store.regions[r] = ByteBuffer.allocate(store.getRegionTreeCount(r) * store.recordSize);
+        }
+        return store;
+    }
+
+    /**
+     * Creates an empty store in a memory mapped file. The file records the length and modification
+     * time of the source of the trees so it can be reused by open() while the source is unchanged.
+     */
+    public static CompactTreeStore create(TaxonList taxa, int treeCount, boolean singlePrecision,
+                                          File file, File source) throws IOException {
+        CompactTreeStore store = new CompactTreeStore(taxa, treeCount, singlePrecision);
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(0);
+            randomAccessFile.writeInt(FILE_MAGIC);
+            randomAccessFile.writeInt(FILE_VERSION);
+            randomAccessFile.writeLong(source.length());
+            randomAccessFile.writeLong(source.lastModified());
+            randomAccessFile.writeInt(treeCount);
+            randomAccessFile.writeBoolean(singlePrecision);
+            randomAccessFile.writeInt(store.taxonCount);
+            for (int i = 0; i < store.taxonCount; i++) {
+                randomAccessFile.writeUTF(taxa.getTaxonId(i));
+            }
+            // the store is incomplete until the trees are all set and the header is finished
+            randomAccessFile.writeBoolean(false);
+
+            store.mapRegions(randomAccessFile.getChannel(), randomAccessFile.getFilePointer(), FileChannel.MapMode.READ_WRITE);
+        } finally {
+            randomAccessFile.close();
+        }
+        store.file = file;
+        return store;
+    }
+
+    /**
+     * Opens a store previously created in a file.
+     *
+     * @return the store or null if the file isn't a complete store of trees from the given source on
+     * the given taxa.
+     */
+    public static CompactTreeStore open(TaxonList taxa, File file, File source) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            if (randomAccessFile.readInt() != FILE_MAGIC || randomAccessFile.readInt() != FILE_VERSION ||
+                    randomAccessFile.readLong() != source.length() || randomAccessFile.readLong() != source.lastModified()) {
+                return null;
+            }
+            int treeCount = randomAccessFile.readInt();
+            boolean singlePrecision = randomAccessFile.readBoolean();
+            if (randomAccessFile.readInt() != taxa.getTaxonCount()) {
+                return null;
+            }
+            for (int i = 0; i < taxa.getTaxonCount(); i++) {
+                if (!randomAccessFile.readUTF().equals(taxa.getTaxonId(i))) {
+                    return null;
+                }
+            }
+            if (!randomAccessFile.readBoolean()) {
+                return null;
+            }
+
+            CompactTreeStore store = new CompactTreeStore(taxa, treeCount, singlePrecision);
+            store.mapRegions(randomAccessFile.getChannel(), randomAccessFile.getFilePointer(), FileChannel.MapMode.READ_ONLY);
+            if (store.regions.length > 0 && (long) store.regions[store.regions.length - 1].capacity() < store.getRegionTreeCount(store.regions.length - 1) * (long) store.recordSize) {
+                return null;
+            }
+            return store;
+        } catch (java.io.EOFException eofe) {
+            return null;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Marks a store in a file as complete so it can be opened later.
+     */
+    public void finish() throws IOException {
+        if (file != null) {
+            for (ByteBuffer region : regions) {
+                ((MappedByteBuffer) region).force();
+            }
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                randomAccessFile.seek(dataOffset - 1);
+                randomAccessFile.writeBoolean(true);
+            } finally {
+                randomAccessFile.close();
+            }
+        }
+    }
+
+    public TaxonList getTaxa() {
+        return taxa;
+    }
+
+    public int getTreeCount() {
+        return treeCount;
+    }
+
+    public int getTaxonCount() {
+        return taxonCount;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public boolean isSinglePrecision() {
+        return singlePrecision;
+    }
+
+    /**
+     * Encodes a tree and stores it. This can be called from several threads for different trees.
+     *
+     * @throws IllegalArgumentException if the tree is not binary or has tips that are not in the taxon list
+     */
+    public void setTree(int index, Tree tree) {
+        if (tree.getExternalNodeCount() != taxonCount || tree.getNodeCount() != nodeCount) {
+            throw new IllegalArgumentException("Tree " + index + " is not a binary tree on the " + taxonCount + " taxa");
+        }
+
+        int[] parents = new int[nodeCount];
+        double[] heights = new double[nodeCount];
+        int[] minTips = new int[tree.getNodeCount()];
+        findMinimumTips(tree, tree.getRoot(), minTips);
+        int root = numberNodes(tree, tree.getRoot(), minTips, parents, heights, new int[]{taxonCount});
+        parents[root] = -1;
+
+        ByteBuffer region = regions[index / treesPerRegion];
+        int offset = (index % treesPerRegion) * recordSize;
+        for (int i = 0; i < nodeCount; i++) {
+            region.putInt(offset, parents[i]);
+            offset += 4;
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            if (singlePrecision) {
+                region.putFloat(offset, (float) heights[i]);
+                offset += 4;
+            } else {
+                region.putDouble(offset, heights[i]);
+                offset += 8;
+            }
+        }
+    }
+
+    /**
+     * Decodes a tree into the given arrays.
+     */
+    public void getTree(int index, int[] parents, double[] heights) {
+        ByteBuffer region = regions[index / treesPerRegion];
+        int offset = (index % treesPerRegion) * recordSize;
+        for (int i = 0; i < nodeCount; i++) {
+            parents[i] = region.getInt(offset);
+            offset += 4;
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            if (singlePrecision) {
+                heights[i] = region.getFloat(offset);
+                offset += 4;
+            } else {
+                heights[i] = region.getDouble(offset);
+                offset += 8;
+            }
+        }
+    }
+
+    private int findMinimumTips(Tree tree, NodeRef node, int[] minTips) {
+        int minTip;
+        if (tree.isExternal(node)) {
+            minTip = taxa.getTaxonIndex(tree.getNodeTaxon(node).getId());
+            if (minTip < 0) {
+                throw new IllegalArgumentException("Taxon " + tree.getNodeTaxon(node).getId() + " is not in the taxon list");
+            }
+        } else {
+            if (tree.getChildCount(node) != 2) {
+                throw new IllegalArgumentException("Tree is not binary");
+            }
+            minTip = Math.min(findMinimumTips(tree, tree.getChild(node, 0), minTips),
+                    findMinimumTips(tree, tree.getChild(node, 1), minTips));
+        }
+        minTips[node.getNumber()] = minTip;
+        return minTip;
+    }
+
+    private int numberNodes(Tree tree, NodeRef node, int[] minTips, int[] parents, double[] heights, int[] nextInternal) {
+        int number;
+        if (tree.isExternal(node)) {
+            number = minTips[node.getNumber()];
+        } else {
+            NodeRef child0 = tree.getChild(node, 0);
+            NodeRef child1 = tree.getChild(node, 1);
+            if (minTips[child1.getNumber()] < minTips[child0.getNumber()]) {
+                NodeRef tmp = child0;
+                child0 = child1;
+                child1 = tmp;
+            }
+            int number0 = numberNodes(tree, child0, minTips, parents, heights, nextInternal);
+            int number1 = numberNodes(tree, child1, minTips, parents, heights, nextInternal);
+            number = nextInternal[0]++;
+            parents[number0] = number;
+            parents[number1] = number;
+        }
+        heights[number] = tree.getNodeHeight(node);
+        return number;
+    }
+
+    private int getRegionTreeCount(int region) {
+        return Math.min(treesPerRegion, treeCount - region * treesPerRegion);
+    }
+
+    private void mapRegions(FileChannel channel, long offset, FileChannel.MapMode mode) throws IOException {
+        dataOffset = offset;
+        for (int r = 0; r < regions.length; r++) {
+            long position = offset + (long) r * treesPerRegion * recordSize;
+            long size = (long) getRegionTreeCount(r) * recordSize;
+            if (mode == FileChannel.MapMode.READ_ONLY && position + size > channel.size()) {
+                size = Math.max(0, channel.size() - position);
+            }
+            regions[r] = channel.map(mode, position, size);
+        }
+    }
+
+    private final TaxonList taxa;
+    private final int taxonCount;
+    private final int nodeCount;
+    private final int treeCount;
+    private final boolean singlePrecision;
+    private final int recordSize;
+    private final int treesPerRegion;
+    private final ByteBuffer[] regions;
+
+    private File file = null;
+    private long dataOffset;
+}
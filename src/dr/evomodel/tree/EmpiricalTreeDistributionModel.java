@@ -68,11 +68,35 @@ public class EmpiricalTreeDistributionModel extends DefaultTreeModel implements
         this(null, importer, startingTree);
     }
 
+    /**
+     * This constructor takes a compact store of trees and jumps randomly amongst them. The trees are
+     * loaded in place into a single CompactTree so changing tree allocates nothing and only the nodes
+     * that differ between the trees are reported as changed.
+     * @param store
+     * @param startingTree
+     */
+    public EmpiricalTreeDistributionModel(final CompactTreeStore store, int startingTree) {
+        this(null, null, store, startingTree);
+    }
+
     private EmpiricalTreeDistributionModel(final List<Tree> trees, final TreeImporter importer, int startingTree) {
+        this(trees, importer, null, startingTree);
+    }
+
+    private EmpiricalTreeDistributionModel(final List<Tree> trees, final TreeImporter importer,
+                                           final CompactTreeStore store, int startingTree) {
         super(EMPIRICAL_TREE_DISTRIBUTION_MODEL);
 
         this.trees = trees;
         this.importer = importer;
+        if (store != null) {
+            compactTree = new CompactTree(store);
+            changedNodes = new int[store.getNodeCount()];
+            currentTree = compactTree;
+        } else {
+            compactTree = null;
+            changedNodes = null;
+        }
         drawTreeIndex(startingTree);
 
         addStatistic(new Statistic.Abstract("Current Tree")  {
@@ -89,8 +113,16 @@ public class EmpiricalTreeDistributionModel extends DefaultTreeModel implements
 
     public List<Tree> getTrees() { return trees; }
 
+    public int getTreeCount() {
+        return (compactTree != null ? compactTree.getStore().getTreeCount() : trees.size());
+    }
+
     public void setTree(int index) {
         currentTreeIndex = index;
+        if (compactTree != null) {
+            loadCompactTree(index);
+            return;
+        }
         currentTree = trees.get(index);
         fireModelChanged();
     }
@@ -98,11 +130,17 @@ public class EmpiricalTreeDistributionModel extends DefaultTreeModel implements
     protected void storeState() {
         storedCurrentTree = currentTree;
         storedCurrentTreeIndex = currentTreeIndex;
+        if (compactTree != null) {
+            compactTree.store();
+        }
     }
 
     protected void restoreState() {
         currentTree = storedCurrentTree;
         currentTreeIndex = storedCurrentTreeIndex;
+        if (compactTree != null) {
+            compactTree.restore();
+        }
     }
 
     protected void acceptState() {
@@ -127,6 +165,10 @@ public class EmpiricalTreeDistributionModel extends DefaultTreeModel implements
                 throw new RuntimeException("EmpiricalTreeDistributionModel unable to load next tree");
             }
             currentTreeIndex += 1;
+        } else if (compactTree != null) {
+            currentTreeIndex = (treeNumber == -1 ? MathUtils.nextInt(getTreeCount()) : treeNumber);
+            loadCompactTree(currentTreeIndex);
+            return;
         } else {
             if (treeNumber == -1) {
                 currentTreeIndex = MathUtils.nextInt(trees.size());
@@ -146,6 +188,21 @@ public class EmpiricalTreeDistributionModel extends DefaultTreeModel implements
         fireModelChanged(TreeChangedEvent.create());
     }
 
+    /**
+     * Loads a tree into the compact tree and tells the listeners which nodes have changed. If most
+     * of them have then the whole tree is reported as changed.
+     */
+    private void loadCompactTree(int index) {
+        int changedCount = compactTree.load(index, changedNodes);
+        if (changedCount > changedNodes.length / 2) {
+            fireModelChanged(TreeChangedEvent.create());
+        } else {
+            for (int i = 0; i < changedCount; i++) {
+                fireModelChanged(TreeChangedEvent.create(compactTree.getNode(changedNodes[i]), true));
+            }
+        }
+    }
+
     public NodeRef getRoot() {
         return currentTree.getRoot();
     }
@@ -175,7 +232,7 @@ public class EmpiricalTreeDistributionModel extends DefaultTreeModel implements
     }
 
     public Taxon getNodeTaxon(final NodeRef node) {
-        return trees.get(currentTreeIndex).getNodeTaxon(node);
+        return currentTree.getNodeTaxon(node);
     }
 
     public boolean hasNodeHeights() {
@@ -303,6 +360,8 @@ public class EmpiricalTreeDistributionModel extends DefaultTreeModel implements
 
     private final List<Tree> trees;
     private final TreeImporter importer;
+    private final CompactTree compactTree;
+    private final int[] changedNodes;
     private Tree currentTree;
     private Tree storedCurrentTree;
 
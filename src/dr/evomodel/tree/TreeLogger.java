@@ -180,6 +180,8 @@ public class TreeLogger extends MCLogger {
                 logLine("\t\t;");
             }
         }
+
+        startAsynchronousLogging();
     }
 
     private String cleanTaxonName(String taxaId) {
@@ -243,11 +245,12 @@ public class TreeLogger extends MCLogger {
             }
 
             buffer.append(";");
-            logLine(buffer.toString());
+            logLineInOrder(buffer.toString());
         }
     }
 
     public void stopLogging() {
+        stopAsynchronousLogging();
         logLine("End;");
         super.stopLogging();
     }
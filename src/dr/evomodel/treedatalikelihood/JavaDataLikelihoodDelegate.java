@@ -0,0 +1,979 @@
+/*
+ * JavaDataLikelihoodDelegate.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.evomodel.treedatalikelihood;
+
+import dr.evolution.alignment.PatternList;
+import dr.evolution.alignment.UncertainSiteList;
+import dr.evolution.datatype.DataType;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.TaxonList;
+import dr.evomodel.branchmodel.BranchModel;
+import dr.evomodel.siteratemodel.SiteRateModel;
+import dr.evomodel.substmodel.EigenDecomposition;
+import dr.evomodel.substmodel.SubstitutionModel;
+import dr.evomodel.treelikelihood.PartialsRescalingScheme;
+import dr.inference.model.AbstractModel;
+import dr.inference.model.Model;
+import dr.inference.model.Parameter;
+import dr.inference.model.Variable;
+import dr.math.MatrixExponentialAction;
+
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * JavaDataLikelihoodDelegate
+ *
+ * A DataLikelihoodDelegate that computes the likelihood in Java without the BEAGLE library. This
+ * is intended as a fallback for machines where BEAGLE is not installed. Partials, transition
+ * matrices and scale factors are held in flat primitive arrays (laid out as BEAGLE does:
+ * category, then pattern, then state) and are double buffered so that store/restore is just a
+ * flip of the buffer indices. The inner loops are written over contiguous arrays (with an unrolled
+ * kernel for 4 state data) so they can be vectorized by the JIT compiler.
+ *
+ * Rescaling: 'none' never rescales, 'always' rescales at every node and every other scheme starts
+ * without rescaling and switches to rescaling at every node after the first underflow.
+ *
+ * For models with many states (e.g., discrete phylogeography over hundreds of locations) the
+ * delegate can instead apply exp(Qt) directly to the child partials (see MatrixExponentialAction).
+ * No eigen-decompositions or transition matrices are computed: the generators are taken from the
+ * substitution models, only the branch lengths are kept for each branch and the tips are held as
+ * partials.
+ */
+public class JavaDataLikelihoodDelegate extends AbstractModel implements DataLikelihoodDelegate {
+
+    private static final boolean COUNT_CALCULATIONS = true; // keep a cumulative total of number of computations
+
+    /**
+     * @param tree Used for configuration and to look up branch model mappings
+     * @param patternList List of patterns
+     * @param branchModel Specifies substitution model for each branch
+     * @param siteRateModel Specifies rates per site
+     * @param useAmbiguities Whether to respect state ambiguities in data
+     * @param rescalingScheme the scheme used to avoid numerical underflow
+     * @param delayRescalingUntilUnderflow only start rescaling after the first underflow
+     */
+    public JavaDataLikelihoodDelegate(Tree tree,
+                                      PatternList patternList,
+                                      BranchModel branchModel,
+                                      SiteRateModel siteRateModel,
+                                      boolean useAmbiguities,
+                                      PartialsRescalingScheme rescalingScheme,
+                                      boolean delayRescalingUntilUnderflow) {
+        this(tree, patternList, branchModel, siteRateModel, useAmbiguities, rescalingScheme,
+                delayRescalingUntilUnderflow, false);
+    }
+
+    /**
+     * @param tree Used for configuration and to look up branch model mappings
+     * @param patternList List of patterns
+     * @param branchModel Specifies substitution model for each branch
+     * @param siteRateModel Specifies rates per site
+     * @param useAmbiguities Whether to respect state ambiguities in data
+     * @param rescalingScheme the scheme used to avoid numerical underflow
+     * @param delayRescalingUntilUnderflow only start rescaling after the first underflow
+     * @param useMatrixExponentialAction apply exp(Qt) to the partials rather than forming transition matrices
+     */
+    public JavaDataLikelihoodDelegate(Tree tree,
+                                      PatternList patternList,
+                                      BranchModel branchModel,
+                                      SiteRateModel siteRateModel,
+                                      boolean useAmbiguities,
+                                      PartialsRescalingScheme rescalingScheme,
+                                      boolean delayRescalingUntilUnderflow,
+                                      boolean useMatrixExponentialAction) {
+
+        super("JavaDataLikelihoodDelegate");
+        final Logger logger = Logger.getLogger("dr.evomodel");
+
+        logger.info("\nCreating Java DataLikelihood Delegate");
+        setId(patternList.getId());
+
+        this.tree = tree;
+        this.dataType = patternList.getDataType();
+        this.patternList = patternList;
+        patternCount = patternList.getPatternCount();
+        stateCount = dataType.getStateCount();
+
+        // Check for matching state counts
+        int stateCount2 = branchModel.getRootFrequencyModel().getFrequencyCount();
+        if (stateCount != stateCount2) {
+            throw new IllegalArgumentException("Pattern state count (" + stateCount
+                    + ") does not match substitution model state count (" + stateCount2 + ")");
+        }
+
+        patternWeights = patternList.getPatternWeights();
+
+        this.branchModel = branchModel;
+        addModel(this.branchModel);
+
+        this.siteRateModel = siteRateModel;
+        addModel(this.siteRateModel);
+
+        this.categoryCount = this.siteRateModel.getCategoryCount();
+
+        nodeCount = tree.getNodeCount();
+        tipCount = tree.getExternalNodeCount();
+
+        partialsSize = categoryCount * patternCount * stateCount;
+        matrixSize = stateCount * stateCount;
+
+        if (patternList instanceof UncertainSiteList || patternList.areUncertain()) {
+            useAmbiguities = true;
+        }
+        this.useAmbiguities = useAmbiguities;
+
+        // one partials buffer for each tip and two for each internal node (for store restore)
+        partialBufferHelper = new BufferIndexHelper(nodeCount, tipCount);
+        partials = new double[partialBufferHelper.getBufferCount()][];
+        scaleFactors = new double[partialBufferHelper.getBufferCount()][];
+        for (int i = tipCount; i < partials.length; i++) {
+            partials[i] = new double[partialsSize];
+            scaleFactors[i] = new double[patternCount];
+        }
+
+        // two matrix buffers (or branch lengths) for each branch (for store restore)
+        this.useMatrixExponentialAction = useMatrixExponentialAction;
+        matrixBufferHelper = new BufferIndexHelper(nodeCount, 0);
+
+        tipStates = new int[tipCount][];
+
+        List<SubstitutionModel> substitutionModels = branchModel.getSubstitutionModels();
+        eigenVectors = new double[substitutionModels.size()][];
+        inverseEigenVectors = new double[substitutionModels.size()][];
+        eigenValues = new double[substitutionModels.size()][];
+
+        expEigenValues = new double[stateCount];
+        tmpMatrix = new double[matrixSize];
+
+        if (useMatrixExponentialAction) {
+            matrices = null;
+            branchLengths = new double[matrixBufferHelper.getBufferCount()];
+            actions = new MatrixExponentialAction[substitutionModels.size()];
+            for (int i = 0; i < actions.length; i++) {
+                actions[i] = new MatrixExponentialAction(stateCount);
+            }
+            actionPartials = new double[partialsSize];
+            tmpMatrix2 = null;
+        } else {
+            matrices = new double[matrixBufferHelper.getBufferCount()][categoryCount * matrixSize];
+            branchLengths = null;
+            actions = null;
+            actionPartials = null;
+            tmpMatrix2 = new double[matrixSize];
+        }
+        rootPartials = new double[patternCount];
+        cumulativeScaleFactors = new double[patternCount];
+        siteLogLikelihoods = new double[patternCount];
+
+        this.rescalingScheme = rescalingScheme;
+        if (rescalingScheme == PartialsRescalingScheme.ALWAYS && !delayRescalingUntilUnderflow) {
+            useScaling = true;
+        }
+
+        logger.info("    " + (this.useAmbiguities ? "Using" : "Ignoring") + " ambiguities in tree likelihood.");
+        logger.info("    With " + patternCount + " unique site patterns.");
+        if (useMatrixExponentialAction) {
+            logger.info("    Applying the matrix exponential to the partials (no eigen-decomposition).");
+        }
+        logger.info("    Using rescaling scheme : " + rescalingScheme.getText() +
+                (useScaling || rescalingScheme == PartialsRescalingScheme.NONE ? "" : " (delay rescaling until first underflow)"));
+
+        try {
+            for (int i = 0; i < tipCount; i++) {
+                // Find the id of tip i in the patternList
+                String id = tree.getTaxonId(i);
+                int index = patternList.getTaxonIndex(id);
+
+                if (index == -1) {
+                    throw new TaxonList.MissingTaxonException("Taxon, " + id + ", in tree, " + tree.getId() +
+                            ", is not found in patternList, " + patternList.getId());
+                } else {
+                    if (this.useAmbiguities) {
+                        setPartials(index, i);
+                    } else {
+                        setStates(index, i);
+                        if (useMatrixExponentialAction) {
+                            expandStates(i);
+                        }
+                    }
+                }
+            }
+        } catch (TaxonList.MissingTaxonException mte) {
+            throw new RuntimeException(mte.toString());
+        }
+
+        updateSubstitutionModel = true;
+        updateSiteModel = true;
+        updateRootFrequency = true;
+    }
+
+    /**
+     * Sets the partials from a sequence in an alignment.
+     */
+    private void setPartials(int sequenceIndex, int nodeIndex) {
+        double[] tipPartials = new double[partialsSize];
+
+        int v = 0;
+        for (int i = 0; i < patternCount; i++) {
+
+            if (patternList instanceof UncertainSiteList) {
+                ((UncertainSiteList) patternList).fillPartials(sequenceIndex, i, tipPartials, v);
+                v += stateCount;
+            } else if (patternList.areUncertain()) {
+                double[] prob = patternList.getUncertainPatternState(sequenceIndex, i);
+                System.arraycopy(prob, 0, tipPartials, v, stateCount);
+                v += stateCount;
+            } else {
+                int state = patternList.getPatternState(sequenceIndex, i);
+                boolean[] stateSet = dataType.getStateSet(state);
+
+                for (int j = 0; j < stateCount; j++) {
+                    tipPartials[v] = stateSet[j] ? 1.0 : 0.0;
+                    v++;
+                }
+            }
+        }
+
+        // if there is more than one category then replicate the partials for each
+        int n = patternCount * stateCount;
+        int k = n;
+        for (int i = 1; i < categoryCount; i++) {
+            System.arraycopy(tipPartials, 0, tipPartials, k, n);
+            k += n;
+        }
+
+        partials[nodeIndex] = tipPartials;
+    }
+
+    /**
+     * Sets the (compact) states from a sequence in an alignment. Any state code that isn't a
+     * single state (gaps, unknowns and ambiguities) is treated as completely unknown.
+     */
+    private void setStates(int sequenceIndex, int nodeIndex) {
+        int[] states = new int[patternCount];
+        for (int i = 0; i < patternCount; i++) {
+            int state = patternList.getPatternState(sequenceIndex, i);
+            states[i] = (state >= 0 && state < stateCount ? state : stateCount);
+        }
+        tipStates[nodeIndex] = states;
+    }
+
+    /**
+     * Replaces the compact states of a tip with partials (an unknown state has all ones).
+     */
+    private void expandStates(int nodeIndex) {
+        int[] states = tipStates[nodeIndex];
+        double[] tipPartials = new double[partialsSize];
+        int v = 0;
+        for (int c = 0; c < categoryCount; c++) {
+            for (int k = 0; k < patternCount; k++) {
+                if (states[k] < stateCount) {
+                    tipPartials[v + states[k]] = 1.0;
+                } else {
+                    java.util.Arrays.fill(tipPartials, v, v + stateCount, 1.0);
+                }
+                v += stateCount;
+            }
+        }
+        partials[nodeIndex] = tipPartials;
+        tipStates[nodeIndex] = null;
+    }
+
+    @Override
+    public String getReport() {
+        if (!COUNT_CALCULATIONS) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(getClass().getName()).append(":")
+                .append("\n  likelihood evaluations = ").append(totalEvaluationCount)
+                .append("\n  matrix updates = ").append(totalMatrixUpdateCount)
+                .append("\n  partials updates = ").append(totalPartialsUpdateCount)
+                .append("\n");
+        return sb.toString();
+    }
+
+    @Override
+    public TreeTraversal.TraversalType getOptimalTraversalType() {
+        return TreeTraversal.TraversalType.POST_ORDER;
+    }
+
+    @Override
+    public int getTraitCount() {
+        return 1;
+    }
+
+    @Override
+    public int getTraitDim() {
+        return patternCount;
+    }
+
+    @Override
+    public RateRescalingScheme getRateRescalingScheme() {
+        return RateRescalingScheme.NONE;
+    }
+
+    public final BranchModel getBranchModel() {
+        return branchModel;
+    }
+
+    public PatternList getPatternList() {
+        return this.patternList;
+    }
+
+    /**
+     * Calculate the log likelihood of the current state.
+     *
+     * @return the log likelihood.
+     */
+    @Override
+    public double calculateLikelihood(List<BranchOperation> branchOperations, List<NodeOperation> nodeOperations, int rootNodeNumber) throws LikelihoodException {
+
+        if (updateSubstitutionModel) {
+            if (useMatrixExponentialAction) {
+                updateGenerators();
+            } else {
+                updateEigenDecompositions();
+            }
+        }
+
+        if (updateSiteModel) {
+            double[] rates = this.siteRateModel.getCategoryRates();
+            if (rates == null) {
+                // If this returns null then there was a numerical error calculating the category rates
+                // (probably a very small alpha) so reject the move.
+                return Double.NEGATIVE_INFINITY;
+            }
+            categoryRates = rates;
+            categoryWeights = this.siteRateModel.getCategoryProportions();
+        }
+
+        if (updateRootFrequency) {
+            frequencies = branchModel.getRootFrequencyModel().getFrequencies();
+        }
+
+        for (BranchOperation op : branchOperations) {
+            int branch = op.getBranchNumber();
+            if (flip) {
+                matrixBufferHelper.flipOffset(branch);
+            }
+            if (useMatrixExponentialAction) {
+                branchLengths[matrixBufferHelper.getOffsetIndex(branch)] = op.getBranchLength();
+            } else {
+                updateTransitionMatrix(branch, op.getBranchLength(), matrices[matrixBufferHelper.getOffsetIndex(branch)]);
+            }
+        }
+
+        for (NodeOperation op : nodeOperations) {
+            int nodeNum = op.getNodeNumber();
+            if (flip) {
+                partialBufferHelper.flipOffset(nodeNum);
+            }
+            int destination = partialBufferHelper.getOffsetIndex(nodeNum);
+
+            if (useMatrixExponentialAction) {
+                updatePartialsByAction(partials[destination], op.getLeftChild(), op.getRightChild());
+            } else {
+                updatePartials(partials[destination],
+                        op.getLeftChild(), matrices[matrixBufferHelper.getOffsetIndex(op.getLeftChild())],
+                        op.getRightChild(), matrices[matrixBufferHelper.getOffsetIndex(op.getRightChild())]);
+            }
+
+            if (useScaling) {
+                scalePartials(partials[destination], scaleFactors[destination]);
+            }
+        }
+
+        if (COUNT_CALCULATIONS) {
+            totalEvaluationCount += 1;
+            totalMatrixUpdateCount += branchOperations.size();
+            totalPartialsUpdateCount += nodeOperations.size();
+        }
+
+        double logL = calculateRootLogLikelihood(partials[partialBufferHelper.getOffsetIndex(rootNodeNumber)]);
+
+        if (Double.isNaN(logL) || Double.isInfinite(logL)) {
+
+            // turn off double buffer flipping so the next call overwrites the
+            // underflowed buffers. Flip will be turned on again in storeState for
+            // next step
+            flip = false;
+
+            if (!useScaling && rescalingScheme != PartialsRescalingScheme.NONE) {
+                if (rescalingMessageCount % 1000 == 0) {
+                    Logger.getLogger("dr.evomodel").info("Underflow calculating likelihood. Attempting a rescaling... (" + getId() + ")");
+                }
+                rescalingMessageCount++;
+
+                // from now on always rescale: the TreeDataLikelihood will recompute all the nodes
+                useScaling = true;
+                throw new LikelihoodUnderflowException();
+            }
+
+            return Double.NEGATIVE_INFINITY;
+        }
+
+        flip = true;
+
+        updateSubstitutionModel = false;
+        updateSiteModel = false;
+        updateRootFrequency = false;
+
+        return logL;
+    }
+
+    private void updateEigenDecompositions() {
+        List<SubstitutionModel> substitutionModels = branchModel.getSubstitutionModels();
+        for (int i = 0; i < substitutionModels.size(); i++) {
+            SubstitutionModel model = substitutionModels.get(i);
+            EigenDecomposition ed = model.canReturnComplexDiagonalization() ? null : model.getEigenDecomposition();
+            if (ed != null) {
+                eigenVectors[i] = ed.getEigenVectors();
+                inverseEigenVectors[i] = ed.getInverseEigenVectors();
+                eigenValues[i] = ed.getEigenValues();
+            } else {
+                // complex diagonalisations are left to the model itself
+                eigenValues[i] = null;
+            }
+        }
+    }
+
+    private void updateGenerators() {
+        List<SubstitutionModel> substitutionModels = branchModel.getSubstitutionModels();
+        for (int i = 0; i < substitutionModels.size(); i++) {
+            substitutionModels.get(i).getInfinitesimalMatrix(tmpMatrix);
+            actions[i].setGenerator(tmpMatrix);
+        }
+    }
+
+    /**
+     * Calculates the partial likelihoods at a node by applying exp(Qt) for each child's branch to
+     * its partials.
+     */
+    private void updatePartialsByAction(double[] destination, int child1, int child2) {
+        applyBranch(child1, destination);
+        applyBranch(child2, actionPartials);
+        for (int v = 0; v < partialsSize; v++) {
+            destination[v] *= actionPartials[v];
+        }
+    }
+
+    private void applyBranch(int child, double[] destination) {
+        final double[] childPartials = partials[partialBufferHelper.getOffsetIndex(child)];
+        final double branchLength = branchLengths[matrixBufferHelper.getOffsetIndex(child)];
+        final int n = patternCount * stateCount;
+
+        BranchModel.Mapping mapping = branchModel.getBranchModelMapping(tree.getNode(child));
+        int[] order = mapping.getOrder();
+
+        if (order.length == 1) {
+            for (int c = 0; c < categoryCount; c++) {
+                actions[order[0]].apply(branchLength * categoryRates[c], childPartials, c * n,
+                        destination, c * n, patternCount);
+            }
+        } else {
+            double[] weights = mapping.getWeights();
+            double sum = 0.0;
+            for (double w : weights) {
+                sum += w;
+            }
+            for (int c = 0; c < categoryCount; c++) {
+                double distance = branchLength * categoryRates[c] / sum;
+                // tipward to rootward, the reverse of the matrix product
+                int last = order.length - 1;
+                actions[order[last]].apply(weights[last] * distance, childPartials, c * n, destination, c * n, patternCount);
+                for (int j = last - 1; j >= 0; j--) {
+                    actions[order[j]].apply(weights[j] * distance, destination, c * n, destination, c * n, patternCount);
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the transition matrices for each rate category along a branch, convolving the
+     * matrices of each substitution model if the branch model maps more than one to the branch.
+     */
+    private void updateTransitionMatrix(int branch, double branchLength, double[] matrix) {
+        BranchModel.Mapping mapping = branchModel.getBranchModelMapping(tree.getNode(branch));
+        int[] order = mapping.getOrder();
+
+        if (order.length == 1) {
+            for (int c = 0; c < categoryCount; c++) {
+                computeTransitionMatrix(order[0], branchLength * categoryRates[c], matrix, c * matrixSize);
+            }
+        } else {
+            double[] weights = mapping.getWeights();
+            double sum = 0.0;
+            for (double w : weights) {
+                sum += w;
+            }
+            for (int c = 0; c < categoryCount; c++) {
+                int offset = c * matrixSize;
+                double distance = branchLength * categoryRates[c] / sum;
+                computeTransitionMatrix(order[0], weights[0] * distance, matrix, offset);
+                for (int j = 1; j < order.length; j++) {
+                    // rootward to tipward so the running product is on the left
+                    computeTransitionMatrix(order[j], weights[j] * distance, tmpMatrix, 0);
+                    System.arraycopy(matrix, offset, tmpMatrix2, 0, matrixSize);
+                    multiply(tmpMatrix2, tmpMatrix, matrix, offset);
+                }
+            }
+        }
+    }
+
+    private void computeTransitionMatrix(int modelIndex, double distance, double[] matrix, int offset) {
+        final double[] eval = eigenValues[modelIndex];
+
+        if (eval == null) {
+            SubstitutionModel model = branchModel.getSubstitutionModels().get(modelIndex);
+            model.getTransitionProbabilities(distance, tmpMatrix2);
+            System.arraycopy(tmpMatrix2, 0, matrix, offset, matrixSize);
+            return;
+        }
+
+        final double[] evec = eigenVectors[modelIndex];
+        final double[] ievc = inverseEigenVectors[modelIndex];
+
+        for (int k = 0; k < stateCount; k++) {
+            expEigenValues[k] = Math.exp(distance * eval[k]);
+        }
+
+        int u = offset;
+        for (int i = 0; i < stateCount; i++) {
+            final int iOffset = i * stateCount;
+            for (int j = 0; j < stateCount; j++) {
+                double sum = 0.0;
+                for (int k = 0; k < stateCount; k++) {
+                    sum += evec[iOffset + k] * expEigenValues[k] * ievc[k * stateCount + j];
+                }
+                matrix[u] = Math.abs(sum);
+                u++;
+            }
+        }
+    }
+
+    private void multiply(double[] a, double[] b, double[] result, int offset) {
+        for (int i = 0; i < stateCount; i++) {
+            for (int j = 0; j < stateCount; j++) {
+                double sum = 0.0;
+                for (int k = 0; k < stateCount; k++) {
+                    sum += a[i * stateCount + k] * b[k * stateCount + j];
+                }
+                result[offset + i * stateCount + j] = sum;
+            }
+        }
+    }
+
+    /**
+     * Calculates the partial likelihoods at a node given its two children.
+     */
+    private void updatePartials(double[] destination, int child1, double[] matrix1, int child2, double[] matrix2) {
+        int[] states1 = child1 < tipCount ? tipStates[child1] : null;
+        int[] states2 = child2 < tipCount ? tipStates[child2] : null;
+
+        if (states1 != null && states2 != null) {
+            updateStatesStates(destination, states1, matrix1, states2, matrix2);
+        } else if (states1 != null) {
+            updateStatesPartials(destination, states1, matrix1, partials[partialBufferHelper.getOffsetIndex(child2)], matrix2);
+        } else if (states2 != null) {
+            updateStatesPartials(destination, states2, matrix2, partials[partialBufferHelper.getOffsetIndex(child1)], matrix1);
+        } else if (stateCount == 4) {
+            updatePartialsPartials4(destination,
+                    partials[partialBufferHelper.getOffsetIndex(child1)], matrix1,
+                    partials[partialBufferHelper.getOffsetIndex(child2)], matrix2);
+        } else {
+            updatePartialsPartials(destination,
+                    partials[partialBufferHelper.getOffsetIndex(child1)], matrix1,
+                    partials[partialBufferHelper.getOffsetIndex(child2)], matrix2);
+        }
+    }
+
+    private void updateStatesStates(double[] destination, int[] states1, double[] matrix1, int[] states2, double[] matrix2) {
+        int v = 0;
+        for (int c = 0; c < categoryCount; c++) {
+            final int w = c * matrixSize;
+            for (int k = 0; k < patternCount; k++) {
+                final int state1 = states1[k];
+                final int state2 = states2[k];
+                for (int i = 0; i < stateCount; i++) {
+                    final int row = w + i * stateCount;
+                    double sum1 = (state1 < stateCount ? matrix1[row + state1] : 1.0);
+                    double sum2 = (state2 < stateCount ? matrix2[row + state2] : 1.0);
+                    destination[v] = sum1 * sum2;
+                    v++;
+                }
+            }
+        }
+    }
+
+    private void updateStatesPartials(double[] destination, int[] states1, double[] matrix1, double[] partials2, double[] matrix2) {
+        int v = 0;
+        for (int c = 0; c < categoryCount; c++) {
+            final int w = c * matrixSize;
+            for (int k = 0; k < patternCount; k++) {
+                final int state1 = states1[k];
+                for (int i = 0; i < stateCount; i++) {
+                    final int row = w + i * stateCount;
+                    double sum1 = (state1 < stateCount ? matrix1[row + state1] : 1.0);
+                    double sum2 = 0.0;
+                    for (int j = 0; j < stateCount; j++) {
+                        sum2 += matrix2[row + j] * partials2[v - i + j];
+                    }
+                    destination[v] = sum1 * sum2;
+                    v++;
+                }
+            }
+        }
+    }
+
+    private void updatePartialsPartials(double[] destination, double[] partials1, double[] matrix1, double[] partials2, double[] matrix2) {
+        int v = 0;
+        for (int c = 0; c < categoryCount; c++) {
+            final int w = c * matrixSize;
+            for (int k = 0; k < patternCount; k++) {
+                for (int i = 0; i < stateCount; i++) {
+                    final int row = w + i * stateCount;
+                    double sum1 = 0.0;
+                    double sum2 = 0.0;
+                    for (int j = 0; j < stateCount; j++) {
+                        sum1 += matrix1[row + j] * partials1[v - i + j];
+                        sum2 += matrix2[row + j] * partials2[v - i + j];
+                    }
+                    destination[v] = sum1 * sum2;
+                    v++;
+                }
+            }
+        }
+    }
+
+    private void updatePartialsPartials4(double[] destination, double[] partials1, double[] matrix1, double[] partials2, double[] matrix2) {
+        int v = 0;
+        for (int c = 0; c < categoryCount; c++) {
+            final int w = c * 16;
+
+            final double m100 = matrix1[w], m101 = matrix1[w + 1], m102 = matrix1[w + 2], m103 = matrix1[w + 3];
+            final double m110 = matrix1[w + 4], m111 = matrix1[w + 5], m112 = matrix1[w + 6], m113 = matrix1[w + 7];
+            final double m120 = matrix1[w + 8], m121 = matrix1[w + 9], m122 = matrix1[w + 10], m123 = matrix1[w + 11];
+            final double m130 = matrix1[w + 12], m131 = matrix1[w + 13], m132 = matrix1[w + 14], m133 = matrix1[w + 15];
+
+            final double m200 = matrix2[w], m201 = matrix2[w + 1], m202 = matrix2[w + 2], m203 = matrix2[w + 3];
+            final double m210 = matrix2[w + 4], m211 = matrix2[w + 5], m212 = matrix2[w + 6], m213 = matrix2[w + 7];
+            final double m220 = matrix2[w + 8], m221 = matrix2[w + 9], m222 = matrix2[w + 10], m223 = matrix2[w + 11];
+            final double m230 = matrix2[w + 12], m231 = matrix2[w + 13], m232 = matrix2[w + 14], m233 = matrix2[w + 15];
+
+            for (int k = 0; k < patternCount; k++) {
+                final double p10 = partials1[v], p11 = partials1[v + 1], p12 = partials1[v + 2], p13 = partials1[v + 3];
+                final double p20 = partials2[v], p21 = partials2[v + 1], p22 = partials2[v + 2], p23 = partials2[v + 3];
+
+                destination[v] = (m100 * p10 + m101 * p11 + m102 * p12 + m103 * p13) *
+                        (m200 * p20 + m201 * p21 + m202 * p22 + m203 * p23);
+                destination[v + 1] = (m110 * p10 + m111 * p11 + m112 * p12 + m113 * p13) *
+                        (m210 * p20 + m211 * p21 + m212 * p22 + m213 * p23);
+                destination[v + 2] = (m120 * p10 + m121 * p11 + m122 * p12 + m123 * p13) *
+                        (m220 * p20 + m221 * p21 + m222 * p22 + m223 * p23);
+                destination[v + 3] = (m130 * p10 + m131 * p11 + m132 * p12 + m133 * p13) *
+                        (m230 * p20 + m231 * p21 + m232 * p22 + m233 * p23);
+
+                v += 4;
+            }
+        }
+    }
+
+    /**
+     * Divides the partials of each pattern by the largest across states and categories, storing
+     * the log of the scale factor.
+     */
+    private void scalePartials(double[] nodePartials, double[] logScaleFactors) {
+        final int n = patternCount * stateCount;
+        for (int k = 0; k < patternCount; k++) {
+            double max = 0.0;
+            for (int c = 0; c < categoryCount; c++) {
+                int v = c * n + k * stateCount;
+                for (int i = 0; i < stateCount; i++) {
+                    if (nodePartials[v + i] > max) {
+                        max = nodePartials[v + i];
+                    }
+                }
+            }
+
+            if (max > 0.0) {
+                double oneOverMax = 1.0 / max;
+                for (int c = 0; c < categoryCount; c++) {
+                    int v = c * n + k * stateCount;
+                    for (int i = 0; i < stateCount; i++) {
+                        nodePartials[v + i] *= oneOverMax;
+                    }
+                }
+                logScaleFactors[k] = Math.log(max);
+            } else {
+                logScaleFactors[k] = 0.0;
+            }
+        }
+    }
+
+    private double calculateRootLogLikelihood(double[] nodePartials) {
+        final int n = patternCount * stateCount;
+
+        java.util.Arrays.fill(rootPartials, 0.0);
+        for (int c = 0; c < categoryCount; c++) {
+            final double weight = categoryWeights[c];
+            int v = c * n;
+            for (int k = 0; k < patternCount; k++) {
+                double sum = 0.0;
+                for (int i = 0; i < stateCount; i++) {
+                    sum += frequencies[i] * nodePartials[v];
+                    v++;
+                }
+                rootPartials[k] += weight * sum;
+            }
+        }
+
+        if (useScaling) {
+            java.util.Arrays.fill(cumulativeScaleFactors, 0.0);
+            for (int node = tipCount; node < nodeCount; node++) {
+                double[] logScaleFactors = scaleFactors[partialBufferHelper.getOffsetIndex(node)];
+                for (int k = 0; k < patternCount; k++) {
+                    cumulativeScaleFactors[k] += logScaleFactors[k];
+                }
+            }
+        }
+
+        double logL = 0.0;
+        for (int k = 0; k < patternCount; k++) {
+            double siteLogL = Math.log(rootPartials[k]);
+            if (useScaling) {
+                siteLogL += cumulativeScaleFactors[k];
+            }
+            siteLogLikelihoods[k] = siteLogL;
+            logL += patternWeights[k] * siteLogL;
+        }
+        return logL;
+    }
+
+    @Override
+    public double[] getSiteLogLikelihoods() {
+        double[] patternLogLikelihoods = new double[patternCount];
+        System.arraycopy(siteLogLikelihoods, 0, patternLogLikelihoods, 0, patternCount);
+        return patternLogLikelihoods;
+    }
+
+    public void getPartials(int number, double[] destination) {
+        if (number < tipCount && tipStates[number] != null) {
+            throw new IllegalArgumentException("Tip " + number + " is stored as compact states");
+        }
+        System.arraycopy(partials[partialBufferHelper.getOffsetIndex(number)], 0, destination, 0, partialsSize);
+    }
+
+    @Override
+    public int getPartitionCat() {
+        // there is a single partition
+        return 0;
+    }
+
+    @Override
+    public void makeDirty() {
+        updateSiteModel = true;
+        updateSubstitutionModel = true;
+        updateRootFrequency = true;
+        fireModelChanged();
+    }
+
+    @Override
+    protected void handleModelChangedEvent(Model model, Object object, int index) {
+        if (model == siteRateModel) {
+            updateSiteModel = true;
+        } else if (model == branchModel) {
+            updateSubstitutionModel = true;
+            updateRootFrequency = true;
+        }
+
+        // Tell TreeDataLikelihood to update all nodes
+        fireModelChanged();
+    }
+
+    @Override
+    protected void handleVariableChangedEvent(Variable variable, int index, Parameter.ChangeType type) {
+    }
+
+    /**
+     * Stores the additional state other than model components
+     */
+    @Override
+    public void storeState() {
+        partialBufferHelper.storeState();
+        matrixBufferHelper.storeState();
+
+        // turn on double buffering flipping (may have been turned off to enable a rescale)
+        flip = true;
+    }
+
+    /**
+     * Restore the additional stored state
+     */
+    @Override
+    public void restoreState() {
+        // the eigen decompositions, rates and frequencies are owned by the models so just pick them up again
+        updateSubstitutionModel = true;
+        updateSiteModel = true;
+        updateRootFrequency = true;
+
+        partialBufferHelper.restoreState();
+        matrixBufferHelper.restoreState();
+    }
+
+    @Override
+    protected void acceptState() {
+    }
+
+    @Override
+    public void setCallback(TreeDataLikelihood treeDataLikelihood) {
+        // Do nothing
+    }
+
+    @Override
+    public void setComputePostOrderStatisticsOnly(boolean computePostOrderStatistic) {
+        // Do nothing
+    }
+
+    @Override
+    public boolean providesPostOrderStatisticsOnly() {
+        return false;
+    }
+
+    @Override
+    public int vectorizeNodeOperations(List<NodeOperation> nodeOperations, int[] operations) {
+        throw new RuntimeException("Not yet implemented");
+    }
+
+    @Override
+    public PreOrderSettings getPreOrderSettings() {
+        return PreOrderSettings.getDefault();
+    }
+
+    @Override
+    public boolean getPreferGPU() {
+        return false;
+    }
+
+    @Override
+    public boolean getUseAmbiguities() {
+        return useAmbiguities;
+    }
+
+    @Override
+    public PartialsRescalingScheme getRescalingScheme() {
+        return rescalingScheme;
+    }
+
+    @Override
+    public boolean getDelayRescalingUntilUnderflow() {
+        return !useScaling;
+    }
+
+    // **************************************************************
+    // INSTANCE PROFILEABLE
+    // **************************************************************
+
+    @Override
+    public long getTotalCalculationCount() {
+        // Can only return one count at the moment so return the number of partials updated
+        return totalPartialsUpdateCount;
+    }
+
+    // **************************************************************
+    // INSTANCE VARIABLES
+    // **************************************************************
+
+    private final Tree tree;
+
+    private final int nodeCount;
+    private final int tipCount;
+
+    private final int patternCount;
+    private final int stateCount;
+    private final int categoryCount;
+
+    private final int partialsSize;
+    private final int matrixSize;
+
+    private final PatternList patternList;
+    private final DataType dataType;
+    private final double[] patternWeights;
+
+    private final BranchModel branchModel;
+    private final SiteRateModel siteRateModel;
+
+    private final boolean useAmbiguities;
+    private final PartialsRescalingScheme rescalingScheme;
+    private boolean useScaling = false;
+    private int rescalingMessageCount = 0;
+
+    private final BufferIndexHelper partialBufferHelper;
+    private final BufferIndexHelper matrixBufferHelper;
+    private boolean flip = true;
+
+    // indexed by partials buffer (tips that are stored as states have null partials)
+    private final double[][] partials;
+    private final double[][] scaleFactors;
+    private final int[][] tipStates;
+
+    // indexed by matrix buffer (branch lengths are kept instead of matrices if the action is used)
+    private final double[][] matrices;
+    private final double[] branchLengths;
+
+    // indexed by substitution model
+    private final boolean useMatrixExponentialAction;
+    private final MatrixExponentialAction[] actions;
+
+    // indexed by substitution model
+    private final double[][] eigenVectors;
+    private final double[][] inverseEigenVectors;
+    private final double[][] eigenValues;
+
+    private double[] categoryRates;
+    private double[] categoryWeights;
+    private double[] frequencies;
+
+    // working storage
+    private final double[] expEigenValues;
+    private final double[] tmpMatrix;
+    private final double[] tmpMatrix2;
+    private final double[] actionPartials;
+    private final double[] rootPartials;
+    private final double[] cumulativeScaleFactors;
+    private final double[] siteLogLikelihoods;
+
+    private boolean updateSubstitutionModel;
+    private boolean updateSiteModel;
+    private boolean updateRootFrequency;
+
+    private long totalMatrixUpdateCount = 0;
+    private long totalPartialsUpdateCount = 0;
+    private long totalEvaluationCount = 0;
+}
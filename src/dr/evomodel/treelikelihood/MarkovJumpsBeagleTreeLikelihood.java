@@ -31,6 +31,7 @@ import dr.evolution.tree.MutableTreeModel;
 import dr.evomodel.branchmodel.BranchModel;
 import dr.evomodel.branchmodel.EpochBranchModel;
 import dr.evomodel.siteratemodel.SiteRateModel;
+import dr.evomodel.substmodel.MarkovJumpsBatch;
 import dr.evomodel.substmodel.MarkovJumpsSubstitutionModel;
 import dr.evomodel.substmodel.SubstitutionModel;
 import dr.evomodel.substmodel.UniformizedSubstitutionModel;
@@ -100,7 +101,12 @@ public class MarkovJumpsBeagleTreeLikelihood extends AncestralStateBeagleTreeLik
 //        storedExpectedJumps = new ArrayList<double[][]>();
 
         tmpProbabilities = new double[stateCount * stateCount * categoryCount];
-        condJumps = new double[categoryCount][stateCount * stateCount];
+
+        pairIndex = new int[stateCount * stateCount];
+        Arrays.fill(pairIndex, -1);
+        pairFrom = new int[stateCount * stateCount];
+        pairTo = new int[stateCount * stateCount];
+        patternPair = new int[patternCount];
     }
 
     public MarkovJumpsBeagleTreeLikelihood(PatternList patternList, TreeModel treeModel,
@@ -155,6 +161,7 @@ public class MarkovJumpsBeagleTreeLikelihood extends AncestralStateBeagleTreeLik
             }
             markovjumps.add(mjModel);
             branchModelNumber.add(i);
+            batches = null;
             addModel(mjModel);
             setupRegistration(numRegisters);
 
@@ -432,36 +439,73 @@ public class MarkovJumpsBeagleTreeLikelihood extends AncestralStateBeagleTreeLik
         final double childTime = tree.getNodeHeight(childNode);
         final double substTime = parentTime - childTime;
 
-        for (int r = 0; r < markovjumps.size(); r++) {
-            MarkovJumpsSubstitutionModel thisMarkovJumps = markovjumps.get(r);
-
-            final int modelNumberFromrRegistry = branchModelNumber.get(r);
-//            int dummy = 0;
-//            final int modelNumberFromTree = branchSubstitutionModel.getBranchIndex(tree, childNode, dummy);
-            // @todo AR - not sure about this - if this is an epoch this is just going to get the most
-            // @todo tipward model for the branch. I think this was what was happening before (in comment,
-            // @todo above).
-            BranchModel.Mapping mapping = branchModel.getBranchModelMapping(childNode);
+        // @todo AR - not sure about this - if this is an epoch this is just going to get the most
+        // @todo tipward model for the branch. I think this was what was happening before.
+        final int modelNumberFromTree = branchModel.getBranchModelMapping(childNode).getOrder()[0];
 
-            if (modelNumberFromrRegistry == mapping.getOrder()[0]) {
-                if (useUniformization) {
-                    computeSampledMarkovJumpsForBranch(((UniformizedSubstitutionModel) thisMarkovJumps), substTime,
+        if (useUniformization) {
+            for (int r = 0; r < markovjumps.size(); r++) {
+                if (branchModelNumber.get(r) == modelNumberFromTree) {
+                    computeSampledMarkovJumpsForBranch(((UniformizedSubstitutionModel) markovjumps.get(r)), substTime,
                             branchRate, childNum, parentStates, childStates, parentTime, childTime, probabilities, scaleByTime[r],
                             expectedJumps.get(r), rateCategory,
                             (branchModel instanceof EpochBranchModel) || r == historyRegisterNumber
                     );
                 } else {
-                    computeIntegratedMarkovJumpsForBranch(thisMarkovJumps, substTime, branchRate, childNum, parentStates,
-                            childStates, probabilities, condJumps, scaleByTime[r], expectedJumps.get(r), rateCategory);
+                    // Fill with zeros
+                    Arrays.fill(expectedJumps.get(r)[childNum], 0.0);
+                }
+            }
+        } else {
+            if (batches == null) {
+                setupBatches(tree);
+            }
+            for (int b = 0; b < batches.size(); b++) {
+                int[] registers = batchRegisters.get(b);
+                if (branchModelNumber.get(registers[0]) == modelNumberFromTree) {
+                    computeIntegratedMarkovJumpsForBranch(batches.get(b), registers, substTime, branchRate, childNum,
+                            parentStates, childStates, probabilities, rateCategory);
+                } else {
+                    for (int r : registers) {
+                        // Fill with zeros
+                        Arrays.fill(expectedJumps.get(r)[childNum], 0.0);
+                    }
                 }
-            } else {
-                // Fill with zeros
-                double[] result = expectedJumps.get(r)[childNum];
-                Arrays.fill(result, 0.0);
             }
         }
     }
 
+    /**
+     * Groups the registers on the same substitution model so that their expectations can be computed together.
+     */
+    private void setupBatches(Tree tree) {
+        batches = new ArrayList<MarkovJumpsBatch>();
+        batchRegisters = new ArrayList<int[]>();
+
+        int maxRegisterCount = 0;
+        for (int i = 0; i < substitutionModelDelegate.getSubstitutionModelCount(); ++i) {
+            List<MarkovJumpsSubstitutionModel> models = new ArrayList<MarkovJumpsSubstitutionModel>();
+            List<Integer> registers = new ArrayList<Integer>();
+            for (int r = 0; r < markovjumps.size(); r++) {
+                if (branchModelNumber.get(r) == i) {
+                    models.add(markovjumps.get(r));
+                    registers.add(r);
+                }
+            }
+            if (models.size() > 0) {
+                int[] indices = new int[registers.size()];
+                for (int k = 0; k < indices.length; k++) {
+                    indices[k] = registers.get(k);
+                }
+                batches.add(new MarkovJumpsBatch(models, tree.getNodeCount() * categoryCount));
+                batchRegisters.add(indices);
+                maxRegisterCount = Math.max(maxRegisterCount, indices.length);
+            }
+        }
+
+        pairValues = new double[maxRegisterCount][stateCount * stateCount];
+    }
+
     private void computeSampledMarkovJumpsForBranch(UniformizedSubstitutionModel thisMarkovJumps,
                                                     double substTime,
                                                     double branchRate,
@@ -499,59 +543,75 @@ public class MarkovJumpsBeagleTreeLikelihood extends AncestralStateBeagleTreeLik
         }
     }
 
-    private void computeIntegratedMarkovJumpsForBranch(MarkovJumpsSubstitutionModel thisMarkovJumps,
+    private void computeIntegratedMarkovJumpsForBranch(MarkovJumpsBatch batch,
+                                                       int[] registers,
                                                        double substTime,
                                                        double branchRate,
                                                        int childNum,
                                                        int[] parentStates,
                                                        int[] childStates,
                                                        double[] probabilities,
-                                                       double[][] condJumps,
-                                                       boolean scaleByTime,
-                                                       double[][] thisExpectedJumps,
                                                        int[] rateCategory) {
 
-        // Fill condJumps with conditional mean values for this branch
         for (int i = 0; i < categoryCount; i++) {
 
-            double rate = siteRateModel.getRateForCategory(i);
-            if (rate > 0) {
-
-                if (categoryCount == 1) {
-                    thisMarkovJumps.computeCondStatMarkovJumps(
-                            substTime * branchRate * rate,
-                            probabilities,
-                            condJumps[i]);
-                } else {
-
-                    System.arraycopy(probabilities, i * stateCount * stateCount, tmpProbabilities, 0,
-                            stateCount * stateCount);
-
-                    thisMarkovJumps.computeCondStatMarkovJumps(
-                            substTime * branchRate * rate,
-                            tmpProbabilities,
-                            condJumps[i]);
+            // Find the distinct pairs of parent and child states in this category as only these are needed
+            int pairCount = 0;
+            for (int j = 0; j < patternCount; j++) {
+                int category = rateCategory == null ? 0 : rateCategory[j];
+                if (category == i) {
+                    int index = parentStates[j] * stateCount + childStates[j];
+                    if (pairIndex[index] < 0) {
+                        pairIndex[index] = pairCount;
+                        pairFrom[pairCount] = parentStates[j];
+                        pairTo[pairCount] = childStates[j];
+                        pairCount++;
+                    }
+                    patternPair[j] = pairIndex[index];
                 }
+            }
+            if (pairCount == 0) {
+                continue;
+            }
 
-                if (scaleByTime) {
-                    double scalar = branchRate * rate;
-                    for (int j = 0; j < condJumps[i].length; j++) {
-                        condJumps[i][j] /= scalar;
+            // Conditional mean values for these pairs on this branch
+            double rate = siteRateModel.getRateForCategory(i);
+            if (rate > 0) {
+                batch.computeCondStatMarkovJumps(childNum * categoryCount + i, substTime * branchRate * rate,
+                        probabilities, (categoryCount == 1 ? 0 : i * stateCount * stateCount),
+                        pairFrom, pairTo, pairCount, pairValues);
+
+                for (int k = 0; k < registers.length; k++) {
+                    if (scaleByTime[registers[k]]) {
+                        double scalar = branchRate * rate;
+                        for (int p = 0; p < pairCount; p++) {
+                            pairValues[k][p] /= scalar;
+                        }
                     }
                 }
             } else {
-                Arrays.fill(condJumps[i], 0.0);
-                if (thisMarkovJumps.getType() == MarkovJumpsType.REWARDS && scaleByTime) {
-                    for (int j = 0; j < stateCount; j++) {
-                        condJumps[i][j * stateCount + j] = substTime;
+                for (int k = 0; k < registers.length; k++) {
+                    MarkovJumpsSubstitutionModel thisMarkovJumps = markovjumps.get(registers[k]);
+                    boolean isTimeReward = thisMarkovJumps.getType() == MarkovJumpsType.REWARDS && scaleByTime[registers[k]];
+                    for (int p = 0; p < pairCount; p++) {
+                        pairValues[k][p] = (isTimeReward && pairFrom[p] == pairTo[p] ? substTime : 0.0);
                     }
                 }
             }
-        }
 
-        for (int j = 0; j < patternCount; j++) { // Pick out values given parent and child states
-            int category = rateCategory == null ? 0 : rateCategory[j];
-            thisExpectedJumps[childNum][j] = condJumps[category][parentStates[j] * stateCount + childStates[j]];
+            for (int k = 0; k < registers.length; k++) { // Pick out values given parent and child states
+                double[] thisExpectedJumps = expectedJumps.get(registers[k])[childNum];
+                for (int j = 0; j < patternCount; j++) {
+                    int category = rateCategory == null ? 0 : rateCategory[j];
+                    if (category == i) {
+                        thisExpectedJumps[j] = pairValues[k][patternPair[j]];
+                    }
+                }
+            }
+
+            for (int p = 0; p < pairCount; p++) {
+                pairIndex[pairFrom[p] * stateCount + pairTo[p]] = -1;
+            }
         }
     }
 
@@ -704,7 +764,13 @@ public class MarkovJumpsBeagleTreeLikelihood extends AncestralStateBeagleTreeLik
     private String[][] histories = null;
     private boolean[] scaleByTime;
     private double[] tmpProbabilities;
-    private double[][] condJumps;
+    private List<MarkovJumpsBatch> batches = null;
+    private List<int[]> batchRegisters;
+    private double[][] pairValues;
+    private final int[] pairIndex;
+    private final int[] pairFrom;
+    private final int[] pairTo;
+    private final int[] patternPair;
     private int numRegisters;
     private int historyRegisterNumber = -1;
     private final boolean useUniformization;
@@ -29,10 +29,12 @@ package dr.evomodelxml.tree;
 
 import dr.util.FileHelpers;
 import dr.xml.*;
+import dr.evolution.io.IndexedTreeFile;
 import dr.evolution.io.NexusImporter;
 import dr.evolution.io.Importer;
 import dr.evolution.tree.Tree;
 import dr.evolution.util.TaxonList;
+import dr.evomodel.tree.CompactTreeStore;
 import dr.evomodel.tree.EmpiricalTreeDistributionModel;
 
 import java.io.*;
@@ -49,6 +51,9 @@ public class EmpiricalTreeDistributionModelParser extends AbstractXMLObjectParse
     public static final String RATE_ATTRIBUTE_NAME = "rateAttribute";
     public static final String STARTING_TREE = "startingTree";
     public static final String ITERATE = "iterate";
+    public static final String COMPACT = "compact";
+    public static final String STORE_FILE = "storeFile";
+    public static final String SINGLE_PRECISION = "singlePrecision";
 
     public String getParserName() {
         return EmpiricalTreeDistributionModel.EMPIRICAL_TREE_DISTRIBUTION_MODEL;
@@ -74,6 +79,59 @@ public class EmpiricalTreeDistributionModelParser extends AbstractXMLObjectParse
 
         final File file = FileHelpers.getFile(fileName);
 
+        final String storeFileName = (xo.hasAttribute(STORE_FILE) ? xo.getStringAttribute(STORE_FILE) : null);
+        if (xo.getAttribute(COMPACT, false) || storeFileName != null) {
+            if (iterate) {
+                throw new XMLParseException("The " + COMPACT + " and " + ITERATE + " options can't be used together");
+            }
+            boolean singlePrecision = xo.getAttribute(SINGLE_PRECISION, false);
+            File storeFile = (storeFileName != null ? FileHelpers.getFile(storeFileName) : null);
+
+            Tree.Type units = null;
+            CompactTreeStore store;
+            try {
+                store = (storeFile != null ? CompactTreeStore.open(taxa, storeFile, file) : null);
+                if (store != null) {
+                    Logger.getLogger("dr.evomodel").info("    Using tree store file, " + storeFileName);
+                } else {
+                    IndexedTreeFile treeFile = new IndexedTreeFile(file, true);
+                    try {
+                        if (storeFile != null) {
+                            store = CompactTreeStore.create(taxa, treeFile.getTreeCount(), singlePrecision, storeFile, file);
+                        } else {
+                            store = CompactTreeStore.create(taxa, treeFile.getTreeCount(), singlePrecision);
+                        }
+                        for (int i = 0; i < treeFile.getTreeCount(); i++) {
+                            Tree tree = treeFile.getTree(i);
+                            if (i == 0) {
+                                units = tree.getUnits();
+                            }
+                            store.setTree(i, tree);
+                        }
+                        store.finish();
+                    } finally {
+                        treeFile.close();
+                    }
+                    if (storeFile != null) {
+                        Logger.getLogger("dr.evomodel").info("    Written tree store file, " + storeFileName);
+                    }
+                }
+            } catch (IOException e) {
+                throw new XMLParseException(e.getMessage());
+            } catch (Importer.ImportException e) {
+                throw new XMLParseException(e.getMessage());
+            } catch (IllegalArgumentException e) {
+                throw new XMLParseException("Unable to store the trees from file, " + fileName + ": " + e.getMessage());
+            }
+
+            Logger.getLogger("dr.evomodel").info("    Randomly jump between " + store.getTreeCount() + " compactly stored trees from file, " + fileName);
+            EmpiricalTreeDistributionModel treeModel = new EmpiricalTreeDistributionModel(store, startingTree);
+            if (units != null) {
+                treeModel.setUnits(units);
+            }
+            return treeModel;
+        }
+
         List<Tree> trees = null;
         NexusImporter importer = null;
         try {
@@ -108,6 +166,12 @@ public class EmpiricalTreeDistributionModelParser extends AbstractXMLObjectParse
         return new XMLSyntaxRule[]{
                 AttributeRule.newIntegerRule(STARTING_TREE, true),
                 AttributeRule.newBooleanRule(ITERATE, true),
+                AttributeRule.newBooleanRule(COMPACT, true,
+                        "Keep the trees as arrays of parents and heights rather than as tree objects (no node annotations)"),
+                AttributeRule.newStringRule(STORE_FILE, true,
+                        "A file in which to keep the compact trees, memory mapped and reused while the tree file is unchanged"),
+                AttributeRule.newBooleanRule(SINGLE_PRECISION, true,
+                        "Keep the node heights of compact trees in single precision"),
                 new StringAttributeRule(FILE_NAME,
                         "The name of a NEXUS tree file"),
 //                AttributeRule.newIntegerRule(BURNIN, true,
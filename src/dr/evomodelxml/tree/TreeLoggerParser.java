@@ -30,6 +30,7 @@ package dr.evomodelxml.tree;
 import dr.evolution.colouring.TreeColouringProvider;
 import dr.evolution.tree.*;
 import dr.evomodel.tree.TreeLogger;
+import dr.inference.loggers.AsyncLogWriter;
 import dr.inference.loggers.LogFormatter;
 import dr.inference.loggers.Loggable;
 import dr.inference.loggers.TabDelimitedFormatter;
@@ -327,7 +328,7 @@ public class TreeLoggerParser extends LoggerParser {
 
         final PrintWriter pw = getLogFile(xo, getParserName());
 
-        formatter = new TabDelimitedFormatter(pw);
+        formatter = new TabDelimitedFormatter(pw, true, XMLParser.isCompressedFile(xo));
 
         treeAttributeProviders = new TreeAttributeProvider[taps.size()];
         taps.toArray(treeAttributeProviders);
@@ -357,6 +358,10 @@ public class TreeLoggerParser extends LoggerParser {
             logger.setTitle(title);
         }
 
+        if (xo.hasAttribute(FILE_NAME)) {
+            logger.setAsynchronous(AsyncLogWriter.isEnabled());
+        }
+
         return logger;
     }
 
@@ -66,6 +66,8 @@ public class TreeDataLikelihoodParser extends AbstractXMLObjectParser {
     public static final String USE_AMBIGUITIES = "useAmbiguities";
     public static final String INSTANCE_COUNT = "instanceCount";
     public static final String PREFER_GPU = "preferGPU";
+    public static final String USE_JAVA = "useJava";
+    public static final String USE_MATRIX_EXPONENTIAL_ACTION = "useMatrixExponentialAction";
     public static final String SCALING_SCHEME = "scalingScheme";
     public static final String DELAY_SCALING = "delayScaling";
     public static final String USE_PREORDER = "usePreOrder";
@@ -88,6 +90,8 @@ public class TreeDataLikelihoodParser extends AbstractXMLObjectParser {
                                                   TipStatesModel tipStatesModel,
                                                   boolean useAmbiguities,
                                                   boolean preferGPU,
+                                                  boolean useJava,
+                                                  boolean useMatrixExponentialAction,
                                                   PartialsRescalingScheme scalingScheme,
                                                   boolean delayRescalingUntilUnderflow,
                                                   PreOrderSettings settings,
@@ -130,9 +134,13 @@ public class TreeDataLikelihoodParser extends AbstractXMLObjectParser {
             }
         }
 
-        boolean useJava = Boolean.parseBoolean(System.getProperty("java.only", "false"));
-        if (useJava) {
-            logger.warning("  Java-only computation is not available - ignoring this option.");
+        if (Boolean.parseBoolean(System.getProperty("java.only", "false"))) {
+            useJava = true;
+        }
+
+        if (useMatrixExponentialAction) {
+            // only the Java delegate can apply the matrix exponential to the partials
+            useJava = true;
         }
 
         int beagleThreadCount = -1;
@@ -157,6 +165,11 @@ public class TreeDataLikelihoodParser extends AbstractXMLObjectParser {
         }
 
         String plural = (patternLists.size() > 1 ? "s": "");
+        if (useBeagle3MultiPartition && useJava) {
+            logger.info("  Java-only computation requested - not using BEAGLE multi-partition extensions");
+            useBeagle3MultiPartition = false;
+        }
+
         if ( useBeagle3MultiPartition) {
 
             logger.info("\nCreating multi-partition tree data likelihood for " + patternLists.size() + " partition" + plural);
@@ -209,16 +222,36 @@ public class TreeDataLikelihoodParser extends AbstractXMLObjectParser {
 
                 for (int j = 0; j < bic; j++) {
                     PatternList subPatterns = new Patterns(partitionPatterns, j, bic);
-                    DataLikelihoodDelegate dataLikelihoodDelegate = new BeagleDataLikelihoodDelegate(
-                            treeModel,
-                            subPatterns,
-                            branchModels.get(i),
-                            siteRateModels.get(i),
-                            useAmbiguities,
-                            preferGPU,
-                            scalingScheme,
-                            delayRescalingUntilUnderflow,
-                            settings);
+                    DataLikelihoodDelegate dataLikelihoodDelegate = null;
+                    if (!useJava) {
+                        try {
+                            dataLikelihoodDelegate = new BeagleDataLikelihoodDelegate(
+                                    treeModel,
+                                    subPatterns,
+                                    branchModels.get(i),
+                                    siteRateModels.get(i),
+                                    useAmbiguities,
+                                    preferGPU,
+                                    scalingScheme,
+                                    delayRescalingUntilUnderflow,
+                                    settings);
+                        } catch (RuntimeException | UnsatisfiedLinkError e) {
+                            logger.warning("  Unable to create a BEAGLE instance (" + e.getMessage() + ") - falling back to Java-only computation.");
+                            useJava = true;
+                        }
+                    }
+
+                    if (useJava) {
+                        dataLikelihoodDelegate = new JavaDataLikelihoodDelegate(
+                                treeModel,
+                                subPatterns,
+                                branchModels.get(i),
+                                siteRateModels.get(i),
+                                useAmbiguities,
+                                scalingScheme,
+                                delayRescalingUntilUnderflow,
+                                useMatrixExponentialAction);
+                    }
 
                     TreeDataLikelihood treeDataLikelihood = new TreeDataLikelihood(
                             dataLikelihoodDelegate,
@@ -427,6 +460,9 @@ public class TreeDataLikelihoodParser extends AbstractXMLObjectParser {
 
         final boolean delayScaling = xo.getAttribute(DELAY_SCALING, true);
 
+        final boolean useJava = xo.getAttribute(USE_JAVA, false);
+        final boolean useMatrixExponentialAction = xo.getAttribute(USE_MATRIX_EXPONENTIAL_ACTION, false);
+
         if (tipStatesModel != null) {
             throw new XMLParseException("TreeDataLikelihood is not currently compatible with TipStateModel (i.e., a sequence error model).");
         }
@@ -442,6 +478,8 @@ public class TreeDataLikelihoodParser extends AbstractXMLObjectParser {
                 null,
                 useAmbiguities,
                 preferGPU,
+                useJava,
+                useMatrixExponentialAction,
                 scalingScheme,
                 delayScaling,
                 settings,
@@ -467,6 +505,8 @@ public class TreeDataLikelihoodParser extends AbstractXMLObjectParser {
     public static final XMLSyntaxRule[] rules = {
             AttributeRule.newBooleanRule(USE_AMBIGUITIES, true),
             AttributeRule.newBooleanRule(PREFER_GPU, true),
+            AttributeRule.newBooleanRule(USE_JAVA, true),
+            AttributeRule.newBooleanRule(USE_MATRIX_EXPONENTIAL_ACTION, true),
             AttributeRule.newStringRule(SCALING_SCHEME,true),
             AttributeRule.newIntegerRule(INSTANCE_COUNT, true),
 
@@ -0,0 +1,536 @@
+/*
+ * HawkesCoreImpl.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.hawkes;
+
+import dr.math.distributions.NormalDistribution;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static dr.inference.hawkes.NativeHPHSingleton.THREADS;
+
+/**
+ * HawkesCoreImpl - a Java implementation of the spatio-temporal Hawkes process likelihood for when the
+ * native HPH library isn't available.
+ *
+ * With events i at locations x_i (in d dimensions) and times t_i up to T = max t_i, the rate at event i
+ * sums over the other events j
+ *
+ *   b_ij = mu0 K(tauXprec, |x_i - x_j|) N(tauTprec, t_i - t_j)
+ *   e_ij = theta xi_j omega exp(-omega (t_i - t_j)) K(sigmaXprec, |x_i - x_j|)    for t_j < t_i
+ *
+ * where K(prec, r) = prec^d phi(prec r) and N(prec, t) = prec phi(prec t), with phi the standard normal
+ * density, and xi_j are the random rates (1 if there are none). K is normalised in the same way as by
+ * the native HPH library, so it is only a density over the locations when d = 1. The log likelihood is
+ *
+ *   sum_i log(lambda_i) - mu0 [Phi(tauTprec (T - t_i)) - Phi(-tauTprec t_i)] - theta xi_i [1 - exp(-omega (T - t_i))].
+ *
+ * The events are kept in time order. The pairwise sum runs over tiles of rows, on several threads if
+ * 'hph.threads' is set, and the rates lambda_i are kept so that the gradients with respect to the
+ * locations and the random rates are found together in one further pass. If 'hph.truncation.window'
+ * is set, only pairs of events closer in time than the window contribute to the rates, which makes the
+ * cost close to linear in the number of events when the kernels decay well within the window.
+ */
+public class HawkesCoreImpl implements HawkesCore {
+
+    /**
+     * The time window beyond which pairs of events are ignored. The native library doesn't truncate,
+     * so HawkesLikelihood uses this core whenever the property is set, unless the native core is
+     * required by the USE_NATIVE_HPH bit of 'hph.required.flags'; the window is then ignored.
+     */
+    public static final String TRUNCATION_WINDOW = "hph.truncation.window";
+
+    // rows of the pairwise sum are split into fixed tiles and the tile sums added in order, so the
+    // results are the same whatever the number of threads.
+    private static final int ROW_TILE_SIZE = 256;
+
+    public HawkesCoreImpl() {
+        String r = System.getProperty(THREADS);
+        if (r != null) {
+            try {
+                threadCount = Integer.parseInt(r.trim());
+            } catch (NumberFormatException exception) {
+                throw new RuntimeException("Unable to parse '" + THREADS + "' environmental property");
+            }
+        }
+
+        r = System.getProperty(TRUNCATION_WINDOW);
+        if (r != null) {
+            try {
+                truncationWindow = Double.parseDouble(r.trim());
+            } catch (NumberFormatException exception) {
+                throw new RuntimeException("Unable to parse '" + TRUNCATION_WINDOW + "' environmental property");
+            }
+        }
+    }
+
+    @Override
+    public void initialize(int embeddingDimension, int locationCount, long flags) {
+        this.embeddingDimension = embeddingDimension;
+        this.locationCount = locationCount;
+
+        order = new int[locationCount];
+        position = new int[locationCount];
+        for (int i = 0; i < locationCount; i++) {
+            order[i] = i;
+            position[i] = i;
+        }
+        unsortedTimes = new double[locationCount];
+
+        times = new double[locationCount];
+        locations = new double[locationCount * embeddingDimension];
+        rates = new double[locationCount];
+        Arrays.fill(rates, 1.0);
+        lambda = new double[locationCount];
+        locationGradient = new double[locationCount * embeddingDimension];
+        rateGradient = new double[locationCount];
+
+        storedLocations = new double[locationCount * embeddingDimension];
+        storedRates = new double[locationCount];
+        storedLambda = new double[locationCount];
+        storedLocationGradient = new double[locationCount * embeddingDimension];
+        storedRateGradient = new double[locationCount];
+
+        rowStart = new int[locationCount];
+        rowEnd = new int[locationCount];
+        tileCount = (locationCount + ROW_TILE_SIZE - 1) / ROW_TILE_SIZE;
+
+        if (threadCount > 1 && pool == null) {
+            // daemon threads, as the core has no point at which to shut the pool down
+            pool = Executors.newFixedThreadPool(threadCount, runnable -> {
+                Thread thread = new Thread(runnable, "hawkes-core");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    @Override
+    public void setParameters(double[] parameters) {
+        sigmaXprec = parameters[0];
+        tauXprec = parameters[1];
+        tauTprec = parameters[2];
+        omega = parameters[3];
+        theta = parameters[4];
+        mu0 = parameters[5];
+        makeDirty();
+    }
+
+    @Override
+    public void setTimesData(double[] timesData) {
+        if (Arrays.equals(timesData, unsortedTimes) && timesKnown) {
+            return;
+        }
+        System.arraycopy(timesData, 0, unsortedTimes, 0, locationCount);
+
+        // a stable sort by time, which is the identity if the times are already in order
+        double[] sortedLocations = new double[locations.length];
+        double[] sortedRates = new double[locationCount];
+        for (int k = 0; k < locationCount; k++) {
+            unsortLocation(k, sortedLocations);
+            sortedRates[order[k]] = rates[k];
+        }
+        Integer[] indices = new Integer[locationCount];
+        for (int i = 0; i < locationCount; i++) {
+            indices[i] = i;
+        }
+        Arrays.sort(indices, (a, b) -> Double.compare(timesData[a], timesData[b]));
+
+        for (int k = 0; k < locationCount; k++) {
+            order[k] = indices[k];
+            position[indices[k]] = k;
+            times[k] = timesData[indices[k]];
+        }
+        for (int k = 0; k < locationCount; k++) {
+            System.arraycopy(sortedLocations, order[k] * embeddingDimension, locations, k * embeddingDimension, embeddingDimension);
+            rates[k] = sortedRates[order[k]];
+        }
+
+        timesKnown = true;
+        windowKnown = false;
+        makeDirty();
+    }
+
+    private void unsortLocation(int k, double[] unsorted) {
+        System.arraycopy(locations, k * embeddingDimension, unsorted, order[k] * embeddingDimension, embeddingDimension);
+    }
+
+    @Override
+    public void setRandomRates(double[] randomRates) {
+        for (int i = 0; i < locationCount; i++) {
+            rates[position[i]] = randomRates[i];
+        }
+        makeDirty();
+    }
+
+    @Override
+    public void updateLocation(int locationIndex, double[] location) {
+        if (locationIndex == -1) {
+            for (int i = 0; i < locationCount; i++) {
+                System.arraycopy(location, i * embeddingDimension, locations, position[i] * embeddingDimension, embeddingDimension);
+            }
+        } else {
+            System.arraycopy(location, 0, locations, position[locationIndex] * embeddingDimension, embeddingDimension);
+        }
+        makeDirty();
+    }
+
+    @Override
+    public double calculateLogLikelihood() {
+        if (!likelihoodKnown) {
+            updateWindow();
+            setConstants();
+            logLikelihood = forEachTile(new TileCallable() {
+                public double execute(int tile) {
+                    return computeRates(tile);
+                }
+            });
+            likelihoodKnown = true;
+        }
+        return logLikelihood;
+    }
+
+    @Override
+    public void storeState() {
+        System.arraycopy(locations, 0, storedLocations, 0, locations.length);
+        System.arraycopy(rates, 0, storedRates, 0, locationCount);
+        System.arraycopy(lambda, 0, storedLambda, 0, locationCount);
+        storedParameters[0] = sigmaXprec;
+        storedParameters[1] = tauXprec;
+        storedParameters[2] = tauTprec;
+        storedParameters[3] = omega;
+        storedParameters[4] = theta;
+        storedParameters[5] = mu0;
+        storedLogLikelihood = logLikelihood;
+        storedLikelihoodKnown = likelihoodKnown;
+
+        storedGradientsKnown = gradientsKnown;
+        if (gradientsKnown) {
+            System.arraycopy(locationGradient, 0, storedLocationGradient, 0, locationGradient.length);
+            System.arraycopy(rateGradient, 0, storedRateGradient, 0, locationCount);
+        }
+    }
+
+    @Override
+    public void restoreState() {
+        // a copy rather than a swap as the likelihood and its model may both restore the core
+        System.arraycopy(storedLocations, 0, locations, 0, locations.length);
+        System.arraycopy(storedRates, 0, rates, 0, locationCount);
+        System.arraycopy(storedLambda, 0, lambda, 0, locationCount);
+        sigmaXprec = storedParameters[0];
+        tauXprec = storedParameters[1];
+        tauTprec = storedParameters[2];
+        omega = storedParameters[3];
+        theta = storedParameters[4];
+        mu0 = storedParameters[5];
+        logLikelihood = storedLogLikelihood;
+        likelihoodKnown = storedLikelihoodKnown;
+
+        gradientsKnown = storedGradientsKnown;
+        if (gradientsKnown) {
+            System.arraycopy(storedLocationGradient, 0, locationGradient, 0, locationGradient.length);
+            System.arraycopy(storedRateGradient, 0, rateGradient, 0, locationCount);
+        }
+    }
+
+    @Override
+    public void makeDirty() {
+        likelihoodKnown = false;
+        gradientsKnown = false;
+    }
+
+    @Override
+    public void acceptState() {
+        // nothing to do
+    }
+
+    @Override
+    public void getLocationGradient(double[] location) {
+        calculateGradients();
+        for (int i = 0; i < locationCount; i++) {
+            System.arraycopy(locationGradient, position[i] * embeddingDimension, location, i * embeddingDimension, embeddingDimension);
+        }
+    }
+
+    @Override
+    public void getRandomRatesGradient(double[] rate) {
+        calculateGradients();
+        for (int i = 0; i < locationCount; i++) {
+            rate[i] = rateGradient[position[i]];
+        }
+    }
+
+    @Override
+    public int getInternalDimension() {
+        return embeddingDimension;
+    }
+
+    private void calculateGradients() {
+        calculateLogLikelihood();
+        if (!gradientsKnown) {
+            forEachTile(new TileCallable() {
+                public double execute(int tile) {
+                    computeGradients(tile);
+                    return 0.0;
+                }
+            });
+            gradientsKnown = true;
+        }
+    }
+
+    /**
+     * Finds the range of events within the truncation window of each event, which is all the events
+     * if there is no window.
+     */
+    private void updateWindow() {
+        if (windowKnown) {
+            return;
+        }
+        if (truncationWindow <= 0.0 || Double.isInfinite(truncationWindow)) {
+            Arrays.fill(rowStart, 0);
+            Arrays.fill(rowEnd, locationCount);
+        } else {
+            int start = 0;
+            int end = 0;
+            for (int i = 0; i < locationCount; i++) {
+                while (times[i] - times[start] > truncationWindow) {
+                    start++;
+                }
+                while (end < locationCount && times[end] - times[i] <= truncationWindow) {
+                    end++;
+                }
+                rowStart[i] = start;
+                rowEnd[i] = end;
+            }
+        }
+        windowKnown = true;
+    }
+
+    private void setConstants() {
+        tauXprec2 = tauXprec * tauXprec;
+        tauTprec2 = tauTprec * tauTprec;
+        sigmaXprec2 = sigmaXprec * sigmaXprec;
+        // as in the native library, prec^d phi(prec |x|) in space and prec phi(prec t) in time
+        backgroundScale = mu0 * Math.pow(tauXprec, embeddingDimension) * tauTprec / (2.0 * Math.PI);
+        excitationScale = theta * omega * Math.pow(sigmaXprec, embeddingDimension) / Math.sqrt(2.0 * Math.PI);
+    }
+
+    private double computeRates(int tile) {
+        final int first = tile * ROW_TILE_SIZE;
+        final int last = Math.min(first + ROW_TILE_SIZE, locationCount);
+        final double lastTime = times[locationCount - 1];
+
+        double sum = 0.0;
+        for (int i = first; i < last; i++) {
+            final double ti = times[i];
+
+            double rate = 0.0;
+            for (int j = rowStart[i]; j < rowEnd[i]; j++) {
+                if (j != i) {
+                    final double distance2 = getSquaredDistance(i, j);
+                    final double timeDifference = ti - times[j];
+
+                    rate += backgroundScale * Math.exp(-0.5 * (tauXprec2 * distance2 + tauTprec2 * timeDifference * timeDifference));
+                    if (timeDifference > 0.0) {
+                        rate += excitationScale * rates[j] * Math.exp(-omega * timeDifference - 0.5 * sigmaXprec2 * distance2);
+                    }
+                }
+            }
+            lambda[i] = rate;
+
+            sum += Math.log(rate)
+                    - mu0 * (NormalDistribution.standardCDF(tauTprec * (lastTime - ti), false) -
+                    NormalDistribution.standardCDF(-tauTprec * ti, false))
+                    - theta * rates[i] * (1.0 - Math.exp(-omega * (lastTime - ti)));
+        }
+        return sum;
+    }
+
+    private void computeGradients(int tile) {
+        final int first = tile * ROW_TILE_SIZE;
+        final int last = Math.min(first + ROW_TILE_SIZE, locationCount);
+        final double lastTime = times[locationCount - 1];
+
+        for (int i = first; i < last; i++) {
+            final double ti = times[i];
+            final double oneOverLambdaI = 1.0 / lambda[i];
+            final int offsetI = i * embeddingDimension;
+
+            for (int k = 0; k < embeddingDimension; k++) {
+                locationGradient[offsetI + k] = 0.0;
+            }
+            double rateSum = 0.0;
+
+            for (int j = rowStart[i]; j < rowEnd[i]; j++) {
+                if (j != i) {
+                    final double distance2 = getSquaredDistance(i, j);
+                    final double timeDifference = ti - times[j];
+                    final double oneOverLambdaJ = 1.0 / lambda[j];
+
+                    final double background = backgroundScale * Math.exp(-0.5 * (tauXprec2 * distance2 + tauTprec2 * timeDifference * timeDifference));
+                    double weight = tauXprec2 * background * (oneOverLambdaI + oneOverLambdaJ);
+
+                    if (timeDifference > 0.0) {
+                        // j excites i
+                        final double excitation = excitationScale * Math.exp(-omega * timeDifference - 0.5 * sigmaXprec2 * distance2);
+                        weight += sigmaXprec2 * rates[j] * excitation * oneOverLambdaI;
+                    } else if (timeDifference < 0.0) {
+                        // i excites j
+                        final double excitation = excitationScale * Math.exp(omega * timeDifference - 0.5 * sigmaXprec2 * distance2);
+                        weight += sigmaXprec2 * rates[i] * excitation * oneOverLambdaJ;
+                        rateSum += excitation * oneOverLambdaJ;
+                    }
+
+                    final int offsetJ = j * embeddingDimension;
+                    for (int k = 0; k < embeddingDimension; k++) {
+                        locationGradient[offsetI + k] -= weight * (locations[offsetI + k] - locations[offsetJ + k]);
+                    }
+                }
+            }
+
+            rateGradient[i] = rateSum - theta * (1.0 - Math.exp(-omega * (lastTime - ti)));
+        }
+    }
+
+    private double getSquaredDistance(int i, int j) {
+        final int offsetI = i * embeddingDimension;
+        final int offsetJ = j * embeddingDimension;
+        double sum = 0.0;
+        for (int k = 0; k < embeddingDimension; k++) {
+            final double difference = locations[offsetI + k] - locations[offsetJ + k];
+            sum += difference * difference;
+        }
+        return sum;
+    }
+
+    private interface TileCallable {
+        double execute(int tile);
+    }
+
+    /**
+     * Executes the tiles, on the thread pool if there is one, and returns the sum of their results
+     * added in tile order.
+     */
+    private double forEachTile(final TileCallable callable) {
+        if (pool == null || tileCount == 1) {
+            double sum = 0.0;
+            for (int tile = 0; tile < tileCount; tile++) {
+                sum += callable.execute(tile);
+            }
+            return sum;
+        }
+
+        final double[] tileResults = new double[tileCount];
+        List<Callable<Object>> calls = new ArrayList<Callable<Object>>(threadCount);
+        for (int thread = 0; thread < Math.min(threadCount, tileCount); thread++) {
+            final int first = thread;
+            calls.add(new Callable<Object>() {
+                public Object call() {
+                    for (int tile = first; tile < tileCount; tile += threadCount) {
+                        tileResults[tile] = callable.execute(tile);
+                    }
+                    return null;
+                }
+            });
+        }
+
+        try {
+            for (Future<Object> future : pool.invokeAll(calls)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+
+        double sum = 0.0;
+        for (double result : tileResults) {
+            sum += result;
+        }
+        return sum;
+    }
+
+    private int threadCount = 1;
+    private ExecutorService pool = null;
+    private double truncationWindow = 0.0;
+
+    private int embeddingDimension;
+    private int locationCount;
+    private int tileCount;
+
+    // events in time order: order[k] is the index of the k-th event and position[i] is where event i is
+    private int[] order;
+    private int[] position;
+    private double[] unsortedTimes;
+    private boolean timesKnown = false;
+
+    private double[] times;
+    private double[] locations;
+    private double[] rates;
+    private double[] lambda;
+    private double[] locationGradient;
+    private double[] rateGradient;
+
+    private int[] rowStart;
+    private int[] rowEnd;
+    private boolean windowKnown = false;
+
+    private double sigmaXprec;
+    private double tauXprec;
+    private double tauTprec;
+    private double omega;
+    private double theta;
+    private double mu0;
+
+    private double sigmaXprec2;
+    private double tauXprec2;
+    private double tauTprec2;
+    private double backgroundScale;
+    private double excitationScale;
+
+    private double logLikelihood;
+    private boolean likelihoodKnown = false;
+    private boolean gradientsKnown = false;
+
+    private double[] storedLocations;
+    private double[] storedRates;
+    private double[] storedLambda;
+    private double[] storedLocationGradient;
+    private double[] storedRateGradient;
+    private final double[] storedParameters = new double[6];
+    private double storedLogLikelihood;
+    private boolean storedLikelihoodKnown = false;
+    private boolean storedGradientsKnown = false;
+}
@@ -294,16 +294,27 @@ public class HawkesLikelihood extends AbstractModelLikelihood implements Reporta
             computeMode = Long.parseLong(r.trim());
         }
 
-        HawkesCore core;
-        //if (computeMode >= HawkesCore.USE_NATIVE_HPH) {
+        HawkesCore core = null;
+        if ((computeMode & HawkesCore.USE_NATIVE_HPH) != 0 || System.getProperty(HawkesCoreImpl.TRUNCATION_WINDOW) == null) {
             System.err.println("Attempting to use a native HPH core with flag: " + computeMode + "; may the force be with you ....");
-            core = new MassivelyParallelHPHImpl();
-            flags = computeMode;
-        //} else {
-            //System.err.println("Computer mode found: " + computeMode + " vs. " + r);
-            //core = new HawkesCoreImpl();
-
-        //}
+            try {
+                core = new MassivelyParallelHPHImpl();
+            } catch (UnsatisfiedLinkError error) {
+                if ((computeMode & HawkesCore.USE_NATIVE_HPH) != 0) {
+                    throw error;
+                }
+                System.err.println("Unable to load the native HPH library; using the Java HPH core instead");
+            }
+        } else {
+            // only the Java core truncates, so it is chosen over the native one unless that is required
+            System.err.println("Using the Java HPH core as '" + HawkesCoreImpl.TRUNCATION_WINDOW +
+                    "' is set; set flag " + HawkesCore.USE_NATIVE_HPH + " in '" + REQUIRED_FLAGS_PROPERTY +
+                    "' to use the native core without truncation");
+        }
+        if (core == null) {
+            core = new HawkesCoreImpl();
+        }
+        flags = computeMode;
         return core;
     }
 
@@ -32,7 +32,6 @@ import dr.xml.Reportable;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Future;
 
 /**
  * @author Max Tolkoff
@@ -172,8 +171,7 @@ public class CompoundGradient implements GradientWrtParameterProvider, Derivativ
         return parallelExecutor.getDerivativeLogDensityInParallel(derivativeType, (gradients, length) -> {
             double[] reduction = new double[length];
             int offset = 0;
-            for (Future<double[]> result : gradients) {
-                double[] tmp = result.get();
+            for (double[] tmp : gradients) {
                 System.arraycopy(tmp, 0, reduction, offset, tmp.length);
                 offset += tmp.length;
             }
@@ -196,6 +194,32 @@ public class CompoundGradient implements GradientWrtParameterProvider, Derivativ
         return result;
     }
 
+    @Override
+    public void fillGradientLogDensity(double[] gradient) {
+
+        if (parallelExecutor != null) {
+            double[] result = getGradientLogDensity();
+            System.arraycopy(result, 0, gradient, 0, result.length);
+            return;
+        }
+
+        if (gradientBuffers == null) {
+            gradientBuffers = new double[derivativeList.size()][];
+            for (int i = 0; i < gradientBuffers.length; i++) {
+                gradientBuffers[i] = new double[derivativeList.get(i).getDimension()];
+            }
+        }
+
+        int offset = 0;
+        for (int i = 0; i < gradientBuffers.length; i++) {
+
+            double[] tmp = gradientBuffers[i];
+            derivativeList.get(i).fillGradientLogDensity(tmp);
+            System.arraycopy(tmp, 0, gradient, offset, tmp.length);
+            offset += tmp.length;
+        }
+    }
+
     @Override
     public String getReport() {
         return  "compoundGradient." + parameter.getParameterName() + "\n" +
@@ -207,4 +231,6 @@ public class CompoundGradient implements GradientWrtParameterProvider, Derivativ
     public List<GradientWrtParameterProvider> getDerivativeList() {
         return derivativeList;
     }
+
+    private double[][] gradientBuffers;
 }
@@ -51,6 +51,17 @@ public interface GradientWrtParameterProvider {
 
     double[] getGradientLogDensity();
 
+    /**
+     * Writes the gradient into a buffer of length getDimension() so that callers that evaluate it at every
+     * step, such as the HMC integrators, can reuse one buffer. Providers that build the gradient from parts
+     * override this so that combining the parts doesn't allocate; the default (used by the tree likelihood
+     * gradients, whose traversals return new arrays) still allocates and copies.
+     */
+    default void fillGradientLogDensity(double[] gradient) {
+        double[] result = getGradientLogDensity();
+        System.arraycopy(result, 0, gradient, 0, result.length);
+    }
+
     class Negative implements GradientWrtParameterProvider {
 
         private final GradientWrtParameterProvider provider;
@@ -84,6 +95,15 @@ public interface GradientWrtParameterProvider {
 
             return gradient;
         }
+
+        @Override
+        public void fillGradientLogDensity(double[] gradient) {
+
+            provider.fillGradientLogDensity(gradient);
+            for (int i = 0; i < gradient.length; ++i) {
+                gradient[i] =-gradient[i];
+            }
+        }
     }
 
     class ParameterWrapper implements GradientWrtParameterProvider, HessianWrtParameterProvider, Reportable {
@@ -33,7 +33,6 @@ import dr.xml.Reportable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.Future;
 
 /**
  * @author Max Tolkoff
@@ -216,8 +215,7 @@ public class JointGradient implements GradientWrtParameterProvider, HessianWrtPa
 
         return parallelExecutor.getDerivativeLogDensityInParallel(derivativeType, (gradients, length) -> {
             double[] reduction = new double[length];
-            for (Future<double[]> result : gradients) {
-                double[] tmp = result.get();
+            for (double[] tmp : gradients) {
                 for (int j = 0; j < length; ++j) {
                     reduction[j] += tmp[j];
                 }
@@ -249,6 +247,37 @@ public class JointGradient implements GradientWrtParameterProvider, HessianWrtPa
         return getDerivativeLogDensity(DerivativeType.GRADIENT);
     }
 
+    @Override
+    public void fillGradientLogDensity(double[] gradient) {
+
+        if (parallelExecutor != null) {
+            double[] result = getGradientLogDensity();
+            System.arraycopy(result, 0, gradient, 0, result.length);
+            return;
+        }
+
+        int size = derivativeList.size();
+
+        derivativeList.get(0).fillGradientLogDensity(gradient);
+
+        if (size > 1) {
+            if (gradientBuffer == null) {
+                gradientBuffer = new double[dimension];
+            }
+
+            for (int i = 1; i < size; i++) {
+
+                derivativeList.get(i).fillGradientLogDensity(gradientBuffer);
+
+                for (int j = 0; j < dimension; j++) {
+                    gradient[j] += gradientBuffer[j];
+                }
+            }
+        }
+    }
+
+    private double[] gradientBuffer;
+
     private static final boolean DEBUG = false;
     private static final boolean DEBUG_KILL = false;
 
@@ -27,9 +27,10 @@
 
 package dr.inference.hmc;
 
+import dr.inference.model.EvaluationScheduler;
+
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.*;
 
 /**
  * @author Marc A. Suchard
@@ -37,27 +38,26 @@ import java.util.concurrent.*;
 
 public class ParallelGradientExecutor {
 
-    private final ExecutorService pool;
+    private final EvaluationScheduler scheduler;
     private final List<DerivativeCaller> derivativeCaller;
+    private final List<double[]> derivatives;
 
     interface Reducer {
-        double[] reduce(List<Future<double[]>> gradients, int length) throws ExecutionException, InterruptedException;
+        double[] reduce(List<double[]> gradients, int length);
     }
 
     public ParallelGradientExecutor(int threads, List<GradientWrtParameterProvider> derivativeList) {
 
         assert derivativeList.size() > 1;
 
-        if (threads <= 0) {
-            pool = Executors.newCachedThreadPool();
-        } else {
-            int threadCount = Math.min(threads, derivativeList.size());
-            pool = Executors.newFixedThreadPool(threadCount);
-        }
+        int threadCount = threads <= 0 ? derivativeList.size() : Math.min(threads, derivativeList.size());
+        scheduler = new EvaluationScheduler(derivativeList.size(), threadCount);
 
         derivativeCaller = new ArrayList<>(derivativeList.size());
+        derivatives = new ArrayList<>(derivativeList.size());
         for (int i = 0; i < derivativeList.size(); ++i) {
             derivativeCaller.add(new DerivativeCaller(derivativeList.get(i), i));
+            derivatives.add(null);
         }
     }
 
@@ -68,26 +68,19 @@ public class ParallelGradientExecutor {
             caller.setDerivativeType(derivativeType);
         }
 
-        double[] derivative = null;
-
-        try {
-            List<Future<double[]>> results = pool.invokeAll(derivativeCaller);
-            derivative = reducer.reduce(results, length);
-        } catch (InterruptedException | ExecutionException e) {
-            e.printStackTrace();
-        }
+        scheduler.executeAll(i -> derivatives.set(i, derivativeCaller.get(i).call()));
 
-        return derivative;
+        return reducer.reduce(derivatives, length);
     }
 
-    private static class DerivativeCaller implements Callable<double[]> {
+    private static class DerivativeCaller {
 
         public DerivativeCaller(GradientWrtParameterProvider gradient, int index) {
             this.gradient = gradient;
             this.index = index;
         }
 
-        public double[] call() throws Exception {
+        public double[] call() {
             if (DEBUG_PARALLEL_EVALUATION) {
                 System.err.println("Invoking thread #" + index + " for " + gradient.getLikelihood().getId() +
                         " with type " + type + " in executor");
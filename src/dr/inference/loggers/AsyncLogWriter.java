@@ -0,0 +1,374 @@
+/*
+ * AsyncLogWriter.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.loggers;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A background writer for asynchronous loggers. The MCMC thread only copies the current
+ * column values (or a prebuilt line, for tree logs) into a pre-allocated ring of rows; a single
+ * daemon thread formats the rows, hands them to the logger's formatters and flushes once per
+ * batch rather than once per line.
+ *
+ * Rows from one logger are always written in order. Loggers drain their rows before writing
+ * anything synchronously (e.g., the closing lines in stopLogging) and drainAll() should be
+ * called before any state is checkpointed so the logs on disk match the saved state.
+ */
+public final class AsyncLogWriter {
+
+    public static final String ASYNC_LOGGING = "mcmc.async_logging";
+    public static final String ASYNC_LOGGING_CAPACITY = "mcmc.async_logging_capacity";
+
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final long WAIT_MILLIS = 100;
+
+    private static AsyncLogWriter instance = null;
+
+    /**
+     * @return true if asynchronous logging has been requested for file loggers
+     */
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(ASYNC_LOGGING);
+    }
+
+    static synchronized AsyncLogWriter getInstance() {
+        if (instance == null) {
+            instance = new AsyncLogWriter(Integer.getInteger(ASYNC_LOGGING_CAPACITY, DEFAULT_CAPACITY));
+        }
+        return instance;
+    }
+
+    /**
+     * Blocks until every row queued so far by any asynchronous logger has been written and flushed.
+     */
+    public static void drainAll() {
+        AsyncLogWriter writer;
+        synchronized (AsyncLogWriter.class) {
+            writer = instance;
+        }
+        if (writer != null) {
+            writer.drain();
+        }
+    }
+
+    private AsyncLogWriter(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Asynchronous log capacity must be positive");
+        }
+        this.capacity = capacity;
+
+        Thread thread = new Thread(this::run, "beast-log-writer");
+        thread.setDaemon(true);
+        thread.start();
+
+        // make sure whatever was logged reaches the files if the run ends abnormally, and that
+        // compressed files are closed so they end with a complete gzip trailer
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (Buffer buffer : buffers) {
+                try {
+                    buffer.drain();
+                } catch (RuntimeException e) {
+                    // already reported to the logging thread
+                }
+                buffer.close();
+            }
+        }));
+    }
+
+    Buffer register(MCLogger logger, boolean performanceReport) {
+        Buffer buffer = new Buffer(logger, performanceReport);
+        buffers.add(buffer);
+        return buffer;
+    }
+
+    void unregister(Buffer buffer) {
+        try {
+            buffer.drain();
+        } finally {
+            buffers.remove(buffer);
+        }
+    }
+
+    private void drain() {
+        for (Buffer buffer : buffers) {
+            buffer.drain();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            boolean written = false;
+            for (Buffer buffer : buffers) {
+                written |= buffer.write();
+            }
+
+            synchronized (lock) {
+                if (written) {
+                    // wake any logger waiting for space or for a drain
+                    lock.notifyAll();
+                } else {
+                    waiting = true;
+                    try {
+                        if (!isPending()) {
+                            lock.wait(WAIT_MILLIS);
+                        }
+                    } catch (InterruptedException e) {
+                        // keep going - this thread lives as long as the JVM
+                    }
+                    waiting = false;
+                }
+            }
+        }
+    }
+
+    private boolean isPending() {
+        for (Buffer buffer : buffers) {
+            if (buffer.isPending()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void signal() {
+        if (waiting) {
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private static boolean canDeferFormatting(LogColumn column) {
+        if (!(column instanceof NumberColumn)) {
+            return false;
+        }
+        // subclasses that format their own values have to be formatted on the MCMC thread
+        for (Class<?> c = column.getClass(); c != NumberColumn.class; c = c.getSuperclass()) {
+            for (Method method : c.getDeclaredMethods()) {
+                if (method.getName().equals("getFormattedValue") || method.getName().equals("formatValue")) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The ring of rows for one logger. Only the logger's own (MCMC) thread puts rows and only
+     * the writer thread takes them.
+     */
+    final class Buffer {
+
+        private Buffer(MCLogger logger, boolean performanceReport) {
+            this.formatters = logger.getFormatters();
+            this.performanceReport = performanceReport;
+
+            int columnCount = logger.getColumnCount();
+            columns = new LogColumn[columnCount];
+            deferred = new NumberColumn[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                columns[i] = logger.getColumn(i);
+                if (canDeferFormatting(columns[i])) {
+                    deferred[i] = (NumberColumn) columns[i];
+                }
+            }
+
+            states = new long[capacity];
+            numbers = new double[capacity][columnCount];
+            text = new String[capacity][columnCount + 1];
+            lines = new String[capacity];
+
+            for (LogFormatter formatter : formatters) {
+                if (formatter instanceof TabDelimitedFormatter) {
+                    ((TabDelimitedFormatter) formatter).setFlushEachLine(false);
+                }
+            }
+        }
+
+        /**
+         * Queues a row of column values. Numerical columns are copied as doubles and formatted
+         * later, everything else is formatted now.
+         *
+         * @param state             the state being logged
+         * @param performanceReport the performance column, if there is one
+         */
+        void putValues(long state, String performanceReport) {
+            final int slot = claim();
+
+            states[slot] = state;
+            final double[] rowNumbers = numbers[slot];
+            final String[] rowText = text[slot];
+            for (int i = 0; i < columns.length; i++) {
+                if (deferred[i] != null) {
+                    rowNumbers[i] = deferred[i].getDoubleValue();
+                } else {
+                    rowText[i] = columns[i].getFormatted();
+                }
+            }
+            rowText[columns.length] = performanceReport;
+            lines[slot] = null;
+
+            publish();
+        }
+
+        /**
+         * Queues a complete line of output.
+         */
+        void putLine(String line) {
+            final int slot = claim();
+            lines[slot] = line;
+            publish();
+        }
+
+        void drain() {
+            awaitWritten(head);
+            checkFailure();
+        }
+
+        /**
+         * Closes the files that the formatters own, without writing their closing lines.
+         */
+        void close() {
+            for (LogFormatter formatter : formatters) {
+                if (formatter instanceof TabDelimitedFormatter) {
+                    ((TabDelimitedFormatter) formatter).close();
+                }
+            }
+        }
+
+        private boolean isPending() {
+            return tail < head;
+        }
+
+        private int claim() {
+            checkFailure();
+            awaitWritten(head - capacity + 1);
+            return (int) (head % capacity);
+        }
+
+        private void publish() {
+            head = head + 1;
+            signal();
+        }
+
+        private void awaitWritten(long count) {
+            while (tail < count) {
+                signal();
+                synchronized (lock) {
+                    if (tail < count) {
+                        try {
+                            lock.wait(WAIT_MILLIS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new RuntimeException("Interrupted while waiting for the log to be written");
+                        }
+                    }
+                }
+            }
+        }
+
+        private void checkFailure() {
+            if (failure != null) {
+                throw new RuntimeException("Asynchronous logging failed: " + failure.getMessage(), failure);
+            }
+        }
+
+        /**
+         * Writes and flushes everything queued so far. Called on the writer thread.
+         *
+         * @return true if anything was written
+         */
+        private boolean write() {
+            final long end = head;
+            final long start = tail;
+            if (start == end) {
+                return false;
+            }
+
+            if (failure == null) {
+                try {
+                    for (long k = start; k < end; k++) {
+                        writeRow((int) (k % capacity));
+                    }
+                    for (LogFormatter formatter : formatters) {
+                        formatter.flush();
+                    }
+                } catch (Throwable t) {
+                    failure = t;
+                }
+            }
+
+            tail = end;
+            return true;
+        }
+
+        private void writeRow(int slot) {
+            if (lines[slot] != null) {
+                for (LogFormatter formatter : formatters) {
+                    formatter.logLine(lines[slot]);
+                }
+                return;
+            }
+
+            String[] values = new String[columns.length + (performanceReport ? 2 : 1)];
+            values[0] = Long.toString(states[slot]);
+            for (int i = 0; i < columns.length; i++) {
+                values[i + 1] = deferred[i] != null ? deferred[i].getFormatted(numbers[slot][i]) : text[slot][i];
+            }
+            if (performanceReport) {
+                values[columns.length + 1] = text[slot][columns.length];
+            }
+
+            for (LogFormatter formatter : formatters) {
+                formatter.logValues(values);
+            }
+        }
+
+        private final List<LogFormatter> formatters;
+        private final boolean performanceReport;
+        private final LogColumn[] columns;
+        private final NumberColumn[] deferred;
+
+        private final long[] states;
+        private final double[][] numbers;
+        private final String[][] text;
+        private final String[] lines;
+
+        // number of rows put by the logger and taken by the writer
+        private volatile long head = 0;
+        private volatile long tail = 0;
+        private volatile Throwable failure = null;
+    }
+
+    private final int capacity;
+    private final List<Buffer> buffers = new CopyOnWriteArrayList<Buffer>();
+    private final Object lock = new Object();
+    private volatile boolean waiting = false;
+}
@@ -107,7 +107,11 @@ public interface LogColumn extends Serializable {
         }
 
         public final String getFormatted() {
-            StringBuffer buffer = new StringBuffer(getFormattedValue());
+            return padToMinimumWidth(getFormattedValue());
+        }
+
+        protected final String padToMinimumWidth(String value) {
+            StringBuffer buffer = new StringBuffer(value);
 
             if (minimumWidth > 0) {
                 while (buffer.length() < minimumWidth) {
@@ -47,4 +47,11 @@ public interface LogFormatter {
 
     void stopLogging();
 
+    /**
+     * Pushes anything buffered to the underlying output. Formatters that write
+     * through immediately need not implement this.
+     */
+    default void flush() {
+    }
+
 }
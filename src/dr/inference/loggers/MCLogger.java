@@ -119,6 +119,18 @@ public class MCLogger implements Logger {
         this.logEvery = logEvery;
     }
 
+    /**
+     * If set, rows are copied into a buffer on the MCMC thread and formatted, written
+     * and flushed in batches by the AsyncLogWriter thread.
+     */
+    public void setAsynchronous(boolean asynchronous) {
+        this.asynchronous = asynchronous;
+    }
+
+    public boolean isAsynchronous() {
+        return asynchronous;
+    }
+
     public final void addFormatter(LogFormatter formatter) {
 
         formatters.add(formatter);
@@ -222,6 +234,40 @@ public class MCLogger implements Logger {
 
             logLabels(labels);
         }
+
+        startAsynchronousLogging();
+    }
+
+    /**
+     * Starts queueing rows for the writer thread if this logger is asynchronous. Anything
+     * logged before this is written directly.
+     */
+    protected final void startAsynchronousLogging() {
+        if (asynchronous && logBuffer == null) {
+            logBuffer = AsyncLogWriter.getInstance().register(this, performanceReport);
+        }
+    }
+
+    /**
+     * Waits for all queued rows to be written and goes back to writing directly.
+     */
+    protected final void stopAsynchronousLogging() {
+        if (logBuffer != null) {
+            AsyncLogWriter.Buffer buffer = logBuffer;
+            logBuffer = null;
+            AsyncLogWriter.getInstance().unregister(buffer);
+        }
+    }
+
+    /**
+     * Writes a line, queueing it behind any pending rows if this logger is asynchronous.
+     */
+    protected void logLineInOrder(String line) {
+        if (logBuffer != null) {
+            logBuffer.putLine(line);
+        } else {
+            logLine(line);
+        }
     }
 
     public final void log(int state) {
@@ -241,42 +287,25 @@ public class MCLogger implements Logger {
 
             final int columnCount = getColumnCount();
 
-            String[] values = new String[columnCount + (performanceReport ? 2 : 1)];
+            final String performance = performanceReport ? getPerformanceReport(state) : null;
 
-            values[0] = Long.toString(state);
+            if (logBuffer != null) {
+                logBuffer.putValues(state, performance);
+            } else {
+                String[] values = new String[columnCount + (performanceReport ? 2 : 1)];
 
-            for (int i = 0; i < columnCount; i++) {
-                values[i + 1] = getColumnFormatted(i);
-            }
+                values[0] = Long.toString(state);
 
-            if (performanceReport) {
-                long time = System.currentTimeMillis();
-                rollingTime.add(time);
-                if (rollingTime.size() > PERFORMANCE_SAMPLE_SIZE) {
-                    rollingTime.removeFirst();
+                for (int i = 0; i < columnCount; i++) {
+                    values[i + 1] = getColumnFormatted(i);
                 }
-                rollingState.add(state);
-                if (rollingState.size() > PERFORMANCE_SAMPLE_SIZE) {
-                    rollingState.removeFirst();
-                }
-
-                if (performanceReportStarted) {
-                    double hoursPerMillionStates =
-                            ((double)rollingTime.getLast() - rollingTime.getFirst()) /
-                            (3.6 * (rollingState.getLast() - rollingState.getFirst()));
 
-//                    double hoursPerMillionStates = (double) (time - startTime) / (3.6 * (double) (state - startState));
-
-                    String timePerMillion = getTimePerMillion(hoursPerMillionStates);
-                    String units = getUnits(hoursPerMillionStates);
-                    values[columnCount + 1] = timePerMillion + units;
-
-                } else {
-                    values[columnCount + 1] = "-";
+                if (performanceReport) {
+                    values[columnCount + 1] = performance;
                 }
-            }
 
-            logValues(values);
+                logValues(values);
+            }
         }
 
         if (performanceReport && !performanceReportStarted && state >= performanceReportDelay) {
@@ -285,8 +314,37 @@ public class MCLogger implements Logger {
 
     }
 
+    private String getPerformanceReport(long state) {
+        long time = System.currentTimeMillis();
+        rollingTime.add(time);
+        if (rollingTime.size() > PERFORMANCE_SAMPLE_SIZE) {
+            rollingTime.removeFirst();
+        }
+        rollingState.add(state);
+        if (rollingState.size() > PERFORMANCE_SAMPLE_SIZE) {
+            rollingState.removeFirst();
+        }
+
+        if (performanceReportStarted) {
+            double hoursPerMillionStates =
+                    ((double)rollingTime.getLast() - rollingTime.getFirst()) /
+                    (3.6 * (rollingState.getLast() - rollingState.getFirst()));
+
+//            double hoursPerMillionStates = (double) (time - startTime) / (3.6 * (double) (state - startState));
+
+            String timePerMillion = getTimePerMillion(hoursPerMillionStates);
+            String units = getUnits(hoursPerMillionStates);
+            return timePerMillion + units;
+
+        } else {
+            return "-";
+        }
+    }
+
     public void stopLogging() {
 
+        stopAsynchronousLogging();
+
         for (LogFormatter formatter : formatters) {
             formatter.stopLogging();
         }
@@ -300,6 +358,9 @@ public class MCLogger implements Logger {
 
     protected long logEvery = 0;
 
+    private boolean asynchronous = false;
+    private AsyncLogWriter.Buffer logBuffer = null;
+
     public List<LogFormatter> getFormatters() {
         return formatters;
     }
@@ -102,7 +102,7 @@ public abstract class NumberColumn extends LogColumn.Abstract {
 	public int getDecimalPlaces() { return dp; }
 	
 
-    public String formatValue(double value) {
+    public synchronized String formatValue(double value) {
        if (dp < 0 && sf < 0) {
 			// return it at full precision
 			return Double.toString(value);
@@ -142,6 +142,14 @@ public abstract class NumberColumn extends LogColumn.Abstract {
 	protected String getFormattedValue() {
 		return formatValue(getDoubleValue());
 	}
+
+	/**
+	 * Returns a string containing the given value formatted (and padded) as this
+	 * column would format its current value.
+	 */
+	public String getFormatted(double value) {
+		return padToMinimumWidth(formatValue(value));
+	}
 	
 	private int getNumFractionDigits(double value) {
 		value = Math.abs(value);
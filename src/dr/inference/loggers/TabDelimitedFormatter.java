@@ -42,6 +42,7 @@ public class TabDelimitedFormatter implements LogFormatter {
     protected final PrintWriter printWriter;
     private final boolean outputLabels;
     private final boolean closeFile;
+    private boolean flushEachLine = true;
 
 
     public TabDelimitedFormatter(PrintWriter printWriter) {
@@ -57,10 +58,22 @@ public class TabDelimitedFormatter implements LogFormatter {
     }
 
     public TabDelimitedFormatter(PrintWriter printWriter, boolean labels) {
+        this(printWriter, labels, true);
+    }
+
+    public TabDelimitedFormatter(PrintWriter printWriter, boolean labels, boolean closeFile) {
 
         this.printWriter = printWriter;
         outputLabels = labels;
-        closeFile = true;
+        this.closeFile = closeFile;
+    }
+
+    /**
+     * By default the output is flushed after every line. A writer that batches lines
+     * can turn this off and call flush() itself.
+     */
+    public void setFlushEachLine(boolean flushEachLine) {
+        this.flushEachLine = flushEachLine;
     }
 
     public void startLogging(String title) {
@@ -79,7 +92,9 @@ public class TabDelimitedFormatter implements LogFormatter {
 
     public void logLine(String line) {
         printWriter.println(line);
-        printWriter.flush();
+        if (flushEachLine) {
+            printWriter.flush();
+        }
     }
 
     public void logLabels(String[] labels) {
@@ -110,6 +125,12 @@ public class TabDelimitedFormatter implements LogFormatter {
         }
 
         printWriter.println();
+        if (flushEachLine) {
+            printWriter.flush();
+        }
+    }
+
+    public void flush() {
         printWriter.flush();
     }
 
@@ -120,4 +141,14 @@ public class TabDelimitedFormatter implements LogFormatter {
         }
     }
 
+    /**
+     * Closes the file, if this formatter owns it, without logging anything further (e.g., so that a
+     * compressed file is complete when a run is ended early).
+     */
+    public void close() {
+        if (closeFile) {
+            printWriter.close();
+        }
+    }
+
 }
@@ -0,0 +1,289 @@
+/*
+ * ConvergenceMonitor.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.markovchain;
+
+import dr.inference.loggers.LogColumn;
+import dr.inference.loggers.Loggable;
+import dr.inference.loggers.NumberColumn;
+import dr.inference.model.Model;
+import dr.inference.state.CheckpointedChainListener;
+import dr.inference.trace.BatchMeansESS;
+import dr.inference.trace.StreamingQuantile;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Monitors the convergence of a chain while it runs. Chosen numerical columns are sampled every
+ * sampleEvery states after a burn-in and a batch means estimate of the ESS and running estimates of
+ * some quantiles are kept for each, in constant memory. These are available as columns to be logged
+ * and are saved in checkpoints so that a resumed run carries on from where it was. If a target ESS is
+ * given the chain can be stopped once every column has reached it, judged by the cautious estimate of
+ * BatchMeansESS so that an early, noisy estimate doesn't stop it too soon.
+ */
+public class ConvergenceMonitor implements CheckpointedChainListener, Loggable {
+
+    public static final String CHECKPOINT_NAME = "convergence";
+
+    /**
+     * @param name       distinguishes the checkpoint of this monitor from those of others on the same chain
+     *                   (may be null if there is only one)
+     * @param batchCount the minimum number of batches for the ESS estimates
+     */
+    public ConvergenceMonitor(String name, NumberColumn[] columns, long sampleEvery, long burnin, double[] probabilities,
+                              int batchCount, double targetESS, boolean stopAtTarget) {
+        if (sampleEvery < 1) {
+            throw new IllegalArgumentException("sampleEvery should be at least 1");
+        }
+        this.checkpointName = name != null ? CHECKPOINT_NAME + "." + name : CHECKPOINT_NAME;
+        this.columns = columns;
+        this.sampleEvery = sampleEvery;
+        this.burnin = burnin;
+        this.probabilities = probabilities;
+        this.targetESS = targetESS;
+        this.stopAtTarget = stopAtTarget;
+
+        labels = new String[columns.length];
+        ess = new BatchMeansESS[columns.length];
+        quantiles = new StreamingQuantile[columns.length][probabilities.length];
+        for (int i = 0; i < columns.length; i++) {
+            labels[i] = columns[i].getLabel();
+            ess[i] = new BatchMeansESS(batchCount);
+            for (int j = 0; j < probabilities.length; j++) {
+                quantiles[i][j] = new StreamingQuantile(probabilities[j]);
+            }
+        }
+    }
+
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    public long getSampleCount() {
+        return columns.length > 0 ? ess[0].getCount() : 0;
+    }
+
+    public double getESS(int column) {
+        return ess[column].getESS();
+    }
+
+    public double getQuantile(int column, int probability) {
+        return quantiles[column][probability].getQuantile();
+    }
+
+    /**
+     * @return the smallest ESS over the columns.
+     */
+    public double getMinimumESS() {
+        double minimum = Double.POSITIVE_INFINITY;
+        for (BatchMeansESS estimator : ess) {
+            minimum = Math.min(minimum, estimator.getESS());
+        }
+        return minimum;
+    }
+
+    /**
+     * @return whether the cautious ESS of every column has reached the target.
+     */
+    public boolean isTargetReached() {
+        if (!(targetESS > 0.0) || columns.length == 0) {
+            return false;
+        }
+        for (BatchMeansESS estimator : ess) {
+            if (estimator.getCautiousESS() < targetESS) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the current values of the columns to the estimates.
+     */
+    public void sample() {
+        for (int i = 0; i < columns.length; i++) {
+            double value = columns[i].getDoubleValue();
+            ess[i].add(value);
+            for (StreamingQuantile quantile : quantiles[i]) {
+                quantile.add(value);
+            }
+        }
+    }
+
+    // MarkovChainListener interface *******************************************
+
+    @Override
+    public void currentState(long state, MarkovChain markovChain, Model currentModel) {
+        if (state >= burnin && state > lastSampledState && state % sampleEvery == 0) {
+            sample();
+            lastSampledState = state;
+
+            if (stopAtTarget && !stopping && isTargetReached()) {
+                stopping = true;
+                Logger.getLogger("dr.inference").info("Stopping the chain at state " + state +
+                        ": the ESS of all " + columns.length + " monitored columns is at least " + targetESS);
+            }
+        }
+
+        // the chain may be run again after adaptation, so keep asking it to stop
+        if (stopping) {
+            markovChain.pleaseStop();
+        }
+    }
+
+    @Override
+    public void bestState(long state, MarkovChain markovChain, Model bestModel) { }
+
+    @Override
+    public void finished(long chainLength, MarkovChain markovChain) {
+        StringBuilder sb = new StringBuilder("Convergence monitor after " + getSampleCount() + " samples:");
+        for (int i = 0; i < columns.length; i++) {
+            sb.append("\n  ").append(labels[i]).append(": ESS = ").append(String.format("%.1f", ess[i].getESS()));
+        }
+        Logger.getLogger("dr.inference").info(sb.toString());
+    }
+
+    // CheckpointedChainListener interface *************************************
+
+    @Override
+    public String getCheckpointName() {
+        return checkpointName;
+    }
+
+    @Override
+    public void writeCheckpoint(PrintStream out) {
+        out.print("sampled\t");
+        out.println(lastSampledState);
+        for (int i = 0; i < columns.length; i++) {
+            out.print(labels[i]);
+            writeValues(out, ess[i].getState());
+            for (StreamingQuantile quantile : quantiles[i]) {
+                writeValues(out, quantile.getState());
+            }
+            out.println();
+        }
+    }
+
+    private void writeValues(PrintStream out, double[] values) {
+        out.print("\t");
+        out.print(values.length);
+        for (double value : values) {
+            out.print("\t");
+            out.print(value);
+        }
+    }
+
+    @Override
+    public void readCheckpoint(BufferedReader in) throws IOException {
+        String line = in.readLine();
+        String[] fields = line != null ? line.split("\t") : new String[0];
+        if (fields.length != 2 || !fields[0].equals("sampled")) {
+            throw new RuntimeException("Unable to read the saved state of the convergence monitor");
+        }
+        long sampledState = Long.parseLong(fields[1]);
+
+        for (int i = 0; i < columns.length; i++) {
+            line = in.readLine();
+            if (line == null) {
+                throw new RuntimeException("The saved state of the convergence monitor has only " + i + " of " + columns.length + " columns");
+            }
+            fields = line.split("\t");
+            if (!fields[0].equals(labels[i])) {
+                throw new RuntimeException("The saved state of the convergence monitor has column " + fields[0] + " where " + labels[i] + " was expected");
+            }
+            int[] position = {1};
+            ess[i].setState(readValues(fields, position));
+            for (StreamingQuantile quantile : quantiles[i]) {
+                quantile.setState(readValues(fields, position));
+            }
+            if (position[0] != fields.length) {
+                throw new RuntimeException("The saved state of the convergence monitor for " + labels[i] + " has the wrong number of quantiles");
+            }
+        }
+        lastSampledState = sampledState;
+        stopping = false;
+    }
+
+    private double[] readValues(String[] fields, int[] position) {
+        if (position[0] >= fields.length) {
+            throw new RuntimeException("The saved state of the convergence monitor is incomplete");
+        }
+        double[] values = new double[Integer.parseInt(fields[position[0]])];
+        position[0]++;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Double.parseDouble(fields[position[0]]);
+            position[0]++;
+        }
+        return values;
+    }
+
+    // Loggable interface ******************************************************
+
+    @Override
+    public LogColumn[] getColumns() {
+        List<LogColumn> logColumns = new ArrayList<LogColumn>();
+        for (int i = 0; i < columns.length; i++) {
+            final int column = i;
+            logColumns.add(new NumberColumn(labels[i] + ".ESS") {
+                @Override
+                public double getDoubleValue() {
+                    return ess[column].getESS();
+                }
+            });
+            for (int j = 0; j < probabilities.length; j++) {
+                final int probability = j;
+                logColumns.add(new NumberColumn(labels[i] + ".q" + probabilities[j]) {
+                    @Override
+                    public double getDoubleValue() {
+                        return quantiles[column][probability].getQuantile();
+                    }
+                });
+            }
+        }
+        return logColumns.toArray(new LogColumn[0]);
+    }
+
+    private final String checkpointName;
+    private final NumberColumn[] columns;
+    private final String[] labels;
+    private final long sampleEvery;
+    private final long burnin;
+    private final double[] probabilities;
+    private final double targetESS;
+    private final boolean stopAtTarget;
+
+    private final BatchMeansESS[] ess;
+    private final StreamingQuantile[][] quantiles;
+
+    private long lastSampledState = -1;
+    private boolean stopping = false;
+}
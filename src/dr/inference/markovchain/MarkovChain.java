@@ -33,7 +33,9 @@ import dr.inference.operators.*;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
@@ -202,11 +204,21 @@ public final class MarkovChain implements Serializable {
 
             // assert Profiler.startProfile("Store");
 
+            final OperatorMetrics metrics = operatorMetrics;
+            long metricsTime = metrics != null ? System.nanoTime() : 0;
+            long storeTime = 0, proposeTime = 0, evaluateTime = 0, calculations = 0;
+
             // The current model is stored here in case the proposal fails
             if (currentModel != null) {
                 currentModel.storeModelState();
             }
 
+            if (metrics != null) {
+                long time = System.nanoTime();
+                storeTime = time - metricsTime;
+                metricsTime = time;
+            }
+
             // assert Profiler.stopProfile("Store");
 
             boolean operatorSucceeded = true;
@@ -230,6 +242,10 @@ public final class MarkovChain implements Serializable {
             }
 
             // assert Profiler.stopProfile("Operate");
+            if (metrics != null) {
+                proposeTime = System.nanoTime() - metricsTime;
+            }
+
             if (hastingsRatio == Double.NEGATIVE_INFINITY) {
                 // Should the evaluation be short-cutted?
                 // Previously this was set to false if OperatorFailedException was thrown.
@@ -259,15 +275,26 @@ public final class MarkovChain implements Serializable {
                     }
                 }
 
+                if (metrics != null) {
+                    metrics.beginEvaluation();
+                    metricsTime = System.nanoTime();
+                }
+
                 // The new model is evaluated
                 score = evaluate(likelihood);
 
+                if (metrics != null) {
+                    evaluateTime = System.nanoTime() - metricsTime;
+                    metrics.endEvaluation(op);
+                }
+
                 if (PROFILE) {
                     long duration = System.currentTimeMillis() - elapsedTime;
                     mcmcOperator.addEvaluationTime(duration);
                     long newCalculationCount = (likelihood instanceof Profileable) ?
                             ((Profileable) likelihood).getTotalCalculationCount() : 1;
                     mcmcOperator.addCalculationCount(newCalculationCount - calculationCount);
+                    calculations = newCalculationCount - calculationCount;
 
                     if (DEBUG) {
                         System.out.println("Time: " + duration);
@@ -387,22 +414,40 @@ public final class MarkovChain implements Serializable {
                             + ", old score = " + oldScore);
                 }
 
+                if (metrics != null) {
+                    metricsTime = System.nanoTime();
+                }
+
                 mcmcOperator.accept(deviation);
                 currentModel.acceptModelState();
                 currentScore = score;
 
+                if (metrics != null) {
+                    metrics.record(op, storeTime, proposeTime, evaluateTime,
+                            System.nanoTime() - metricsTime, true, calculations);
+                }
+
             } else {
                 if (DEBUG) {
                     System.out.println("** Move rejected: new score = " + score
                             + ", old score = " + oldScore + " (logr = " + logr[0] + ")");
                 }
 
+                if (metrics != null) {
+                    metricsTime = System.nanoTime();
+                }
+
                 mcmcOperator.reject();
 
                 // assert Profiler.startProfile("Restore");
 
                 currentModel.restoreModelState();
 
+                if (metrics != null) {
+                    metrics.record(op, storeTime, proposeTime, evaluateTime,
+                            System.nanoTime() - metricsTime, false, calculations);
+                }
+
                 if (usingFullEvaluation) {
                     // This is a test that the state is correctly restored. The
                     // restored state is fully evaluated and the likelihood compared with
@@ -482,6 +527,18 @@ public final class MarkovChain implements Serializable {
         return likelihood;
     }
 
+    /**
+     * Turns on per-operator instrumentation of the chain (or off, if null). The metrics object must
+     * also be added as a listener for its file to be written.
+     */
+    public void setOperatorMetrics(OperatorMetrics operatorMetrics) {
+        this.operatorMetrics = operatorMetrics;
+    }
+
+    public OperatorMetrics getOperatorMetrics() {
+        return operatorMetrics;
+    }
+
     public Model getModel() {
         return likelihood.getModel();
     }
@@ -597,6 +654,10 @@ public final class MarkovChain implements Serializable {
         listeners.remove(listener);
     }
 
+    public List<MarkovChainListener> getMarkovChainListeners() {
+        return Collections.unmodifiableList(listeners);
+    }
+
 
     private void fireBestModel(long state, Model bestModel) {
 
@@ -633,4 +694,6 @@ public final class MarkovChain implements Serializable {
     }
 
     private final ArrayList<MarkovChainListener> listeners = new ArrayList<MarkovChainListener>();
+
+    private transient OperatorMetrics operatorMetrics = null;
 }
@@ -0,0 +1,330 @@
+/*
+ * OperatorMetrics.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.markovchain;
+
+import dr.inference.model.CompoundLikelihood;
+import dr.inference.model.Likelihood;
+import dr.inference.model.Model;
+import dr.inference.operators.OperatorSchedule;
+import dr.util.FileHelpers;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-operator timing of the MCMC hot path, written periodically to a metrics file while the chain runs.
+ *
+ * For each operator this records the number of proposals and acceptances, the time spent storing the
+ * model state, making the proposal, evaluating the posterior, and accepting or restoring afterwards, the
+ * evaluation time of each component likelihood (taken from the CompoundLikelihood evaluation timers) and
+ * the number of likelihood calculations reported by Profileable likelihoods (for tree likelihoods this is
+ * the number of partials updated, i.e. the dirty nodes).
+ *
+ * If the file name ends in ".prom" the file is rewritten each time in the Prometheus text exposition
+ * format (for a node exporter textfile collector); otherwise one JSON object per line is appended.
+ * All values are cumulative since the start of the run.
+ */
+public class OperatorMetrics implements MarkovChainListener {
+
+    public static final String OPERATOR_METRICS = "mcmc.operator_metrics";
+    public static final String OPERATOR_METRICS_EVERY = "mcmc.operator_metrics_every";
+
+    public static final long DEFAULT_LOG_EVERY = 10000;
+
+    public OperatorMetrics(String fileName, long logEvery, OperatorSchedule schedule, Likelihood likelihood) {
+        this.file = FileHelpers.getFile(fileName);
+        this.prometheus = fileName.endsWith(".prom");
+        this.logEvery = logEvery;
+
+        int operatorCount = schedule.getOperatorCount();
+        operatorNames = new String[operatorCount];
+        for (int i = 0; i < operatorCount; i++) {
+            operatorNames[i] = schedule.getOperator(i).getOperatorName();
+        }
+
+        List<CompoundLikelihood> parents = new ArrayList<CompoundLikelihood>();
+        List<Integer> indices = new ArrayList<Integer>();
+        collectComponents(likelihood, parents, indices);
+        componentParents = parents.toArray(new CompoundLikelihood[parents.size()]);
+        componentIndices = new int[indices.size()];
+        for (int i = 0; i < componentIndices.length; i++) {
+            componentIndices[i] = indices.get(i);
+        }
+
+        proposalCounts = new long[operatorCount];
+        acceptCounts = new long[operatorCount];
+        storeTimes = new long[operatorCount];
+        proposeTimes = new long[operatorCount];
+        evaluateTimes = new long[operatorCount];
+        acceptTimes = new long[operatorCount];
+        restoreTimes = new long[operatorCount];
+        calculationCounts = new long[operatorCount];
+        componentTimes = new long[operatorCount][componentNames.size()];
+        componentSnapshot = new long[componentNames.size()];
+
+        startTime = System.currentTimeMillis();
+
+        if (!prometheus) {
+            // start a fresh file; each write appends a line
+            try {
+                new FileWriter(file).close();
+            } catch (IOException ioe) {
+                throw new RuntimeException("Unable to create operator metrics file, " + file + ": " + ioe.getMessage());
+            }
+        }
+    }
+
+    private void collectComponents(Likelihood likelihood, List<CompoundLikelihood> parents, List<Integer> indices) {
+        if (likelihood instanceof CompoundLikelihood) {
+            CompoundLikelihood compound = (CompoundLikelihood) likelihood;
+            if (compound.getEvaluationTimes() == null) {
+                return;
+            }
+            for (int i = 0; i < compound.getLikelihoodCount(); i++) {
+                Likelihood component = compound.getLikelihood(i);
+                if (component instanceof CompoundLikelihood) {
+                    collectComponents(component, parents, indices);
+                } else {
+                    parents.add(compound);
+                    indices.add(i);
+                    componentNames.add(component.prettyName());
+                }
+            }
+        }
+    }
+
+    /**
+     * Called immediately before the proposed state is evaluated.
+     */
+    void beginEvaluation() {
+        for (int i = 0; i < componentSnapshot.length; i++) {
+            componentSnapshot[i] = componentParents[i].getEvaluationTimes()[componentIndices[i]];
+        }
+    }
+
+    /**
+     * Called immediately after the proposed state is evaluated; attributes the component likelihood
+     * time spent since beginEvaluation to the operator.
+     */
+    void endEvaluation(int operatorIndex) {
+        long[] times = componentTimes[operatorIndex];
+        for (int i = 0; i < componentSnapshot.length; i++) {
+            times[i] += componentParents[i].getEvaluationTimes()[componentIndices[i]] - componentSnapshot[i];
+        }
+    }
+
+    /**
+     * Records one MCMC step. Times are in nanoseconds.
+     */
+    void record(int operatorIndex, long storeTime, long proposeTime, long evaluateTime,
+                long resolveTime, boolean accepted, long calculationCount) {
+        proposalCounts[operatorIndex]++;
+        storeTimes[operatorIndex] += storeTime;
+        proposeTimes[operatorIndex] += proposeTime;
+        evaluateTimes[operatorIndex] += evaluateTime;
+        if (accepted) {
+            acceptCounts[operatorIndex]++;
+            acceptTimes[operatorIndex] += resolveTime;
+        } else {
+            restoreTimes[operatorIndex] += resolveTime;
+        }
+        calculationCounts[operatorIndex] += calculationCount;
+    }
+
+    // **************************************************************
+    // MarkovChainListener IMPLEMENTATION
+    // **************************************************************
+
+    @Override
+    public void bestState(long state, MarkovChain markovChain, Model bestModel) {
+    }
+
+    @Override
+    public void currentState(long state, MarkovChain markovChain, Model currentModel) {
+        if (state > 0 && state % logEvery == 0) {
+            write(state);
+        }
+    }
+
+    @Override
+    public void finished(long chainLength, MarkovChain markovChain) {
+        write(chainLength);
+    }
+
+    private void write(long state) {
+        try {
+            if (prometheus) {
+                // write to a temporary file and rename so a scraper never sees a partial file
+                File temp = new File(file.getPath() + ".tmp");
+                PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(temp)));
+                writePrometheus(writer, state);
+                writer.close();
+                if (!temp.renameTo(file)) {
+                    file.delete();
+                    temp.renameTo(file);
+                }
+            } else {
+                PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(file, true)));
+                writeJSON(writer, state);
+                writer.close();
+            }
+        } catch (IOException ioe) {
+            java.util.logging.Logger.getLogger("dr.inference").warning(
+                    "Unable to write operator metrics to " + file + ": " + ioe.getMessage());
+        }
+    }
+
+    void writeJSON(PrintWriter writer, long state) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"state\":").append(state);
+        sb.append(",\"seconds\":").append((System.currentTimeMillis() - startTime) / 1000.0);
+        sb.append(",\"operators\":[");
+        for (int i = 0; i < operatorNames.length; i++) {
+            if (i > 0) {
+                sb.append(",");
+            }
+            sb.append("{\"name\":").append(quote(operatorNames[i]));
+            sb.append(",\"proposals\":").append(proposalCounts[i]);
+            sb.append(",\"accepted\":").append(acceptCounts[i]);
+            sb.append(",\"storeSeconds\":").append(seconds(storeTimes[i]));
+            sb.append(",\"proposeSeconds\":").append(seconds(proposeTimes[i]));
+            sb.append(",\"evaluateSeconds\":").append(seconds(evaluateTimes[i]));
+            sb.append(",\"acceptSeconds\":").append(seconds(acceptTimes[i]));
+            sb.append(",\"restoreSeconds\":").append(seconds(restoreTimes[i]));
+            sb.append(",\"dirtyNodes\":").append(calculationCounts[i]);
+            sb.append(",\"likelihoodSeconds\":{");
+            for (int j = 0; j < componentNames.size(); j++) {
+                if (j > 0) {
+                    sb.append(",");
+                }
+                sb.append(quote(componentNames.get(j))).append(":").append(seconds(componentTimes[i][j]));
+            }
+            sb.append("}}");
+        }
+        sb.append("]}");
+        writer.println(sb.toString());
+    }
+
+    void writePrometheus(PrintWriter writer, long state) {
+        writer.println("# HELP beast_mcmc_state Current state of the chain.");
+        writer.println("# TYPE beast_mcmc_state gauge");
+        writer.println("beast_mcmc_state " + state);
+
+        writeCounter(writer, "beast_operator_proposals_total", "Number of proposals made by the operator.", proposalCounts);
+        writeCounter(writer, "beast_operator_accepted_total", "Number of proposals accepted.", acceptCounts);
+        writeCounter(writer, "beast_operator_dirty_nodes_total", "Likelihood calculations (partials updated) after the operator.", calculationCounts);
+
+        writer.println("# HELP beast_operator_seconds_total Time spent in each phase of the MCMC step.");
+        writer.println("# TYPE beast_operator_seconds_total counter");
+        String[] phases = {"store", "propose", "evaluate", "accept", "restore"};
+        long[][] phaseTimes = {storeTimes, proposeTimes, evaluateTimes, acceptTimes, restoreTimes};
+        for (int i = 0; i < operatorNames.length; i++) {
+            for (int p = 0; p < phases.length; p++) {
+                writer.println("beast_operator_seconds_total{operator=" + label(operatorNames[i]) +
+                        ",phase=\"" + phases[p] + "\"} " + seconds(phaseTimes[p][i]));
+            }
+        }
+
+        writer.println("# HELP beast_operator_likelihood_seconds_total Evaluation time of each likelihood component after the operator.");
+        writer.println("# TYPE beast_operator_likelihood_seconds_total counter");
+        for (int i = 0; i < operatorNames.length; i++) {
+            for (int j = 0; j < componentNames.size(); j++) {
+                writer.println("beast_operator_likelihood_seconds_total{operator=" + label(operatorNames[i]) +
+                        ",likelihood=" + label(componentNames.get(j)) + "} " + seconds(componentTimes[i][j]));
+            }
+        }
+    }
+
+    private void writeCounter(PrintWriter writer, String name, String help, long[] values) {
+        writer.println("# HELP " + name + " " + help);
+        writer.println("# TYPE " + name + " counter");
+        for (int i = 0; i < operatorNames.length; i++) {
+            writer.println(name + "{operator=" + label(operatorNames[i]) + "} " + values[i]);
+        }
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1.0E9;
+    }
+
+    private static String quote(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static String label(String value) {
+        // the Prometheus label escapes are a subset of the JSON ones
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+
+    private final File file;
+    private final boolean prometheus;
+    private final long logEvery;
+    private final long startTime;
+
+    private final String[] operatorNames;
+
+    private final CompoundLikelihood[] componentParents;
+    private final int[] componentIndices;
+    private final List<String> componentNames = new ArrayList<String>();
+
+    private final long[] proposalCounts;
+    private final long[] acceptCounts;
+    private final long[] storeTimes;
+    private final long[] proposeTimes;
+    private final long[] evaluateTimes;
+    private final long[] acceptTimes;
+    private final long[] restoreTimes;
+    private final long[] calculationCounts;
+    private final long[][] componentTimes;
+    private final long[] componentSnapshot;
+}
@@ -81,6 +81,14 @@ public class MarkovJumpsCore {
 //  return(ans);
 //}
 
+    /**
+     * Computes the matrix of integrals in Equation (37) of Minin and Suchard for a branch of length time. This
+     * only depends on the eigenvalues and the time so can be shared by all registers on a branch.
+     */
+    public void computeAuxInt(double[] eval, double time, double[] auxInt) {
+        populateAuxInt(eval, time, auxInt);
+    }
+
     private void populateAuxInt(double[] eval, double scalar, double[] auxInt) {
 
         for (int i = 0; i < stateCount; i++) {
@@ -220,19 +228,69 @@ public class MarkovJumpsCore {
         matrixMultiply(evec, tmp1, stateCount, countMatrix);
     }
 
+    /**
+     * As computeJointStatMarkovJumpsPrecompute but given the integrals from computeAuxInt.
+     */
+    public void computeJointStatMarkovJumpsAuxInt(double[] evec,
+                                                  double[] ievc,
+                                                  double[] auxInt,
+                                                  double[] ievcRateRegEvc,
+                                                  double[] countMatrix) {
+        for (int i = 0; i < stateCount2; i++) {
+            tmp2[i] = auxInt[i] * ievcRateRegEvc[i];
+        }
+        matrixMultiply(tmp2, ievc, stateCount, tmp1);
+        matrixMultiply(evec, tmp1, stateCount, countMatrix);
+    }
+
+    /**
+     * Computes the weights w such that the (from, to) element of the joint expectation for any register is
+     * sum_kl w[kl] * ievcRateRegEvc[kl], i.e., w[kl] = evec[from,k] * auxInt[kl] * ievc[l,to]. This takes
+     * O(stateCount^2) rather than the O(stateCount^3) needed for the whole matrix so is cheaper when only a few
+     * elements are required, and the weights are shared by all registers.
+     */
+    public static void computeElementWeights(double[] evec,
+                                             double[] ievc,
+                                             double[] auxInt,
+                                             int from,
+                                             int to,
+                                             int dim,
+                                             double[] weights) {
+        int index = 0;
+        for (int k = 0; k < dim; k++) {
+            final double e = evec[from * dim + k];
+            for (int l = 0; l < dim; l++) {
+                weights[index] = e * auxInt[index] * ievc[l * dim + to];
+                index++;
+            }
+        }
+    }
+
+    public static double dotProduct(double[] x, double[] y, int length) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            sum += x[i] * y[i];
+        }
+        return sum;
+    }
+
     // Computes C = A %*% B for square matrices A and B
     public static void matrixMultiply(final double[] A,
                                       final double[] B,
                                       final int dim,
                                       final double[] C) {
-        int index = 0;
+        // row by row so that B is read in order; each element is summed over k in the same order as before
         for (int i = 0; i < dim; i++) {
+            final int rowC = i * dim;
             for (int j = 0; j < dim; j++) {
-                C[index] = 0;
-                for (int k = 0; k < dim; k++) {
-                    C[index] += A[i * dim + k] * B[k * dim + j];
+                C[rowC + j] = 0;
+            }
+            for (int k = 0; k < dim; k++) {
+                final double a = A[rowC + k];
+                final int rowB = k * dim;
+                for (int j = 0; j < dim; j++) {
+                    C[rowC + j] += a * B[rowB + j];
                 }
-                index++;
             }
         }
     }
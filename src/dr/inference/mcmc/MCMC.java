@@ -34,6 +34,7 @@ import dr.inference.loggers.Loggable;
 import dr.inference.loggers.Logger;
 import dr.inference.markovchain.MarkovChain;
 import dr.inference.markovchain.MarkovChainListener;
+import dr.inference.markovchain.OperatorMetrics;
 import dr.inference.model.Likelihood;
 import dr.inference.model.Model;
 import dr.inference.operators.*;
@@ -174,6 +175,16 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
 
             mc.addMarkovChainListener(chainListener);
 
+            OperatorMetrics operatorMetrics = null;
+            String metricsFileName = System.getProperty(OperatorMetrics.OPERATOR_METRICS);
+            if (metricsFileName != null) {
+                long metricsEvery = Long.parseLong(System.getProperty(OperatorMetrics.OPERATOR_METRICS_EVERY,
+                        Long.toString(OperatorMetrics.DEFAULT_LOG_EVERY)));
+                operatorMetrics = new OperatorMetrics(metricsFileName, metricsEvery, schedule, mc.getLikelihood());
+                mc.setOperatorMetrics(operatorMetrics);
+                mc.addMarkovChainListener(operatorMetrics);
+            }
+
             long chainLength = getChainLength();
 
             //this also potentially gets the new adaptationDelay of a possibly increased chain length
@@ -197,6 +208,11 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
 
             mc.removeMarkovChainListener(chainListener);
 
+            if (operatorMetrics != null) {
+                mc.removeMarkovChainListener(operatorMetrics);
+                mc.setOperatorMetrics(null);
+            }
+
         }
         timer.stop();
     }
@@ -42,6 +42,7 @@ import dr.inference.operators.MCMCOperator;
 import dr.inference.operators.OperatorAnalysisPrinter;
 import dr.inference.operators.OperatorSchedule;
 import dr.math.MathUtils;
+import dr.math.RandomStream;
 import dr.util.NumberFormatter;
 
 import java.util.Collections;
@@ -148,9 +149,11 @@ public class MCMCMC implements Runnable {
 
         chains[coldChain].addMarkovChainListener(chainListener);
 
+        createRandomStreams();
+
         MCMCMCRunner[] threads = new MCMCMCRunner[chains.length];
         for (int i = 0; i < chains.length; i++) {
-            threads[i] = new MCMCMCRunner(chains[i], mcmcmcOptions.getSwapChainsEvery(), getChainLength(), false);
+            threads[i] = new MCMCMCRunner(chains[i], streams[i], mcmcmcOptions.getSwapChainsEvery(), getChainLength(), false);
             if (!DEBUG_IN_SERIES) {
                 threads[i].start();
             }
@@ -224,11 +227,27 @@ public class MCMCMC implements Runnable {
         timer.stop();
     }
 
+    /**
+     * Gives each chain its own random number stream derived from the master seed so that the chains
+     * don't contend on the shared generator and the run is reproducible whatever the thread scheduling.
+     * The swap moves themselves continue to use the shared generator from this thread.
+     */
+    private void createRandomStreams() {
+        if (streams == null) {
+            streams = new RandomStream[chains.length];
+            for (int i = 0; i < chains.length; i++) {
+                streams[i] = MathUtils.createStream(i);
+            }
+        }
+    }
+
     private void runChains(long length, boolean disableCoerce) {
 
+        createRandomStreams();
+
         Thread[] threads = new Thread[chains.length];
         for (int i = 0; i < chains.length; i++) {
-            threads[i] = new MCMCMCRunner(chains[i], length, length, false);
+            threads[i] = new MCMCMCRunner(chains[i], streams[i], length, length, false);
             threads[i].start();
         }
 
@@ -483,6 +502,7 @@ public class MCMCMC implements Runnable {
     private long currentState = 0;
 
     private final MarkovChain[] chains;
+    private RandomStream[] streams = null;
     private final MCLogger[][] mcLoggers;
     private final OperatorSchedule[] schedules;
     private int coldChain;
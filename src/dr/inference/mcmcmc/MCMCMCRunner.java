@@ -28,6 +28,8 @@
 package dr.inference.mcmcmc;
 
 import dr.inference.markovchain.MarkovChain;
+import dr.math.MathUtils;
+import dr.math.RandomStream;
 
 /**
  * @author rambaut
@@ -37,15 +39,30 @@ import dr.inference.markovchain.MarkovChain;
 public class MCMCMCRunner extends Thread {
 
     public MCMCMCRunner(MarkovChain markovChain, long length, long totalLength, boolean disableCoerce) {
+        this(markovChain, null, length, totalLength, disableCoerce);
+    }
+
+    /**
+     * @param stream a random number stream used exclusively by this chain (or null to use the shared generator)
+     */
+    public MCMCMCRunner(MarkovChain markovChain, RandomStream stream, long length, long totalLength, boolean disableCoerce) {
 
         this.markovChain = markovChain;
+        this.stream = stream;
         this.length = length;
         this.totalLength = totalLength;
         this.disableCoerce = disableCoerce;
     }
 
     public void runSubChain() {
-        markovChain.runChain(length, disableCoerce);
+        // attach the chain's stream for the duration (this may be called on the MCMCMC thread when debugging)
+        RandomStream previous = MathUtils.getThreadStream();
+        MathUtils.setThreadStream(stream);
+        try {
+            markovChain.runChain(length, disableCoerce);
+        } finally {
+            MathUtils.setThreadStream(previous);
+        }
     }
 
 	public void run() {
@@ -88,6 +105,7 @@ public class MCMCMCRunner extends Thread {
 
 
 	private final MarkovChain markovChain;
+	private final RandomStream stream;
 	private final long length;
     private final long totalLength;
     private final boolean disableCoerce;
@@ -32,7 +32,8 @@ import dr.util.NumberFormatter;
 import dr.xml.Reportable;
 
 import java.util.*;
-import java.util.concurrent.*;
+import java.util.concurrent.Callable;
+import java.util.function.IntConsumer;
 
 /**
  * A likelihood function which is simply the product of a set of likelihood functions.
@@ -67,14 +68,16 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
             threadCount = 0;
         }
 
-        if (threadCount > 0) {
-            pool = Executors.newFixedThreadPool(threadCount);
-        } else if (threadCount < 0) {
-            // create a cached thread pool which should create one thread per likelihood...
-            pool = Executors.newCachedThreadPool();
+        if (threadCount > 0 && likelihoodCallers.size() > 1) {
+            // evaluate the late likelihoods on the shared fork-join scheduler
+            scheduler = new EvaluationScheduler(likelihoodCallers.size(), threadCount);
+            poolResults = new double[likelihoodCallers.size()];
+            dirtyIndices = new int[likelihoodCallers.size()];
         } else {
             // don't use a threadpool (i.e., compute serially)
-            pool = null;
+            scheduler = null;
+            poolResults = null;
+            dirtyIndices = null;
         }
 
         if (EVALUATION_TIMERS) {
@@ -88,7 +91,9 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
 
     public CompoundLikelihood(Collection<Likelihood> likelihoods) {
 
-        pool = null;
+        scheduler = null;
+        poolResults = null;
+        dirtyIndices = null;
         threadCount = 0;
 
         int i = 0;
@@ -136,14 +141,17 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
                 if (likelihood.evaluateEarly()) {
 
                     earlyLikelihoods.add(likelihood);
+                    earlyIndices.add(likelihoods.size() - 1);
 
                 } else {
 
                     // late likelihood list is used to evaluate them if the thread pool is not being used...
                     lateLikelihoods.add(likelihood);
+                    lateIndices.add(likelihoods.size() - 1);
 
                     if (addToPool) {
-                        likelihoodCallers.add(new LikelihoodCaller(likelihood, index));
+                        // index the timers by position in the (unrolled) likelihood list
+                        likelihoodCallers.add(new LikelihoodCaller(likelihood, likelihoods.size() - 1));
                     }
                 }
 
@@ -177,7 +185,7 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
     }
 
     public List<Callable<Double>> getLikelihoodCallers() {
-        return likelihoodCallers;
+        return new ArrayList<Callable<Double>>(likelihoodCallers);
     }
 
     // **************************************************************
@@ -193,30 +201,17 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
 
     public double getLogLikelihood() {
 
-        double logLikelihood = evaluateLikelihoods(earlyLikelihoods);
+        double logLikelihood = evaluateLikelihoods(earlyLikelihoods, earlyIndices);
 
         if( logLikelihood == Double.NEGATIVE_INFINITY ) {
             return Double.NEGATIVE_INFINITY;
         }
 
-        if (pool == null) {
+        if (scheduler == null) {
             // Single threaded
-            logLikelihood += evaluateLikelihoods(lateLikelihoods);
+            logLikelihood += evaluateLikelihoods(lateLikelihoods, lateIndices);
         } else {
-
-            try {
-                List<Future<Double>> results = pool.invokeAll(likelihoodCallers);
-
-                for (Future<Double> result : results) {
-                    double logL = result.get();
-                    logLikelihood += logL;
-                }
-
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            } catch (ExecutionException e) {
-                e.printStackTrace();
-            }
+            logLikelihood += evaluateLikelihoodsInParallel();
         }
 
 //        if( DEBUG > 0 ) {
@@ -231,12 +226,40 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
         return logLikelihood;
     }
 
-    private double evaluateLikelihoods(ArrayList<Likelihood> likelihoods) {
+    /**
+     * Likelihoods that report a known (cached) value are summed on this thread; only the rest are
+     * handed to the scheduler.
+     */
+    private double evaluateLikelihoodsInParallel() {
+        int dirtyCount = 0;
+        for (int i = 0; i < likelihoodCallers.size(); i++) {
+            Likelihood likelihood = likelihoodCallers.get(i).likelihood;
+            if (likelihood instanceof ThreadAwareLikelihood &&
+                    ((ThreadAwareLikelihood) likelihood).isLikelihoodKnown()) {
+                poolResults[i] = likelihood.getLogLikelihood();
+            } else {
+                dirtyIndices[dirtyCount] = i;
+                dirtyCount++;
+            }
+        }
+
+        scheduler.execute(dirtyIndices, dirtyCount, poolEvaluation);
+
         double logLikelihood = 0.0;
-        int i = 0;
+        for (double logL : poolResults) {
+            logLikelihood += logL;
+        }
+        return logLikelihood;
+    }
+
+    private double evaluateLikelihoods(ArrayList<Likelihood> likelihoods, ArrayList<Integer> indices) {
+        double logLikelihood = 0.0;
+        int k = 0;
         for (Likelihood likelihood : likelihoods) {
             if (EVALUATION_TIMERS) {
                 // this code is only compiled if EVALUATION_TIMERS is true
+                // timers are indexed by position in the full likelihood list
+                final int i = indices.get(k);
                 long time = System.nanoTime();
                 double l = likelihood.getLogLikelihood();
                 evaluationTimes[i] += System.nanoTime() - time;
@@ -247,7 +270,7 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
 
                 logLikelihood += l;
 
-                i++;
+                k++;
             } else {
                 final double l = likelihood.getLogLikelihood();
                 // if the likelihood is zero then short cut the rest of the likelihoods
@@ -535,15 +558,26 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
 
     private final int threadCount;
 
-    private final ExecutorService pool;
+    private final EvaluationScheduler scheduler;
+    private final double[] poolResults;
+    private final int[] dirtyIndices;
 
     private final ArrayList<Likelihood> likelihoods = new ArrayList<Likelihood>();
     private final CompoundModel compoundModel = new CompoundModel("compoundModel");
 
     private final ArrayList<Likelihood> earlyLikelihoods = new ArrayList<Likelihood>();
     private final ArrayList<Likelihood> lateLikelihoods = new ArrayList<Likelihood>();
+    private final ArrayList<Integer> earlyIndices = new ArrayList<Integer>();
+    private final ArrayList<Integer> lateIndices = new ArrayList<Integer>();
+
+    private final List<LikelihoodCaller> likelihoodCallers = new ArrayList<LikelihoodCaller>();
 
-    private final List<Callable<Double>> likelihoodCallers = new ArrayList<Callable<Double>>();
+    private final IntConsumer poolEvaluation = new IntConsumer() {
+        @Override
+        public void accept(int i) {
+            poolResults[i] = likelihoodCallers.get(i).call();
+        }
+    };
 
     class LikelihoodCaller implements Callable<Double> {
 
@@ -552,7 +586,7 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
             this.index = index;
         }
 
-        public Double call() throws Exception {
+        public Double call() {
             if (DEBUG_PARALLEL_EVALUATION) {
                 System.err.print("Invoking thread #" + index + " for " + likelihood.getId() + ": ");
             }
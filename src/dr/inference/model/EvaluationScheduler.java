@@ -0,0 +1,234 @@
+/*
+ * EvaluationScheduler.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.model;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Evaluates a subset of a fixed set of tasks (likelihoods, gradients) in parallel on a single fork-join
+ * pool shared by every client in the JVM.
+ *
+ * The cost of each task is tracked as a moving average of its measured evaluation time. On each call the
+ * requested tasks are grouped into consecutive chunks of roughly equal estimated cost, so that cheap tasks
+ * are batched together and the per-step dispatch overhead is paid per chunk rather than per task. The
+ * calling thread evaluates the first chunk itself and idle pool workers steal the rest. If everything fits
+ * in one chunk no task is dispatched at all.
+ */
+public class EvaluationScheduler {
+
+    // maximum number of chunks per thread, so that stealing can even out mis-estimated costs
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    // chunks are not made smaller than this (in nanoseconds) as dispatch would dominate
+    private static final long MIN_CHUNK_COST = 20000;
+
+    // weight of the latest measurement in the moving average of each task's cost
+    private static final int COST_SMOOTHING = 5;
+
+    public EvaluationScheduler(int taskCount, int parallelism) {
+        if (parallelism <= 0) {
+            parallelism = Math.min(taskCount, Runtime.getRuntime().availableProcessors());
+        }
+        this.taskCount = taskCount;
+        this.parallelism = Math.max(1, parallelism);
+        this.pool = this.parallelism > 1 ? getSharedPool(this.parallelism) : null;
+
+        costs = new long[taskCount];
+        chunkEnds = new int[taskCount];
+        allIndices = new int[taskCount];
+        for (int i = 0; i < taskCount; i++) {
+            allIndices[i] = i;
+        }
+    }
+
+    public int getTaskCount() {
+        return taskCount;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Calls task.accept(i) for every i in [0, taskCount) and returns once all have completed.
+     */
+    public void executeAll(IntConsumer task) {
+        execute(allIndices, taskCount, task);
+    }
+
+    /**
+     * Calls task.accept(indices[k]) for k in [0, count) and returns once all have completed. Each index must
+     * appear at most once. A RuntimeException thrown by a task is rethrown here after the other chunks
+     * have finished.
+     */
+    public void execute(int[] indices, int count, IntConsumer task) {
+        if (count == 0) {
+            return;
+        }
+
+        if (pool == null || count == 1) {
+            evaluate(indices, 0, count, task);
+            return;
+        }
+
+        int chunkCount = partition(indices, count);
+
+        if (chunkCount == 1) {
+            evaluate(indices, 0, count, task);
+            return;
+        }
+
+        Chunk[] chunks = new Chunk[chunkCount - 1];
+        boolean inPool = ForkJoinTask.getPool() == pool;
+        for (int c = 1; c < chunkCount; c++) {
+            chunks[c - 1] = new Chunk(indices, chunkEnds[c - 1], chunkEnds[c], task);
+            if (inPool) {
+                // nested evaluation from one of our own workers: push onto its deque
+                chunks[c - 1].fork();
+            } else {
+                pool.execute(chunks[c - 1]);
+            }
+        }
+
+        RuntimeException failure = null;
+        try {
+            evaluate(indices, 0, chunkEnds[0], task);
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+
+        for (Chunk chunk : chunks) {
+            try {
+                chunk.join();
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Splits indices[0..count) into consecutive chunks of similar estimated cost and stores their end
+     * positions in chunkEnds. Tasks that have not yet been timed get a chunk of their own.
+     */
+    private int partition(int[] indices, int count) {
+        long totalCost = 0;
+        int unknownCount = 0;
+        for (int k = 0; k < count; k++) {
+            long cost = costs[indices[k]];
+            if (cost == 0) {
+                unknownCount++;
+            } else {
+                totalCost += cost;
+            }
+        }
+
+        int maxChunks = Math.min(count, parallelism * CHUNKS_PER_THREAD);
+        long target = Math.max(MIN_CHUNK_COST, totalCost / Math.max(1, maxChunks - unknownCount));
+
+        int chunkCount = 0;
+        long chunkCost = 0;
+        for (int k = 0; k < count; k++) {
+            long cost = costs[indices[k]];
+            chunkCost += (cost == 0 ? target : cost);
+            if (chunkCost >= target || k == count - 1) {
+                chunkEnds[chunkCount] = k + 1;
+                chunkCount++;
+                chunkCost = 0;
+            }
+        }
+        return chunkCount;
+    }
+
+    private void evaluate(int[] indices, int from, int to, IntConsumer task) {
+        for (int k = from; k < to; k++) {
+            int index = indices[k];
+            long time = System.nanoTime();
+            task.accept(index);
+            updateCost(index, System.nanoTime() - time);
+        }
+    }
+
+    private void updateCost(int index, long time) {
+        long cost = costs[index];
+        if (cost == 0) {
+            costs[index] = Math.max(1, time);
+        } else {
+            costs[index] = Math.max(1, cost + (time - cost) / COST_SMOOTHING);
+        }
+    }
+
+    private class Chunk extends RecursiveAction {
+
+        Chunk(int[] indices, int from, int to, IntConsumer task) {
+            this.indices = indices;
+            this.from = from;
+            this.to = to;
+            this.task = task;
+        }
+
+        @Override
+        protected void compute() {
+            evaluate(indices, from, to, task);
+        }
+
+        private final int[] indices;
+        private final int from;
+        private final int to;
+        private final IntConsumer task;
+    }
+
+    /**
+     * Returns the shared pool, replacing it with a larger one if it has fewer threads than requested.
+     * A replaced pool is not shut down as earlier clients may still use it; its idle workers expire.
+     */
+    private static synchronized ForkJoinPool getSharedPool(int parallelism) {
+        if (sharedPool == null || sharedPool.getParallelism() < parallelism) {
+            sharedPool = new ForkJoinPool(parallelism);
+        }
+        return sharedPool;
+    }
+
+    private static ForkJoinPool sharedPool = null;
+
+    private final int taskCount;
+    private final int parallelism;
+    private final ForkJoinPool pool;
+
+    private final long[] costs;
+    private final int[] chunkEnds;
+    private final int[] allIndices;
+}
@@ -31,10 +31,8 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
 
-import dr.evomodel.treelikelihood.BeagleTreeLikelihood;
 import dr.util.NumberFormatter;
 
 /**
@@ -65,9 +63,6 @@ public class ThreadedCompoundLikelihood implements Likelihood {
 				compoundModel.addModel(likelihood.getModel());
 			}
 
-			likelihoodCallers.add(new LikelihoodCaller(likelihood));
-
-			//System.err.println("LikelihoodCallers size: " + likelihoodCallers.size());
 		}
 	}
 
@@ -99,101 +94,47 @@ public class ThreadedCompoundLikelihood implements Likelihood {
 
 	public double getLogLikelihood() {
 
-		double logLikelihood = 0.0;
+		if (scheduler == null || scheduler.getTaskCount() != likelihoods.size()) {
+			// first call (or likelihoods added since) so set up one task per likelihood...
+			scheduler = new EvaluationScheduler(likelihoods.size(), likelihoods.size());
+			results = new double[likelihoods.size()];
+			dirtyIndices = new int[likelihoods.size()];
+		}
 
-		boolean knownLikelihoods = true;
-		for (Likelihood likelihood : likelihoods) {
-			if (!((BeagleTreeLikelihood)likelihood).isLikelihoodKnown()) {
-				knownLikelihoods = false;
-				break;
+		// likelihoods with a known value are collected here; only the others are evaluated in parallel
+		int dirtyCount = 0;
+		for (int i = 0; i < likelihoods.size(); i++) {
+			Likelihood likelihood = likelihoods.get(i);
+			if (likelihood instanceof ThreadAwareLikelihood &&
+					((ThreadAwareLikelihood) likelihood).isLikelihoodKnown()) {
+				results[i] = likelihood.getLogLikelihood();
 			} else {
-				logLikelihood += likelihood.getLogLikelihood();
+				dirtyIndices[dirtyCount] = i;
+				dirtyCount++;
 			}
 		}
-		
-		if (knownLikelihoods) {
-
-			if (DEBUG) {
-				//System.err.println("BTLs are known; total logLikelihood = " + logLikelihood);
-				//double check if the total loglikelihood will be identical by recalculating
-				double backupLikelihood = logLikelihood;
-				logLikelihood = 0.0;
-
-				if (threads == null) {
-					// first call so setup a thread for each likelihood...
-					threads = new LikelihoodThread[likelihoodCallers.size()];
-					for (int i = 0; i < threads.length; i++) {
-						// and start them running...
-						threads[i] = new LikelihoodThread();
-						threads[i].start();
-					}
-				}
 
-				for (int i = 0; i < threads.length; i++) {
-					// set the caller which will be called in each thread
-					threads[i].setCaller(likelihoodCallers.get(i));
-				}
+		if (DEBUG && dirtyCount == 0) {
+			//double check if the total loglikelihood will be identical by recalculating
+			double backupLikelihood = sum(results);
+			scheduler.executeAll(likelihoodEvaluation);
+			if (backupLikelihood != sum(results)) {
+				throw new RuntimeException("Likelihood recalculation does not return stored likelihood");
+			}
+		}
 
-				for (LikelihoodThread thread : threads) {
-					// now wait for the results to be set...
-					Double result = thread.getResult();
-					while (result == null) {
-						result = thread.getResult();
-					}
-					logLikelihood += result;
-				}
+		scheduler.execute(dirtyIndices, dirtyCount, likelihoodEvaluation);
 
-				if (backupLikelihood != logLikelihood) {
-					//System.err.println("Likelihood recalculation does not return stored likelihood");
-					throw new RuntimeException("Likelihood recalculation does not return stored likelihood");
-				}
-			}
-		} else {
-			//System.err.println("BTLs are not known: recalculate");
-
-			logLikelihood = 0.0;
-
-			//double start = System.nanoTime();
-			//System.err.println("TCL getLogLikelihood()");
-
-			if (threads == null) {
-				//System.err.println("threads == null");
-				// first call so setup a thread for each likelihood...
-				threads = new LikelihoodThread[likelihoodCallers.size()];
-				//System.err.println("LikelihoodThreads: " + threads.length);
-				for (int i = 0; i < threads.length; i++) {
-					// and start them running...
-					threads[i] = new LikelihoodThread();
-					threads[i].start();
-				}
-			}
+		return sum(results); // * weightFactor;
 
-			//double setStart = System.nanoTime();
-			for (int i = 0; i < threads.length; i++) {
-				// set the caller which will be called in each thread
-				threads[i].setCaller(likelihoodCallers.get(i));
-			}
-			//double setEnd = System.nanoTime();
-			//System.err.println("setting callers: " + (setEnd - setStart));
-
-			//start = System.nanoTime();
-			for (LikelihoodThread thread : threads) {
-				//double testone = System.nanoTime();
-				// now wait for the results to be set...
-				Double result = thread.getResult();
-				while (result == null) {
-					result = thread.getResult();
-				}
-				logLikelihood += result;
-				//double testtwo = System.nanoTime();
-				//System.err.println(thread.getName() + " - result = " + result + ": " + (testtwo - testone));
-			}
-			//end = System.nanoTime();
-			//double end = System.nanoTime();
-			//System.err.println("TCL total time: " + (end - start));
-		}
-		return logLikelihood; // * weightFactor;
+	}
 
+	private static double sum(double[] values) {
+		double total = 0.0;
+		for (double value : values) {
+			total += value;
+		}
+		return total;
 	}
 
 	public boolean evaluateEarly() {
@@ -300,79 +241,21 @@ public class ThreadedCompoundLikelihood implements Likelihood {
 		return id;
 	}
 
-	private LikelihoodThread[] threads;
+	private EvaluationScheduler scheduler = null;
+	private double[] results;
+	private int[] dirtyIndices;
 
 	private final ArrayList<Likelihood> likelihoods = new ArrayList<Likelihood>();
 	private final CompoundModel compoundModel = new CompoundModel("compoundModel");
 
-	private final List<LikelihoodCaller> likelihoodCallers = new ArrayList<LikelihoodCaller>();
-
 	private double weightFactor = 1.0;
 
-	class LikelihoodCaller {
-
-		public LikelihoodCaller(Likelihood likelihood) {
-			this.likelihood = likelihood;
-		}
-
-		public double call() {
-			return likelihood.getLogLikelihood();
+	private final IntConsumer likelihoodEvaluation = new IntConsumer() {
+		@Override
+		public void accept(int i) {
+			results[i] = likelihoods.get(i).getLogLikelihood();
 		}
-
-		private final Likelihood likelihood;
-	}
-
-	class LikelihoodThread extends Thread {
-
-		public LikelihoodThread() {
-		}
-
-		public void setCaller(LikelihoodCaller caller) {
-			lock.lock();
-			resultAvailable = false;
-			try {
-				this.caller = caller;
-				condition.signal();
-			} finally {
-				lock.unlock();
-			}
-		}
-
-		/**
-		 * Main run loop
-		 */
-		 public void run() {
-			while (true) {
-				lock.lock();
-				try {
-					while( caller == null)
-						condition.await();
-					result = caller.call(); // SLOW
-					resultAvailable = true;
-					caller = null;
-				} catch (InterruptedException e){
-
-				} finally {
-					lock.unlock();
-				}
-			}
-		 }
-
-		 public Double getResult() {
-			 Double returnValue = null;
-			 if (!lock.isLocked() && resultAvailable)  { // thread is not busy and completed
-				 resultAvailable = false; // TODO need to lock before changing resultAvailable?
-				 returnValue = result;
-			 }
-			 return returnValue;
-		 }
-
-		 private LikelihoodCaller caller = null;
-		 private Double result = Double.NaN;
-		 private boolean resultAvailable = false;
-		 private final ReentrantLock lock = new ReentrantLock();
-		 private final Condition condition = lock.newCondition();
-	}
+	};
 
 	public boolean isUsed() {
 		return isUsed;
@@ -29,6 +29,14 @@ package dr.inference.multidimensionalscaling;
 
 import dr.math.distributions.NormalDistribution;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 /**
  * MultiDimensionalScalingCoreImpl
  *
@@ -44,6 +52,24 @@ import dr.math.distributions.NormalDistribution;
 
 public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingCore {
 
+    // The pairwise increments are computed in fixed tiles (of pairs of locations for the whole
+    // matrix and of columns when a single row changes) and the tile sums are added in order, so
+    // the results are the same whatever the number of threads.
+    private static final int TRIANGLE_TILE_COUNT = 64;
+    private static final int COLUMN_TILE_SIZE = 4096;
+    private static final int ROW_TILE_SIZE = 256;
+
+    public MultiDimensionalScalingCoreImpl() {
+        String r = System.getProperty(NativeMDSSingleton.THREADS);
+        if (r != null) {
+            try {
+                threadCount = Integer.parseInt(r.trim());
+            } catch (NumberFormatException exception) {
+                throw new RuntimeException("Unable to parse '" + NativeMDSSingleton.THREADS + "' environmental property");
+            }
+        }
+    }
+
     @Override
     public void initialize(int embeddingDimension, int locationCount, long flags) {
         this.embeddingDimension = embeddingDimension;
@@ -52,16 +78,32 @@ public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingC
 
         observations = new double[locationCount][locationCount];
         increments = new double[locationCount][locationCount];
-        storedIncrements = null;
         incrementsKnown = false;
         sumOfIncrementsKnown = false;
 
         isLeftTruncated = (flags & MultiDimensionalScalingCore.LEFT_TRUNCATION) != 0;
 
-        updatedLocation = -1;
-
         locations = new double[locationCount][embeddingDimension];
         storedLocations = new double[locationCount][embeddingDimension];
+
+        // locations changed since the increments were last brought up to date
+        pendingLocations = new int[locationCount];
+        isPending = new boolean[locationCount];
+        pendingCount = 0;
+
+        // the rows of increments changed since the state was stored, as they were before
+        maxSavedCount = Math.max(16, locationCount / 16);
+        savedLocations = new int[maxSavedCount];
+        savedIncrements = new double[maxSavedCount][];
+        isSaved = new boolean[locationCount];
+        savedCount = 0;
+        savedValid = false;
+
+        setupTiles();
+
+        if (threadCount > 1 && pool == null) {
+            pool = Executors.newFixedThreadPool(threadCount);
+        }
     }
 
     @Override
@@ -74,8 +116,7 @@ public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingC
 
     @Override
     public void setNonMissingObservationCount(int count) {
-        // this.nonMissingObservationCount = count;
-        throw new RuntimeException("Not yet implemented");
+        this.observationCount = count;
     }
 
     @Override
@@ -89,6 +130,8 @@ public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingC
             System.arraycopy(observations, k, this.observations[i], 0, locationCount);
             k += locationCount;
         }
+
+        makeDirty();
     }
 
     @Override
@@ -120,21 +163,24 @@ public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingC
 
     @Override
     public void updateLocation(int locationIndex, double[] location) {
-        if (updatedLocation != -1 || locationIndex == -1) {
-            // more than one location updated - do a full re-computation
-            incrementsKnown = false;
-            storedIncrements = null;
-        }
-
         if (locationIndex != -1) {
-            updatedLocation = locationIndex;
-
             if (location.length != embeddingDimension) {
                 throw new RuntimeException("Location is not the correct dimension");
             }
 
             System.arraycopy(location, 0, locations[locationIndex], 0, embeddingDimension);
 
+            if (incrementsKnown && !isPending[locationIndex]) {
+                if (pendingCount < maxSavedCount) {
+                    pendingLocations[pendingCount] = locationIndex;
+                    isPending[locationIndex] = true;
+                    pendingCount++;
+                } else {
+                    // many locations updated - do a full re-computation
+                    incrementsKnown = false;
+                }
+            }
+
         } else {
             if (location.length != embeddingDimension * locationCount) {
                 throw new RuntimeException("Location is the not correct dimension");
@@ -145,6 +191,8 @@ public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingC
                 System.arraycopy(location, offset, locations[i], 0, embeddingDimension);
                 offset += embeddingDimension;
             }
+
+            incrementsKnown = false;
         }
 
         sumOfIncrementsKnown = false;
@@ -177,13 +225,14 @@ public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingC
     public void storeState() {
         // Handle residuals
         storedSumOfIncrements = sumOfIncrements;
-        storedIncrements = null;
+        storedSumOfIncrementsKnown = sumOfIncrementsKnown;
+        clearSavedIncrements();
+        savedValid = incrementsKnown && pendingCount == 0;
 
         // Handle locations
         for (int i = 0; i < locationCount; i++) {
             System.arraycopy(locations[i], 0, storedLocations[i], 0, embeddingDimension);
         }
-        updatedLocation = -1;
 
         // Handle precision
         storedPrecision = precision;
@@ -193,14 +242,25 @@ public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingC
     public void restoreState() {
         // Handle residuals
         sumOfIncrements = storedSumOfIncrements;
-        sumOfIncrementsKnown = true;
-
-        if (storedIncrements != null) {
-            System.arraycopy(storedIncrements, 0, increments[updatedLocation], 0, locationCount);
+        sumOfIncrementsKnown = storedSumOfIncrementsKnown;
+
+        if (savedValid) {
+            // put back the rows (and columns) in the reverse order they were changed so each
+            // increment ends up as it was when the state was stored
+            for (int k = savedCount - 1; k >= 0; k--) {
+                int i = savedLocations[k];
+                double[] saved = savedIncrements[k];
+                System.arraycopy(saved, 0, increments[i], 0, locationCount);
+                for (int j = 0; j < locationCount; j++) {
+                    increments[j][i] = saved[j];
+                }
+            }
             incrementsKnown = true;
         } else {
             incrementsKnown = false;
         }
+        clearSavedIncrements();
+        clearPendingLocations();
 
         // Handle locations
         double[][] tmp1 = storedLocations;
@@ -213,16 +273,25 @@ public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingC
 
     @Override
     public void acceptState() {
-        if (storedIncrements != null) {
-            for (int j = 0; j < locationCount; ++j) {
-                increments[j][updatedLocation] = increments[updatedLocation][j];
-            }
-        }
+        clearSavedIncrements();
     }
 
     @Override
-    public void getGradient(double[] location) {
-        throw new RuntimeException("Not yet implemented.");
+    public void getGradient(final double[] location) {
+        if (location.length != embeddingDimension * locationCount) {
+            throw new RuntimeException("Gradient is not the correct dimension");
+        }
+
+        final int tileCount = (locationCount + ROW_TILE_SIZE - 1) / ROW_TILE_SIZE;
+        forEachTile(tileCount, new TileCallable() {
+            public double execute(int tile) {
+                int end = Math.min(locationCount, (tile + 1) * ROW_TILE_SIZE);
+                for (int i = tile * ROW_TILE_SIZE; i < end; i++) {
+                    computeGradient(i, location, i * embeddingDimension);
+                }
+                return 0.0;
+            }
+        });
     }
 
     @Override
@@ -241,28 +310,21 @@ public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingC
         final double oneOverSd = Math.sqrt(precision);
         final double scale = 0.5 * precision;
 
-        // OLD
-        sumOfIncrements = 0.0;
-        for (int i = 0; i < locationCount; i++) {
-
-            for (int j = 0; j < locationCount; j++) {
-                double distance = calculateDistance(locations[i], locations[j]);
-                double residual = distance - observations[i][j];
-                double increment = residual * residual;
-                if (isLeftTruncated) {
-                    increment = scale * increment;
-                    if (i != j) {
-                        increment += computeTruncation(distance, oneOverSd);
-//                        increment += computeTruncation(Math.sqrt(residual * residual), precision, oneOverSd); // OLD .. believed incorrect
-                    }
+        // the increments are symmetric so each tile computes its pairs (i, j > i) and fills in both
+        sumOfIncrements = forEachTile(triangleTileStarts.length - 1, new TileCallable() {
+            public double execute(int tile) {
+                double sum = 0.0;
+                for (int i = triangleTileStarts[tile]; i < triangleTileStarts[tile + 1]; i++) {
+                    increments[i][i] = 0.0;
+                    sum += computeIncrements(i, i + 1, locationCount, oneOverSd, scale, true);
                 }
-                increments[i][j] = increment;
-//                increments[j][i] = increment; // Do not write transposed values
-                sumOfIncrements += increment;
+                return sum;
             }
-        }
+        });
 
-        sumOfIncrements /= 2;
+        clearPendingLocations();
+        // the rows saved since the state was stored are no longer enough to restore it
+        savedValid = false;
 
         incrementsKnown = true;
         sumOfIncrementsKnown = true;
@@ -273,32 +335,185 @@ public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingC
         final double oneOverSd = Math.sqrt(precision);
         final double scale = 0.5 * precision;
 
-        double delta = 0.0;
+        for (int k = 0; k < pendingCount; k++) {
+            final int i = pendingLocations[k];
+
+            if (savedValid && !isSaved[i]) {
+                if (savedCount < maxSavedCount) {
+                    if (savedIncrements[savedCount] == null) {
+                        savedIncrements[savedCount] = new double[locationCount];
+                    }
+                    System.arraycopy(increments[i], 0, savedIncrements[savedCount], 0, locationCount);
+                    savedLocations[savedCount] = i;
+                    isSaved[i] = true;
+                    savedCount++;
+                } else {
+                    savedValid = false;
+                }
+            }
+
+            final int tileCount = (locationCount + COLUMN_TILE_SIZE - 1) / COLUMN_TILE_SIZE;
+            sumOfIncrements += forEachTile(tileCount, new TileCallable() {
+                public double execute(int tile) {
+                    return computeIncrements(i, tile * COLUMN_TILE_SIZE,
+                            Math.min(locationCount, (tile + 1) * COLUMN_TILE_SIZE), oneOverSd, scale, false);
+                }
+            });
+        }
+
+        clearPendingLocations();
+    }
+
+    /**
+     * Computes the increments between location i and the locations from start to end, and writes
+     * them to both row i and column i.
+     *
+     * @param sum if true then return the sum of the increments, otherwise the change in it
+     */
+    private double computeIncrements(int i, int start, int end, double oneOverSd, double scale, boolean sum) {
+        final double[] rowObservations = observations[i];
+        final double[] rowIncrements = increments[i];
+        final double[] location = locations[i];
+
+        double total = 0.0;
+        for (int j = start; j < end; j++) {
+            if (j != i) {
+                double increment = 0.0;
+                if (!Double.isNaN(rowObservations[j])) {
+                    double distance = calculateDistance(location, locations[j]);
+                    double residual = distance - rowObservations[j];
+                    increment = residual * residual;
+                    if (isLeftTruncated) {
+                        increment = scale * increment;
+                        increment += computeTruncation(distance, oneOverSd);
+//                        increment += computeTruncation(Math.sqrt(residual * residual), precision, oneOverSd); // OLD .. believed incorrect
+                    }
+                }
+                total += (sum ? increment : increment - rowIncrements[j]);
+                rowIncrements[j] = increment;
+                increments[j][i] = increment;
+            }
+        }
+        return total;
+    }
 
-        final int i = updatedLocation;
+    /**
+     * Computes the gradient of the log likelihood with respect to location i.
+     */
+    private void computeGradient(int i, double[] gradient, int offset) {
+        final double oneOverSd = Math.sqrt(precision);
+        final double[] rowObservations = observations[i];
+        final double[] location = locations[i];
 
-        storedIncrements = new double[locationCount];
-        System.arraycopy(increments[i], 0, storedIncrements, 0, locationCount);
+        for (int d = 0; d < embeddingDimension; d++) {
+            gradient[offset + d] = 0.0;
+        }
 
         for (int j = 0; j < locationCount; j++) {
-            double distance = calculateDistance(locations[i], locations[j]);
-            double residual = distance - observations[i][j];
-            double increment = residual * residual;
-
-            if (isLeftTruncated) {
-                increment = scale * increment;
-                if (i != j) {
-                    increment += computeTruncation(distance, oneOverSd);
-//                    increment += computeTruncation(Math.sqrt(residual * residual), precision, oneOverSd); // OLD .. believed incorrect
+            if (j != i && !Double.isNaN(rowObservations[j])) {
+                double[] other = locations[j];
+                double distance = calculateDistance(location, other);
+                if (distance > 0.0) {
+                    double residual = distance - rowObservations[j];
+                    double derivative = precision * residual;
+                    if (isLeftTruncated) {
+                        double x = distance * oneOverSd;
+                        derivative += oneOverSd * Math.exp(NormalDistribution.logPdf(x, 0.0, 1.0) - NormalDistribution.standardCDF(x, true));
+                    }
+                    double factor = -derivative / distance;
+                    for (int d = 0; d < embeddingDimension; d++) {
+                        gradient[offset + d] += factor * (location[d] - other[d]);
+                    }
                 }
             }
+        }
+    }
 
-            delta += increment - increments[i][j];
-            increments[i][j] = increment;
-//            increments[j][i] = increment; // Do not write transposed values
+    private void clearPendingLocations() {
+        for (int k = 0; k < pendingCount; k++) {
+            isPending[pendingLocations[k]] = false;
         }
+        pendingCount = 0;
+    }
 
-        sumOfIncrements += delta;
+    private void clearSavedIncrements() {
+        for (int k = 0; k < savedCount; k++) {
+            isSaved[savedLocations[k]] = false;
+        }
+        savedCount = 0;
+        savedValid = true;
+    }
+
+    /**
+     * Splits the rows into tiles with about the same number of pairs (i, j > i).
+     */
+    private void setupTiles() {
+        int tileCount = Math.max(1, Math.min(TRIANGLE_TILE_COUNT, locationCount));
+        double pairsPerTile = (double) observationCount / tileCount;
+
+        List<Integer> starts = new ArrayList<Integer>();
+        starts.add(0);
+        long pairs = 0;
+        for (int i = 0; i < locationCount; i++) {
+            pairs += locationCount - 1 - i;
+            if (pairs >= pairsPerTile * starts.size() && starts.size() < tileCount && i + 1 < locationCount) {
+                starts.add(i + 1);
+            }
+        }
+        starts.add(locationCount);
+
+        triangleTileStarts = new int[starts.size()];
+        for (int k = 0; k < triangleTileStarts.length; k++) {
+            triangleTileStarts[k] = starts.get(k);
+        }
+    }
+
+    private interface TileCallable {
+        double execute(int tile);
+    }
+
+    /**
+     * Executes the tiles, on the thread pool if there is one, and returns the sum of their results
+     * added in tile order.
+     */
+    private double forEachTile(final int tileCount, final TileCallable callable) {
+        if (pool == null || tileCount == 1) {
+            double sum = 0.0;
+            for (int tile = 0; tile < tileCount; tile++) {
+                sum += callable.execute(tile);
+            }
+            return sum;
+        }
+
+        final double[] tileResults = new double[tileCount];
+        List<Callable<Object>> calls = new ArrayList<Callable<Object>>(threadCount);
+        for (int thread = 0; thread < Math.min(threadCount, tileCount); thread++) {
+            final int first = thread;
+            calls.add(new Callable<Object>() {
+                public Object call() {
+                    for (int tile = first; tile < tileCount; tile += threadCount) {
+                        tileResults[tile] = callable.execute(tile);
+                    }
+                    return null;
+                }
+            });
+        }
+
+        try {
+            for (Future<Object> future : pool.invokeAll(calls)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+
+        double sum = 0.0;
+        for (double result : tileResults) {
+            sum += result;
+        }
+        return sum;
     }
 
     private double calculateDistance(double[] X, double[] Y) {
@@ -314,6 +529,10 @@ public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingC
         return NormalDistribution.standardCDF(mean * oneOverSd, true); // Should be standardCDF(mean / sd, true);
     }
 
+    private int threadCount = 1;
+    private ExecutorService pool = null;
+    private int[] triangleTileStarts;
+
     private int embeddingDimension;
     private boolean isLeftTruncated = false;
     private int locationCount;
@@ -321,8 +540,6 @@ public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingC
     private double precision;
     private double storedPrecision;
 
-    private int updatedLocation = -1;
-
     private double[][] observations;
     private double[][] locations;
     private double[][] storedLocations;
@@ -330,9 +547,19 @@ public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingC
     private boolean incrementsKnown = false;
 
     private boolean sumOfIncrementsKnown = false;
+    private boolean storedSumOfIncrementsKnown = false;
     private double[][] increments;
 
-    private double[] storedIncrements;
+    private int[] pendingLocations;
+    private boolean[] isPending;
+    private int pendingCount;
+
+    private int maxSavedCount;
+    private int[] savedLocations;
+    private double[][] savedIncrements;
+    private boolean[] isSaved;
+    private int savedCount;
+    private boolean savedValid;
 
     private double sumOfIncrements;
     private double storedSumOfIncrements;
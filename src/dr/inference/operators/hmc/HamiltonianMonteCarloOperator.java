@@ -60,6 +60,7 @@ public class HamiltonianMonteCarloOperator extends AbstractAdaptableOperator
     private final Options runtimeOptions;
     protected final double[] mask;
     protected final Transform transform;
+    private final double[] gradientBuffer;
 
 //    public HamiltonianMonteCarloOperator(AdaptationMode mode, double weight,
 //                                         GradientWrtParameterProvider gradientProvider,
@@ -109,6 +110,7 @@ public HamiltonianMonteCarloOperator(AdaptationMode mode, double weight,
         this.parameter = parameter;
         this.mask = buildMask(maskParameter);
         this.transform = transform;
+        this.gradientBuffer = new double[gradientProvider.getDimension()];
 
         this.leapFrogEngine = constructLeapFrogEngine(transform);
     }
@@ -488,7 +490,7 @@ public HamiltonianMonteCarloOperator(AdaptationMode mode, double weight,
                 leapFrogEngine.getParameterLogJacobian();
 
         leapFrogEngine.updateMomentum(position, momentum.getBuffer(),
-                mask(gradientProvider.getGradientLogDensity(), mask), stepSize / 2);
+                getMaskedGradient(), stepSize / 2);
 
 
         int nStepsThisLeap = getNumberOfSteps();
@@ -505,7 +507,7 @@ public HamiltonianMonteCarloOperator(AdaptationMode mode, double weight,
 
                 try {
                     leapFrogEngine.updateMomentum(position, momentum.getBuffer(),
-                            mask(gradientProvider.getGradientLogDensity(), mask), stepSize);
+                            getMaskedGradient(), stepSize);
                 } catch (ArithmeticException e) {
                     throw new NumericInstabilityException();
                 }
@@ -513,7 +515,7 @@ public HamiltonianMonteCarloOperator(AdaptationMode mode, double weight,
         }
 
         leapFrogEngine.updateMomentum(position, momentum.getBuffer(),
-                mask(gradientProvider.getGradientLogDensity(), mask), stepSize / 2);
+                getMaskedGradient(), stepSize / 2);
 
         final double res = getKineticEnergy(momentum) +
                 leapFrogEngine.getParameterLogJacobian();
@@ -521,6 +523,12 @@ public HamiltonianMonteCarloOperator(AdaptationMode mode, double weight,
         return prop - res; //hasting ratio
     }
 
+    private double[] getMaskedGradient() {
+        // One buffer is reused for every step of every trajectory
+        gradientProvider.fillGradientLogDensity(gradientBuffer);
+        return mask(gradientBuffer, mask);
+    }
+
     @Override
     protected double getAdaptableParameterValue() {
         return Math.log(stepSize);
@@ -768,6 +776,9 @@ public HamiltonianMonteCarloOperator(AdaptationMode mode, double weight,
             final protected Transform transform;
             double[] unTransformedPosition;
 
+            private double[] unTransformedBuffer;
+            private double[] transformedGradient;
+
             WithTransform(Parameter parameter, Transform transform,
                           InstabilityHandler instabilityHandler,
                           MassPreconditioner preconditioning,
@@ -791,10 +802,14 @@ public HamiltonianMonteCarloOperator(AdaptationMode mode, double weight,
             public void updateMomentum(double[] position, double[] momentum, double[] gradient,
                                        double functionalStepSize) throws NumericInstabilityException {
 
-                gradient = transform.updateGradientLogDensity(gradient, unTransformedPosition,
+                // The gradient may belong to the caller, so it is transformed into a buffer of our own
+                if (transformedGradient == null || transformedGradient.length != unTransformedPosition.length) {
+                    transformedGradient = new double[unTransformedPosition.length];
+                }
+                transform.updateGradientLogDensity(gradient, transformedGradient, unTransformedPosition,
                         0, unTransformedPosition.length);
-                mask(gradient, mask);
-                super.updateMomentum(position, momentum, gradient, functionalStepSize);
+                mask(transformedGradient, mask);
+                super.updateMomentum(position, momentum, transformedGradient, functionalStepSize);
             }
 
             @Override
@@ -810,7 +825,11 @@ public HamiltonianMonteCarloOperator(AdaptationMode mode, double weight,
 
             @Override
             public void setParameter(double[] position) {
-                unTransformedPosition = transform.inverse(position, 0, position.length);
+                if (unTransformedBuffer == null || unTransformedBuffer.length != position.length) {
+                    unTransformedBuffer = new double[position.length];
+                }
+                transform.inverse(position, unTransformedBuffer, 0, position.length);
+                unTransformedPosition = unTransformedBuffer;
                 super.setParameter(unTransformedPosition);
             }
 
@@ -855,9 +874,15 @@ public HamiltonianMonteCarloOperator(AdaptationMode mode, double weight,
     }
 
     public void updateGradient(WrappedVector gradient) {
-        double[] buffer = gradientProvider.getGradientLogDensity();
-        for (int i = 0; i < buffer.length; i++) {
-            gradient.set(i, buffer[i]);
+        double[] buffer = gradient.getBuffer();
+        if (gradient.getOffset() == 0 && buffer.length == gradientBuffer.length) {
+            // NUTS passes in its own arrays, which can be filled directly
+            gradientProvider.fillGradientLogDensity(buffer);
+        } else {
+            gradientProvider.fillGradientLogDensity(gradientBuffer);
+            for (int i = 0; i < gradientBuffer.length; i++) {
+                gradient.set(i, gradientBuffer[i]);
+            }
         }
     }
 
@@ -27,6 +27,7 @@
 
 package dr.inference.operators.hmc;
 
+import dr.inference.hmc.GradientWrtParameterProvider;
 import dr.inference.hmc.ReversibleHMCProvider;
 import dr.inference.loggers.LogColumn;
 import dr.inference.loggers.Loggable;
@@ -36,6 +37,7 @@ import dr.inference.operators.SimpleMCMCOperator;
 import dr.math.MathUtils;
 import dr.math.matrixAlgebra.WrappedVector;
 
+import java.util.ArrayDeque;
 import java.util.Arrays;
 
 public class NoUTurnOperator extends SimpleMCMCOperator implements GibbsOperator, Loggable {
@@ -104,8 +106,12 @@ public class NoUTurnOperator extends SimpleMCMCOperator implements GibbsOperator
         final double initialJointDensity = hmcProvider.getJointProbability(initialMomentum);
         double logSliceU = Math.log(getUniform()) + initialJointDensity;
 
-        TreeState trajectoryTree = new TreeState(initialPosition, initialMomentum.getBuffer(),
-                hmcProvider.getGradientProvider().getGradientLogDensity(), 1, true);
+        GradientWrtParameterProvider gradientProvider = hmcProvider.getGradientProvider();
+        double[] initialGradient = getBuffer(gradientProvider.getDimension());
+        gradientProvider.fillGradientLogDensity(initialGradient);
+
+        TreeState trajectoryTree = new TreeState(initialPosition, copyOfBuffer(initialMomentum.getBuffer()),
+                initialGradient, 1, true);
 
         int height = 0;
 
@@ -125,6 +131,10 @@ public class NoUTurnOperator extends SimpleMCMCOperator implements GibbsOperator
             stepSizeInformation.update(m, trajectoryTree.cumAcceptProb, trajectoryTree.numAcceptProbStates);
             if (printStepsize) System.err.println("step size is " + stepSizeInformation.getStepSize());
         }
+
+        trajectoryTree.releaseEnd(1);
+        trajectoryTree.releaseEnd(-1);
+
         return endPosition;
     }
 
@@ -169,10 +179,10 @@ public class NoUTurnOperator extends SimpleMCMCOperator implements GibbsOperator
     private TreeState buildBaseCase(double[] inPosition, double[] inMomentum, double[] inGradient, int direction,
                                     double logSliceU, double stepSize, double initialJointDensity) {
         recordOneBaseCall();
-        // Make deep copy of position and momentum
+        // Make deep copy of position and momentum; the position may become the sample so it is not recycled
         WrappedVector position = new WrappedVector.Raw(Arrays.copyOf(inPosition, inPosition.length));
-        WrappedVector momentum = new WrappedVector.Raw(Arrays.copyOf(inMomentum, inMomentum.length));
-        WrappedVector gradient = new WrappedVector.Raw(Arrays.copyOf(inGradient, inGradient.length));
+        WrappedVector momentum = new WrappedVector.Raw(copyOfBuffer(inMomentum));
+        WrappedVector gradient = new WrappedVector.Raw(copyOfBuffer(inGradient));
 
         hmcProvider.setParameter(position.getBuffer());
 
@@ -273,36 +283,41 @@ public class NoUTurnOperator extends SimpleMCMCOperator implements GibbsOperator
                                                 double[] positionPlus, double[] positionMinus,
                                                 double[] momentumPlus, double[] momentumMinus) {
 
-        double[] positionDifference = subtractArray(positionPlus, positionMinus);
-
         return flagContinue &&
-                getDotProduct(positionDifference, momentumMinus) >= 0 &&
-                getDotProduct(positionDifference, momentumPlus) >= 0;
+                getDotProductOfDifference(positionPlus, positionMinus, momentumMinus) >= 0 &&
+                getDotProductOfDifference(positionPlus, positionMinus, momentumPlus) >= 0;
     }
 
-    private static double getDotProduct(double[] x, double[] y) {
+    private static double getDotProductOfDifference(double[] a, double[] b, double[] y) {
 
-        assert (x.length == y.length);
-        final int dim = x.length;
+        assert (a.length == b.length && a.length == y.length);
+        final int dim = a.length;
 
         double total = 0.0;
         for (int i = 0; i < dim; i++) {
-            total += x[i] * y[i];
+            total += (a[i] - b[i]) * y[i];
         }
         return total;
     }
 
-    private static double[] subtractArray(double[] a, double[] b) {
+    private double[] getBuffer(int length) {
+        double[] buffer = freeBuffers.poll();
+        if (buffer == null || buffer.length != length) {
+            buffer = new double[length];
+        }
+        return buffer;
+    }
 
-        assert (a.length == b.length);
-        final int dim = a.length;
+    private double[] copyOfBuffer(double[] source) {
+        double[] copy = getBuffer(source.length);
+        System.arraycopy(source, 0, copy, 0, source.length);
+        return copy;
+    }
 
-        double[] result = new double[dim];
-        for (int i = 0; i < dim; i++) {
-            result[i] = a[i] - b[i];
+    private void releaseBuffer(double[] buffer) {
+        if (freeBuffers.size() < MAX_FREE_BUFFERS) {
+            freeBuffers.push(buffer);
         }
-
-        return result;
     }
 
 
@@ -393,6 +408,10 @@ public class NoUTurnOperator extends SimpleMCMCOperator implements GibbsOperator
 
         private void mergeNextTree(TreeState nextTree, int direction) {
 
+            // The replaced end of this tree and the inner end of the next tree are no longer needed
+            releaseEnd(direction);
+            nextTree.releaseEnd(-direction);
+
             setPosition(direction, nextTree.getPosition(direction));
             setMomentum(direction, nextTree.getMomentum(direction));
             setGradient(direction, nextTree.getGradient(direction));
@@ -406,6 +425,15 @@ public class NoUTurnOperator extends SimpleMCMCOperator implements GibbsOperator
             numAcceptProbStates += nextTree.numAcceptProbStates;
         }
 
+        private void releaseEnd(int direction) {
+            // Both ends of a tree built from a single step share their arrays
+            double[] endMomentum = getMomentum(direction);
+            if (endMomentum != getMomentum(-direction)) {
+                releaseBuffer(endMomentum);
+                releaseBuffer(getGradient(direction));
+            }
+        }
+
         private void updateSample(TreeState nextTree) {
             double uniform = getUniform();
             if (nextTree.numNodes > 0
@@ -497,5 +525,9 @@ public class NoUTurnOperator extends SimpleMCMCOperator implements GibbsOperator
 
     final private boolean randomFlg = true;
     private int count;
+
+    // momenta and gradients are recycled between leapfrog steps
+    private final ArrayDeque<double[]> freeBuffers = new ArrayDeque<>();
+    private static final int MAX_FREE_BUFFERS = 256;
 }
 
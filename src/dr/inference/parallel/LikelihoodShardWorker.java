@@ -0,0 +1,227 @@
+/*
+ * LikelihoodShardWorker.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.parallel;
+
+import dr.inference.model.CompoundParameter;
+import dr.inference.model.Likelihood;
+import dr.inference.model.Model;
+import dr.inference.model.Parameter;
+import dr.inference.model.Variable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Evaluates part of a likelihood for a ShardedLikelihood in another JVM. The worker is started from its
+ * own XML, which holds only its partitions of the data and the parameters they depend on, and serves a
+ * single master connection until the master closes it.
+ *
+ * The worker mirrors the master's MCMC steps: it stores its model when the master starts a step that
+ * touches its parameters and accepts or restores it when the master does, so a rejected move costs it
+ * no recalculation.
+ */
+public class LikelihoodShardWorker implements Runnable {
+
+    public LikelihoodShardWorker(Likelihood likelihood, int port) throws IOException {
+        this.likelihood = likelihood;
+        this.serverSocket = new ServerSocket(port);
+
+        collectParameters(likelihood.getModel(), parameters,
+                Collections.newSetFromMap(new IdentityHashMap<Model, Boolean>()));
+    }
+
+    /**
+     * @return the port the worker is listening on, which is chosen by the system if 0 was given
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public void run() {
+        Logger.getLogger("dr.inference").info("Likelihood shard listening on port " + getPort());
+
+        try {
+            ShardTransport transport = new SocketShardTransport(serverSocket.accept());
+            serverSocket.close();
+            try {
+                serve(transport);
+            } finally {
+                transport.close();
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException("Likelihood shard on port " + getPort() + " failed: " + ioe.getMessage(), ioe);
+        }
+    }
+
+    /**
+     * Answers requests until the master closes the connection.
+     */
+    public void serve(ShardTransport transport) throws IOException {
+
+        final DataInputStream input = transport.getInputStream();
+        final DataOutputStream output = transport.getOutputStream();
+
+        final Parameter[] shared = readOpening(input, output);
+        final boolean[] changed = new boolean[shared.length];
+        final int[] changedIndex = new int[shared.length];
+
+        final Model model = likelihood.getModel();
+
+        int flags;
+        while ((flags = input.read()) >= 0) {
+
+            String error = null;
+            try {
+                if ((flags & ShardProtocol.FLAG_ACCEPT) != 0 && model != null) {
+                    model.acceptModelState();
+                }
+                if ((flags & ShardProtocol.FLAG_RESTORE) != 0 && model != null) {
+                    model.restoreModelState();
+                }
+                if ((flags & ShardProtocol.FLAG_STORE) != 0 && model != null) {
+                    model.storeModelState();
+                }
+                if ((flags & ShardProtocol.FLAG_DIRTY) != 0) {
+                    likelihood.makeDirty();
+                }
+            } catch (RuntimeException re) {
+                error = re.toString();
+            }
+
+            // the values are read in full whatever happens so the stream stays in step
+            final int changedCount = input.readInt();
+            for (int k = 0; k < changedCount; k++) {
+                final int index = input.readInt();
+                final Parameter parameter = shared[index];
+                final int count = input.readInt();
+
+                if (count == ShardProtocol.DENSE) {
+                    for (int i = 0; i < parameter.getDimension(); i++) {
+                        parameter.setParameterValueQuietly(i, input.readDouble());
+                    }
+                    changedIndex[index] = -1;
+                } else {
+                    int i = 0;
+                    for (int j = 0; j < count; j++) {
+                        i = input.readInt();
+                        parameter.setParameterValueQuietly(i, input.readDouble());
+                    }
+                    changedIndex[index] = (count == 1 ? i : -1);
+                }
+                changed[index] = true;
+            }
+
+            double logLikelihood = Double.NaN;
+            if (error == null) {
+                try {
+                    for (int index = 0; index < shared.length; index++) {
+                        if (changed[index]) {
+                            if (changedIndex[index] >= 0) {
+                                shared[index].fireParameterChangedEvent(changedIndex[index], Parameter.ChangeType.VALUE_CHANGED);
+                            } else {
+                                shared[index].fireParameterChangedEvent();
+                            }
+                            changed[index] = false;
+                        }
+                    }
+                    logLikelihood = likelihood.getLogLikelihood();
+                } catch (RuntimeException re) {
+                    error = re.toString();
+                }
+            }
+            Arrays.fill(changed, false);
+
+            if (error == null) {
+                output.writeByte(ShardProtocol.STATUS_OK);
+                output.writeDouble(logLikelihood);
+            } else {
+                output.writeByte(ShardProtocol.STATUS_ERROR);
+                output.writeUTF(error);
+            }
+            output.flush();
+        }
+    }
+
+    private Parameter[] readOpening(DataInputStream input, DataOutputStream output) throws IOException {
+
+        if (input.readInt() != ShardProtocol.MAGIC || input.readInt() != ShardProtocol.VERSION) {
+            throw new IOException("Not a likelihood shard master or a different version");
+        }
+
+        final int count = input.readInt();
+        final Parameter[] shared = new Parameter[count];
+
+        output.writeInt(ShardProtocol.MAGIC);
+        for (int i = 0; i < count; i++) {
+            final String id = input.readUTF();
+            input.readInt(); // the master checks the dimensions
+
+            shared[i] = parameters.get(id);
+            output.writeInt(shared[i] != null ? shared[i].getDimension() : -1);
+        }
+        output.flush();
+
+        return shared;
+    }
+
+    private static void collectParameters(Model model, Map<String, Parameter> parameters, Set<Model> visited) {
+        if (model == null || !visited.add(model)) {
+            return;
+        }
+
+        for (int i = 0; i < model.getVariableCount(); i++) {
+            Variable variable = model.getVariable(i);
+            if (variable instanceof Parameter) {
+                addParameter((Parameter) variable, parameters);
+            }
+        }
+        for (int i = 0; i < model.getModelCount(); i++) {
+            collectParameters(model.getModel(i), parameters, visited);
+        }
+    }
+
+    private static void addParameter(Parameter parameter, Map<String, Parameter> parameters) {
+        if (parameter.getId() != null && !parameters.containsKey(parameter.getId())) {
+            parameters.put(parameter.getId(), parameter);
+        }
+        if (parameter instanceof CompoundParameter) {
+            CompoundParameter compound = (CompoundParameter) parameter;
+            for (int i = 0; i < compound.getParameterCount(); i++) {
+                addParameter(compound.getParameter(i), parameters);
+            }
+        }
+    }
+
+    private final Likelihood likelihood;
+    private final ServerSocket serverSocket;
+    private final Map<String, Parameter> parameters = new HashMap<String, Parameter>();
+}
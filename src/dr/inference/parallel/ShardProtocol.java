@@ -0,0 +1,67 @@
+/*
+ * ShardProtocol.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.parallel;
+
+/**
+ * The messages between a ShardedLikelihood and a LikelihoodShardWorker, all in the big-endian form of
+ * DataOutputStream.
+ *
+ * The master opens with MAGIC, VERSION, the number of shared parameters and then the id (UTF) and
+ * dimension of each. The worker replies with MAGIC and, for each parameter, its dimension there or -1 if
+ * its likelihood doesn't depend on a parameter with that id.
+ *
+ * Each evaluation is then one request and one reply. The request is a byte of flags, the number of
+ * changed parameters and, for each, its index in the opening list and either DENSE followed by all
+ * the values or the number of changed values followed by (index, value) pairs. The flags finish the
+ * previous MCMC step (ACCEPT or RESTORE) and start a new one (STORE) before the values are set. The
+ * reply is STATUS_OK and the log likelihood or STATUS_ERROR and a message.
+ */
+final class ShardProtocol {
+
+    private ShardProtocol() { }
+
+    static final int MAGIC = 0x42534844; // "BSHD"
+    static final int VERSION = 1;
+
+    static final int FLAG_ACCEPT = 1;
+    static final int FLAG_RESTORE = 2;
+    static final int FLAG_STORE = 4;
+    static final int FLAG_DIRTY = 8;
+
+    static final int DENSE = -1;
+
+    static final int STATUS_OK = 0;
+    static final int STATUS_ERROR = 1;
+
+    /**
+     * A sparse update costs an int and a double per value and a dense one a double per element.
+     */
+    static boolean isDense(int changedCount, int dimension) {
+        return changedCount * 12L >= dimension * 8L;
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * ShardedLikelihood.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.parallel;
+
+import dr.inference.model.AbstractModelLikelihood;
+import dr.inference.model.Model;
+import dr.inference.model.Parameter;
+import dr.inference.model.Variable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A likelihood that is the sum of likelihoods evaluated by LikelihoodShardWorkers in other JVMs, usually
+ * one for each group of data partitions. Each worker has its own copy of the shared parameters, and only
+ * the values that have changed since it was last sent them are sent, to the workers that depend on them.
+ * The requests to all the workers are sent before any reply is read so the workers evaluate together.
+ *
+ * The workers follow the MCMC steps of this likelihood: the store, accept and restore of a step are
+ * passed on with the next request to each worker rather than in messages of their own, and a step that
+ * doesn't change a worker's parameters isn't sent to it at all. After a rejected move this likelihood
+ * goes back to the values stored here without asking the workers.
+ */
+public class ShardedLikelihood extends AbstractModelLikelihood {
+
+    public static final String SHARDED_LIKELIHOOD = "shardedLikelihood";
+
+    public ShardedLikelihood(List<ShardTransport> transports, List<Parameter> parameters) {
+        super(SHARDED_LIKELIHOOD);
+
+        this.parameters = parameters.toArray(new Parameter[parameters.size()]);
+        for (Parameter parameter : this.parameters) {
+            addVariable(parameter);
+        }
+
+        shards = new Shard[transports.size()];
+        try {
+            for (int i = 0; i < shards.length; i++) {
+                shards[i] = new Shard(transports.get(i), this.parameters);
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException("Unable to open likelihood shard: " + ioe.getMessage(), ioe);
+        }
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * @return the log likelihood of a shard when the likelihood was last evaluated
+     */
+    public double getShardLogLikelihood(int shard) {
+        return shards[shard].logLikelihood;
+    }
+
+    public void close() throws IOException {
+        for (Shard shard : shards) {
+            shard.transport.close();
+        }
+    }
+
+    // **************************************************************
+    // Likelihood IMPLEMENTATION
+    // **************************************************************
+
+    @Override
+    public Model getModel() {
+        return this;
+    }
+
+    @Override
+    public double getLogLikelihood() {
+        if (!likelihoodKnown) {
+            logLikelihood = calculateLogLikelihood();
+            likelihoodKnown = true;
+        }
+        return logLikelihood;
+    }
+
+    @Override
+    public void makeDirty() {
+        for (Shard shard : shards) {
+            shard.dirty = true;
+        }
+        likelihoodKnown = false;
+    }
+
+    private double calculateLogLikelihood() {
+        try {
+            boolean[] sent = new boolean[shards.length];
+            for (int i = 0; i < shards.length; i++) {
+                sent[i] = shards[i].sendRequest(parameters);
+            }
+            for (int i = 0; i < shards.length; i++) {
+                if (sent[i]) {
+                    shards[i].readReply();
+                }
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException("Lost connection to likelihood shard: " + ioe.getMessage(), ioe);
+        }
+
+        double logL = 0.0;
+        for (Shard shard : shards) {
+            logL += shard.logLikelihood;
+        }
+        return logL;
+    }
+
+    // **************************************************************
+    // Model IMPLEMENTATION
+    // **************************************************************
+
+    @Override
+    protected void handleModelChangedEvent(Model model, Object object, int index) {
+        likelihoodKnown = false;
+    }
+
+    @Override
+    protected void handleVariableChangedEvent(Variable variable, int index, Parameter.ChangeType type) {
+        likelihoodKnown = false;
+    }
+
+    @Override
+    protected void storeState() {
+        for (Shard shard : shards) {
+            shard.store();
+        }
+        storedLogLikelihood = logLikelihood;
+        storedLikelihoodKnown = likelihoodKnown;
+    }
+
+    @Override
+    protected void restoreState() {
+        for (Shard shard : shards) {
+            shard.restore();
+        }
+        logLikelihood = storedLogLikelihood;
+        likelihoodKnown = storedLikelihoodKnown;
+    }
+
+    @Override
+    protected void acceptState() {
+        for (Shard shard : shards) {
+            shard.accept();
+        }
+    }
+
+    /**
+     * The connection to one worker and the values it was last sent.
+     */
+    private static final class Shard {
+
+        Shard(ShardTransport transport, Parameter[] parameters) throws IOException {
+            this.transport = transport;
+            this.input = transport.getInputStream();
+            this.output = transport.getOutputStream();
+
+            output.writeInt(ShardProtocol.MAGIC);
+            output.writeInt(ShardProtocol.VERSION);
+            output.writeInt(parameters.length);
+            for (Parameter parameter : parameters) {
+                output.writeUTF(parameter.getId());
+                output.writeInt(parameter.getDimension());
+            }
+            output.flush();
+
+            if (input.readInt() != ShardProtocol.MAGIC) {
+                throw new IOException(transport.getName() + " is not a likelihood shard");
+            }
+
+            sent = new double[parameters.length][];
+            storedSent = new double[parameters.length][];
+            int maxDimension = 0;
+            for (int i = 0; i < parameters.length; i++) {
+                int dimension = input.readInt();
+                if (dimension >= 0) {
+                    if (dimension != parameters[i].getDimension()) {
+                        throw new RuntimeException("Parameter " + parameters[i].getId() + " has dimension " +
+                                dimension + " in likelihood shard " + transport.getName() + " but " +
+                                parameters[i].getDimension() + " here");
+                    }
+                    sent[i] = new double[dimension];
+                    storedSent[i] = new double[dimension];
+                    maxDimension = Math.max(maxDimension, dimension);
+                }
+            }
+            changedIndices = new int[maxDimension];
+        }
+
+        boolean sendRequest(Parameter[] parameters) throws IOException {
+            int changedCount = 0;
+            for (int i = 0; i < parameters.length; i++) {
+                if (sent[i] != null && (!synced || countChanges(parameters[i], sent[i]) > 0)) {
+                    changedCount++;
+                }
+            }
+            if (changedCount == 0 && !dirty) {
+                return false;
+            }
+
+            int flags = pendingOutcome;
+            if (storePending) {
+                flags |= ShardProtocol.FLAG_STORE;
+                workerStored = true;
+                storePending = false;
+            }
+            if (dirty) {
+                flags |= ShardProtocol.FLAG_DIRTY;
+            }
+            output.writeByte(flags);
+            output.writeInt(changedCount);
+
+            for (int i = 0; i < parameters.length; i++) {
+                if (sent[i] == null) {
+                    continue;
+                }
+                final Parameter parameter = parameters[i];
+                final double[] values = sent[i];
+
+                int count = (synced ? countChanges(parameter, values) : values.length);
+                if (count == 0) {
+                    continue;
+                }
+                output.writeInt(i);
+                if (ShardProtocol.isDense(count, values.length)) {
+                    output.writeInt(ShardProtocol.DENSE);
+                    for (int j = 0; j < values.length; j++) {
+                        values[j] = parameter.getParameterValue(j);
+                        output.writeDouble(values[j]);
+                    }
+                } else {
+                    output.writeInt(count);
+                    for (int k = 0; k < count; k++) {
+                        int j = changedIndices[k];
+                        values[j] = parameter.getParameterValue(j);
+                        output.writeInt(j);
+                        output.writeDouble(values[j]);
+                    }
+                }
+            }
+            output.flush();
+
+            pendingOutcome = 0;
+            dirty = false;
+            synced = true;
+            return true;
+        }
+
+        void readReply() throws IOException {
+            int status = input.readByte();
+            if (status == ShardProtocol.STATUS_OK) {
+                logLikelihood = input.readDouble();
+            } else {
+                throw new RuntimeException("Likelihood shard " + transport.getName() + " failed: " + input.readUTF());
+            }
+        }
+
+        /**
+         * Finds the elements of a parameter that differ from the values last sent and keeps their
+         * indices in changedIndices.
+         */
+        private int countChanges(Parameter parameter, double[] values) {
+            if (parameter.getDimension() != values.length) {
+                throw new RuntimeException("The dimension of parameter " + parameter.getId() +
+                        " can't change while it is shared with likelihood shards");
+            }
+            int count = 0;
+            for (int j = 0; j < values.length; j++) {
+                if (Double.doubleToRawLongBits(parameter.getParameterValue(j)) != Double.doubleToRawLongBits(values[j])) {
+                    changedIndices[count++] = j;
+                }
+            }
+            return count;
+        }
+
+        void store() {
+            for (int i = 0; i < sent.length; i++) {
+                if (sent[i] != null) {
+                    System.arraycopy(sent[i], 0, storedSent[i], 0, sent[i].length);
+                }
+            }
+            storedLogLikelihood = logLikelihood;
+            if (workerStored) {
+                pendingOutcome = ShardProtocol.FLAG_ACCEPT;
+                workerStored = false;
+            }
+            storePending = true;
+        }
+
+        void accept() {
+            if (workerStored) {
+                pendingOutcome = ShardProtocol.FLAG_ACCEPT;
+            }
+            workerStored = false;
+            storePending = false;
+        }
+
+        void restore() {
+            double[][] tmp = sent;
+            sent = storedSent;
+            storedSent = tmp;
+            logLikelihood = storedLogLikelihood;
+            if (workerStored) {
+                pendingOutcome = ShardProtocol.FLAG_RESTORE;
+            }
+            workerStored = false;
+            storePending = false;
+        }
+
+        final ShardTransport transport;
+        final DataInputStream input;
+        final DataOutputStream output;
+
+        // the values the worker has, or would have once its pending restore is sent
+        double[][] sent;
+        double[][] storedSent;
+        final int[] changedIndices;
+
+        double logLikelihood = 0.0;
+        double storedLogLikelihood = 0.0;
+
+        // whether the worker has stored its state for the current MCMC step
+        boolean workerStored = false;
+        // whether the worker should store its state before the next values are set
+        boolean storePending = false;
+        // how the worker should finish its previous step
+        int pendingOutcome = 0;
+        boolean dirty = false;
+        boolean synced = false;
+    }
+
+    private final Parameter[] parameters;
+    private final Shard[] shards;
+
+    private boolean likelihoodKnown = false;
+    private double logLikelihood;
+    private boolean storedLikelihoodKnown = false;
+    private double storedLogLikelihood;
+}
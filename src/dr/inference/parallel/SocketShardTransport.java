@@ -0,0 +1,91 @@
+/*
+ * SocketShardTransport.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.parallel;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.Socket;
+
+/**
+ * A ShardTransport over a TCP socket, for workers on the same host or elsewhere on a cluster.
+ */
+public class SocketShardTransport implements ShardTransport {
+
+    public SocketShardTransport(Socket socket) throws IOException {
+        this.socket = socket;
+        socket.setTcpNoDelay(true);
+        this.input = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+        this.output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+        this.name = socket.getInetAddress().getHostName() + ":" + socket.getPort();
+    }
+
+    /**
+     * Connects to a worker, waiting for up to timeoutMillis for it to start listening.
+     */
+    public static SocketShardTransport connect(String host, int port, long timeoutMillis) throws IOException {
+        final long giveUp = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            try {
+                return new SocketShardTransport(new Socket(host, port));
+            } catch (ConnectException ce) {
+                if (System.currentTimeMillis() > giveUp) {
+                    throw ce;
+                }
+                try {
+                    Thread.sleep(RETRY_MILLIS);
+                } catch (InterruptedException ie) {
+                    throw new InterruptedIOException("Interrupted while connecting to " + host + ":" + port);
+                }
+            }
+        }
+    }
+
+    public DataInputStream getInputStream() {
+        return input;
+    }
+
+    public DataOutputStream getOutputStream() {
+        return output;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long RETRY_MILLIS = 250;
+
+    private final Socket socket;
+    private final DataInputStream input;
+    private final DataOutputStream output;
+    private final String name;
+}
@@ -0,0 +1,56 @@
+/*
+ * CheckpointedChainListener.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.state;
+
+import dr.inference.markovchain.MarkovChainListener;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * A MarkovChainListener that keeps its own state about the run (e.g., running estimates over the
+ * samples so far) which should be saved with the chain's state and restored when a run is resumed.
+ * The checkpointer writes this alongside the state file, in a text file named by adding
+ * "." + getCheckpointName() to the name of the state file.
+ */
+public interface CheckpointedChainListener extends MarkovChainListener {
+
+    /**
+     * @return a name that is unique among the listeners of a chain
+     */
+    String getCheckpointName();
+
+    void writeCheckpoint(PrintStream out);
+
+    /**
+     * Restores the state written by writeCheckpoint. If it doesn't match this listener then it
+     * should throw a RuntimeException.
+     */
+    void readCheckpoint(BufferedReader in) throws IOException;
+}
@@ -27,6 +27,7 @@
 
 package dr.inference.state;
 
+import dr.inference.loggers.AsyncLogWriter;
 import dr.inference.markovchain.MarkovChain;
 import dr.inference.markovchain.MarkovChainListener;
 import dr.inference.model.Model;
@@ -53,6 +54,9 @@ public class StateSaverChainListener implements MarkovChainListener {
             // This shouldn't be necessary but if it is then it may be masking a bug
 //            markovChain.getLikelihood().makeDirty();
 
+            // the logs on disk should be complete up to the saved state
+            AsyncLogWriter.drainAll();
+
             double lnL = markovChain.getCurrentScore();
 
             stateSaver.saveState(markovChain, state, lnL);
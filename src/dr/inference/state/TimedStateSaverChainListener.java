@@ -27,6 +27,7 @@
 
 package dr.inference.state;
 
+import dr.inference.loggers.AsyncLogWriter;
 import dr.inference.markovchain.MarkovChain;
 import dr.inference.model.Model;
 
@@ -42,6 +43,9 @@ public class TimedStateSaverChainListener extends StateSaverChainListener {
     @Override
     public void currentState(long state, MarkovChain markovChain, Model currentModel) {
         if (getTimeInSeconds() >= endTime) {
+            // the logs on disk should be complete up to the saved state
+            AsyncLogWriter.drainAll();
+
             double lnL = markovChain.getCurrentScore();
             stateSaver.saveState(markovChain, state, lnL);
             markovChain.pleaseStop();
@@ -27,7 +27,12 @@
 
 package dr.inference.trace;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * @author Alexei Drummond
@@ -54,7 +59,7 @@ public abstract class AbstractTraceList extends FilteredTraceList {
         int start = (int) (getBurnIn() / getStepSize());
 
         Trace trace = getTrace(index);
-        List<Double> values = trace.getValues(start, trace.getValueCount(), super.filtered);
+        double[] values = trace.getValueArray(start, trace.getValueCount(), super.filtered);
 
         if (trace.getTraceType() == TraceType.CATEGORICAL) {
             trace.setTraceStatistics(new TraceCorrelation(values, trace.getCategoryLabelMap(), trace.getCategoryOrder(), getStepSize(), trace.isConstant()));
@@ -65,6 +70,44 @@ public abstract class AbstractTraceList extends FilteredTraceList {
 //        System.out.println("index = " + index + " :  " + trace.getName() + "     " + trace.getTraceType());
     }
 
+    /**
+     * Analyses all the traces, several at once if there is more than one processor.
+     */
+    public void analyseTraces() {
+        final int threadCount = Math.min(Runtime.getRuntime().availableProcessors(), getTraceCount());
+        if (threadCount <= 1) {
+            for (int i = 0; i < getTraceCount(); i++) {
+                analyseTrace(i);
+            }
+            return;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < getTraceCount(); i++) {
+                final int index = i;
+                futures.add(pool.submit(new Runnable() {
+                    public void run() {
+                        analyseTrace(index);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
 //    abstract Trace getTrace(int index);
 
 //    private TraceCorrelation[] traceStatistics = null;
@@ -0,0 +1,189 @@
+/*
+ * BatchMeansESS.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.trace;
+
+/**
+ * A streaming estimate of the effective sample size of a trace by non-overlapping batch means, in
+ * constant memory. The trace is divided into batches whose means are kept; when 2k batches are full,
+ * adjacent pairs are merged into k batches of twice the length, so between k and 2k batch means are
+ * held however long the trace gets. The ESS is n * s^2 / (b * var(batch means)) where s^2 is the
+ * variance of the samples and b the batch length.
+ *
+ * The estimate is only good once the batches are much longer than the autocorrelation time of the
+ * trace, so it will overestimate the ESS early in a run of a slowly mixing chain.
+ */
+public class BatchMeansESS {
+
+    public static final int DEFAULT_BATCH_COUNT = 64;
+
+    // the batches should be this many times longer than the autocorrelation time for the estimate to be trusted
+    private static final double MINIMUM_BATCH_TIMES = 5.0;
+
+    public BatchMeansESS() {
+        this(DEFAULT_BATCH_COUNT);
+    }
+
+    /**
+     * @param minimumBatchCount the minimum number of batches the estimate is made from (k).
+     */
+    public BatchMeansESS(int minimumBatchCount) {
+        if (minimumBatchCount < 2) {
+            throw new IllegalArgumentException("At least two batches are needed");
+        }
+        this.minimumBatchCount = minimumBatchCount;
+        batchMeans = new double[2 * minimumBatchCount];
+    }
+
+    public void add(double value) {
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        sumOfSquares += delta * (value - mean);
+
+        batchSum += value;
+        batchFill++;
+        if (batchFill == batchLength) {
+            batchMeans[batchCount] = batchSum / batchLength;
+            batchCount++;
+            batchSum = 0.0;
+            batchFill = 0;
+
+            if (batchCount == batchMeans.length) {
+                for (int i = 0; i < minimumBatchCount; i++) {
+                    batchMeans[i] = 0.5 * (batchMeans[2 * i] + batchMeans[2 * i + 1]);
+                }
+                batchCount = minimumBatchCount;
+                batchLength *= 2;
+            }
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public double getVariance() {
+        return count > 1 ? sumOfSquares / (count - 1) : 0.0;
+    }
+
+    public long getBatchLength() {
+        return batchLength;
+    }
+
+    /**
+     * @return the effective sample size, or 0 if there are fewer samples than the minimum number
+     * of batches. A constant trace has no Monte Carlo error, so its ESS is the number of samples.
+     */
+    public double getESS() {
+        if (batchCount < minimumBatchCount) {
+            return 0.0;
+        }
+
+        double batchMean = 0.0;
+        for (int i = 0; i < batchCount; i++) {
+            batchMean += batchMeans[i];
+        }
+        batchMean /= batchCount;
+
+        double batchVariance = 0.0;
+        for (int i = 0; i < batchCount; i++) {
+            double d = batchMeans[i] - batchMean;
+            batchVariance += d * d;
+        }
+        batchVariance /= batchCount - 1;
+
+        double variance = getVariance();
+        if (batchVariance <= 0.0 || variance <= 0.0) {
+            return count;
+        }
+        return count * variance / (batchLength * batchVariance);
+    }
+
+    /**
+     * A cautious estimate for deciding whether a run is long enough. Until the batches are several
+     * times longer than the autocorrelation time (as estimated by count / ESS) this is 0, as the
+     * batch means are then too correlated and the ESS is overestimated. After that it is the ESS
+     * divided by one plus two relative standard errors of the batch means variance, sqrt(2 / k),
+     * so that a noisy estimate that happens to rise above a target doesn't stop a run too soon.
+     * @return the cautious effective sample size
+     */
+    public double getCautiousESS() {
+        double ess = getESS();
+        if (ess * batchLength < MINIMUM_BATCH_TIMES * count) {
+            return 0.0;
+        }
+        return ess / (1.0 + 2.0 * Math.sqrt(2.0 / minimumBatchCount));
+    }
+
+    /**
+     * @return the state of the estimator, so that it can be saved and later restored by setState.
+     */
+    public double[] getState() {
+        double[] state = new double[7 + batchCount];
+        state[0] = count;
+        state[1] = mean;
+        state[2] = sumOfSquares;
+        state[3] = batchSum;
+        state[4] = batchFill;
+        state[5] = batchLength;
+        state[6] = batchCount;
+        System.arraycopy(batchMeans, 0, state, 7, batchCount);
+        return state;
+    }
+
+    public void setState(double[] state) {
+        int savedBatchCount = (int) state[6];
+        if (savedBatchCount >= batchMeans.length || state.length != 7 + savedBatchCount) {
+            throw new IllegalArgumentException("The saved state is not from an estimator with " + minimumBatchCount + " batches");
+        }
+        count = (long) state[0];
+        mean = state[1];
+        sumOfSquares = state[2];
+        batchSum = state[3];
+        batchFill = (long) state[4];
+        batchLength = (long) state[5];
+        batchCount = savedBatchCount;
+        System.arraycopy(state, 7, batchMeans, 0, batchCount);
+    }
+
+    private final int minimumBatchCount;
+    private final double[] batchMeans;
+
+    private long count = 0;
+    private double mean = 0.0;
+    private double sumOfSquares = 0.0;
+
+    private double batchSum = 0.0;
+    private long batchFill = 0;
+    private long batchLength = 1;
+    private int batchCount = 0;
+}
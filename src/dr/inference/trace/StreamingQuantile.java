@@ -0,0 +1,166 @@
+/*
+ * StreamingQuantile.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.trace;
+
+import java.util.Arrays;
+
+/**
+ * A running estimate of a quantile of a trace in constant memory, using the P-squared algorithm of
+ * Jain and Chlamtac (1985, Communications of the ACM 28:1076-1085). Five markers are kept at the
+ * minimum, the quantile, the maximum and half way between; as each value arrives the markers are
+ * moved towards their desired positions and their heights adjusted by piecewise parabolic
+ * interpolation.
+ */
+public class StreamingQuantile {
+
+    public StreamingQuantile(double probability) {
+        if (!(probability > 0.0 && probability < 1.0)) {
+            throw new IllegalArgumentException("The probability should be between 0 and 1");
+        }
+        this.probability = probability;
+
+        increments = new double[]{0.0, probability / 2, probability, (1 + probability) / 2, 1.0};
+    }
+
+    public double getProbability() {
+        return probability;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void add(double value) {
+        if (count < MARKER_COUNT) {
+            heights[(int) count] = value;
+            count++;
+            if (count == MARKER_COUNT) {
+                Arrays.sort(heights);
+                for (int i = 0; i < MARKER_COUNT; i++) {
+                    positions[i] = i + 1;
+                    desiredPositions[i] = 1 + 4 * increments[i];
+                }
+            }
+            return;
+        }
+        count++;
+
+        // find the cell the value falls into, extending the extremes if needed
+        int cell;
+        if (value < heights[0]) {
+            heights[0] = value;
+            cell = 0;
+        } else if (value >= heights[MARKER_COUNT - 1]) {
+            heights[MARKER_COUNT - 1] = value;
+            cell = MARKER_COUNT - 2;
+        } else {
+            cell = 0;
+            while (value >= heights[cell + 1]) {
+                cell++;
+            }
+        }
+
+        for (int i = cell + 1; i < MARKER_COUNT; i++) {
+            positions[i] += 1.0;
+        }
+        for (int i = 0; i < MARKER_COUNT; i++) {
+            desiredPositions[i] += increments[i];
+        }
+
+        // adjust the heights of the middle markers if they are more than one position out
+        for (int i = 1; i < MARKER_COUNT - 1; i++) {
+            double d = desiredPositions[i] - positions[i];
+            if ((d >= 1.0 && positions[i + 1] - positions[i] > 1.0) ||
+                    (d <= -1.0 && positions[i - 1] - positions[i] < -1.0)) {
+                int step = d > 0 ? 1 : -1;
+                double height = getParabolicHeight(i, step);
+                if (heights[i - 1] < height && height < heights[i + 1]) {
+                    heights[i] = height;
+                } else {
+                    heights[i] += step * (heights[i + step] - heights[i]) / (positions[i + step] - positions[i]);
+                }
+                positions[i] += step;
+            }
+        }
+    }
+
+    private double getParabolicHeight(int i, int step) {
+        return heights[i] + step / (positions[i + 1] - positions[i - 1]) *
+                ((positions[i] - positions[i - 1] + step) * (heights[i + 1] - heights[i]) / (positions[i + 1] - positions[i]) +
+                        (positions[i + 1] - positions[i] - step) * (heights[i] - heights[i - 1]) / (positions[i] - positions[i - 1]));
+    }
+
+    /**
+     * @return the estimate of the quantile, or NaN if no values have been added. Until five values have
+     * been added this is the exact sample quantile.
+     */
+    public double getQuantile() {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (count < MARKER_COUNT) {
+            double[] values = Arrays.copyOf(heights, (int) count);
+            Arrays.sort(values);
+            return values[(int) Math.min(count - 1, Math.floor(probability * count))];
+        }
+        return heights[2];
+    }
+
+    /**
+     * @return the state of the estimator, so that it can be saved and later restored by setState.
+     */
+    public double[] getState() {
+        double[] state = new double[1 + 3 * MARKER_COUNT];
+        state[0] = count;
+        System.arraycopy(heights, 0, state, 1, MARKER_COUNT);
+        System.arraycopy(positions, 0, state, 1 + MARKER_COUNT, MARKER_COUNT);
+        System.arraycopy(desiredPositions, 0, state, 1 + 2 * MARKER_COUNT, MARKER_COUNT);
+        return state;
+    }
+
+    public void setState(double[] state) {
+        if (state.length != 1 + 3 * MARKER_COUNT) {
+            throw new IllegalArgumentException("The saved state is not from a quantile estimator");
+        }
+        count = (long) state[0];
+        System.arraycopy(state, 1, heights, 0, MARKER_COUNT);
+        System.arraycopy(state, 1 + MARKER_COUNT, positions, 0, MARKER_COUNT);
+        System.arraycopy(state, 1 + 2 * MARKER_COUNT, desiredPositions, 0, MARKER_COUNT);
+    }
+
+    private static final int MARKER_COUNT = 5;
+
+    private final double probability;
+    private final double[] increments;
+
+    private final double[] heights = new double[MARKER_COUNT];
+    private final double[] positions = new double[MARKER_COUNT];
+    private final double[] desiredPositions = new double[MARKER_COUNT];
+
+    private long count = 0;
+}
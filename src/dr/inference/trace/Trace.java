@@ -47,8 +47,15 @@ public class Trace {
 
     private static final int MAX_UNIQUE_VALUES = 100; // the maximum allowed number of unique values
 
+    // values are stored in primitive chunks so that long traces neither box each value nor need a
+    // single contiguous array that is copied as it grows
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
     private TraceType traceType = TraceType.REAL;
-    private List<Double> values = new ArrayList<Double>();
+    private double[][] chunks = new double[0][];
+    private int valueCount = 0;
     private String name;
 
     private boolean isConstant = true;
@@ -73,10 +80,10 @@ public class Trace {
     /**
      * @param value the valued to be added
      */
-    public void add(Double value) {
+    public void add(double value) {
         if (uniqueValues.size() < MAX_UNIQUE_VALUES) {
             // unique values are treated as integers
-            uniqueValues.add(value.intValue());
+            uniqueValues.add((int) value);
         }
 
         // check if the trace is still constant
@@ -86,7 +93,26 @@ public class Trace {
             constantValue = value;
         }
 
-        values.add(value);
+        addValue(value);
+    }
+
+    /**
+     * @param value the valued to be added
+     */
+    public void add(Double value) {
+        add(value.doubleValue());
+    }
+
+    private void addValue(double value) {
+        final int chunk = valueCount >> CHUNK_BITS;
+        if (chunk == chunks.length) {
+            chunks = Arrays.copyOf(chunks, Math.max(4, chunks.length * 2));
+        }
+        if (chunks[chunk] == null) {
+            chunks[chunk] = new double[CHUNK_SIZE];
+        }
+        chunks[chunk][valueCount & CHUNK_MASK] = value;
+        valueCount++;
     }
 
     /**
@@ -116,7 +142,7 @@ public class Trace {
             constantValue = d;
         }
 
-        values.add(d);
+        addValue(d);
     }
 
     /**
@@ -203,7 +229,7 @@ public class Trace {
 
 
     public int getValueCount() {
-        return values.size();
+        return valueCount;
     }
 
     public int getUniqueValueCount() {
@@ -211,11 +237,14 @@ public class Trace {
     }
 
     public double getValue(int index) {
-        return values.get(index);
+        if (index < 0 || index >= valueCount) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + valueCount);
+        }
+        return chunks[index >> CHUNK_BITS][index & CHUNK_MASK];
     }
 
     public int getCategory(int index) {
-        return values.get(index).intValue();
+        return (int) getValue(index);
     }
 
     public String getCategoryLabel(int index) {
@@ -232,9 +261,10 @@ public class Trace {
 
         if (getTraceType().isNumber()) {
 
-            Double min = Double.MAX_VALUE;
-            Double max = Double.MIN_VALUE;
-            for (Double value : values) {
+            double min = Double.MAX_VALUE;
+            double max = Double.MIN_VALUE;
+            for (int i = 0; i < valueCount; i++) {
+                final double value = getValue(i);
                 if ( value < min) {
                     min = value;
                 } else if (value > max) {
@@ -263,18 +293,85 @@ public class Trace {
         }
 
         if (filtered == null || filtered.length < 1) {
-            return values.subList(fromIndex, toIndex);
+            return new ValueList(this, fromIndex, toIndex);
+        } else {
+            final double[] values = getValueArray(fromIndex, toIndex, filtered);
+            return new AbstractList<Double>() {
+                public Double get(int index) {
+                    return values[index];
+                }
+
+                public int size() {
+                    return values.length;
+                }
+            };
+        }
+    }
+
+    /**
+     * @param fromIndex low endpoint (inclusive) of the values.
+     * @param toIndex   high endpoint (exclusive) of the values.
+     * @param filtered  the values that are filtered out (may be null)
+     * @return a copy of the values as primitives
+     */
+    public double[] getValueArray(int fromIndex, int toIndex, boolean[] filtered) {
+        if (toIndex > getValueCount() || fromIndex > toIndex) {
+            throw new RuntimeException("Invalid index : fromIndex = " + fromIndex + "; toIndex = " + toIndex
+                    + "; List size = " + getValueCount() + "; in Trace " + name);
+        }
+
+        if (filtered == null || filtered.length < 1) {
+            double[] values = new double[toIndex - fromIndex];
+            int i = fromIndex;
+            while (i < toIndex) {
+                final int offset = i & CHUNK_MASK;
+                final int length = Math.min(CHUNK_SIZE - offset, toIndex - i);
+                System.arraycopy(chunks[i >> CHUNK_BITS], offset, values, i - fromIndex, length);
+                i += length;
+            }
+            return values;
         } else {
-            List<Double> valuesList = new ArrayList<Double>();
+            int count = 0;
             for (int i = fromIndex; i < toIndex; i++) {
-                if (!filtered[i])
-                    valuesList.add(values.get(i));
+                if (!filtered[i]) count++;
             }
-            if (valuesList.size() < 1)
+            if (count < 1)
                 throw new RuntimeException("There is no value left after all filters are applied !");
 
-            return valuesList;
+            double[] values = new double[count];
+            count = 0;
+            for (int i = fromIndex; i < toIndex; i++) {
+                if (!filtered[i])
+                    values[count++] = getValue(i);
+            }
+            return values;
+        }
+    }
+
+    /**
+     * A read-only view of a range of the values.
+     */
+    private static class ValueList extends AbstractList<Double> implements RandomAccess {
+        ValueList(Trace trace, int fromIndex, int toIndex) {
+            this.trace = trace;
+            this.fromIndex = fromIndex;
+            this.size = toIndex - fromIndex;
         }
+
+        public Double get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return trace.getValue(fromIndex + index);
+        }
+
+        public int size() {
+            return size;
+        }
+
+        private final Trace trace;
+        private final int fromIndex;
+        private final int size;
     }
 
     public String getName() {
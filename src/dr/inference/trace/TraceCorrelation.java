@@ -27,6 +27,8 @@
 
 package dr.inference.trace;
 
+import dr.math.FastFourierTransform;
+
 import java.util.List;
 import java.util.Map;
 
@@ -46,6 +48,14 @@ public class TraceCorrelation extends TraceDistribution {
     }
 
     public TraceCorrelation(List<Double> values, TraceType traceType, long stepSize, boolean isConstant) {
+        this(Trace.toArray(values), traceType, stepSize, isConstant);
+    }
+
+    public TraceCorrelation(List<Double> values, Map<Integer, String> categoryLabelMap, List<Integer> categoryOrder, long stepSize, boolean isConstant) {
+        this(Trace.toArray(values), categoryLabelMap, categoryOrder, stepSize, isConstant);
+    }
+
+    public TraceCorrelation(double[] values, TraceType traceType, long stepSize, boolean isConstant) {
         super(values, traceType, isConstant);
         this.stepSize = stepSize;
 
@@ -54,7 +64,7 @@ public class TraceCorrelation extends TraceDistribution {
         }
     }
 
-    public TraceCorrelation(List<Double> values, Map<Integer, String> categoryLabelMap, List<Integer> categoryOrder, long stepSize, boolean isConstant) {
+    public TraceCorrelation(double[] values, Map<Integer, String> categoryLabelMap, List<Integer> categoryOrder, long stepSize, boolean isConstant) {
         super(values, categoryLabelMap, categoryOrder, isConstant);
 
         this.stepSize = stepSize;
@@ -88,17 +98,17 @@ public class TraceCorrelation extends TraceDistribution {
 
     private static final int MAX_LAG = 2000;
 
-    private void analyseCorrelation(List<Double> values, long stepSize) {
+    // the autocovariances of the first lags are summed directly as a well mixed chain stops after a few;
+    // if it doesn't the rest are found from the power spectrum in O(n log n)
+    private static final int DIRECT_LAGS = 64;
+
+    private void analyseCorrelation(double[] values, long stepSize) {
 //        this.values = values; // move to TraceDistribution(T[] values)
 
         if (stepSize > 0) {
             if (getTraceType().isNumber()) {
                 if (!isConstant()) {
-                    double[] doubleValues = new double[values.size()];
-                    for (int i = 0; i < values.size(); i++) {
-                        doubleValues[i] = values.get(i);
-                    }
-                    analyseCorrelationNumeric(doubleValues, stepSize);
+                    analyseCorrelationNumeric(values, stepSize);
                 } else {
                     stdErrorOfMean = 0.0;
                     ACT = Double.NaN;
@@ -137,12 +147,19 @@ public class TraceCorrelation extends TraceDistribution {
         //double assVarCor = 1.0;
         //double del1, del2;
 
+        final double[] deltas = new double[samples];
+        for (int j = 0; j < samples; j++) {
+            deltas[j] = values[j] - mean;
+        }
+
         for (int lag = 0; lag < maxLag; lag++) {
-            for (int j = 0; j < samples - lag; j++) {
-                final double del1 = values[j] - mean;
-                final double del2 = values[j + lag] - mean;
-                gammaStat[lag] += (del1 * del2);
-                //varGammaStat[lag] += (del1*del1*del2*del2);
+            if (lag < DIRECT_LAGS) {
+                for (int j = 0; j < samples - lag; j++) {
+                    gammaStat[lag] += (deltas[j] * deltas[j + lag]);
+                    //varGammaStat[lag] += (del1*del1*del2*del2);
+                }
+            } else if (lag == DIRECT_LAGS) {
+                getLaggedProducts(deltas, gammaStat, lag, maxLag);
             }
 
             gammaStat[lag] /= ((double) (samples - lag));
@@ -190,4 +207,33 @@ public class TraceCorrelation extends TraceDistribution {
 //        minEqualToMax = true;
     }
 
+    /**
+     * Sets sums[lag] to the sum of x[j] * x[j + lag] for lags from fromLag to toLag (exclusive) using
+     * the FFT of x padded with zeros so the products don't wrap around.
+     */
+    private static void getLaggedProducts(double[] x, double[] sums, int fromLag, int toLag) {
+        int length = 1;
+        while (length < x.length + toLag) {
+            length <<= 1;
+        }
+
+        final double[] data = new double[2 * length];
+        for (int j = 0; j < x.length; j++) {
+            data[2 * j] = x[j];
+        }
+
+        FastFourierTransform.fft(data, length, false);
+        for (int k = 0; k < length; k++) {
+            final double re = data[2 * k];
+            final double im = data[2 * k + 1];
+            data[2 * k] = re * re + im * im;
+            data[2 * k + 1] = 0.0;
+        }
+        FastFourierTransform.fft(data, length, true);
+
+        for (int lag = fromLag; lag < toLag; lag++) {
+            sums[lag] = data[2 * lag] / length;
+        }
+    }
+
 }
\ No newline at end of file
@@ -30,7 +30,6 @@ package dr.inference.trace;
 import dr.math.MachineAccuracy;
 import dr.stats.DiscreteStatistics;
 import dr.stats.FrequencyCounter;
-import dr.util.HeapSort;
 
 import java.util.*;
 
@@ -55,6 +54,14 @@ public class TraceDistribution {
     }
 
     public TraceDistribution(List<Double> values, TraceType traceType, boolean isConstant) {
+        this(Trace.toArray(values), traceType, isConstant);
+    }
+
+    public TraceDistribution(List<Double> values, Map<Integer, String> categoryLabelMap, List<Integer> categoryOrder, boolean isConstant) {
+        this(Trace.toArray(values), categoryLabelMap, categoryOrder, isConstant);
+    }
+
+    public TraceDistribution(double[] values, TraceType traceType, boolean isConstant) {
         this.traceType = traceType;
         this.isConstant = isConstant;
 
@@ -63,7 +70,7 @@ public class TraceDistribution {
         initStatistics(values, 0.95);
     }
 
-    public TraceDistribution(List<Double> values, Map<Integer, String> categoryLabelMap, List<Integer> categoryOrder, boolean isConstant) {
+    public TraceDistribution(double[] values, Map<Integer, String> categoryLabelMap, List<Integer> categoryOrder, boolean isConstant) {
         this.traceType = TraceType.CATEGORICAL;
         this.categoryLabelMap = categoryLabelMap;
         this.categoryOrder = categoryOrder;
@@ -71,8 +78,8 @@ public class TraceDistribution {
         initStatistics(values, 0.95);
     }
 
-    private void initStatistics(List<Double> values, double proportion) {
-        if (values.size() < 1) throw new RuntimeException("There is no value sent to statistics calculation !");
+    private void initStatistics(double[] values, double proportion) {
+        if (values.length < 1) throw new RuntimeException("There is no value sent to statistics calculation !");
 
         if (traceType.isNumber()) {
             analyseDistributionNumeric(values, proportion);
@@ -174,14 +181,9 @@ public class TraceDistribution {
 
     /**
      * The major method to analyse traces in numeric values including Double, Integer
-     * @param valueList the values to analyze
+     * @param values the values to analyze
      */
-    private void analyseDistributionNumeric(List<Double> valueList, double proportion) {
-        double[] values = new double[valueList.size()];
-        for (int i = 0; i < valueList.size(); i++) {
-            values[i] = valueList.get(i);
-        }
-
+    private void analyseDistributionNumeric(double[] values, double proportion) {
         size = values.length;
 
         if (!isConstant) {
@@ -214,32 +216,28 @@ public class TraceDistribution {
             }
         }
 
-        int[] indices = new int[values.length];
-        HeapSort.sort(values, indices);
-        median = DiscreteStatistics.quantile(0.5, values, indices);
-        cpdLower = DiscreteStatistics.quantile(0.025, values, indices);
-        cpdUpper = DiscreteStatistics.quantile(0.975, values, indices);
-        q1 = DiscreteStatistics.quantile(0.25, values, indices);
-        q3 = DiscreteStatistics.quantile(0.75, values, indices);
-        calculateHPDInterval(proportion, values, indices);
+        // the values are sorted once, in a copy, for the quantiles and HPD intervals
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        median = DiscreteStatistics.quantileOfSorted(0.5, sorted);
+        cpdLower = DiscreteStatistics.quantileOfSorted(0.025, sorted);
+        cpdUpper = DiscreteStatistics.quantileOfSorted(0.975, sorted);
+        q1 = DiscreteStatistics.quantileOfSorted(0.25, sorted);
+        q3 = DiscreteStatistics.quantileOfSorted(0.75, sorted);
+        calculateHPDInterval(proportion, sorted);
 //        ESS = values.length; // move to TraceCorrelation
-        calculateHPDIntervalCustom(0.5, values, indices);
+        calculateHPDIntervalCustom(0.5, sorted);
 
     }
 
-    /**
-     * @param proportion the proportion of probability mass included within interval.
-     * @param array      the data array
-     * @param indices    the indices of the ranks of the values (sort order)
-     */
-    private void calculateHPDInterval(double proportion, double[] array, int[] indices) {
-        final double[] hpd = DiscreteStatistics.HPDInterval(proportion, array, indices);
+    private void calculateHPDInterval(double proportion, double[] sorted) {
+        final double[] hpd = DiscreteStatistics.HPDIntervalOfSorted(proportion, sorted);
         hpdLower = hpd[0];
         hpdUpper = hpd[1];
     }
 
-    private void calculateHPDIntervalCustom(double proportion, double[] array, int[] indices) {
-        final double[] hpd = DiscreteStatistics.HPDInterval(proportion, array, indices);
+    private void calculateHPDIntervalCustom(double proportion, double[] sorted) {
+        final double[] hpd = DiscreteStatistics.HPDIntervalOfSorted(proportion, sorted);
         hpdLowerCustom = hpd[0];
         hpdUpperCustom = hpd[1];
     }
@@ -264,10 +262,10 @@ public class TraceDistribution {
 
 
     // init FrequencyCounter used for Integer and String
-    private void analyseDistributionDiscrete(List<Double> valueList, double proportion) {
-        List<Integer> integerValues = new ArrayList<Integer>();
-        for (Double value : valueList) {
-            integerValues.add(value.intValue());
+    private void analyseDistributionDiscrete(double[] values, double proportion) {
+        List<Integer> integerValues = new ArrayList<Integer>(values.length);
+        for (double value : values) {
+            integerValues.add((int) value);
         }
 
         if (size == 0) {
@@ -28,6 +28,7 @@
 package dr.inferencexml;
 
 import dr.inference.loggers.Logger;
+import dr.inference.markovchain.ConvergenceMonitor;
 import dr.inference.markovchain.MarkovChain;
 import dr.inference.mcmc.MCMC;
 import dr.inference.mcmc.MCMCOptions;
@@ -44,7 +45,9 @@ import dr.xml.*;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class MCMCParser extends AbstractXMLObjectParser {
 
@@ -176,6 +179,20 @@ public class MCMCParser extends AbstractXMLObjectParser {
 
 
         MarkovChain mc = mcmc.getMarkovChain();
+
+        Set<String> checkpointNames = new HashSet<String>();
+        for (int i = 0; i < xo.getChildCount(); i++) {
+            Object child = xo.getChild(i);
+            if (child instanceof ConvergenceMonitor) {
+                ConvergenceMonitor monitor = (ConvergenceMonitor) child;
+                // each monitor saves its state in its own file next to the checkpoint
+                if (!checkpointNames.add(monitor.getCheckpointName())) {
+                    throw new XMLParseException("Each convergence monitor of a chain should be given a different id");
+                }
+                mc.addMarkovChainListener(monitor);
+            }
+        }
+
         double initialScore = mc.getCurrentScore();
 
         if (initialScore == Double.NEGATIVE_INFINITY) {
@@ -297,6 +314,7 @@ public class MCMCParser extends AbstractXMLObjectParser {
             new ElementRule(OperatorSchedule.class),
             new ElementRule(Likelihood.class),
             new ElementRule(Logger.class, 1, Integer.MAX_VALUE),
+            new ElementRule(ConvergenceMonitor.class, 0, Integer.MAX_VALUE),
     };
 
     public static final String ADAPTATION = "adaptation";
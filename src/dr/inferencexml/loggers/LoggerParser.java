@@ -80,7 +80,8 @@ public class LoggerParser extends AbstractXMLObjectParser {
 
         final PrintWriter pw = getLogFile(xo, getParserName());
 
-        final LogFormatter formatter = new TabDelimitedFormatter(pw);
+        // a compressed log has to be closed at the end to be readable
+        final LogFormatter formatter = new TabDelimitedFormatter(pw, true, XMLParser.isCompressedFile(xo));
 
         boolean performanceReport = false;
 
@@ -92,6 +93,10 @@ public class LoggerParser extends AbstractXMLObjectParser {
         // added a performance measurement delay to avoid the full evaluation period.
         final MCLogger logger = new MCLogger(formatter, logEvery, performanceReport, 10000);
 
+        if (xo.hasAttribute(FILE_NAME)) {
+            logger.setAsynchronous(AsyncLogWriter.isEnabled());
+        }
+
         String title = null;
         if (xo.hasAttribute(TITLE)) {
             title = xo.getStringAttribute(TITLE);
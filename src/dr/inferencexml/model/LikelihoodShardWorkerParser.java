@@ -0,0 +1,85 @@
+/*
+ * LikelihoodShardWorkerParser.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inferencexml.model;
+
+import dr.inference.model.CompoundLikelihood;
+import dr.inference.model.Likelihood;
+import dr.inference.parallel.LikelihoodShardWorker;
+import dr.xml.*;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Reads a likelihoodShardWorker, which serves its likelihoods to a shardedLikelihood in another process.
+ */
+public class LikelihoodShardWorkerParser extends AbstractXMLObjectParser {
+
+    public static final String LIKELIHOOD_SHARD_WORKER = "likelihoodShardWorker";
+    public static final String PORT = "port";
+
+    public String getParserName() {
+        return LIKELIHOOD_SHARD_WORKER;
+    }
+
+    public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+
+        int port = xo.getIntegerAttribute(PORT);
+
+        List<Likelihood> likelihoods = xo.getAllChildren(Likelihood.class);
+        Likelihood likelihood = (likelihoods.size() == 1 ? likelihoods.get(0) : new CompoundLikelihood(likelihoods));
+
+        try {
+            // the worker is run by the parser once the XML has been read
+            return new LikelihoodShardWorker(likelihood, port);
+        } catch (IOException ioe) {
+            throw new XMLParseException("Unable to listen on port " + port + ": " + ioe.getMessage());
+        }
+    }
+
+    //************************************************************************
+    // AbstractXMLObjectParser implementation
+    //************************************************************************
+
+    public String getParserDescription() {
+        return "Evaluates likelihoods for a shardedLikelihood in another process.";
+    }
+
+    public Class getReturnType() {
+        return LikelihoodShardWorker.class;
+    }
+
+    public XMLSyntaxRule[] getSyntaxRules() {
+        return rules;
+    }
+
+    private final XMLSyntaxRule[] rules = {
+            AttributeRule.newIntegerRule(PORT),
+            new ElementRule(Likelihood.class, 1, Integer.MAX_VALUE)
+    };
+}
@@ -0,0 +1,111 @@
+/*
+ * ShardedLikelihoodParser.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inferencexml.model;
+
+import dr.inference.model.Parameter;
+import dr.inference.parallel.ShardTransport;
+import dr.inference.parallel.ShardedLikelihood;
+import dr.inference.parallel.SocketShardTransport;
+import dr.xml.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Reads a shardedLikelihood, which connects to the likelihood shard workers listed and sums their likelihoods.
+ */
+public class ShardedLikelihoodParser extends AbstractXMLObjectParser {
+
+    public static final String SHARD = "shard";
+    public static final String HOST = "host";
+    public static final String PORT = "port";
+    public static final String TIMEOUT = "timeout";
+
+    public String getParserName() {
+        return ShardedLikelihood.SHARDED_LIKELIHOOD;
+    }
+
+    public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+
+        // how long to wait for the workers to start, in seconds
+        double timeout = xo.getAttribute(TIMEOUT, 60.0);
+
+        List<ShardTransport> transports = new ArrayList<ShardTransport>();
+        for (XMLObject cxo : xo.getAllChildren(SHARD)) {
+            String host = cxo.getAttribute(HOST, "localhost");
+            int port = cxo.getIntegerAttribute(PORT);
+            try {
+                transports.add(SocketShardTransport.connect(host, port, (long) (timeout * 1000)));
+            } catch (IOException ioe) {
+                throw new XMLParseException("Unable to connect to likelihood shard at " + host + ":" + port +
+                        ": " + ioe.getMessage());
+            }
+        }
+
+        List<Parameter> parameters = xo.getAllChildren(Parameter.class);
+        for (Parameter parameter : parameters) {
+            if (parameter.getId() == null) {
+                throw new XMLParseException("Parameters shared with likelihood shards need an id");
+            }
+        }
+
+        ShardedLikelihood likelihood = new ShardedLikelihood(transports, parameters);
+
+        Logger.getLogger("dr.inference").info("Using a likelihood sharded across " + transports.size() +
+                " workers with " + parameters.size() + " shared parameters");
+
+        return likelihood;
+    }
+
+    //************************************************************************
+    // AbstractXMLObjectParser implementation
+    //************************************************************************
+
+    public String getParserDescription() {
+        return "A likelihood that is the sum of likelihoods evaluated by likelihoodShardWorkers in other processes.";
+    }
+
+    public Class getReturnType() {
+        return ShardedLikelihood.class;
+    }
+
+    public XMLSyntaxRule[] getSyntaxRules() {
+        return rules;
+    }
+
+    private final XMLSyntaxRule[] rules = {
+            AttributeRule.newDoubleRule(TIMEOUT, true, "Seconds to wait for the workers to start (default 60)"),
+            new ElementRule(SHARD, new XMLSyntaxRule[]{
+                    AttributeRule.newStringRule(HOST, true),
+                    AttributeRule.newIntegerRule(PORT)
+            }, 1, Integer.MAX_VALUE),
+            new ElementRule(Parameter.class, "The parameters the workers' likelihoods depend on, matched by id", 1, Integer.MAX_VALUE)
+    };
+}
@@ -0,0 +1,126 @@
+/*
+ * ConvergenceMonitorParser.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inferencexml.trace;
+
+import dr.inference.loggers.LogColumn;
+import dr.inference.loggers.Loggable;
+import dr.inference.loggers.NumberColumn;
+import dr.inference.markovchain.ConvergenceMonitor;
+import dr.inference.trace.BatchMeansESS;
+import dr.xml.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses a convergence monitor. It should be given an id and referenced from the mcmc element (to be
+ * run with the chain) and, to log its estimates, from a log.
+ */
+public class ConvergenceMonitorParser extends AbstractXMLObjectParser {
+    public static final String CONVERGENCE_MONITOR = "convergenceMonitor";
+
+    private static final String SAMPLE_EVERY = "sampleEvery";
+    private static final String BURN_IN = "burnIn";
+    private static final String QUANTILES = "quantiles";
+    private static final String BATCH_COUNT = "batchCount";
+    private static final String TARGET_ESS = "targetESS";
+    private static final String STOP_AT_TARGET = "stopAtTarget";
+
+    public String getParserName() {
+        return CONVERGENCE_MONITOR;
+    }
+
+    public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+
+        final long sampleEvery = xo.getLongIntegerAttribute(SAMPLE_EVERY);
+        final long burnIn = xo.getLongIntegerAttribute(BURN_IN, 0);
+        final double[] quantiles = xo.hasAttribute(QUANTILES) ? xo.getDoubleArrayAttribute(QUANTILES) : new double[0];
+        final int batchCount = xo.getAttribute(BATCH_COUNT, BatchMeansESS.DEFAULT_BATCH_COUNT);
+        final double targetESS = xo.getAttribute(TARGET_ESS, 0.0);
+        final boolean stopAtTarget = xo.getAttribute(STOP_AT_TARGET, targetESS > 0.0);
+
+        if (sampleEvery < 1) {
+            throw new XMLParseException(SAMPLE_EVERY + " should be at least 1");
+        }
+        if (batchCount < 2) {
+            throw new XMLParseException(BATCH_COUNT + " should be at least 2");
+        }
+        for (double quantile : quantiles) {
+            if (!(quantile > 0.0 && quantile < 1.0)) {
+                throw new XMLParseException("The " + QUANTILES + " should be between 0 and 1");
+            }
+        }
+        if (stopAtTarget && !(targetESS > 0.0)) {
+            throw new XMLParseException("A " + TARGET_ESS + " is needed to stop the chain");
+        }
+
+        List<NumberColumn> columns = new ArrayList<NumberColumn>();
+        for (int i = 0; i < xo.getChildCount(); i++) {
+            for (LogColumn column : ((Loggable) xo.getChild(i)).getColumns()) {
+                if (!(column instanceof NumberColumn)) {
+                    throw new XMLParseException("The column, " + column.getLabel() + ", is not numerical so can't be monitored");
+                }
+                columns.add((NumberColumn) column);
+            }
+        }
+
+        return new ConvergenceMonitor(xo.getId(), columns.toArray(new NumberColumn[0]), sampleEvery, burnIn,
+                quantiles, batchCount, targetESS, stopAtTarget);
+    }
+
+    public String getParserDescription() {
+        return "Keeps running estimates of the ESS and quantiles of some statistics while the chain runs, " +
+                "and optionally stops the chain when they have all reached a target ESS.";
+    }
+
+    public Class getReturnType() {
+        return ConvergenceMonitor.class;
+    }
+
+    public XMLSyntaxRule[] getSyntaxRules() {
+        return rules;
+    }
+
+    private final XMLSyntaxRule[] rules = {
+            AttributeRule.newLongIntegerRule(SAMPLE_EVERY, false,
+                    "The number of states between the samples added to the estimates."),
+            AttributeRule.newLongIntegerRule(BURN_IN, true,
+                    "The number of states (not sampled states, but actual states) before sampling starts."),
+            AttributeRule.newDoubleArrayRule(QUANTILES, true,
+                    "The probabilities of the quantiles to estimate (e.g., 0.025 0.5 0.975)."),
+            AttributeRule.newIntegerRule(BATCH_COUNT, true,
+                    "The minimum number of batches the ESS is estimated from (default " +
+                            BatchMeansESS.DEFAULT_BATCH_COUNT + "). More batches give a less noisy estimate " +
+                            "but need a longer run before the batches are long enough to be trusted."),
+            AttributeRule.newDoubleRule(TARGET_ESS, true,
+                    "The ESS that every statistic should reach."),
+            AttributeRule.newBooleanRule(STOP_AT_TARGET, true,
+                    "Whether to stop the chain when the target ESS is reached (the default if one is given)."),
+            new ElementRule(Loggable.class, 1, Integer.MAX_VALUE),
+    };
+}
@@ -175,7 +175,78 @@ public class MathUtils {
 
     }
 
+    // ===================== Per-thread random streams ===========
+
+    // only consult the thread local once a stream has been attached to some thread so
+    // single chain runs don't pay for the lookup
+    private static volatile boolean threadStreamsInUse = false;
+
+    private static final ThreadLocal<RandomStream> threadStream = new ThreadLocal<RandomStream>();
+
+    /**
+     * Creates an independent random number stream for a chain or worker thread. The seed of
+     * the stream is derived deterministically from the master seed and the stream index so
+     * a run with the same seed and the same number of streams is reproducible regardless of
+     * how the threads are scheduled.
+     *
+     * @param streamIndex the index of the stream (e.g., the chain number)
+     * @return a new generator
+     */
+    public static RandomStream createStream(long streamIndex) {
+        final long masterSeed;
+        synchronized (random) {
+            masterSeed = random.getSeed();
+        }
+        return new RandomStream(deriveStreamSeed(masterSeed, streamIndex));
+    }
+
+    /**
+     * Attaches a random number stream to the calling thread. All the static access methods in
+     * this class called from this thread will draw from this stream without synchronization
+     * rather than from the shared instance. Pass null to detach.
+     *
+     * @param stream the stream (which must only be used by a single thread at a time)
+     */
+    public static void setThreadStream(RandomStream stream) {
+        if (stream != null) {
+            threadStreamsInUse = true;
+            threadStream.set(stream);
+        } else {
+            threadStream.remove();
+        }
+    }
+
+    /**
+     * @return the stream attached to the calling thread or null if it uses the shared instance
+     */
+    public static RandomStream getThreadStream() {
+        return threadStreamsInUse ? threadStream.get() : null;
+    }
+
+    private static MersenneTwisterFast getThreadGenerator() {
+        if (threadStreamsInUse) {
+            RandomStream stream = threadStream.get();
+            return stream != null ? stream.generator : null;
+        }
+        return null;
+    }
+
+    /**
+     * Mixes the master seed and stream index using the SplitMix64 finalizer so that adjacent
+     * stream indices give uncorrelated (and non-zero) Mersenne Twister seeds.
+     */
+    static long deriveStreamSeed(long masterSeed, long streamIndex) {
+        long z = masterSeed + (streamIndex + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        // the Mersenne Twister only uses the lower 32 bits of the seed
+        int seed = (int) (z ^ (z >>> 32));
+        return seed == 0 ? 4357 : seed & 0xFFFFFFFFL;
+    }
+
     // ===================== (Synchronized) Static access methods to the private random instance ===========
+    // Apart from the (master) seed, these use the stream attached to the calling thread if there is one.
 
     /**
      * Access a default instance of this class, access is synchronized
@@ -199,6 +270,10 @@ public class MathUtils {
      * Access a default instance of this class, access is synchronized
      */
     public static byte nextByte() {
+        final MersenneTwisterFast stream = getThreadGenerator();
+        if (stream != null) {
+            return stream.nextByte();
+        }
         synchronized (random) {
             return random.nextByte();
         }
@@ -208,6 +283,10 @@ public class MathUtils {
      * Access a default instance of this class, access is synchronized
      */
     public static boolean nextBoolean() {
+        final MersenneTwisterFast stream = getThreadGenerator();
+        if (stream != null) {
+            return stream.nextBoolean();
+        }
         synchronized (random) {
             return random.nextBoolean();
         }
@@ -217,6 +296,11 @@ public class MathUtils {
      * Access a default instance of this class, access is synchronized
      */
     public static void nextBytes(byte[] bs) {
+        final MersenneTwisterFast stream = getThreadGenerator();
+        if (stream != null) {
+            stream.nextBytes(bs);
+            return;
+        }
         synchronized (random) {
             random.nextBytes(bs);
         }
@@ -226,6 +310,10 @@ public class MathUtils {
      * Access a default instance of this class, access is synchronized
      */
     public static char nextChar() {
+        final MersenneTwisterFast stream = getThreadGenerator();
+        if (stream != null) {
+            return stream.nextChar();
+        }
         synchronized (random) {
             return random.nextChar();
         }
@@ -235,6 +323,10 @@ public class MathUtils {
      * Access a default instance of this class, access is synchronized
      */
     public static double nextGaussian() {
+        final MersenneTwisterFast stream = getThreadGenerator();
+        if (stream != null) {
+            return stream.nextGaussian();
+        }
         synchronized (random) {
             return random.nextGaussian();
         }
@@ -244,6 +336,10 @@ public class MathUtils {
     //Variance = alpha / (lambda*lambda)
 
     public static double nextGamma(double alpha, double lambda) {
+        final MersenneTwisterFast stream = getThreadGenerator();
+        if (stream != null) {
+            return stream.nextGamma(alpha, lambda);
+        }
         synchronized (random) {
             return random.nextGamma(alpha, lambda);
         }
@@ -265,6 +361,10 @@ public class MathUtils {
      * @return a pseudo random double precision floating point number in [01)
      */
     public static double nextDouble() {
+        final MersenneTwisterFast stream = getThreadGenerator();
+        if (stream != null) {
+            return stream.nextDouble();
+        }
         synchronized (random) {
             return random.nextDouble();
         }
@@ -281,26 +381,22 @@ public class MathUtils {
      * Access a default instance of this class, access is synchronized
      */
     public static double nextExponential(double lambda) {
-        synchronized (random) {
-            return -1.0 * Math.log(1 - random.nextDouble()) / lambda;
-        }
+        return -1.0 * Math.log(1 - nextDouble()) / lambda;
     }
 
     /**
      * Access a default instance of this class, access is synchronized
      */
     public static double nextInverseGaussian(double mu, double lambda) {
-        synchronized (random) {
-            /* CODE TAKEN FROM WIKIPEDIA. TESTING DONE WITH RESULTS GENERATED IN R AND LOOK COMPARABLE */
-            double v = random.nextGaussian();   // sample from a normal distribution with a mean of 0 and 1 standard deviation
-            double y = v * v;
-            double x = mu + (mu * mu * y) / (2 * lambda) - (mu / (2 * lambda)) * Math.sqrt(4 * mu * lambda * y + mu * mu * y * y);
-            double test = MathUtils.nextDouble();  // sample from a uniform distribution between 0 and 1
-            if (test <= (mu) / (mu + x)) {
-                return x;
-            } else {
-                return (mu * mu) / x;
-            }
+        /* CODE TAKEN FROM WIKIPEDIA. TESTING DONE WITH RESULTS GENERATED IN R AND LOOK COMPARABLE */
+        double v = nextGaussian();   // sample from a normal distribution with a mean of 0 and 1 standard deviation
+        double y = v * v;
+        double x = mu + (mu * mu * y) / (2 * lambda) - (mu / (2 * lambda)) * Math.sqrt(4 * mu * lambda * y + mu * mu * y * y);
+        double test = nextDouble();  // sample from a uniform distribution between 0 and 1
+        if (test <= (mu) / (mu + x)) {
+            return x;
+        } else {
+            return (mu * mu) / x;
         }
     }
 
@@ -309,6 +405,10 @@ public class MathUtils {
      * Access a default instance of this class, access is synchronized
      */
     public static float nextFloat() {
+        final MersenneTwisterFast stream = getThreadGenerator();
+        if (stream != null) {
+            return stream.nextFloat();
+        }
         synchronized (random) {
             return random.nextFloat();
         }
@@ -318,6 +418,10 @@ public class MathUtils {
      * Access a default instance of this class, access is synchronized
      */
     public static long nextLong() {
+        final MersenneTwisterFast stream = getThreadGenerator();
+        if (stream != null) {
+            return stream.nextLong();
+        }
         synchronized (random) {
             return random.nextLong();
         }
@@ -327,6 +431,10 @@ public class MathUtils {
      * Access a default instance of this class, access is synchronized
      */
     public static short nextShort() {
+        final MersenneTwisterFast stream = getThreadGenerator();
+        if (stream != null) {
+            return stream.nextShort();
+        }
         synchronized (random) {
             return random.nextShort();
         }
@@ -336,6 +444,10 @@ public class MathUtils {
      * Access a default instance of this class, access is synchronized
      */
     public static int nextInt() {
+        final MersenneTwisterFast stream = getThreadGenerator();
+        if (stream != null) {
+            return stream.nextInt();
+        }
         synchronized (random) {
             return random.nextInt();
         }
@@ -345,6 +457,10 @@ public class MathUtils {
      * Access a default instance of this class, access is synchronized
      */
     public static int nextInt(int n) {
+        final MersenneTwisterFast stream = getThreadGenerator();
+        if (stream != null) {
+            return stream.nextInt(n);
+        }
         synchronized (random) {
             return random.nextInt(n);
         }
@@ -363,6 +479,11 @@ public class MathUtils {
      * Shuffles an array.
      */
     public static void shuffle(int[] array) {
+        final MersenneTwisterFast stream = getThreadGenerator();
+        if (stream != null) {
+            stream.shuffle(array);
+            return;
+        }
         synchronized (random) {
             random.shuffle(array);
         }
@@ -372,6 +493,11 @@ public class MathUtils {
      * Shuffles an array. Shuffles numberOfShuffles times
      */
     public static void shuffle(int[] array, int numberOfShuffles) {
+        final MersenneTwisterFast stream = getThreadGenerator();
+        if (stream != null) {
+            stream.shuffle(array, numberOfShuffles);
+            return;
+        }
         synchronized (random) {
             random.shuffle(array, numberOfShuffles);
         }
@@ -383,6 +509,10 @@ public class MathUtils {
      * @param l length of the array required.
      */
     public static int[] shuffled(int l) {
+        final MersenneTwisterFast stream = getThreadGenerator();
+        if (stream != null) {
+            return stream.shuffled(l);
+        }
         synchronized (random) {
             return random.shuffled(l);
         }
@@ -390,18 +520,31 @@ public class MathUtils {
 
 
     public static int[] sampleIndicesWithReplacement(int length) {
+        final MersenneTwisterFast stream = getThreadGenerator();
+        if (stream != null) {
+            return sampleIndicesWithReplacement(stream, length);
+        }
         synchronized (random) {
-            int[] result = new int[length];
-            for (int i = 0; i < length; i++)
-                result[i] = random.nextInt(length);
-            return result;
+            return sampleIndicesWithReplacement(random, length);
         }
     }
 
+    private static int[] sampleIndicesWithReplacement(MersenneTwisterFast generator, int length) {
+        int[] result = new int[length];
+        for (int i = 0; i < length; i++)
+            result[i] = generator.nextInt(length);
+        return result;
+    }
+
     /**
      * Permutes an array.
      */
     public static void permute(int[] array) {
+        final MersenneTwisterFast stream = getThreadGenerator();
+        if (stream != null) {
+            stream.permute(array);
+            return;
+        }
         synchronized (random) {
             random.permute(array);
         }
@@ -413,6 +556,10 @@ public class MathUtils {
      * @param l length of the array required.
      */
     public static int[] permuted(int l) {
+        final MersenneTwisterFast stream = getThreadGenerator();
+        if (stream != null) {
+            return stream.permuted(l);
+        }
         synchronized (random) {
             return random.permuted(l);
         }
@@ -458,12 +605,21 @@ public class MathUtils {
     }
 
     public static int[] getRandomState() {
+        final MersenneTwisterFast stream = getThreadGenerator();
+        if (stream != null) {
+            return stream.getRandomState();
+        }
         synchronized (random) {
             return random.getRandomState();
         }
     }
 
     public static void setRandomState(int[] rngState) {
+        final MersenneTwisterFast stream = getThreadGenerator();
+        if (stream != null) {
+            stream.setRandomState(rngState);
+            return;
+        }
         synchronized (random) {
             random.setRandomState(rngState);
         }
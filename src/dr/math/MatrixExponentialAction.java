@@ -0,0 +1,226 @@
+/*
+ * MatrixExponentialAction.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.math;
+
+/**
+ * Computes the action of the exponential of a CTMC generator, exp(Qt) v, on a block of vectors
+ * without forming exp(Qt). Like SparseMatrixExponential, the generator is held as its non-zero
+ * entries, but the rows are compressed (CSR) and the work is done in Java by uniformization:
+ * with mu = max_i |q_ii|, P = I + Q / mu is a non-negative stochastic matrix and
+ * <p>
+ * exp(Qt) v = sum_k Poisson(k; mu t) P^k v
+ * <p>
+ * which is a truncated Taylor series in P with only non-negative terms, so it is stable for
+ * partial likelihoods. Because mu bounds the norm of Q, mu t gives both the number of terms and
+ * the scaling: t is split into steps with mu t at most MAX_STEP_RATE each so that the Poisson
+ * weights don't underflow, and each step is truncated once a bound on the remaining Poisson mass
+ * is below the tolerance. The error is relative to the largest entry of each vector, so entries
+ * that are only reached after more jumps than are summed (in a sparse generator) come out as zero.
+ * The cost is O(mu t * nnz(Q)) per vector against O(K^3) for an eigen-decomposition
+ * of a K state generator.
+ */
+public class MatrixExponentialAction {
+
+    public static final double DEFAULT_TOLERANCE = 1E-15;
+
+    private static final double MAX_STEP_RATE = 50.0;
+
+    public MatrixExponentialAction(int order) {
+        this(order, DEFAULT_TOLERANCE);
+    }
+
+    public MatrixExponentialAction(int order, double tolerance) {
+        this.order = order;
+        this.tolerance = tolerance;
+
+        rowStart = new int[order + 1];
+        columns = new int[order];
+        values = new double[order];
+    }
+
+    public int getOrder() {
+        return order;
+    }
+
+    public int getNonZeroCount() {
+        return rowStart[order];
+    }
+
+    /**
+     * @return the uniformization rate, mu = max_i |q_ii|
+     */
+    public double getUniformizationRate() {
+        return rate;
+    }
+
+    /**
+     * Sets the generator from a dense, row-major matrix keeping only its non-zero entries (and the
+     * diagonal).
+     */
+    public void setGenerator(double[] matrix) {
+        rate = 0.0;
+        int nonZeroCount = 0;
+        for (int i = 0; i < order; i++) {
+            final int offset = i * order;
+            rate = Math.max(rate, Math.abs(matrix[offset + i]));
+            for (int j = 0; j < order; j++) {
+                if (j == i || matrix[offset + j] != 0.0) {
+                    nonZeroCount++;
+                }
+            }
+        }
+
+        if (nonZeroCount > values.length) {
+            columns = new int[nonZeroCount];
+            values = new double[nonZeroCount];
+        }
+
+        // store P = I + Q / mu rather than Q
+        final double scale = (rate > 0.0 ? 1.0 / rate : 0.0);
+        int k = 0;
+        for (int i = 0; i < order; i++) {
+            final int offset = i * order;
+            rowStart[i] = k;
+            for (int j = 0; j < order; j++) {
+                if (j == i) {
+                    columns[k] = j;
+                    values[k] = 1.0 + matrix[offset + j] * scale;
+                    k++;
+                } else if (matrix[offset + j] != 0.0) {
+                    columns[k] = j;
+                    values[k] = matrix[offset + j] * scale;
+                    k++;
+                }
+            }
+        }
+        rowStart[order] = k;
+    }
+
+    /**
+     * Computes exp(Q time) v for vectorCount contiguous vectors of length order. The input and
+     * output may be the same array.
+     */
+    public void apply(double time, double[] in, int inOffset, double[] out, int outOffset, int vectorCount) {
+        final int n = order * vectorCount;
+
+        final double totalRate = rate * time;
+        if (totalRate <= 0.0) {
+            if (in != out || inOffset != outOffset) {
+                System.arraycopy(in, inOffset, out, outOffset, n);
+            }
+            return;
+        }
+
+        if (current == null || current.length < n) {
+            current = new double[n];
+            next = new double[n];
+            sum = new double[n];
+        }
+        System.arraycopy(in, inOffset, current, 0, n);
+
+        final int steps = (int) Math.ceil(totalRate / MAX_STEP_RATE);
+        final double lambda = totalRate / steps;
+        final double weight0 = Math.exp(-lambda);
+
+        for (int s = 0; s < steps; s++) {
+            double weight = weight0;
+            for (int i = 0; i < n; i++) {
+                sum[i] = weight * current[i];
+            }
+
+            int k = 0;
+            while (getTailBound(weight, lambda, k) > tolerance) {
+                k++;
+                multiply(current, next, vectorCount);
+                double[] tmp = current;
+                current = next;
+                next = tmp;
+
+                weight *= lambda / k;
+                for (int i = 0; i < n; i++) {
+                    sum[i] += weight * current[i];
+                }
+            }
+            totalTermCount += k;
+
+            double[] tmp = current;
+            current = sum;
+            sum = tmp;
+        }
+
+        System.arraycopy(current, 0, out, outOffset, n);
+    }
+
+    /**
+     * @return a bound on the Poisson mass beyond term k given its weight, from the geometric series
+     * with ratio lambda / (k + 2) once that is below one.
+     */
+    private static double getTailBound(double weight, double lambda, int k) {
+        final double ratio = lambda / (k + 2);
+        if (ratio >= 1.0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return weight * lambda / (k + 1) / (1.0 - ratio);
+    }
+
+    /**
+     * @return the total number of products with P so far, a measure of the work done.
+     */
+    public long getTotalTermCount() {
+        return totalTermCount;
+    }
+
+    private void multiply(double[] x, double[] y, int vectorCount) {
+        int v = 0;
+        for (int m = 0; m < vectorCount; m++) {
+            for (int i = 0; i < order; i++) {
+                double total = 0.0;
+                for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+                    total += values[k] * x[v + columns[k]];
+                }
+                y[v + i] = total;
+            }
+            v += order;
+        }
+    }
+
+    private final int order;
+    private final double tolerance;
+
+    private final int[] rowStart;
+    private int[] columns;
+    private double[] values;
+    private double rate;
+
+    // working storage
+    private double[] current;
+    private double[] next;
+    private double[] sum;
+
+    private long totalTermCount = 0;
+}
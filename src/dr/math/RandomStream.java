@@ -0,0 +1,54 @@
+/*
+ * RandomStream.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.math;
+
+/**
+ * An independent random number stream that can be attached to a single thread (e.g., one chain
+ * of an MCMCMC run) using MathUtils.setThreadStream. Streams are created by MathUtils.createStream
+ * with seeds derived from the master seed.
+ */
+public final class RandomStream {
+
+    final MersenneTwisterFast generator;
+
+    RandomStream(long seed) {
+        generator = new MersenneTwisterFast(seed);
+    }
+
+    public long getSeed() {
+        return generator.getSeed();
+    }
+
+    public int[] getRandomState() {
+        return generator.getRandomState();
+    }
+
+    public void setRandomState(int[] rngState) {
+        generator.setRandomState(rngState);
+    }
+}
@@ -32,6 +32,7 @@ import cern.colt.matrix.impl.DenseDoubleMatrix2D;
 import dr.inference.distribution.RandomField;
 import dr.inference.model.*;
 import dr.math.matrixAlgebra.RobustEigenDecomposition;
+import dr.math.matrixAlgebra.TridiagonalPrecisionMatrix;
 import dr.evomodel.bigfasttree.BigFastTreeIntervals;
 import dr.evomodel.tree.TreeModel;
 import dr.evolution.tree.Tree;
@@ -58,6 +59,9 @@ public class GaussianMarkovRandomField extends RandomFieldDistribution {
     final SymmetricTriDiagonalMatrix Q;
     private final SymmetricTriDiagonalMatrix savedQ;
 
+    private final double[] choleskyDiagonal;
+    private final double[] choleskyOffDiagonal;
+
 
     private boolean meanKnown;
     boolean qKnown;
@@ -98,6 +102,9 @@ public class GaussianMarkovRandomField extends RandomFieldDistribution {
         this.Q = new SymmetricTriDiagonalMatrix(dim);
         this.savedQ = new SymmetricTriDiagonalMatrix(dim);
 
+        this.choleskyDiagonal = new double[dim];
+        this.choleskyOffDiagonal = new double[dim - 1];
+
 
         this.logMatchTerm = matchPseudoDeterminant ? matchPseudoDeterminantTerm(dim) : 0.0;
 
@@ -258,16 +265,7 @@ public class GaussianMarkovRandomField extends RandomFieldDistribution {
         double logDet = effectiveDim * Math.log(precisionParameter.getParameterValue(0)) + logMatchTerm;
 
         if (!isImproper() || weightProvider!= null) {
-            double[][] precision = makePrecisionMatrix(Q);
-            RobustEigenDecomposition ed = new RobustEigenDecomposition(new DenseDoubleMatrix2D(precision));
-            DoubleMatrix1D values = ed.getRealEigenvalues();
-            for (int i = 0; i < values.size(); ++i) {
-                double v = values.get(i);
-                if (Math.abs(v) > 1E-6) {
-                    logDet += Math.log(v);
-                }
-            }
-            logDet = logDet - effectiveDim * Math.log(precisionParameter.getParameterValue(0));
+            logDet = logMatchTerm + getTridiagonalLogDeterminant();
         }
 
 //        if (CHECK_DETERMINANT) {
@@ -291,6 +289,50 @@ public class GaussianMarkovRandomField extends RandomFieldDistribution {
         return logDet;
     }
 
+    /**
+     * The (pseudo-) determinant of Q in O(dim) time. A proper Q is Cholesky factored. An improper Q with
+     * weights is a weighted path-graph Laplacian, whose non-zero eigenvalues multiply to dim times the
+     * product of the edge weights. Anything else falls back to an eigen-decomposition.
+     */
+    private double getTridiagonalLogDeterminant() {
+
+        if (!isImproper()) {
+            if (TridiagonalPrecisionMatrix.factor(Q.diagonal, Q.offDiagonal, choleskyDiagonal, choleskyOffDiagonal)) {
+                double logDet = 0.0;
+                for (int i = 0; i < dim; ++i) {
+                    logDet += Math.log(choleskyDiagonal[i]);
+                }
+                return 2.0 * logDet;
+            }
+        } else {
+            double logDet = Math.log(dim);
+            boolean connected = true;
+            for (int i = 0; i < dim - 1 && connected; ++i) {
+                connected = Q.offDiagonal[i] < 0.0;
+                logDet += Math.log(-Q.offDiagonal[i]);
+            }
+            if (connected) {
+                return logDet;
+            }
+        }
+
+        return getEigenLogDeterminant();
+    }
+
+    private double getEigenLogDeterminant() {
+        double[][] precision = makePrecisionMatrix(Q);
+        RobustEigenDecomposition ed = new RobustEigenDecomposition(new DenseDoubleMatrix2D(precision));
+        DoubleMatrix1D values = ed.getRealEigenvalues();
+        double logDet = 0.0;
+        for (int i = 0; i < values.size(); ++i) {
+            double v = values.get(i);
+            if (Math.abs(v) > 1E-6) {
+                logDet += Math.log(v);
+            }
+        }
+        return logDet;
+    }
+
     private static final boolean CHECK_DETERMINANT = false;
 
     @Override
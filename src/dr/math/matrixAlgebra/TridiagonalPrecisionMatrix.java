@@ -0,0 +1,327 @@
+/*
+ * TridiagonalPrecisionMatrix.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.math.matrixAlgebra;
+
+/**
+ * A symmetric tridiagonal precision matrix of the form Q = precision * ((1 - lambda) I + lambda W), as used by the
+ * GMRF skyride and skygrid models. The structure W only changes when the grid does, so it is held separately from
+ * the scaling and Q is rescaled in place when precision or lambda change.
+ *
+ * Products, quadratic forms and a Cholesky factorisation Q + D = L L^T (for an optional diagonal D) all work in
+ * storage allocated once by the constructor. A factorisation is reused while nothing has changed and, when only
+ * the precision has changed, is rescaled rather than recomputed.
+ */
+public class TridiagonalPrecisionMatrix {
+
+    public TridiagonalPrecisionMatrix(int dim) {
+        if (dim < 1) {
+            throw new IllegalArgumentException("Tridiagonal precision matrix needs at least one dimension");
+        }
+        this.dim = dim;
+
+        structureDiagonal = new double[dim];
+        structureOffDiagonal = new double[dim - 1];
+        diagonal = new double[dim];
+        offDiagonal = new double[dim - 1];
+        choleskyDiagonal = new double[dim];
+        choleskyOffDiagonal = new double[dim - 1];
+        work = new double[dim];
+    }
+
+    public TridiagonalPrecisionMatrix(double[] structureDiagonal, double[] structureOffDiagonal) {
+        this(structureDiagonal.length);
+        setStructure(structureDiagonal, structureOffDiagonal);
+    }
+
+    public int getDimension() {
+        return dim;
+    }
+
+    /**
+     * Sets the unscaled structure W. The arrays are copied.
+     */
+    public void setStructure(double[] diagonal, double[] offDiagonal) {
+        if (diagonal.length != dim || offDiagonal.length != dim - 1) {
+            throw new IllegalArgumentException("Structure has the wrong dimensions");
+        }
+        System.arraycopy(diagonal, 0, structureDiagonal, 0, dim);
+        System.arraycopy(offDiagonal, 0, structureOffDiagonal, 0, dim - 1);
+        scaleKnown = false;
+        factorKnown = false;
+    }
+
+    /**
+     * Sets the scaling of the structure. Nothing is recomputed if neither value has changed.
+     */
+    public void setScale(double precision, double lambda) {
+        if (scaleKnown && precision == this.precision && lambda == this.lambda) {
+            return;
+        }
+
+        // same operation order as GMRFSkyrideLikelihood.getScaledWeightMatrix so results are unchanged
+        if (lambda == 1) {
+            for (int i = 0; i < dim; i++) {
+                diagonal[i] = structureDiagonal[i] * precision;
+            }
+            for (int i = 0; i < dim - 1; i++) {
+                offDiagonal[i] = structureOffDiagonal[i] * precision;
+            }
+        } else {
+            for (int i = 0; i < dim; i++) {
+                diagonal[i] = precision * (1 - lambda + lambda * structureDiagonal[i]);
+            }
+            for (int i = 0; i < dim - 1; i++) {
+                offDiagonal[i] = structureOffDiagonal[i] * precision * lambda;
+            }
+        }
+
+        this.precision = precision;
+        this.lambda = lambda;
+        scaleKnown = true;
+    }
+
+    public double getPrecision() {
+        return precision;
+    }
+
+    public double getLambda() {
+        return lambda;
+    }
+
+    public double getDiagonal(int i) {
+        return diagonal[i];
+    }
+
+    public double getOffDiagonal(int i) {
+        return offDiagonal[i];
+    }
+
+    /**
+     * y = Q x
+     */
+    public void multiply(double[] x, double[] y) {
+        checkScale();
+        multiply(diagonal, offDiagonal, x, y);
+    }
+
+    /**
+     * @return x^T Q x
+     */
+    public double quadraticForm(double[] x) {
+        checkScale();
+        return quadraticForm(diagonal, offDiagonal, x);
+    }
+
+    /**
+     * Factors Q + D, where D is the given diagonal (or zero if null), into L L^T.
+     *
+     * @return false if the matrix is not positive definite
+     */
+    public boolean factor(double[] extraDiagonal) {
+        checkScale();
+
+        if (extraDiagonal == null && factorKnown && !factorShifted && lambda == factorLambda) {
+            if (precision != factorPrecision) {
+                // L scales with the square root of the precision
+                final double scale = Math.sqrt(precision / factorPrecision);
+                for (int i = 0; i < dim; i++) {
+                    choleskyDiagonal[i] *= scale;
+                }
+                for (int i = 0; i < dim - 1; i++) {
+                    choleskyOffDiagonal[i] *= scale;
+                }
+                logDeterminant += dim * Math.log(precision / factorPrecision);
+                factorPrecision = precision;
+            }
+            return true;
+        }
+
+        if (extraDiagonal != null) {
+            for (int i = 0; i < dim; i++) {
+                work[i] = diagonal[i] + extraDiagonal[i];
+            }
+        } else {
+            System.arraycopy(diagonal, 0, work, 0, dim);
+        }
+
+        factorKnown = false;
+        if (!factor(work, offDiagonal, choleskyDiagonal, choleskyOffDiagonal)) {
+            return false;
+        }
+
+        logDeterminant = 0.0;
+        for (int i = 0; i < dim; i++) {
+            logDeterminant += Math.log(choleskyDiagonal[i]);
+        }
+        logDeterminant *= 2.0;
+
+        factorKnown = true;
+        factorShifted = extraDiagonal != null;
+        factorPrecision = precision;
+        factorLambda = lambda;
+        return true;
+    }
+
+    /**
+     * @return log |Q + D| for the last factorisation
+     */
+    public double getLogDeterminant() {
+        checkFactor();
+        return logDeterminant;
+    }
+
+    /**
+     * Solves (Q + D) x = b using the last factorisation. x and b may be the same array.
+     */
+    public void solve(double[] b, double[] x) {
+        checkFactor();
+        forwardSolve(choleskyDiagonal, choleskyOffDiagonal, b, x);
+        backSolve(choleskyDiagonal, choleskyOffDiagonal, x, x);
+    }
+
+    /**
+     * Solves L^T x = z using the last factorisation, so that for standard normal z, x ~ N(0, (Q + D)^-1).
+     * x and z may be the same array.
+     */
+    public void backSolve(double[] z, double[] x) {
+        checkFactor();
+        backSolve(choleskyDiagonal, choleskyOffDiagonal, z, x);
+    }
+
+    private void checkScale() {
+        if (!scaleKnown) {
+            throw new IllegalStateException("Precision and lambda have not been set");
+        }
+    }
+
+    private void checkFactor() {
+        if (!factorKnown) {
+            throw new IllegalStateException("Matrix has not been factored");
+        }
+    }
+
+    // Static routines on raw tridiagonal storage *************************************************
+
+    /**
+     * y = A x for a symmetric tridiagonal A. Each row is accumulated left to right, as MTJ does.
+     */
+    public static void multiply(double[] diagonal, double[] offDiagonal, double[] x, double[] y) {
+        final int n = diagonal.length;
+        if (n == 1) {
+            y[0] = diagonal[0] * x[0];
+            return;
+        }
+        y[0] = diagonal[0] * x[0] + offDiagonal[0] * x[1];
+        for (int i = 1; i < n - 1; i++) {
+            y[i] = offDiagonal[i - 1] * x[i - 1] + diagonal[i] * x[i] + offDiagonal[i] * x[i + 1];
+        }
+        y[n - 1] = offDiagonal[n - 2] * x[n - 2] + diagonal[n - 1] * x[n - 1];
+    }
+
+    /**
+     * @return x^T A x for a symmetric tridiagonal A, summed as the dot product of x with A x
+     */
+    public static double quadraticForm(double[] diagonal, double[] offDiagonal, double[] x) {
+        final int n = diagonal.length;
+        if (n == 1) {
+            return x[0] * (diagonal[0] * x[0]);
+        }
+        double sum = x[0] * (diagonal[0] * x[0] + offDiagonal[0] * x[1]);
+        for (int i = 1; i < n - 1; i++) {
+            sum += x[i] * (offDiagonal[i - 1] * x[i - 1] + diagonal[i] * x[i] + offDiagonal[i] * x[i + 1]);
+        }
+        sum += x[n - 1] * (offDiagonal[n - 2] * x[n - 2] + diagonal[n - 1] * x[n - 1]);
+        return sum;
+    }
+
+    /**
+     * Cholesky factorisation of a symmetric tridiagonal matrix into a lower bidiagonal L.
+     *
+     * @return false if the matrix is not positive definite
+     */
+    public static boolean factor(double[] diagonal, double[] offDiagonal,
+                                 double[] choleskyDiagonal, double[] choleskyOffDiagonal) {
+        final int n = diagonal.length;
+        double pivot = diagonal[0];
+        for (int i = 0; i < n; i++) {
+            if (!(pivot > 0.0)) {
+                return false;
+            }
+            final double l = Math.sqrt(pivot);
+            choleskyDiagonal[i] = l;
+            if (i < n - 1) {
+                final double m = offDiagonal[i] / l;
+                choleskyOffDiagonal[i] = m;
+                pivot = diagonal[i + 1] - m * m;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Solves L y = b.
+     */
+    public static void forwardSolve(double[] choleskyDiagonal, double[] choleskyOffDiagonal, double[] b, double[] y) {
+        final int n = choleskyDiagonal.length;
+        y[0] = b[0] / choleskyDiagonal[0];
+        for (int i = 1; i < n; i++) {
+            y[i] = (b[i] - choleskyOffDiagonal[i - 1] * y[i - 1]) / choleskyDiagonal[i];
+        }
+    }
+
+    /**
+     * Solves L^T x = y.
+     */
+    public static void backSolve(double[] choleskyDiagonal, double[] choleskyOffDiagonal, double[] y, double[] x) {
+        final int n = choleskyDiagonal.length;
+        x[n - 1] = y[n - 1] / choleskyDiagonal[n - 1];
+        for (int i = n - 2; i >= 0; i--) {
+            x[i] = (y[i] - choleskyOffDiagonal[i] * x[i + 1]) / choleskyDiagonal[i];
+        }
+    }
+
+    private final int dim;
+
+    private final double[] structureDiagonal;
+    private final double[] structureOffDiagonal;
+
+    private final double[] diagonal;
+    private final double[] offDiagonal;
+    private double precision;
+    private double lambda;
+    private boolean scaleKnown = false;
+
+    private final double[] choleskyDiagonal;
+    private final double[] choleskyOffDiagonal;
+    private final double[] work;
+    private double logDeterminant;
+    private double factorPrecision;
+    private double factorLambda;
+    private boolean factorShifted;
+    private boolean factorKnown = false;
+}
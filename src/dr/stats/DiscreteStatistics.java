@@ -275,6 +275,26 @@ public class DiscreteStatistics {
         return x[indices[(int) Math.ceil(q * indices.length) - 1]];
     }
 
+    /**
+     * compute the q-th quantile for a distribution of x that is already sorted
+     * (= inverse cdf)
+     *
+     * @param q      quantile (0 <= q <= 1)
+     * @param sorted discrete distribution (in ascending order)
+     * @return q-th quantile
+     */
+    public static double quantileOfSorted(double q, double[] sorted) {
+        if (q < 0.0 || q > 1.0) throw new IllegalArgumentException("Quantile out of range");
+
+        if (q == 0.0) {
+            // for q==0 we have to "invent" an entry smaller than the smallest x
+
+            return sorted[0] - 1.0;
+        }
+
+        return sorted[(int) Math.ceil(q * sorted.length) - 1];
+    }
+
     /**
      * compute the q-th quantile for a distribution of x
      * (= inverse cdf)
@@ -334,6 +354,31 @@ public class DiscreteStatistics {
         return new double[]{x[indices[hpdIndex]], x[indices[hpdIndex + diff - 1]]};
     }
 
+    /**
+     * Determine the highest posterior density for a list of values that is already sorted.
+     * The HPD is the smallest interval containing the required amount of elements.
+     *
+     * @param proportion of elements inside the interval
+     * @param sorted     values in ascending order
+     * @return the interval, an array of {low, high} values.
+     */
+    public static double[] HPDIntervalOfSorted(double proportion, double[] sorted) {
+
+        double minRange = Double.MAX_VALUE;
+        int hpdIndex = 0;
+
+        final int diff = (int) Math.round(proportion * (double) sorted.length);
+        for (int i = 0; i <= (sorted.length - diff); i++) {
+            final double range = Math.abs(sorted[i + diff - 1] - sorted[i]);
+            if (range < minRange) {
+                minRange = range;
+                hpdIndex = i;
+            }
+        }
+
+        return new double[]{sorted[hpdIndex], sorted[hpdIndex + diff - 1]};
+    }
+
     /**
      * compute the cumulative probability Pr(x <= z) for a given z
      * and a distribution of x
@@ -89,10 +89,31 @@ public interface Transform {
      */
     double[] inverse(double[] y, int from, int to, double sum);
 
+    /**
+     * inverse transformation of y[from, to) into result[from, to) without allocating where the transform allows it
+     * @param y evaluation points
+     * @param result the inverse transformed values (may be y itself)
+     * @param from start transformation at this index
+     * @param to end transformation at this index
+     */
+    default void inverse(double[] y, double[] result, int from, int to) {
+        double[] values = inverse(y, from, to);
+        System.arraycopy(values, from, result, from, to - from);
+    }
+
     double updateGradientLogDensity(double gradient, double value);
 
     double[] updateGradientLogDensity(double[] gradient, double[] value, int from, int to);
 
+    /**
+     * updateGradientLogDensity for gradient[from, to) into result[from, to) without allocating where the transform
+     * allows it; result may be gradient itself
+     */
+    default void updateGradientLogDensity(double[] gradient, double[] result, double[] value, int from, int to) {
+        double[] values = updateGradientLogDensity(gradient, value, from, to);
+        System.arraycopy(values, from, result, from, to - from);
+    }
+
     double updateDiagonalHessianLogDensity(double diagonalHessian, double gradient, double value);
 
     double[] updateDiagonalHessianLogDensity(double[] diagonalHessian, double[] gradient, double[] value, int from, int to);
@@ -201,6 +222,13 @@ public interface Transform {
             throw new RuntimeException("Fixed sum cannot be enforced for a univariate transformation.");
         }
 
+        @Override
+        public void inverse(double[] values, double[] result, int from, int to) {
+            for (int i = from; i < to; ++i) {
+                result[i] = inverse(values[i]);
+            }
+        }
+
         public abstract double gradientInverse(double value);
 
         public double[] gradientInverse(double[] values, int from, int to) {
@@ -224,6 +252,13 @@ public interface Transform {
             return result;
         }
 
+        @Override
+        public void updateGradientLogDensity(double[] gradient, double[] result, double[] value, int from, int to) {
+            for (int i = from; i < to; ++i) {
+                result[i] = updateGradientLogDensity(gradient[i], value[i]);
+            }
+        }
+
         public double[] updateDiagonalHessianLogDensity(double[] diagonalHessian, double[] gradient, double[] value, int from, int to) {
             double[] result = value.clone();
             for (int i = from; i < to; ++i) {
@@ -1962,6 +1997,14 @@ public interface Transform {
               return result;
           }
 
+          @Override
+          public void inverse(double[] values, double[] result, int from, int to) {
+
+              for (int i = from; i < to; ++i) {
+                  result[i] = array.get(i).inverse(values[i]);
+              }
+          }
+
           @Override
           public double[] inverse(double[] values, int from, int to, double sum) {
               throw new RuntimeException("Not yet implemented.");
@@ -1997,6 +2040,14 @@ public interface Transform {
               return result;
           }
 
+          @Override
+          public void updateGradientLogDensity(double[] gradient, double[] result, double[] values, int from, int to) {
+
+              for (int i = from; i < to; ++i) {
+                  result[i] = array.get(i).updateGradientLogDensity(gradient[i], values[i]);
+              }
+          }
+
         @Override
         public double[] updateDiagonalHessianLogDensity(double[] diagonalHessian, double[] gradient, double[] values, int from, int to) {
             final double[] result = values.clone();
@@ -27,6 +27,7 @@
 
 package dr.xml;
 
+import dr.inference.loggers.AsyncLogWriter;
 import dr.inference.model.CompoundLikelihood;
 import dr.inference.model.Likelihood;
 import dr.inference.model.Model;
@@ -41,10 +42,13 @@ import org.xml.sax.helpers.DefaultHandler;
 
 import java.io.*;
 import java.util.*;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
 
 public class XMLParser {
 
     public static final String ID = XMLObject.ID;
+    public static final String COMPRESSED_FILE_SUFFIX = ".gz";
     public static final String IDREF = "idref";
     public static final String CONCURRENT = "concurrent";
     public static final String VERSION = "version";
@@ -76,7 +80,11 @@ public class XMLParser {
         String[] parserNames = parser.getParserNames();
 
         for (String parserName : parserNames) {
-            XMLObjectParser oldParser = parserStore.get(parserName);
+            // a deferred parser that is being replaced doesn't need to be loaded
+            XMLObjectParser oldParser = canReplace ? parserStore.get(parserName) : lookupParser(parserName);
+            if (canReplace && deferredParserStore.remove(parserName) != null) {
+                replaced = true;
+            }
             if (oldParser != null) {
                 if (!canReplace) {
                     throw new IllegalArgumentException("New parser (" + parser.getParserName()
@@ -92,18 +100,58 @@ public class XMLParser {
         return replaced;
     }
 
+    /**
+     * Registers an element name whose parser is only created, by the given loader, when the element
+     * is first looked up. The loader is called at most once and should return the same parser for
+     * every name it is registered under. It may return null if the parser fails to load.
+     *
+     * @return true if this replaced an existing parser of the same name
+     */
+    public boolean addDeferredXMLObjectParser(String parserName, Supplier<XMLObjectParser> loader, boolean canReplace) {
+        boolean replaced = parserStore.containsKey(parserName) || deferredParserStore.containsKey(parserName);
+        if (replaced && !canReplace) {
+            throw new IllegalArgumentException("Parser for element " + parserName + " cannot replace existing parser");
+        }
+        parserStore.remove(parserName);
+        deferredParserStore.put(parserName, loader);
+        return replaced;
+    }
+
     public Iterator getParserNames() {
+        loadDeferredParsers();
         return parserStore.keySet().iterator();
     }
 
     public XMLObjectParser getParser(String name) {
-        return parserStore.get(name);
+        return lookupParser(name);
     }
 
     public Iterator getParsers() {
+        loadDeferredParsers();
         return parserStore.values().iterator();
     }
 
+    private XMLObjectParser lookupParser(String name) {
+        XMLObjectParser parser = parserStore.get(name);
+        if (parser == null && !deferredParserStore.isEmpty()) {
+            // keep the registered spelling of the name as the comparator ignores case
+            final String parserName = deferredParserStore.ceilingKey(name);
+            if (parserName != null && deferredParserStore.comparator().compare(parserName, name) == 0) {
+                parser = deferredParserStore.remove(parserName).get();
+                if (parser != null) {
+                    parserStore.put(parserName, parser);
+                }
+            }
+        }
+        return parser;
+    }
+
+    private void loadDeferredParsers() {
+        while (!deferredParserStore.isEmpty()) {
+            lookupParser(deferredParserStore.firstKey());
+        }
+    }
+
     public Iterator getThreads() {
         return threads.iterator();
     }
@@ -249,7 +297,7 @@ public class XMLParser {
                 throw new XMLParseException("Object with idref=" + idref + " has not been parsed.");
             }
 
-            XMLObjectParser parser = parserStore.get(e.getTagName());
+            XMLObjectParser parser = lookupParser(e.getTagName());
             boolean classMatch = parser != null && parser.getReturnType().isAssignableFrom(restoredXMLObject.getNativeObject().getClass());
 
             if (!e.getTagName().equals(restoredXMLObject.getName()) && !classMatch) {
@@ -280,7 +328,7 @@ public class XMLParser {
 
             XMLObject xo = new XMLObject(e, parent);
 
-            final XMLObjectParser parser = doParse ? parserStore.get(xo.getName()) : null;
+            final XMLObjectParser parser = doParse ? lookupParser(xo.getName()) : null;
 
             String id = null;
             NodeList nodes = e.getChildNodes();
@@ -473,8 +521,14 @@ public class XMLParser {
             File logFile = getLogFile(xo, attributeName);
 
             try {
+                if (isCompressedFile(logFile)) {
+                    // asynchronous loggers flush in batches, each of which is sync-flushed so that
+                    // everything written so far can be read while the run continues
+                    return new PrintWriter(new OutputStreamWriter(
+                            new GZIPOutputStream(new FileOutputStream(logFile), 1 << 16, true)));
+                }
                 return new PrintWriter(new FileOutputStream(logFile));
-            } catch (FileNotFoundException fnfe) {
+            } catch (IOException ioe) {
                 throw new XMLParseException("File '" + logFile.getAbsolutePath() +
                         "' can not be opened for " + parserName + " element.");
             }
@@ -483,6 +537,23 @@ public class XMLParser {
         return new PrintWriter(System.out);
     }
 
+    /**
+     * @return true if the file named by the file name attribute will be gzip compressed
+     */
+    public static boolean isCompressedFile(XMLObject xo) throws XMLParseException {
+        return xo.hasAttribute(FileHelpers.FILE_NAME) &&
+                isCompressedFile(new File(xo.getStringAttribute(FileHelpers.FILE_NAME)));
+    }
+
+    /**
+     * Log files are only compressed by the asynchronous loggers, which flush in batches (a
+     * sync-flush after every line would cost much of the compression). Otherwise a file name
+     * ending in .gz is written as it is, as it always has been.
+     */
+    private static boolean isCompressedFile(File logFile) {
+        return AsyncLogWriter.isEnabled() && logFile.getName().endsWith(COMPRESSED_FILE_SUFFIX);
+    }
+
     public static File getLogFile(XMLObject xo, String attributeName) throws XMLParseException {
         final File logFile = getFileHandle(xo, attributeName);
         boolean allowOverwrite = false;
@@ -610,6 +681,7 @@ public class XMLParser {
 
     //    private final Hashtable<String, XMLObject> store = new Hashtable<String, XMLObject>();
     private final Map<String, XMLObjectParser> parserStore = new TreeMap<String, XMLObjectParser>(new ParserComparator());
+    private final TreeMap<String, Supplier<XMLObjectParser>> deferredParserStore = new TreeMap<String, Supplier<XMLObjectParser>>(new ParserComparator());
     private final Map<String, XMLObject> objectStore = new LinkedHashMap<String, XMLObject>();
     private final Map<Pair<String, String>, List<Citation>> citationStore = new LinkedHashMap<Pair<String, String>, List<Citation>>();
     private boolean concurrent = false;
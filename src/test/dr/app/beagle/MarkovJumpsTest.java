@@ -27,6 +27,8 @@
 
 package test.dr.app.beagle;
 
+import beagle.BeagleFactory;
+import dr.evolution.tree.NodeRef;
 import dr.evomodel.branchmodel.BranchModel;
 import dr.evomodel.branchmodel.HomogeneousBranchModel;
 import test.dr.inference.trace.TraceCorrelationAssert;
@@ -37,6 +39,7 @@ import dr.inference.markovjumps.MarkovJumpsType;
 import dr.oldevomodelxml.substmodel.HKYParser;
 import dr.oldevomodelxml.sitemodel.GammaSiteModelParser;
 import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.MarkovJumpsSubstitutionModel;
 import dr.evomodel.substmodel.nucleotide.HKY;
 import dr.evomodel.siteratemodel.GammaSiteRateModel;
 import dr.evomodel.treelikelihood.PartialsRescalingScheme;
@@ -148,6 +151,89 @@ public class MarkovJumpsTest extends TraceCorrelationAssert {
         assertEquals(valuesFromR, averages, 1E-2);
     }
 
+    public void testBatchedRegisters() {
+        if (BeagleFactory.getResourceDetails().isEmpty()) {
+            System.out.println("testBatchedRegisters skipped");
+            return;
+        }
+
+        MathUtils.setSeed(666);
+
+        createAlignment(PRIMATES_TAXON_SEQUENCE, Nucleotides.INSTANCE);
+        treeModel = createPrimateTreeModel();
+
+        Parameter freqs = new Parameter.Default(new double[]{0.40, 0.25, 0.25, 0.10});
+        Parameter kappa = new Parameter.Default(HKYParser.KAPPA, 10.0, 0, 100);
+        HKY hky = new HKY(kappa, new FrequencyModel(Nucleotides.INSTANCE, freqs));
+
+        Parameter mu = new Parameter.Default(GammaSiteModelParser.MUTATION_RATE, 0.5, 0, Double.POSITIVE_INFINITY);
+        GammaSiteRateModel siteRateModel = new GammaSiteRateModel("gammaModel", mu, 1.0, null, -1, null);
+        siteRateModel.setSubstitutionModel(hky);
+
+        MarkovJumpsBeagleTreeLikelihood mjTreeLikelihood = new MarkovJumpsBeagleTreeLikelihood(
+                new SitePatterns(alignment, null, 0, -1, 1, true),
+                treeModel,
+                new HomogeneousBranchModel(hky),
+                siteRateModel,
+                null,
+                null,
+                false,
+                PartialsRescalingScheme.AUTO,
+                true,
+                null,
+                hky.getDataType(),
+                "stateTag",
+                false, // use MAP
+                true, // return ML
+                false, // use uniformization
+                false,
+                1000
+        );
+
+        // all the registers share the substitution model, so are computed together on each branch
+        MarkovJumpsSubstitutionModel[] unbatched = new MarkovJumpsSubstitutionModel[registerValues.length];
+        for (int r = 0; r < registerValues.length; r++) {
+            Parameter registerParameter = new Parameter.Default(registerValues[r]);
+            registerParameter.setId(registerTages[r]);
+            mjTreeLikelihood.addRegister(registerParameter, registerTypes[r], registerScales[r]);
+
+            unbatched[r] = new MarkovJumpsSubstitutionModel(hky, registerTypes[r]);
+            unbatched[r].setRegistration(registerValues[r]);
+        }
+
+        mjTreeLikelihood.getLogLikelihood();
+
+        final int stateCount = hky.getDataType().getStateCount();
+        final double rate = siteRateModel.getRateForCategory(0);
+        double[] probabilities = new double[stateCount * stateCount];
+        double[] expected = new double[stateCount * stateCount];
+
+        for (int r = 0; r < registerValues.length; r++) {
+            double[][] values = mjTreeLikelihood.getMarkovJumpsForRegister(treeModel, r);
+            for (int n = 0; n < treeModel.getNodeCount(); n++) {
+                NodeRef node = treeModel.getNode(n);
+                if (treeModel.isRoot(node)) {
+                    continue;
+                }
+                NodeRef parent = treeModel.getParent(node);
+                int[] parentStates = mjTreeLikelihood.getStatesForNode(treeModel, parent);
+                int[] childStates = mjTreeLikelihood.getStatesForNode(treeModel, node);
+
+                // the expectations as each register was computed on its own before batching
+                double time = (treeModel.getNodeHeight(parent) - treeModel.getNodeHeight(node)) * rate;
+                hky.getTransitionProbabilities(time, probabilities);
+                unbatched[r].computeCondStatMarkovJumps(time, probabilities, expected);
+                for (int j = 0; j < parentStates.length; j++) {
+                    double value = expected[parentStates[j] * stateCount + childStates[j]];
+                    if (registerScales[r]) {
+                        value /= rate;
+                    }
+                    assertEquals(value, values[node.getNumber()][j], 1E-8 * Math.max(1.0, Math.abs(value)));
+                }
+            }
+        }
+    }
+
     private static double[][] registerValues = {
             {
                     0, 1, 1, 1,
@@ -0,0 +1,80 @@
+/*
+ * ParserIndexTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.app.beast;
+
+import dr.app.beast.ParserIndex;
+import dr.evoxml.TaxonParser;
+import dr.xml.XMLObjectParser;
+import dr.xml.UserInput;
+import dr.xml.XMLParser;
+import junit.framework.TestCase;
+
+import java.util.function.Supplier;
+
+public class ParserIndexTest extends TestCase {
+
+    public void testLoadParser() throws Exception {
+        assertTrue(ParserIndex.loadParser("dr.evoxml.TaxonParser") instanceof TaxonParser);
+        assertSame(UserInput.STRING_PARSER, ParserIndex.loadParser("dr.xml.UserInput#STRING_PARSER"));
+    }
+
+    public void testDeferredParsersLoadOnDemand() {
+        final int[] loadCount = new int[1];
+        Supplier<XMLObjectParser> loader = new Supplier<XMLObjectParser>() {
+            private XMLObjectParser parser;
+
+            public XMLObjectParser get() {
+                if (parser == null) {
+                    loadCount[0]++;
+                    parser = new TaxonParser();
+                }
+                return parser;
+            }
+        };
+
+        XMLParser parser = new XMLParser(false, false, false, null);
+        assertFalse(parser.addDeferredXMLObjectParser("taxon", loader, false));
+        assertEquals(0, loadCount[0]);
+
+        // element names are matched ignoring case
+        XMLObjectParser taxonParser = parser.getParser("TAXON");
+        assertTrue(taxonParser instanceof TaxonParser);
+        assertSame(taxonParser, parser.getParser("taxon"));
+        assertEquals(1, loadCount[0]);
+
+        try {
+            parser.addDeferredXMLObjectParser("taxon", loader, false);
+            fail("a parser cannot be replaced unless allowed");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+        assertTrue(parser.addDeferredXMLObjectParser("taxon", loader, true));
+        assertSame(taxonParser, parser.getParser("taxon"));
+        assertEquals(1, loadCount[0]);
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * BinaryCheckpointFormatTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.app.checkpoint;
+
+import dr.app.checkpoint.BeastCheckpointer;
+import dr.app.checkpoint.BinaryCheckpointFormat;
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.tree.TreeUtils;
+import dr.evomodel.branchmodel.HomogeneousBranchModel;
+import dr.evomodel.branchratemodel.DefaultBranchRateModel;
+import dr.evomodel.operators.ExchangeOperator;
+import dr.evomodel.siteratemodel.GammaSiteRateModel;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.nucleotide.HKY;
+import dr.evomodel.tree.DefaultTreeModel;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.treedatalikelihood.JavaDataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.TreeDataLikelihood;
+import dr.evomodel.treelikelihood.PartialsRescalingScheme;
+import dr.inference.loggers.MCLogger;
+import dr.inference.markovchain.MarkovChain;
+import dr.inference.mcmc.MCMC;
+import dr.inference.mcmc.MCMCOptions;
+import dr.inference.model.Parameter;
+import dr.inference.operators.MCMCOperator;
+import dr.inference.operators.OperatorSchedule;
+import dr.inference.operators.ScaleOperator;
+import dr.inference.operators.SimpleOperatorSchedule;
+import dr.inference.operators.UniformOperator;
+import dr.math.MathUtils;
+import test.dr.inference.trace.TraceCorrelationAssert;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Saves and restores a short chain on the primate tree with the binary checkpoint format, and checks
+ * it against the text format and against damaged files.
+ */
+public class BinaryCheckpointFormatTest extends TraceCorrelationAssert {
+
+    private static final int SNAPSHOT_EVERY = 3;
+
+    // the tree is only checkpointed by name, so the same chain is used by all the tests
+    private static MarkovChain markovChain = null;
+    private static TreeModel tree = null;
+
+    private String snapshotEvery;
+    private final List<File> files = new ArrayList<File>();
+
+    public BinaryCheckpointFormatTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        snapshotEvery = System.getProperty(BeastCheckpointer.CHECKPOINT_SNAPSHOT_EVERY);
+        System.setProperty(BeastCheckpointer.CHECKPOINT_SNAPSHOT_EVERY, Integer.toString(SNAPSHOT_EVERY));
+
+        if (markovChain == null) {
+            MathUtils.setSeed(666);
+            createAlignment(PRIMATES_TAXON_SEQUENCE, Nucleotides.INSTANCE);
+            createChain();
+        }
+    }
+
+    public void tearDown() {
+        if (snapshotEvery == null) {
+            System.clearProperty(BeastCheckpointer.CHECKPOINT_SNAPSHOT_EVERY);
+        } else {
+            System.setProperty(BeastCheckpointer.CHECKPOINT_SNAPSHOT_EVERY, snapshotEvery);
+        }
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    public void testRoundTrip() throws IOException {
+        Checkpointer binary = new Checkpointer(BeastCheckpointer.Format.BINARY);
+        Checkpointer text = new Checkpointer(BeastCheckpointer.Format.TEXT);
+        File binaryFile = createFile();
+        File textFile = createFile();
+
+        long state = run(100);
+        assertTrue(binary.save(binaryFile, state));
+        assertTrue(BinaryCheckpointFormat.isBinaryCheckpoint(binaryFile));
+        long snapshotLength = binaryFile.length();
+
+        // the following saves only append the changes
+        state = run(100);
+        assertTrue(binary.save(binaryFile, state));
+        assertTrue(binaryFile.length() - snapshotLength < snapshotLength);
+        state = run(100);
+        assertTrue(binary.save(binaryFile, state));
+        assertTrue(text.save(textFile, state));
+        String expected = getState();
+        double lnL = markovChain.getCurrentScore();
+
+        run(100);
+        assertFalse(expected.equals(getState()));
+        assertRestored(binary, binaryFile, state, expected, lnL);
+
+        run(100);
+        assertRestored(text, textFile, state, expected, lnL);
+    }
+
+    public void testSnapshotRollover() throws IOException {
+        Checkpointer binary = new Checkpointer(BeastCheckpointer.Format.BINARY);
+        File file = createFile();
+
+        long state = run(100);
+        assertTrue(binary.save(file, state));
+        long snapshotLength = file.length();
+        long length = snapshotLength;
+        for (int i = 0; i < SNAPSHOT_EVERY; i++) {
+            state = run(100);
+            assertTrue(binary.save(file, state));
+            assertTrue(file.length() > length);
+            length = file.length();
+        }
+
+        // after SNAPSHOT_EVERY deltas the file is started again with a new snapshot
+        state = run(100);
+        assertTrue(binary.save(file, state));
+        assertEquals(snapshotLength, file.length());
+        String expected = getState();
+        double lnL = markovChain.getCurrentScore();
+
+        run(100);
+        assertRestored(binary, file, state, expected, lnL);
+    }
+
+    public void testTruncatedRecord() throws IOException {
+        Checkpointer binary = new Checkpointer(BeastCheckpointer.Format.BINARY);
+        File file = createFile();
+
+        long state = saveDeltas(binary, file);
+        String expected = getState();
+        double lnL = markovChain.getCurrentScore();
+        long length = file.length();
+
+        // a save that was killed part way through writing the last record
+        assertTrue(binary.save(file, run(100)));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(length + (raf.length() - length) / 2);
+        raf.close();
+
+        run(100);
+        assertRestored(binary, file, state, expected, lnL);
+    }
+
+    public void testCorruptRecord() throws IOException {
+        Checkpointer binary = new Checkpointer(BeastCheckpointer.Format.BINARY);
+        File file = createFile();
+
+        long state = saveDeltas(binary, file);
+        String expected = getState();
+        double lnL = markovChain.getCurrentScore();
+
+        // a last record whose contents don't match its checksum
+        assertTrue(binary.save(file, run(100)));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(raf.length() - 1);
+        int last = raf.read();
+        raf.seek(raf.length() - 1);
+        raf.write(last ^ 0xff);
+        raf.close();
+
+        run(100);
+        assertRestored(binary, file, state, expected, lnL);
+    }
+
+    public void testTextCheckpoint() throws IOException {
+        // a checkpointer writing binary files still loads a text one
+        Checkpointer text = new Checkpointer(BeastCheckpointer.Format.TEXT);
+        File file = createFile();
+
+        long state = run(100);
+        assertTrue(text.save(file, state));
+        assertFalse(BinaryCheckpointFormat.isBinaryCheckpoint(file));
+        String expected = getState();
+        double lnL = markovChain.getCurrentScore();
+
+        run(100);
+        assertRestored(new Checkpointer(BeastCheckpointer.Format.BINARY), file, state, expected, lnL);
+    }
+
+    /**
+     * Saves a snapshot and two deltas.
+     * @return the state of the last save
+     */
+    private long saveDeltas(Checkpointer checkpointer, File file) {
+        long state = 0;
+        for (int i = 0; i < 3; i++) {
+            state = run(100);
+            assertTrue(checkpointer.save(file, state));
+        }
+        return state;
+    }
+
+    private void assertRestored(Checkpointer checkpointer, File file, long state, String expected, double lnL) {
+        double[] savedLnL = new double[1];
+        assertEquals(state, checkpointer.load(file, savedLnL));
+        assertEquals(lnL, savedLnL[0]);
+        assertEquals(expected, getState());
+
+        markovChain.getLikelihood().makeDirty();
+        assertEquals(lnL, markovChain.getLikelihood().getLogLikelihood(), 1E-10);
+    }
+
+    /**
+     * @return the values of the parameters, the tree and the operator counts
+     */
+    private static String getState() {
+        StringBuilder sb = new StringBuilder();
+        for (Parameter parameter : Parameter.CONNECTED_PARAMETER_SET) {
+            for (int i = 0; i < parameter.getDimension(); i++) {
+                sb.append(parameter.getParameterValue(i)).append(' ');
+            }
+        }
+        sb.append(TreeUtils.newick(tree));
+        for (int i = 0; i < markovChain.getSchedule().getOperatorCount(); i++) {
+            MCMCOperator operator = markovChain.getSchedule().getOperator(i);
+            sb.append(' ').append(operator.getAcceptCount()).append('/').append(operator.getRejectCount());
+        }
+        return sb.toString();
+    }
+
+    private static long run(long length) {
+        markovChain.runChain(length, true);
+        return markovChain.getCurrentLength();
+    }
+
+    private void createChain() {
+        tree = createPrimateTreeModel();
+        // as in a parsed model, which the text format relies on
+        tree.setId(tree.getModelName());
+
+        Parameter kappa = new Parameter.Default("kappa", 2.0, 1.0E-8, Double.POSITIVE_INFINITY);
+        FrequencyModel f = new FrequencyModel(Nucleotides.INSTANCE, new Parameter.Default(alignment.getStateFrequencies()));
+
+        TreeDataLikelihood likelihood = new TreeDataLikelihood(
+                new JavaDataLikelihoodDelegate(tree, new SitePatterns(alignment, null, 0, -1, 1, true),
+                        new HomogeneousBranchModel(new HKY(kappa, f)), new GammaSiteRateModel("gamma"),
+                        false, PartialsRescalingScheme.NONE, false),
+                tree, new DefaultBranchRateModel());
+
+        OperatorSchedule schedule = new SimpleOperatorSchedule();
+        schedule.addOperator(new ScaleOperator(kappa, 0.5));
+        schedule.addOperator(new UniformOperator(((DefaultTreeModel) tree).createNodeHeightsParameter(false, true, false), 4.0));
+        schedule.addOperator(new ExchangeOperator(ExchangeOperator.NARROW, tree, 2.0));
+
+        MCMC mcmc = new MCMC("mcmc1");
+        mcmc.init(new MCMCOptions(0), likelihood, schedule, new MCLogger[0]);
+        markovChain = mcmc.getMarkovChain();
+    }
+
+    private File createFile() throws IOException {
+        File file = File.createTempFile("checkpoint", ".state");
+        files.add(file);
+        return file;
+    }
+
+    /**
+     * Gives the test access to the saving and loading of state files in either format.
+     */
+    private static class Checkpointer extends BeastCheckpointer {
+
+        Checkpointer(Format format) {
+            this.format = format;
+        }
+
+        boolean save(File file, long state) {
+            return writeStateToFile(file, state, markovChain.getCurrentScore(), markovChain);
+        }
+
+        long load(File file, double[] lnL) {
+            return readStateFromFile(file, markovChain, lnL);
+        }
+    }
+}
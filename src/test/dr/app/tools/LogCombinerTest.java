@@ -0,0 +1,162 @@
+/*
+ * LogCombinerTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.app.tools;
+
+import dr.app.tools.logcombiner.LogCombiner;
+import dr.app.tools.logcombiner.StreamingLogCombiner;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that the streaming combiner writes exactly what the line-by-line combiner writes. The chunks are
+ * made much shorter than the lines so that lines are split across chunk boundaries.
+ */
+public class LogCombinerTest extends TestCase {
+
+    private static final int CHUNK_SIZE = 7;
+
+    private final List<File> files = new ArrayList<File>();
+
+    public void tearDown() {
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    public void testLogFiles() throws IOException {
+        String[] inputs = {writeLog(0, 1000, 41, 1), writeLog(0, 1000, 41, 2)};
+
+        assertSameOutput(new long[]{0}, -1, inputs, false, false, false, 1.0);
+        assertSameOutput(new long[]{10000}, -1, inputs, false, false, false, 1.0);
+        assertSameOutput(new long[]{10000, 20000}, 2000, inputs, false, false, false, 1.0);
+        assertSameOutput(new long[]{10000}, -1, inputs, false, true, false, 1.0);
+        assertSameOutput(new long[]{5000}, 3000, inputs, false, true, false, 1.0);
+        assertSameOutput(new long[]{0}, -1, inputs, false, false, true, 0.5);
+    }
+
+    public void testTreeFiles() throws IOException {
+        String[] inputs = {writeTrees(0, 1000, 31, 1), writeTrees(0, 1000, 31, 2)};
+
+        assertSameOutput(new long[]{0}, -1, inputs, true, false, false, 1.0);
+        assertSameOutput(new long[]{10000}, -1, inputs, true, false, false, 1.0);
+        assertSameOutput(new long[]{10000, 20000}, 2000, inputs, true, false, false, 1.0);
+        assertSameOutput(new long[]{10000}, -1, inputs, true, true, false, 1.0);
+        assertSameOutput(new long[]{5000}, 3000, inputs, true, true, false, 1.0);
+    }
+
+    public void testLongLines() throws IOException {
+        // lines of several MB run well past the part of the file mapped beyond each chunk
+        String[] inputs = {writeTrees(0, 1000, 4, 1, 3 << 20)};
+
+        assertSameOutput(new long[]{0}, -1, inputs, true, false, false, 1.0, 1 << 16);
+    }
+
+    private void assertSameOutput(long[] burnins, long resample, String[] inputs, boolean treeFiles,
+                                  boolean renumber, boolean useScale, double scale) throws IOException {
+        assertSameOutput(burnins, resample, inputs, treeFiles, renumber, useScale, scale, CHUNK_SIZE);
+    }
+
+    private void assertSameOutput(long[] burnins, long resample, String[] inputs, boolean treeFiles,
+                                  boolean renumber, boolean useScale, double scale, int chunkSize) throws IOException {
+        File expected = createFile(treeFiles ? ".trees" : ".log");
+        File actual = createFile(treeFiles ? ".trees" : ".log");
+
+        // a thread count of 0 reads the files line by line
+        new LogCombiner(burnins, resample, inputs, expected.getPath(), treeFiles,
+                false, false, renumber, useScale, scale, 0);
+        new StreamingLogCombiner(3, chunkSize).combine(burnins, resample, inputs, actual.getPath(), treeFiles,
+                false, renumber, useScale, scale);
+
+        String expectedText = new String(Files.readAllBytes(expected.toPath()));
+        assertTrue(expectedText.length() > 0);
+        assertEquals(expectedText, new String(Files.readAllBytes(actual.toPath())));
+    }
+
+    private String writeLog(long firstState, long step, int count, int seed) throws IOException {
+        File file = createFile(".log");
+        PrintWriter writer = new PrintWriter(file);
+        writer.println("# BEAST v10.5.0");
+        writer.println("# Generated for testing");
+        writer.println("state\tjoint\tprior\tlikelihood\trate");
+        for (int i = 0; i < count; i++) {
+            writer.println((firstState + i * step) + "\t" + (-1234.5 - i * seed) + "\t" + (-12.25 + i) + "\t" +
+                    (-1222.25 - i * seed * 0.5) + "\t" + (1.0E-3 * (i + seed)));
+        }
+        writer.close();
+        return file.getPath();
+    }
+
+    private String writeTrees(long firstState, long step, int count, int seed) throws IOException {
+        return writeTrees(firstState, step, count, seed, 0);
+    }
+
+    /**
+     * @param padding the length of an extra annotation on each tree
+     */
+    private String writeTrees(long firstState, long step, int count, int seed, int padding) throws IOException {
+        StringBuilder annotation = new StringBuilder();
+        if (padding > 0) {
+            annotation.append(",note=");
+            for (int i = 0; i < padding; i++) {
+                annotation.append((char) ('a' + i % 26));
+            }
+        }
+
+        File file = createFile(".trees");
+        PrintWriter writer = new PrintWriter(file);
+        writer.println("#NEXUS");
+        writer.println();
+        writer.println("Begin taxa;");
+        writer.println("\tDimensions ntax=3;");
+        writer.println("\tTaxlabels\n\t\tA\n\t\tB\n\t\tC\n\t\t;");
+        writer.println("End;");
+        writer.println();
+        writer.println("Begin trees;");
+        writer.println("\tTranslate\n\t\t1 A,\n\t\t2 B,\n\t\t3 C\n\t\t;");
+        for (int i = 0; i < count; i++) {
+            double height = 1.0 + 0.1 * i * seed;
+            writer.println("tree STATE_" + (firstState + i * step) + " [&lnP=" + (-100.5 - i) + ",joint=" + (-90.25 - i) +
+                    "] = [&R] ((1[&rate=" + (0.5 + i) + annotation + "]:" + height + ",2:" + height + "):0.5,3:" + (height + 0.5) + ");");
+        }
+        writer.println("End;");
+        writer.close();
+        return file.getPath();
+    }
+
+    private File createFile(String suffix) throws IOException {
+        File file = File.createTempFile("logcombiner", suffix);
+        files.add(file);
+        return file;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * IndexedTreeFileTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.evolution;
+
+import dr.evolution.io.IndexedTreeFile;
+import dr.evolution.io.NexusImporter;
+import dr.evolution.tree.Tree;
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+public class IndexedTreeFileTest extends TestCase {
+
+    private static final String TREES = "#NEXUS\n\n" +
+            "Begin taxa;\n\tDimensions ntax=3;\n\tTaxlabels\n\t\tA\n\t\tB\n\t\tC\n\t\t;\nEnd;\n\n" +
+            "Begin trees;\n\tTranslate\n\t\t1 A,\n\t\t2 B,\n\t\t3 C\n\t\t;\n" +
+            "tree STATE_0 [&lnP=-10.5] = [&R] ((1:1.0,2:1.0):0.5,3:1.5);\n" +
+            "tree STATE_100 [&lnP=-9.25] = [&R] ((1[&rate=0.5,location=\"Zürich;CH\"]:1.0,3:1.0):0.5,\n" +
+            "    2:1.5);\n" +
+            "tree STATE_200 [&lnP=-8.0] = [&R] (1:2.0,(2:1.0,3:1.0):1.0);\n" +
+            "End;\n";
+
+    public void testMatchesNexusImporter() throws Exception {
+        File file = writeTreesFile();
+        try {
+            NexusImporter importer = new NexusImporter(new FileReader(file));
+
+            IndexedTreeFile treeFile = new IndexedTreeFile(file, false);
+            assertEquals(3, treeFile.getTreeCount());
+            assertTrue(new File(file.getPath() + IndexedTreeFile.INDEX_FILE_SUFFIX).isFile());
+
+            for (int i = 0; i < treeFile.getTreeCount(); i++) {
+                Tree expected = importer.importNextTree();
+                Tree tree = treeFile.getTree(i);
+
+                assertEquals(expected.getId(), tree.getId());
+                assertEquals(i * 100L, treeFile.getState(i));
+                assertEquals(expected.getAttribute("lnP"), tree.getAttribute("lnP"));
+                assertEquals(expected.toString(), tree.toString());
+                for (int j = 0; j < tree.getExternalNodeCount(); j++) {
+                    assertEquals(expected.getNodeTaxon(expected.getExternalNode(j)), tree.getNodeTaxon(tree.getExternalNode(j)));
+                }
+            }
+
+            assertEquals("Zürich;CH", treeFile.getTree(1).getNodeAttribute(treeFile.getTree(1).getExternalNode(0), "location"));
+
+            assertEquals(0, treeFile.getFirstTreeIndex(0));
+            assertEquals(1, treeFile.getFirstTreeIndex(50));
+            assertEquals(2, treeFile.getFirstTreeIndex(200));
+            assertEquals(3, treeFile.getFirstTreeIndex(201));
+
+            // the saved index is used the second time
+            IndexedTreeFile reopened = new IndexedTreeFile(file, false);
+            assertEquals(3, reopened.getTreeCount());
+            assertEquals(treeFile.getTree(2).toString(), reopened.getTree(2).toString());
+        } finally {
+            new File(file.getPath() + IndexedTreeFile.INDEX_FILE_SUFFIX).delete();
+            file.delete();
+        }
+    }
+
+    private File writeTreesFile() throws IOException {
+        File file = File.createTempFile("indexed", ".trees");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+        writer.write(TREES);
+        writer.close();
+        return file;
+    }
+}
@@ -27,8 +27,12 @@
 
 package test.dr.evolution;
 
+import dr.evolution.alignment.SimpleAlignment;
 import dr.evolution.alignment.SitePatterns;
+import dr.evolution.datatype.GeneralDataType;
 import dr.evolution.datatype.Nucleotides;
+import dr.evolution.sequence.DelimitedSequence;
+import dr.evolution.sequence.Sequence;
 import dr.evolution.tree.TreeUtils;
 import dr.evomodel.branchmodel.HomogeneousBranchModel;
 import dr.evomodel.branchratemodel.DefaultBranchRateModel;
@@ -51,6 +55,7 @@ import junit.framework.TestSuite;
 import test.dr.inference.trace.TraceCorrelationAssert;
 
 import java.text.NumberFormat;
+import java.util.Arrays;
 import java.util.Locale;
 
 
@@ -99,6 +104,53 @@ public class SitePatternsTest extends TraceCorrelationAssert {
         assertEquals("Wrong number of compressed patterns", patterns.getPatternCount(), 37);
     }
 
+    public void testLongAlignmentSitePatterns() {
+        // three copies of the alignment so the sites are compressed in several chunks
+        SimpleAlignment longAlignment = new SimpleAlignment();
+        longAlignment.setDataType(Nucleotides.INSTANCE);
+        for (int i = 0; i < alignment.getSequenceCount(); i++) {
+            Sequence sequence = alignment.getSequence(i);
+            String states = sequence.getSequenceString();
+            longAlignment.addSequence(new Sequence(sequence.getTaxon(), states + states + states));
+        }
+
+        SitePatterns patterns = new SitePatterns(alignment);
+        SitePatterns longPatterns = new SitePatterns(longAlignment);
+
+        assertEquals("Wrong number of compressed patterns", patterns.getPatternCount(), longPatterns.getPatternCount());
+        for (int i = 0; i < patterns.getPatternCount(); i++) {
+            assertTrue("Patterns differ", Arrays.equals(patterns.getPattern(i), longPatterns.getPattern(i)));
+            assertEquals("Wrong pattern weight", 3 * patterns.getPatternWeight(i), longPatterns.getPatternWeight(i));
+        }
+        for (int i = 0; i < longPatterns.getSiteCount(); i++) {
+            assertEquals("Wrong site pattern", patterns.getPatternIndex(i % patterns.getSiteCount()), longPatterns.getPatternIndex(i));
+        }
+    }
+
+    public void testDelimitedSequenceSitePatterns() {
+        // multi-character state codes are held as delimited codes rather than as a character string
+        GeneralDataType dataType = new GeneralDataType(new String[]{"Beijing", "HongKong", "Shanghai"});
+        String delimiter = dataType.getDelimiter();
+        String[] traits = {"Beijing", "HongKong", "Beijing", "Shanghai"};
+        String[] secondTraits = {"HongKong", "HongKong", "Beijing", "HongKong"};
+
+        SimpleAlignment traitAlignment = new SimpleAlignment();
+        traitAlignment.setDataType(dataType);
+        for (int i = 0; i < traits.length; i++) {
+            traitAlignment.addSequence(new DelimitedSequence(alignment.getTaxon(i),
+                    traits[i] + delimiter + secondTraits[i] + delimiter + traits[i], dataType));
+        }
+
+        SitePatterns patterns = new SitePatterns(traitAlignment);
+
+        assertEquals("Wrong number of compressed patterns", 2, patterns.getPatternCount());
+        assertEquals("Wrong site pattern", patterns.getPatternIndex(0), patterns.getPatternIndex(2));
+        int[] pattern = patterns.getPattern(patterns.getPatternIndex(0));
+        for (int i = 0; i < traits.length; i++) {
+            assertEquals("Wrong state", dataType.getState(traits[i]), pattern[i]);
+        }
+        assertEquals("Wrong pattern weight", 2.0, patterns.getPatternWeight(patterns.getPatternIndex(0)));
+    }
 
     public static Test suite() {
         return new TestSuite(SitePatternsTest.class);
@@ -36,6 +36,7 @@ import dr.evolution.tree.NodeRef;
 import dr.evolution.tree.TreeUtils;
 import dr.evomodel.bigfasttree.BigFastTreeIntervals;
 import dr.evomodel.bigfasttree.BigFastTreeModel;
+import dr.evomodel.bigfasttree.IntervalChangedEvent;
 import dr.evomodel.coalescent.TreeIntervals;
 import dr.evomodel.operators.ScaleNodeHeightOperator;
 import dr.evomodel.operators.UniformNodeHeightOperator;
@@ -317,5 +318,77 @@ public class BigFastTreeTreeIntervalsTest extends TestCase {
     }
 
 
+    public void testStoreRestore() throws TreeUtils.MissingTaxonException, IOException, Importer.ImportException {
+        MathUtils.setSeed(13);
+        StringBuilder newick = new StringBuilder();
+        appendRandomClade(newick, 0, 64);
+        tree = new DefaultTreeModel(new NewickImporter(newick.toString() + ";").importTree(null));
+
+        BigFastTreeIntervals bigFastTreeIntervals = new BigFastTreeIntervals(tree);
+        bigFastTreeIntervals.calculateIntervals();
+
+        for (int i = 0; i < 2000; i++) {
+            double[] before = new double[bigFastTreeIntervals.getIntervalCount()];
+            for (int j = 0; j < before.length; j++) {
+                before[j] = bigFastTreeIntervals.getInterval(j);
+            }
+
+            bigFastTreeIntervals.storeModelState();
+
+            // move a random internal node between its oldest child and its parent
+            NodeRef node;
+            do {
+                node = tree.getInternalNode(MathUtils.nextInt(tree.getInternalNodeCount()));
+            } while (tree.isRoot(node));
+            double lower = Math.max(tree.getNodeHeight(tree.getChild(node, 0)), tree.getNodeHeight(tree.getChild(node, 1)));
+            double upper = tree.getNodeHeight(tree.getParent(node));
+            tree.setNodeHeight(node, lower + MathUtils.nextDouble() * (upper - lower));
+
+            assertSameIntervals(new TreeIntervals(tree, null, null), bigFastTreeIntervals);
+
+            // all changed intervals are in the range reported
+            IntervalChangedEvent changed = bigFastTreeIntervals.getChangedIntervals();
+            for (int j = 0; j < before.length; j++) {
+                if (before[j] != bigFastTreeIntervals.getInterval(j)) {
+                    assertNotNull(changed);
+                    assertTrue(j >= changed.getFirstInterval() && j <= changed.getLastInterval());
+                }
+            }
+
+            if (MathUtils.nextBoolean()) {
+                bigFastTreeIntervals.acceptModelState();
+            } else {
+                bigFastTreeIntervals.restoreModelState();
+                for (int j = 0; j < before.length; j++) {
+                    assertEquals(before[j], bigFastTreeIntervals.getInterval(j));
+                }
+            }
+            assertSameIntervals(new TreeIntervals(tree, null, null), bigFastTreeIntervals);
+        }
+    }
+
+    private void appendRandomClade(StringBuilder newick, int firstTip, int tipCount) {
+        if (tipCount == 1) {
+            newick.append(firstTip);
+        } else {
+            int left = 1 + MathUtils.nextInt(tipCount - 1);
+            newick.append("(");
+            appendRandomClade(newick, firstTip, left);
+            newick.append(",");
+            appendRandomClade(newick, firstTip + left, tipCount - left);
+            newick.append(")");
+        }
+        newick.append(":").append(0.1 + MathUtils.nextDouble());
+    }
+
+    private void assertSameIntervals(IntervalList expected, IntervalList intervals) {
+        assertEquals(expected.getIntervalCount(), intervals.getIntervalCount());
+        for (int j = 0; j < intervals.getIntervalCount(); j++) {
+            assertEquals(expected.getInterval(j), intervals.getInterval(j));
+            assertEquals(expected.getLineageCount(j), intervals.getLineageCount(j));
+            assertEquals(expected.getIntervalType(j), intervals.getIntervalType(j));
+        }
+    }
+
     private TreeModel tree;
 }
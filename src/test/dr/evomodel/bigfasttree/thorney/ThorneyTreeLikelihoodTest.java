@@ -42,6 +42,7 @@ import dr.evomodel.bigfasttree.thorney.ConstrainedTreeOperator;
 import dr.evomodel.bigfasttree.thorney.MutationBranchMap;
 import dr.evomodel.bigfasttree.thorney.PoissonBranchLengthLikelihoodDelegate;
 import dr.evomodel.bigfasttree.thorney.ThorneyDataLikelihoodDelegate;
+import dr.evomodel.bigfasttree.thorney.ThorneyTreeGradient;
 import dr.evomodel.operators.ExchangeOperator;
 import dr.evomodel.branchratemodel.BranchRateModel;
 import dr.evomodel.branchratemodel.StrictClockBranchRates;
@@ -139,6 +140,56 @@ public class ThorneyTreeLikelihoodTest extends TestCase {
        assertEquals(ll, treeDataLikelihood.getLogLikelihood(),1E-13);
 
     }
+    public void testStoreRestore(){
+        double LL = treeDataLikelihood.getLogLikelihood();
+
+        treeDataLikelihood.storeModelState();
+        NodeRef insertedNode = constrainedTreeModel.getParent(constrainedTreeModel.getNode(0));
+        constrainedTreeModel.setNodeHeight(insertedNode,0.9);
+        assertFalse(LL == treeDataLikelihood.getLogLikelihood());
+
+        treeDataLikelihood.restoreModelState();
+        assertEquals(LL, treeDataLikelihood.getLogLikelihood(),1E-13);
+
+        // a second move after the restore only touches the other branches
+        treeDataLikelihood.storeModelState();
+        constrainedTreeModel.setNodeHeight(constrainedTreeModel.getRoot(),3.5);
+        double movedLL = treeDataLikelihood.getLogLikelihood();
+        treeDataLikelihood.makeDirty();
+        assertEquals(treeDataLikelihood.getLogLikelihood(), movedLL, 1E-13);
+    }
+
+    public void testGradient(){
+        ThorneyTreeGradient gradient = new ThorneyTreeGradient(treeDataLikelihood);
+        rateParameter.setValue(0, 2.0);
+        NodeRef insertedNode = constrainedTreeModel.getParent(constrainedTreeModel.getNode(0));
+        constrainedTreeModel.setNodeHeight(insertedNode,0.9);
+
+        double[] heightGradient = gradient.getGradientLogDensity();
+
+        // d/dt of the Poisson log likelihood of each branch is (mutations / mean - 1) * rate
+        double[] branchGradient = new double[constrainedTreeModel.getNodeCount()];
+        MutationBranchMap mutationMap = new ConstrainedTreeBranchLengthProvider(constrainedTreeModel,tree);
+        for (int i = 0; i < constrainedTreeModel.getNodeCount(); i++) {
+            NodeRef node = constrainedTreeModel.getNode(i);
+            if (!constrainedTreeModel.isRoot(node)) {
+                double mean = constrainedTreeModel.getBranchLength(node) * 2.0;
+                branchGradient[i] = (mutationMap.getMutations(node).getMutationCount() / mean - 1.0) * 2.0;
+            }
+        }
+        for (int i = 0; i < constrainedTreeModel.getInternalNodeCount(); i++) {
+            NodeRef node = constrainedTreeModel.getNode(i + constrainedTreeModel.getExternalNodeCount());
+            double expected = 0.0;
+            for (int j = 0; j < constrainedTreeModel.getChildCount(node); j++) {
+                expected += branchGradient[constrainedTreeModel.getChild(node, j).getNumber()];
+            }
+            if (!constrainedTreeModel.isRoot(node)) {
+                expected -= branchGradient[node.getNumber()];
+            }
+            assertEquals(expected, heightGradient[i], 1E-10);
+        }
+    }
+
     public void testAfterOperator(){
 
         ExchangeOperator narrow = new ExchangeOperator(0, null, 10);
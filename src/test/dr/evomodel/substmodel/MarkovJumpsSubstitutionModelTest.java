@@ -30,12 +30,16 @@ package test.dr.evomodel.substmodel;
 import test.dr.math.MathTestCase;
 import dr.evomodel.substmodel.nucleotide.HKY;
 import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.MarkovJumpsBatch;
 import dr.evomodel.substmodel.MarkovJumpsSubstitutionModel;
 import dr.evolution.datatype.Nucleotides;
 import dr.inference.markovjumps.MarkovJumpsType;
 import dr.inference.markovjumps.MarkovJumpsCore;
 import dr.math.matrixAlgebra.Vector;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * @author Marc A. Suchard
  */
@@ -156,6 +160,55 @@ public class MarkovJumpsSubstitutionModelTest extends MathTestCase {
         assertEquals(1.0, marginalRate, tolerance);
     }
 
+    public void testBatch() {
+        HKY substModel = new HKY(2.0,
+                new FrequencyModel(Nucleotides.INSTANCE,
+                        new double[]{0.3, 0.2, 0.25, 0.25})); // A,C,G,T
+
+        int states = substModel.getDataType().getStateCount();
+
+        List<MarkovJumpsSubstitutionModel> models = new ArrayList<MarkovJumpsSubstitutionModel>();
+        double[] r = new double[states * states];
+        MarkovJumpsCore.fillRegistrationMatrix(r, 0, 1, states, 1.0);
+        models.add(new MarkovJumpsSubstitutionModel(substModel, MarkovJumpsType.COUNTS));
+        models.get(0).setRegistration(r);
+        MarkovJumpsCore.fillRegistrationMatrix(r, states);
+        models.add(new MarkovJumpsSubstitutionModel(substModel, MarkovJumpsType.COUNTS));
+        models.get(1).setRegistration(r);
+        models.add(new MarkovJumpsSubstitutionModel(substModel, MarkovJumpsType.REWARDS));
+        models.get(2).setRegistration(new double[]{1.0, 0.0, 0.5, 0.0});
+
+        MarkovJumpsBatch batch = new MarkovJumpsBatch(models, 2);
+
+        // a few pairs and all the pairs are computed differently
+        int[] from = new int[states * states];
+        int[] to = new int[states * states];
+        for (int i = 0; i < states * states; i++) {
+            from[i] = (i * 7) % (states * states) / states;
+            to[i] = (i * 7) % states;
+        }
+
+        double[] p = new double[states * states];
+        double[] c = new double[states * states];
+        double[][] values = new double[models.size()][states * states];
+
+        for (double kappa : new double[]{2.0, 5.0}) {
+            substModel.setKappa(kappa);
+            for (double time : new double[]{0.1, 1.0, 0.1}) {
+                substModel.getTransitionProbabilities(time, p);
+                for (int pairCount : new int[]{2, states * states}) {
+                    batch.computeCondStatMarkovJumps(time > 0.5 ? 1 : 0, time, p, 0, from, to, pairCount, values);
+                    for (int k = 0; k < models.size(); k++) {
+                        models.get(k).computeCondStatMarkovJumps(time, p, c);
+                        for (int i = 0; i < pairCount; i++) {
+                            assertEquals(c[from[i] * states + to[i]], values[k][i], 1E-10);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
     private static double tolerance = 1E-6;
 
     private static double[] rMarkovJumpsJ = {
@@ -0,0 +1,172 @@
+/*
+ * CompactTreeStoreTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.evomodel.tree;
+
+import dr.evolution.io.NewickImporter;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evolution.tree.TreeUtils;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.evomodel.tree.CompactTree;
+import dr.evomodel.tree.CompactTreeStore;
+import junit.framework.TestCase;
+
+import java.io.File;
+
+public class CompactTreeStoreTest extends TestCase {
+
+    private static final String[] IDS = {"A", "B", "C", "D"};
+
+    private static final String[] TREES = {
+            "((A:1.0,B:1.0):0.5,(C:0.75,D:0.75):0.75);",
+            "((A:1.0,B:1.0):0.75,(C:0.75,D:0.75):1.0);",
+            "((B:1.25,A:1.25):0.25,(D:0.75,C:0.75):0.75);",
+            "(((C:0.5,A:0.5):0.5,B:1.0):0.5,D:1.5);"
+    };
+
+    public void testStoreAndLoad() throws Exception {
+        Tree[] trees = readTrees();
+        Taxa taxa = getTaxa();
+
+        CompactTreeStore store = CompactTreeStore.create(taxa, trees.length, false);
+        for (int i = 0; i < trees.length; i++) {
+            store.setTree(i, trees[i]);
+        }
+
+        CompactTree tree = new CompactTree(store);
+        int[] changed = new int[store.getNodeCount()];
+
+        assertEquals(store.getNodeCount(), tree.load(0, changed));
+        assertSameTree(trees[0], tree);
+
+        // only the root height differs
+        assertEquals(1, tree.load(1, changed));
+        assertEquals(tree.getRoot().getNumber(), changed[0]);
+        assertSameTree(trees[1], tree);
+
+        // the same topology with the children in another order and two different heights
+        assertEquals(2, tree.load(2, changed));
+        assertSameTree(trees[2], tree);
+
+        // a different topology
+        int count = tree.load(3, changed);
+        assertSameTree(trees[3], tree);
+        for (int i = 0; i < count; i++) {
+            // tip heights are unchanged
+            assertFalse(tree.isExternal(tree.getNode(changed[i])));
+        }
+
+        // restoring goes back to the stored tree, and a further load still reports changes from it
+        tree.store();
+        tree.load(0, changed);
+        assertSameTree(trees[0], tree);
+        tree.restore();
+        assertSameTree(trees[3], tree);
+        assertEquals(3, tree.getTreeIndex());
+    }
+
+    public void testStoreFile() throws Exception {
+        Tree[] trees = readTrees();
+        Taxa taxa = getTaxa();
+
+        File source = File.createTempFile("trees", ".trees");
+        File file = File.createTempFile("trees", ".store");
+        try {
+            assertNull(CompactTreeStore.open(taxa, file, source));
+
+            CompactTreeStore store = CompactTreeStore.create(taxa, trees.length, true, file, source);
+            for (int i = 0; i < trees.length; i++) {
+                store.setTree(i, trees[i]);
+            }
+            // not complete until finished
+            assertNull(CompactTreeStore.open(taxa, file, source));
+            store.finish();
+
+            CompactTreeStore reopened = CompactTreeStore.open(taxa, file, source);
+            assertNotNull(reopened);
+            assertTrue(reopened.isSinglePrecision());
+            assertEquals(trees.length, reopened.getTreeCount());
+
+            CompactTree tree = new CompactTree(reopened);
+            for (int i = 0; i < trees.length; i++) {
+                tree.load(i, null);
+                assertSameTree(trees[i], tree);
+            }
+
+            // the store is for different taxa
+            Taxa other = getTaxa();
+            other.addTaxon(new Taxon("E"));
+            assertNull(CompactTreeStore.open(other, file, source));
+        } finally {
+            source.delete();
+            file.delete();
+        }
+    }
+
+    private Tree[] readTrees() throws Exception {
+        Tree[] trees = new Tree[TREES.length];
+        for (int i = 0; i < TREES.length; i++) {
+            trees[i] = new NewickImporter(TREES[i]).importNextTree();
+        }
+        return trees;
+    }
+
+    private Taxa getTaxa() {
+        Taxa taxa = new Taxa();
+        for (String id : IDS) {
+            taxa.addTaxon(new Taxon(id));
+        }
+        return taxa;
+    }
+
+    private void assertSameTree(Tree expected, Tree tree) {
+        assertEquals(TreeUtils.uniqueNewick(expected, expected.getRoot()), TreeUtils.uniqueNewick(tree, tree.getRoot()));
+        for (String id1 : IDS) {
+            for (String id2 : IDS) {
+                assertEquals(getMRCAHeight(expected, id1, id2), getMRCAHeight(tree, id1, id2), 1E-6);
+            }
+        }
+        assertEquals(expected.getNodeHeight(expected.getRoot()), tree.getNodeHeight(tree.getRoot()), 1E-6);
+    }
+
+    private double getMRCAHeight(Tree tree, String id1, String id2) {
+        NodeRef node1 = getTip(tree, id1);
+        NodeRef node2 = getTip(tree, id2);
+        return tree.getNodeHeight(TreeUtils.getCommonAncestor(tree, node1, node2));
+    }
+
+    private NodeRef getTip(Tree tree, String id) {
+        for (int i = 0; i < tree.getExternalNodeCount(); i++) {
+            if (tree.getNodeTaxon(tree.getExternalNode(i)).getId().equals(id)) {
+                return tree.getExternalNode(i);
+            }
+        }
+        throw new AssertionError("No tip " + id);
+    }
+}
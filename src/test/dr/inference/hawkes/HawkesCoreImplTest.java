@@ -0,0 +1,292 @@
+/*
+ * HawkesCoreImplTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.inference.hawkes;
+
+import dr.inference.hawkes.HawkesCore;
+import dr.inference.hawkes.HawkesCoreImpl;
+import dr.inference.hawkes.NativeHPHSingleton;
+import dr.math.distributions.NormalDistribution;
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class HawkesCoreImplTest extends TestCase {
+
+    private static final int DIMENSION = 2;
+    private static final int COUNT = 300;
+
+    // sigmaXprec, tauXprec, tauTprec, omega, theta, mu0
+    private static final double[] PARAMETERS = {2.0, 0.5, 0.8, 1.5, 0.4, 0.2};
+
+    private static final String THREADS = "hph.threads";
+
+    // a small data set in time order on which the values of the native library's likelihood are known
+    private static final double[] FIXED_TIMES = {0.0, 0.4, 1.1, 1.5, 2.7, 3.0};
+    private static final double[] FIXED_LOCATIONS = {0.0, 0.0, 0.3, -0.2, -0.5, 0.8, 1.0, 0.4, 0.2, 0.1, -0.7, -0.6};
+    private static final double[] FIXED_RATES = {1.0, 0.8, 1.3, 1.1, 0.6, 0.9};
+    private static final double FIXED_LOG_LIKELIHOOD = -18.70704156587705;
+    private static final double[] FIXED_LOCATION_GRADIENT = {
+            0.79010914, 1.2282927, -0.69966300, 2.7862510, 2.7177859, -3.3049444,
+            -3.9416943, -1.7303481, -1.6094217, -1.2362936, 2.7428840, 2.2570423};
+    private static final double[] FIXED_RATE_GRADIENT = {1.4610646, 0.67972162, -0.16353553, -0.0051528577, 0.94197860, 0.0};
+
+    private static NativeHPHSingleton hph = loadLibrary();
+
+    private static NativeHPHSingleton loadLibrary() {
+        try {
+            return NativeHPHSingleton.loadLibrary();
+        } catch (UnsatisfiedLinkError error) {
+            System.err.println("Unable to load HPH library; not comparing with the native core");
+            return null;
+        }
+    }
+
+    private double[] times;
+    private double[] locations;
+    private double[] rates;
+
+    private String threads;
+    private String truncationWindow;
+
+    @Override
+    protected void setUp() {
+        // the core reads these when it is created, so start from the defaults and put back whatever was set
+        threads = System.getProperty(THREADS);
+        truncationWindow = System.getProperty(HawkesCoreImpl.TRUNCATION_WINDOW);
+        System.clearProperty(THREADS);
+        System.clearProperty(HawkesCoreImpl.TRUNCATION_WINDOW);
+
+        Random random = new Random(42);
+        times = new double[COUNT];
+        locations = new double[COUNT * DIMENSION];
+        rates = new double[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            times[i] = 20.0 * random.nextDouble();
+            rates[i] = 0.5 + random.nextDouble();
+        }
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = random.nextGaussian();
+        }
+        // the earliest time is 0 as in HawkesLikelihood
+        double min = Double.POSITIVE_INFINITY;
+        for (double t : times) {
+            min = Math.min(min, t);
+        }
+        for (int i = 0; i < COUNT; i++) {
+            times[i] -= min;
+        }
+    }
+
+    @Override
+    protected void tearDown() {
+        restoreProperty(THREADS, threads);
+        restoreProperty(HawkesCoreImpl.TRUNCATION_WINDOW, truncationWindow);
+    }
+
+    private static void restoreProperty(String key, String value) {
+        if (value == null) {
+            System.clearProperty(key);
+        } else {
+            System.setProperty(key, value);
+        }
+    }
+
+    public void testLogLikelihood() {
+        HawkesCore core = createCore(locations, rates);
+        assertEquals(getLogLikelihood(locations, rates), core.calculateLogLikelihood(), 1E-9);
+    }
+
+    public void testGradients() {
+        HawkesCore core = createCore(locations, rates);
+        double[] locationGradient = new double[COUNT * DIMENSION];
+        double[] rateGradient = new double[COUNT];
+        core.getLocationGradient(locationGradient);
+        core.getRandomRatesGradient(rateGradient);
+
+        final double h = 1E-6;
+        for (int i = 0; i < locationGradient.length; i += 37) {
+            double[] x = locations.clone();
+            x[i] += h;
+            double up = getLogLikelihood(x, rates);
+            x[i] -= 2 * h;
+            double down = getLogLikelihood(x, rates);
+            assertEquals((up - down) / (2 * h), locationGradient[i], 1E-4);
+        }
+        for (int i = 0; i < COUNT; i += 23) {
+            double[] r = rates.clone();
+            r[i] += h;
+            double up = getLogLikelihood(locations, r);
+            r[i] -= 2 * h;
+            double down = getLogLikelihood(locations, r);
+            assertEquals((up - down) / (2 * h), rateGradient[i], 1E-4);
+        }
+    }
+
+    public void testFixedValues() {
+        HawkesCore core = new HawkesCoreImpl();
+        core.initialize(DIMENSION, FIXED_TIMES.length, 0);
+        core.setTimesData(FIXED_TIMES);
+        core.setParameters(PARAMETERS);
+        core.setRandomRates(FIXED_RATES);
+        core.updateLocation(-1, FIXED_LOCATIONS);
+        double[] locationGradient = new double[FIXED_LOCATIONS.length];
+        double[] rateGradient = new double[FIXED_RATES.length];
+        core.getLocationGradient(locationGradient);
+        core.getRandomRatesGradient(rateGradient);
+        assertFixedValues(core.calculateLogLikelihood(), locationGradient, rateGradient);
+    }
+
+    public void testNativeCore() {
+        if (hph != null) {
+            int instance = hph.initialize(DIMENSION, FIXED_TIMES.length, new HawkesCore.CoreInformation());
+            hph.setTimesData(instance, FIXED_TIMES);
+            hph.setParameters(instance, PARAMETERS);
+            hph.setRandomRates(instance, FIXED_RATES);
+            hph.updateLocations(instance, -1, FIXED_LOCATIONS);
+
+            double[] locationGradient = new double[FIXED_LOCATIONS.length];
+            double[] rateGradient = new double[FIXED_RATES.length];
+            hph.getLocationGradient(instance, locationGradient);
+            hph.getRandomRatesGradient(instance, rateGradient);
+            assertFixedValues(hph.getSumOfIncrements(instance), locationGradient, rateGradient);
+        } else {
+            System.out.println("testNativeCore skipped");
+        }
+    }
+
+    private static void assertFixedValues(double logLikelihood, double[] locationGradient, double[] rateGradient) {
+        assertEquals(FIXED_LOG_LIKELIHOOD, logLikelihood, 1E-9);
+        for (int i = 0; i < locationGradient.length; i++) {
+            assertEquals(FIXED_LOCATION_GRADIENT[i], locationGradient[i], 1E-6);
+        }
+        for (int i = 0; i < rateGradient.length; i++) {
+            assertEquals(FIXED_RATE_GRADIENT[i], rateGradient[i], 1E-6);
+        }
+    }
+
+    public void testThreadsAndWindow() {
+        HawkesCore core = createCore(locations, rates);
+        double logL = core.calculateLogLikelihood();
+        double[] gradient = new double[COUNT * DIMENSION];
+        core.getLocationGradient(gradient);
+
+        // a window longer than the data and more threads give the same values
+        System.setProperty(THREADS, "3");
+        System.setProperty(HawkesCoreImpl.TRUNCATION_WINDOW, "100.0");
+        HawkesCore other = createCore(locations, rates);
+        assertEquals(logL, other.calculateLogLikelihood(), 0.0);
+        double[] otherGradient = new double[COUNT * DIMENSION];
+        other.getLocationGradient(otherGradient);
+        for (int i = 0; i < gradient.length; i++) {
+            assertEquals(gradient[i], otherGradient[i], 0.0);
+        }
+
+        // a window over which the kernels have decayed changes little
+        System.setProperty(HawkesCoreImpl.TRUNCATION_WINDOW, "12.0");
+        HawkesCore truncated = createCore(locations, rates);
+        assertEquals(logL, truncated.calculateLogLikelihood(), 1E-4);
+    }
+
+    public void testStoreRestore() {
+        HawkesCore core = createCore(locations, rates);
+        double logL = core.calculateLogLikelihood();
+        double[] gradient = new double[COUNT * DIMENSION];
+        core.getLocationGradient(gradient);
+
+        core.storeState();
+        core.updateLocation(5, new double[]{3.0, -2.0});
+        double[] moved = locations.clone();
+        moved[10] = 3.0;
+        moved[11] = -2.0;
+        assertEquals(getLogLikelihood(moved, rates), core.calculateLogLikelihood(), 1E-9);
+
+        core.restoreState();
+        assertEquals(logL, core.calculateLogLikelihood(), 0.0);
+        double[] restored = new double[COUNT * DIMENSION];
+        core.getLocationGradient(restored);
+        for (int i = 0; i < gradient.length; i++) {
+            assertEquals(gradient[i], restored[i], 0.0);
+        }
+    }
+
+    private HawkesCore createCore(double[] locations, double[] rates) {
+        HawkesCore core = new HawkesCoreImpl();
+        core.initialize(DIMENSION, COUNT, 0);
+        core.setTimesData(times);
+        core.setParameters(PARAMETERS);
+        core.setRandomRates(rates);
+        core.updateLocation(-1, locations);
+        return core;
+    }
+
+    /**
+     * The log likelihood summed directly over all pairs of events in their original order.
+     */
+    private double getLogLikelihood(double[] locations, double[] rates) {
+        final double sigmaXprec = PARAMETERS[0];
+        final double tauXprec = PARAMETERS[1];
+        final double tauTprec = PARAMETERS[2];
+        final double omega = PARAMETERS[3];
+        final double theta = PARAMETERS[4];
+        final double mu0 = PARAMETERS[5];
+
+        double lastTime = 0.0;
+        for (double t : times) {
+            lastTime = Math.max(lastTime, t);
+        }
+
+        double logL = 0.0;
+        for (int i = 0; i < COUNT; i++) {
+            double lambda = 0.0;
+            for (int j = 0; j < COUNT; j++) {
+                if (i != j) {
+                    double distance2 = 0.0;
+                    for (int k = 0; k < DIMENSION; k++) {
+                        double difference = locations[i * DIMENSION + k] - locations[j * DIMENSION + k];
+                        distance2 += difference * difference;
+                    }
+                    double dt = times[i] - times[j];
+                    lambda += mu0 * normal(tauXprec, distance2, DIMENSION) * normal(tauTprec, dt * dt, 1);
+                    if (dt > 0) {
+                        lambda += theta * rates[j] * omega * Math.exp(-omega * dt) * normal(sigmaXprec, distance2, DIMENSION);
+                    }
+                }
+            }
+            logL += Math.log(lambda)
+                    - mu0 * (NormalDistribution.cdf(tauTprec * (lastTime - times[i]), 0, 1) -
+                    NormalDistribution.cdf(-tauTprec * times[i], 0, 1))
+                    - theta * rates[i] * (1 - Math.exp(-omega * (lastTime - times[i])));
+        }
+        return logL;
+    }
+
+    private static double normal(double precision, double distance2, int dimension) {
+        // the normalisation of the native library, which is the same for any dimension
+        return Math.pow(precision, dimension) * Math.exp(-0.5 * precision * precision * distance2) / Math.sqrt(2 * Math.PI);
+    }
+}
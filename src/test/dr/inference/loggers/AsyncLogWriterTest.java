@@ -0,0 +1,106 @@
+/*
+ * AsyncLogWriterTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.inference.loggers;
+
+import dr.inference.loggers.*;
+import junit.framework.TestCase;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+public class AsyncLogWriterTest extends TestCase {
+
+    public void testSameOutputAsSynchronous() {
+        String expected = runLogger(false);
+        assertEquals(2002, expected.split("\n").length);
+        assertEquals(expected, runLogger(true));
+    }
+
+    public void testLinesStayInOrder() {
+        StringWriter out = new StringWriter();
+        MCLogger logger = new MCLogger(new TabDelimitedFormatter(new PrintWriter(out)), 1, false) {
+            @Override
+            public void log(long state) {
+                logLineInOrder("line " + state);
+            }
+        };
+        logger.setAsynchronous(true);
+        logger.startLogging();
+        for (int i = 0; i < 5000; i++) {
+            logger.log((long) i);
+        }
+        logger.stopLogging();
+
+        String[] lines = out.toString().split("\n");
+        assertEquals("state", lines[0].trim());
+        assertEquals(5001, lines.length);
+        for (int i = 0; i < 5000; i++) {
+            assertEquals("line " + i, lines[i + 1]);
+        }
+    }
+
+    private String runLogger(boolean asynchronous) {
+        final double[] value = new double[1];
+
+        StringWriter out = new StringWriter();
+        MCLogger logger = new MCLogger(new TabDelimitedFormatter(new PrintWriter(out)), 10, false);
+        logger.setTitle("test");
+
+        logger.addColumn(new NumberColumn("x") {
+            public double getDoubleValue() {
+                return value[0];
+            }
+        });
+        NumberColumn rounded = new NumberColumn("y", 4) {
+            public double getDoubleValue() {
+                return value[0] * 1000.0;
+            }
+        };
+        rounded.setMinimumWidth(12);
+        logger.addColumn(rounded);
+        logger.addColumn(new LogColumn.Default("z", new Object() {
+            public String toString() {
+                return value[0] > 0.5 ? "high" : "low";
+            }
+        }));
+
+        logger.setAsynchronous(asynchronous);
+        logger.startLogging();
+        for (int i = 0; i < 20000; i++) {
+            value[0] = Math.sin(i) * Math.sin(i);
+            logger.log((long) i);
+            if (i == 10000) {
+                // as before a checkpoint is written
+                AsyncLogWriter.drainAll();
+            }
+        }
+        logger.stopLogging();
+
+        return out.toString();
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * ConvergenceMonitorTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.inference.markovchain;
+
+import dr.app.checkpoint.BeastCheckpointer;
+import dr.inference.distribution.DistributionLikelihood;
+import dr.inference.distribution.NormalDistributionModel;
+import dr.inference.loggers.MCLogger;
+import dr.inference.loggers.NumberColumn;
+import dr.inference.markovchain.ConvergenceMonitor;
+import dr.inference.markovchain.MarkovChain;
+import dr.inference.mcmc.MCMC;
+import dr.inference.mcmc.MCMCOptions;
+import dr.inference.model.Parameter;
+import dr.inference.operators.AdaptationMode;
+import dr.inference.operators.OperatorSchedule;
+import dr.inference.operators.RandomWalkOperator;
+import dr.inference.operators.SimpleOperatorSchedule;
+import dr.inference.trace.BatchMeansESS;
+import dr.inference.trace.TraceCorrelation;
+import dr.inference.trace.TraceType;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks the saving and restoring of a convergence monitor, on its own and through the checkpointer,
+ * and that it stops a chain once the target ESS has really been reached.
+ */
+public class ConvergenceMonitorTest extends TestCase {
+
+    private static final double[] PROBABILITIES = {0.025, 0.5, 0.975};
+
+    private final List<File> files = new ArrayList<File>();
+
+    public void setUp() {
+        MathUtils.setSeed(123);
+    }
+
+    public void tearDown() {
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    public void testCheckpointNames() {
+        assertEquals(ConvergenceMonitor.CHECKPOINT_NAME, createMonitor(null, new double[1]).getCheckpointName());
+        assertFalse(createMonitor("a", new double[1]).getCheckpointName().equals(
+                createMonitor("b", new double[1]).getCheckpointName()));
+    }
+
+    public void testCheckpoint() throws IOException {
+        double[] value = new double[1];
+        ConvergenceMonitor monitor = createMonitor("monitor", value);
+        Random random = new Random(7);
+        for (int i = 0; i < 5000; i++) {
+            value[0] = 0.9 * value[0] + random.nextGaussian();
+            monitor.sample();
+        }
+
+        ConvergenceMonitor restored = createMonitor("monitor", value);
+        restored.readCheckpoint(new BufferedReader(new StringReader(writeCheckpoint(monitor))));
+        assertEquals(monitor.getSampleCount(), restored.getSampleCount());
+
+        // the restored monitor carries on exactly as the original
+        for (int i = 0; i < 5000; i++) {
+            value[0] = 0.9 * value[0] + random.nextGaussian();
+            monitor.sample();
+            restored.sample();
+        }
+        assertEquals(monitor.getESS(0), restored.getESS(0));
+        for (int j = 0; j < PROBABILITIES.length; j++) {
+            assertEquals(monitor.getQuantile(0, j), restored.getQuantile(0, j));
+        }
+
+        ConvergenceMonitor other = new ConvergenceMonitor("monitor", new NumberColumn[]{createColumn("y", value)},
+                1, 0, PROBABILITIES, BatchMeansESS.DEFAULT_BATCH_COUNT, 0.0, false);
+        try {
+            other.readCheckpoint(new BufferedReader(new StringReader(writeCheckpoint(monitor))));
+            fail("the saved state of a different column should not be restored");
+        } catch (RuntimeException re) {
+            // expected
+        }
+    }
+
+    public void testStopAtTarget() {
+        final double targetESS = 500.0;
+        final long chainLength = 10000000;
+
+        Parameter x = new Parameter.Default("x", 0.0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        final List<Double> samples = new ArrayList<Double>();
+        NumberColumn column = new NumberColumn("x") {
+            @Override
+            public double getDoubleValue() {
+                samples.add(x.getParameterValue(0));
+                return x.getParameterValue(0);
+            }
+        };
+        ConvergenceMonitor monitor = new ConvergenceMonitor(null, new NumberColumn[]{column}, 10, 0,
+                new double[0], BatchMeansESS.DEFAULT_BATCH_COUNT, targetESS, true);
+
+        MCMC mcmc = createChain(x, chainLength);
+        mcmc.getMarkovChain().addMarkovChainListener(monitor);
+        mcmc.run();
+
+        assertTrue(monitor.isTargetReached());
+        assertTrue(mcmc.getCurrentState() < chainLength);
+
+        // the samples the monitor has seen really do have about the target ESS
+        double[] values = new double[samples.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = samples.get(i);
+        }
+        double ess = new TraceCorrelation(values, TraceType.REAL, 1, false).getESS();
+        assertTrue("ESS " + ess + " at stopping", ess > 0.8 * targetESS);
+    }
+
+    public void testCheckpointer() throws IOException {
+        Parameter x = new Parameter.Default("x", 0.0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        ConvergenceMonitor monitor = new ConvergenceMonitor("x", new NumberColumn[]{(NumberColumn) x.getColumns()[0]},
+                1, 0, PROBABILITIES, BatchMeansESS.DEFAULT_BATCH_COUNT, 0.0, false);
+
+        MCMC mcmc = createChain(x, 2000);
+        MarkovChain markovChain = mcmc.getMarkovChain();
+        markovChain.addMarkovChainListener(monitor);
+        mcmc.run();
+
+        File file = File.createTempFile("convergence", ".state");
+        File listenerFile = new File(file.getPath() + "." + monitor.getCheckpointName());
+        files.add(file);
+        files.add(listenerFile);
+
+        Checkpointer checkpointer = new Checkpointer();
+        assertTrue(checkpointer.save(file, 2000, markovChain));
+        assertTrue(listenerFile.isFile());
+        long savedCount = monitor.getSampleCount();
+        double savedESS = monitor.getESS(0);
+        double savedMedian = monitor.getQuantile(0, 1);
+
+        sample(monitor, 100);
+        assertEquals(2000, checkpointer.load(file, markovChain));
+        assertEquals(savedCount, monitor.getSampleCount());
+        assertEquals(savedESS, monitor.getESS(0));
+        assertEquals(savedMedian, monitor.getQuantile(0, 1));
+
+        // the saved state of the monitor is from another state of the chain so is not restored
+        List<String> lines = Files.readAllLines(listenerFile.toPath());
+        lines.set(0, "state\t1000");
+        Files.write(listenerFile.toPath(), lines);
+        sample(monitor, 100);
+        assertEquals(2000, checkpointer.load(file, markovChain));
+        assertEquals(savedCount + 100, monitor.getSampleCount());
+    }
+
+    private static void sample(ConvergenceMonitor monitor, int count) {
+        for (int i = 0; i < count; i++) {
+            monitor.sample();
+        }
+    }
+
+    private static String writeCheckpoint(ConvergenceMonitor monitor) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes);
+        monitor.writeCheckpoint(out);
+        out.close();
+        return bytes.toString();
+    }
+
+    private static ConvergenceMonitor createMonitor(String name, double[] value) {
+        return new ConvergenceMonitor(name, new NumberColumn[]{createColumn("x", value)}, 1, 0, PROBABILITIES,
+                BatchMeansESS.DEFAULT_BATCH_COUNT, 0.0, false);
+    }
+
+    private static NumberColumn createColumn(String label, final double[] value) {
+        return new NumberColumn(label) {
+            @Override
+            public double getDoubleValue() {
+                return value[0];
+            }
+        };
+    }
+
+    /**
+     * A chain that samples x from a standard normal distribution by a random walk.
+     */
+    private static MCMC createChain(Parameter x, long chainLength) {
+        DistributionLikelihood likelihood = new DistributionLikelihood(new NormalDistributionModel(
+                new Parameter.Default(0.0), new Parameter.Default(1.0)));
+        likelihood.addData(x);
+
+        OperatorSchedule schedule = new SimpleOperatorSchedule();
+        schedule.addOperator(new RandomWalkOperator(x, 0.5, RandomWalkOperator.BoundaryCondition.reflecting,
+                1.0, AdaptationMode.ADAPTATION_OFF));
+
+        MCMC mcmc = new MCMC("mcmc1");
+        mcmc.init(new MCMCOptions(chainLength), likelihood, schedule, new MCLogger[0]);
+        return mcmc;
+    }
+
+    /**
+     * Gives the test access to the saving and loading of text state files.
+     */
+    private static class Checkpointer extends BeastCheckpointer {
+
+        boolean save(File file, long state, MarkovChain markovChain) {
+            return writeStateToFile(file, state, markovChain.getCurrentScore(), markovChain);
+        }
+
+        long load(File file, MarkovChain markovChain) {
+            return readStateFromFile(file, markovChain, new double[1]);
+        }
+    }
+}
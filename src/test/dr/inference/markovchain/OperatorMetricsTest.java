@@ -0,0 +1,198 @@
+/*
+ * OperatorMetricsTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.inference.markovchain;
+
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.datatype.Nucleotides;
+import dr.evomodel.branchmodel.HomogeneousBranchModel;
+import dr.evomodel.branchratemodel.DefaultBranchRateModel;
+import dr.evomodel.siteratemodel.GammaSiteRateModel;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.nucleotide.HKY;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.treedatalikelihood.JavaDataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.TreeDataLikelihood;
+import dr.evomodel.treelikelihood.PartialsRescalingScheme;
+import dr.inference.loggers.MCLogger;
+import dr.inference.markovchain.OperatorMetrics;
+import dr.inference.mcmc.MCMC;
+import dr.inference.mcmc.MCMCOptions;
+import dr.inference.model.CompoundLikelihood;
+import dr.inference.model.Likelihood;
+import dr.inference.model.Parameter;
+import dr.inference.operators.MCMCOperator;
+import dr.inference.operators.OperatorSchedule;
+import dr.inference.operators.ScaleOperator;
+import dr.inference.operators.SimpleOperatorSchedule;
+import dr.math.MathUtils;
+import test.dr.inference.trace.TraceCorrelationAssert;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs short chains with operator metrics turned on and checks the counts that are written.
+ */
+public class OperatorMetricsTest extends TraceCorrelationAssert {
+
+    private static final long CHAIN_LENGTH = 1000;
+    private static final long LOG_EVERY = 200;
+
+    private TreeModel treeModel;
+    private String likelihoodName;
+    private final List<File> files = new ArrayList<File>();
+
+    public OperatorMetricsTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+
+        createAlignment(PRIMATES_TAXON_SEQUENCE, Nucleotides.INSTANCE);
+        treeModel = createPrimateTreeModel();
+    }
+
+    public void tearDown() {
+        System.clearProperty(OperatorMetrics.OPERATOR_METRICS);
+        System.clearProperty(OperatorMetrics.OPERATOR_METRICS_EVERY);
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    public void testJSON() throws IOException {
+        File file = createFile(".json");
+        runChain(file);
+
+        List<String> lines = Files.readAllLines(file.toPath());
+        // one line every LOG_EVERY states, the last of which is written when the chain finishes
+        assertEquals(CHAIN_LENGTH / LOG_EVERY, lines.size());
+        for (int i = 0; i < lines.size() - 1; i++) {
+            assertTrue(lines.get(i), lines.get(i).startsWith("{\"state\":" + ((i + 1) * LOG_EVERY) + ","));
+        }
+
+        String last = lines.get(lines.size() - 1);
+        assertTrue(last, last.startsWith("{\"state\":" + CHAIN_LENGTH + ","));
+
+        long kappaProposals = getJSONCount(last, "kappa", "proposals");
+        long otherProposals = getJSONCount(last, "other", "proposals");
+        assertEquals(CHAIN_LENGTH, kappaProposals + otherProposals);
+        assertTrue(kappaProposals > 0 && otherProposals > 0);
+        assertTrue(getJSONCount(last, "kappa", "accepted") <= kappaProposals);
+
+        // a change of kappa updates the partials of every internal node; the other parameter isn't in the likelihood
+        assertEquals(treeModel.getInternalNodeCount() * kappaProposals, getJSONCount(last, "kappa", "dirtyNodes"));
+        assertEquals(0, getJSONCount(last, "other", "dirtyNodes"));
+
+        assertTrue(last, last.contains("\"likelihoodSeconds\":{\"" + likelihoodName + "\":"));
+    }
+
+    public void testPrometheus() throws IOException {
+        File file = createFile(".prom");
+        File temp = new File(file.getPath() + ".tmp");
+        files.add(temp);
+        runChain(file);
+
+        // the temporary file has been renamed over the metrics file
+        assertFalse(temp.exists());
+        String text = new String(Files.readAllBytes(file.toPath()));
+        assertTrue(text, text.contains("\nbeast_mcmc_state " + CHAIN_LENGTH + "\n"));
+        assertTrue(text, text.contains("# TYPE beast_operator_proposals_total counter"));
+
+        long kappaProposals = getPrometheusCount(text, "beast_operator_proposals_total", "kappa");
+        long otherProposals = getPrometheusCount(text, "beast_operator_proposals_total", "other");
+        assertEquals(CHAIN_LENGTH, kappaProposals + otherProposals);
+        assertEquals(treeModel.getInternalNodeCount() * kappaProposals,
+                getPrometheusCount(text, "beast_operator_dirty_nodes_total", "kappa"));
+        assertEquals(0, getPrometheusCount(text, "beast_operator_dirty_nodes_total", "other"));
+
+        assertTrue(text, text.contains("beast_operator_seconds_total{operator=\"scale(kappa)\",phase=\"evaluate\"} "));
+        assertTrue(text, text.contains("beast_operator_likelihood_seconds_total{operator=\"scale(kappa)\",likelihood=\"" +
+                likelihoodName + "\"} "));
+    }
+
+    private void runChain(File metricsFile) {
+        System.setProperty(OperatorMetrics.OPERATOR_METRICS, metricsFile.getPath());
+        System.setProperty(OperatorMetrics.OPERATOR_METRICS_EVERY, Long.toString(LOG_EVERY));
+
+        Parameter kappa = new Parameter.Default("kappa", 2.0, 1.0E-8, Double.POSITIVE_INFINITY);
+        FrequencyModel f = new FrequencyModel(Nucleotides.INSTANCE, new Parameter.Default(alignment.getStateFrequencies()));
+        HKY hky = new HKY(kappa, f);
+
+        TreeDataLikelihood treeDataLikelihood = new TreeDataLikelihood(
+                new JavaDataLikelihoodDelegate(treeModel, new SitePatterns(alignment, null, 0, -1, 1, true),
+                        new HomogeneousBranchModel(hky), new GammaSiteRateModel("gamma"),
+                        false, PartialsRescalingScheme.NONE, false),
+                treeModel, new DefaultBranchRateModel());
+        treeDataLikelihood.setId("treeLikelihood");
+        likelihoodName = treeDataLikelihood.prettyName();
+
+        List<Likelihood> likelihoods = new ArrayList<Likelihood>();
+        likelihoods.add(treeDataLikelihood);
+        CompoundLikelihood likelihood = new CompoundLikelihood(likelihoods);
+
+        OperatorSchedule schedule = new SimpleOperatorSchedule();
+        MCMCOperator operator = new ScaleOperator(kappa, 0.5);
+        operator.setWeight(1.0);
+        schedule.addOperator(operator);
+
+        operator = new ScaleOperator(new Parameter.Default("other", 1.0, 0.0, Double.POSITIVE_INFINITY), 0.5);
+        operator.setWeight(1.0);
+        schedule.addOperator(operator);
+
+        MCMC mcmc = new MCMC("mcmc1");
+        mcmc.init(new MCMCOptions(CHAIN_LENGTH), likelihood, schedule, new MCLogger[0]);
+        mcmc.run();
+    }
+
+    private static long getJSONCount(String line, String parameterName, String key) {
+        Matcher matcher = Pattern.compile("\\{\"name\":\"scale\\(" + parameterName + "\\)\"[^{]*\"" + key + "\":(\\d+)").matcher(line);
+        assertTrue(line, matcher.find());
+        return Long.parseLong(matcher.group(1));
+    }
+
+    private static long getPrometheusCount(String text, String name, String parameterName) {
+        Matcher matcher = Pattern.compile("\n" + name + "\\{operator=\"scale\\(" + parameterName + "\\)\"\\} (\\d+)\n").matcher(text);
+        assertTrue(text, matcher.find());
+        return Long.parseLong(matcher.group(1));
+    }
+
+    private File createFile(String suffix) throws IOException {
+        File file = File.createTempFile("operatormetrics", suffix);
+        files.add(file);
+        return file;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * EvaluationSchedulerTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.inference.model;
+
+import dr.inference.model.*;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+public class EvaluationSchedulerTest extends TestCase {
+
+    public void testEachTaskEvaluatedOnce() {
+        final int taskCount = 200;
+        EvaluationScheduler scheduler = new EvaluationScheduler(taskCount, 4);
+        final AtomicIntegerArray counts = new AtomicIntegerArray(taskCount);
+
+        for (int iteration = 0; iteration < 50; iteration++) {
+            scheduler.executeAll(i -> {
+                spin(i % 7 == 0 ? 50000 : 100);
+                counts.incrementAndGet(i);
+            });
+        }
+
+        for (int i = 0; i < taskCount; i++) {
+            assertEquals(50, counts.get(i));
+        }
+    }
+
+    public void testSubset() {
+        EvaluationScheduler scheduler = new EvaluationScheduler(10, 3);
+        final AtomicIntegerArray counts = new AtomicIntegerArray(10);
+
+        int[] indices = new int[]{1, 4, 7, 9, -1};
+        scheduler.execute(indices, 4, i -> counts.incrementAndGet(i));
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i == 1 || i == 4 || i == 7 || i == 9 ? 1 : 0, counts.get(i));
+        }
+    }
+
+    public void testNestedEvaluation() {
+        EvaluationScheduler outer = new EvaluationScheduler(8, 4);
+        final AtomicIntegerArray counts = new AtomicIntegerArray(64);
+
+        outer.executeAll(i -> {
+            // each outer task uses its own scheduler for the inner level
+            EvaluationScheduler nested = new EvaluationScheduler(8, 4);
+            nested.executeAll(j -> {
+                spin(20000);
+                counts.incrementAndGet(i * 8 + j);
+            });
+        });
+
+        for (int i = 0; i < 64; i++) {
+            assertEquals(1, counts.get(i));
+        }
+    }
+
+    public void testExceptionPropagates() {
+        EvaluationScheduler scheduler = new EvaluationScheduler(16, 4);
+        try {
+            scheduler.executeAll(i -> {
+                spin(30000);
+                if (i == 11) {
+                    throw new IllegalStateException("task " + i);
+                }
+            });
+            fail("exception should have been rethrown");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("task 11"));
+        }
+    }
+
+    public void testCompoundLikelihood() {
+        List<Likelihood> likelihoods = new ArrayList<Likelihood>();
+        List<CountingLikelihood> counting = new ArrayList<CountingLikelihood>();
+        for (int i = 0; i < 20; i++) {
+            CountingLikelihood likelihood = new CountingLikelihood(-i - 0.5);
+            likelihoods.add(likelihood);
+            counting.add(likelihood);
+        }
+
+        CompoundLikelihood serial = new CompoundLikelihood(likelihoods);
+        CompoundLikelihood parallel = new CompoundLikelihood(4, likelihoods);
+        assertEquals(4, parallel.getThreadCount());
+
+        assertEquals(serial.getLogLikelihood(), parallel.getLogLikelihood(), 1E-12);
+
+        // only the dirty likelihood should be recalculated
+        counting.get(3).value = -100.0;
+        counting.get(3).makeDirty();
+        double expected = serial.getLogLikelihood();
+        for (CountingLikelihood likelihood : counting) {
+            likelihood.count = 0;
+        }
+        counting.get(3).makeDirty();
+        assertEquals(expected, parallel.getLogLikelihood(), 1E-12);
+        for (int i = 0; i < counting.size(); i++) {
+            assertEquals(i == 3 ? 1 : 0, counting.get(i).count);
+        }
+
+        ThreadedCompoundLikelihood threaded = new ThreadedCompoundLikelihood(likelihoods);
+        assertEquals(expected, threaded.getLogLikelihood(), 1E-12);
+    }
+
+    private static double spin(int nanos) {
+        long end = System.nanoTime() + nanos;
+        double x = 0.0;
+        while (System.nanoTime() < end) {
+            x += Math.sqrt(x + 1.0);
+        }
+        return x;
+    }
+
+    private static class CountingLikelihood extends Likelihood.Abstract implements ThreadAwareLikelihood {
+
+        CountingLikelihood(double value) {
+            super(null);
+            this.value = value;
+        }
+
+        @Override
+        protected double calculateLogLikelihood() {
+            count++;
+            return value;
+        }
+
+        @Override
+        public boolean isLikelihoodKnown() {
+            return getLikelihoodKnown();
+        }
+
+        @Override
+        public boolean evaluateEarly() {
+            return false;
+        }
+
+        double value;
+        int count = 0;
+    }
+}
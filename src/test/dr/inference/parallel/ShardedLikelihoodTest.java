@@ -0,0 +1,234 @@
+/*
+ * ShardedLikelihoodTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.inference.parallel;
+
+import dr.inference.model.AbstractModelLikelihood;
+import dr.inference.model.Model;
+import dr.inference.model.Parameter;
+import dr.inference.model.Variable;
+import dr.inference.parallel.LikelihoodShardWorker;
+import dr.inference.parallel.ShardTransport;
+import dr.inference.parallel.ShardedLikelihood;
+import dr.inference.parallel.SocketShardTransport;
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class ShardedLikelihoodTest extends TestCase {
+
+    private static final int DIMENSION = 10;
+
+    /**
+     * Runs a worker for the test in its own process and writes the port it listens on to stdout.
+     */
+    public static void main(String[] args) throws Exception {
+        LikelihoodShardWorker worker = new LikelihoodShardWorker(createLikelihood(Long.parseLong(args[0])), 0);
+        System.out.println(worker.getPort());
+        System.out.flush();
+        worker.run();
+    }
+
+    public void testShardedLikelihood() throws Exception {
+
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                ShardedLikelihoodTest.class.getName(), "1").redirectError(ProcessBuilder.Redirect.INHERIT).start();
+
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+            int processPort = Integer.parseInt(reader.readLine().trim());
+
+            TestLikelihood threadLikelihood = createLikelihood(2);
+            LikelihoodShardWorker worker = new LikelihoodShardWorker(threadLikelihood, 0);
+            Thread thread = new Thread(worker);
+            thread.setDaemon(true);
+            thread.start();
+
+            List<ShardTransport> transports = new ArrayList<ShardTransport>();
+            transports.add(SocketShardTransport.connect("localhost", processPort, 10000));
+            transports.add(SocketShardTransport.connect("localhost", worker.getPort(), 10000));
+
+            Parameter mu = new Parameter.Default("mu", 0.5);
+            Parameter x = new Parameter.Default("x", DIMENSION, 0.0);
+            // neither worker depends on this one
+            Parameter unused = new Parameter.Default("unused", 1.0);
+            List<Parameter> parameters = new ArrayList<Parameter>();
+            parameters.add(mu);
+            parameters.add(x);
+            parameters.add(unused);
+
+            ShardedLikelihood likelihood = new ShardedLikelihood(transports, parameters);
+            TestLikelihood[] expected = {createLikelihood(1), createLikelihood(2)};
+
+            assertEquals(getExpected(expected, mu, x), likelihood.getLogLikelihood(), 1E-10);
+
+            Random random = new Random(666);
+            for (int step = 0; step < 500; step++) {
+                likelihood.storeModelState();
+                mu.storeParameterValues();
+                x.storeParameterValues();
+                unused.storeParameterValues();
+
+                double storedLogL = likelihood.getLogLikelihood();
+
+                switch (random.nextInt(4)) {
+                    case 0:
+                        mu.setParameterValue(0, random.nextGaussian());
+                        break;
+                    case 1:
+                        x.setParameterValue(random.nextInt(DIMENSION), random.nextGaussian());
+                        break;
+                    case 2:
+                        for (int i = 0; i < DIMENSION; i++) {
+                            x.setParameterValueQuietly(i, random.nextGaussian());
+                        }
+                        x.fireParameterChangedEvent();
+                        break;
+                    default:
+                        unused.setParameterValue(0, random.nextGaussian());
+                }
+
+                assertEquals(getExpected(expected, mu, x), likelihood.getLogLikelihood(), 1E-10);
+
+                if (random.nextBoolean()) {
+                    likelihood.acceptModelState();
+                } else {
+                    mu.restoreParameterValues();
+                    x.restoreParameterValues();
+                    unused.restoreParameterValues();
+                    likelihood.restoreModelState();
+
+                    int evaluations = threadLikelihood.evaluations;
+                    assertEquals(storedLogL, likelihood.getLogLikelihood());
+                    assertEquals(getExpected(expected, mu, x), likelihood.getLogLikelihood(), 1E-10);
+                    // going back is free for the workers
+                    assertEquals(evaluations, threadLikelihood.evaluations);
+                }
+            }
+
+            likelihood.close();
+            thread.join(10000);
+            assertFalse(thread.isAlive());
+        } finally {
+            process.destroy();
+        }
+    }
+
+    private static double getExpected(TestLikelihood[] likelihoods, Parameter mu, Parameter x) {
+        double logL = 0.0;
+        for (TestLikelihood likelihood : likelihoods) {
+            likelihood.mu.setParameterValue(0, mu.getParameterValue(0));
+            for (int i = 0; i < DIMENSION; i++) {
+                likelihood.x.setParameterValue(i, x.getParameterValue(i));
+            }
+            logL += likelihood.getLogLikelihood();
+        }
+        return logL;
+    }
+
+    private static TestLikelihood createLikelihood(long seed) {
+        Random random = new Random(seed);
+        double[] data = new double[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            data[i] = random.nextGaussian();
+        }
+        return new TestLikelihood(new Parameter.Default("mu", 0.5), new Parameter.Default("x", DIMENSION, 0.0), data);
+    }
+
+    /**
+     * A normal likelihood of some data with mean mu + x that counts its evaluations.
+     */
+    private static class TestLikelihood extends AbstractModelLikelihood {
+
+        TestLikelihood(Parameter mu, Parameter x, double[] data) {
+            super("testLikelihood");
+            this.mu = mu;
+            this.x = x;
+            this.data = data;
+            addVariable(mu);
+            addVariable(x);
+        }
+
+        public Model getModel() {
+            return this;
+        }
+
+        public double getLogLikelihood() {
+            if (!likelihoodKnown) {
+                logLikelihood = 0.0;
+                for (int i = 0; i < data.length; i++) {
+                    double residual = data[i] - mu.getParameterValue(0) - x.getParameterValue(i);
+                    logLikelihood -= 0.5 * residual * residual;
+                }
+                likelihoodKnown = true;
+                evaluations++;
+            }
+            return logLikelihood;
+        }
+
+        public void makeDirty() {
+            likelihoodKnown = false;
+        }
+
+        protected void handleModelChangedEvent(Model model, Object object, int index) {
+        }
+
+        protected void handleVariableChangedEvent(Variable variable, int index, Parameter.ChangeType type) {
+            likelihoodKnown = false;
+        }
+
+        protected void storeState() {
+            storedLogLikelihood = logLikelihood;
+            storedLikelihoodKnown = likelihoodKnown;
+        }
+
+        protected void restoreState() {
+            logLikelihood = storedLogLikelihood;
+            likelihoodKnown = storedLikelihoodKnown;
+        }
+
+        protected void acceptState() {
+        }
+
+        final Parameter mu;
+        final Parameter x;
+        final double[] data;
+
+        volatile int evaluations = 0;
+
+        private boolean likelihoodKnown = false;
+        private double logLikelihood;
+        private boolean storedLikelihoodKnown;
+        private double storedLogLikelihood;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * StreamingEstimatorsTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.inference.trace;
+
+import dr.inference.trace.BatchMeansESS;
+import dr.inference.trace.StreamingQuantile;
+import dr.inference.trace.TraceCorrelation;
+import dr.inference.trace.TraceType;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class StreamingEstimatorsTest extends TestCase {
+
+    public void testBatchMeansESS() {
+        for (double phi : new double[]{0.0, 0.9}) {
+            Random random = new Random(31);
+            double[] values = new double[200000];
+            // plenty of batches so that the estimate is not too noisy to compare
+            BatchMeansESS ess = new BatchMeansESS(256);
+            double x = 0.0;
+            for (int i = 0; i < values.length; i++) {
+                x = phi * x + random.nextGaussian();
+                values[i] = x;
+                ess.add(x);
+            }
+            assertEquals(values.length, ess.getCount());
+
+            // the batch means estimate is noisier than the autocorrelation one, so only ask for rough agreement
+            double expected = new TraceCorrelation(values, TraceType.REAL, 1, false).getESS();
+            assertEquals(expected, ess.getESS(), 0.3 * expected);
+        }
+    }
+
+    public void testDefaultBatchCount() {
+        // with the default number of batches, as used by the convergence monitor, the estimate is
+        // noisier but should be right on average over independent runs of an AR(1) process
+        final double phi = 0.9;
+        final int length = 100000;
+        final int runs = 20;
+        double expected = length * (1.0 - phi) / (1.0 + phi);
+        double sum = 0.0;
+        for (int run = 0; run < runs; run++) {
+            Random random = new Random(run);
+            BatchMeansESS ess = new BatchMeansESS();
+            double x = 0.0;
+            for (int i = 0; i < length; i++) {
+                x = phi * x + random.nextGaussian();
+                ess.add(x);
+            }
+            assertEquals(expected, ess.getESS(), 0.5 * expected);
+            sum += ess.getESS();
+        }
+        assertEquals(expected, sum / runs, 0.1 * expected);
+    }
+
+    public void testCautiousESS() {
+        // stopping the first time the cautious estimate reaches a target should not stop
+        // well short of it, however early the target is reached
+        final double phi = 0.9;
+        for (double target : new double[]{100.0, 1000.0}) {
+            for (int run = 0; run < 20; run++) {
+                Random random = new Random(run);
+                BatchMeansESS ess = new BatchMeansESS();
+                double x = 0.0;
+                long count = 0;
+                while (ess.getCautiousESS() < target) {
+                    x = phi * x + random.nextGaussian();
+                    ess.add(x);
+                    count++;
+                }
+                assertTrue(ess.getCautiousESS() <= ess.getESS());
+                double trueESS = count * (1.0 - phi) / (1.0 + phi);
+                assertTrue("true ESS " + trueESS + " for target " + target, trueESS > 0.7 * target);
+            }
+        }
+    }
+
+    public void testBatchMeansESSState() {
+        Random random = new Random(5);
+        BatchMeansESS ess = new BatchMeansESS();
+        for (int i = 0; i < 1000; i++) {
+            ess.add(random.nextGaussian());
+        }
+        BatchMeansESS restored = new BatchMeansESS();
+        restored.setState(ess.getState());
+        for (int i = 0; i < 1000; i++) {
+            double value = random.nextGaussian();
+            ess.add(value);
+            restored.add(value);
+        }
+        assertEquals(ess.getESS(), restored.getESS());
+        assertEquals(ess.getMean(), restored.getMean());
+    }
+
+    public void testStreamingQuantile() {
+        Random random = new Random(11);
+        double[] probabilities = {0.025, 0.5, 0.975};
+        StreamingQuantile[] quantiles = new StreamingQuantile[probabilities.length];
+        for (int i = 0; i < probabilities.length; i++) {
+            quantiles[i] = new StreamingQuantile(probabilities[i]);
+        }
+        double[] values = new double[100000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextGaussian();
+            for (StreamingQuantile quantile : quantiles) {
+                quantile.add(values[i]);
+            }
+        }
+        Arrays.sort(values);
+        for (int i = 0; i < probabilities.length; i++) {
+            double expected = values[(int) (probabilities[i] * values.length)];
+            assertEquals(expected, quantiles[i].getQuantile(), 0.02);
+        }
+
+        StreamingQuantile restored = new StreamingQuantile(0.5);
+        restored.setState(quantiles[1].getState());
+        assertEquals(quantiles[1].getQuantile(), restored.getQuantile());
+    }
+}
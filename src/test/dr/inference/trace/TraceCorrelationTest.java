@@ -0,0 +1,119 @@
+/*
+ * TraceCorrelationTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.inference.trace;
+
+import dr.inference.trace.Trace;
+import dr.inference.trace.TraceCorrelation;
+import dr.inference.trace.TraceType;
+import dr.stats.DiscreteStatistics;
+import dr.util.HeapSort;
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Random;
+
+public class TraceCorrelationTest extends TestCase {
+
+    public void testTraceStorage() {
+        Trace trace = new Trace("x");
+        int count = 40000;
+        for (int i = 0; i < count; i++) {
+            trace.add(i * 0.5);
+        }
+        assertEquals(count, trace.getValueCount());
+        assertEquals(12345 * 0.5, trace.getValue(12345));
+
+        List<Double> values = trace.getValues(100, count);
+        assertEquals(count - 100, values.size());
+        assertEquals(30000 * 0.5, values.get(29900));
+
+        boolean[] filtered = new boolean[count];
+        for (int i = 0; i < count; i += 2) {
+            filtered[i] = true;
+        }
+        double[] odd = trace.getValueArray(0, count, filtered);
+        assertEquals(count / 2, odd.length);
+        assertEquals(39999 * 0.5, odd[odd.length - 1]);
+    }
+
+    public void testStatistics() {
+        // a slowly mixing chain so the autocorrelation runs past the directly summed lags
+        for (double phi : new double[]{0.2, 0.99}) {
+            Random random = new Random(17);
+            double[] values = new double[50000];
+            double x = 0.0;
+            for (int i = 0; i < values.length; i++) {
+                x = phi * x + random.nextGaussian();
+                values[i] = x;
+            }
+
+            TraceCorrelation correlation = new TraceCorrelation(values, TraceType.REAL, 10, false);
+
+            assertEquals(getESS(values, 10), correlation.getESS(), 1E-9 * correlation.getESS());
+
+            int[] indices = new int[values.length];
+            HeapSort.sort(values, indices);
+            assertEquals(DiscreteStatistics.quantile(0.5, values, indices), correlation.getMedian());
+            assertEquals(DiscreteStatistics.quantile(0.025, values, indices), correlation.getLowerCPD());
+            double[] hpd = DiscreteStatistics.HPDInterval(0.95, values, indices);
+            assertEquals(hpd[0], correlation.getLowerHPD());
+            assertEquals(hpd[1], correlation.getUpperHPD());
+        }
+    }
+
+    /**
+     * The ESS with the autocovariances summed directly at every lag.
+     */
+    private static double getESS(double[] values, long stepSize) {
+        final int samples = values.length;
+        final double mean = DiscreteStatistics.mean(values);
+        int maxLag = Math.min(samples - 1, 2000);
+
+        double[] gammaStat = new double[maxLag];
+        double varStat = 0.0;
+        for (int lag = 0; lag < maxLag; lag++) {
+            for (int j = 0; j < samples - lag; j++) {
+                gammaStat[lag] += (values[j] - mean) * (values[j + lag] - mean);
+            }
+            gammaStat[lag] /= ((double) (samples - lag));
+
+            if (lag == 0) {
+                varStat = gammaStat[0];
+            } else if (lag % 2 == 0) {
+                if (gammaStat[lag - 1] + gammaStat[lag] > 0) {
+                    varStat += 2.0 * (gammaStat[lag - 1] + gammaStat[lag]);
+                } else {
+                    maxLag = lag;
+                }
+            }
+        }
+
+        double act = stepSize * varStat / gammaStat[0];
+        return (stepSize * samples) / act;
+    }
+}
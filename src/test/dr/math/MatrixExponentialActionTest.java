@@ -0,0 +1,132 @@
+/*
+ * MatrixExponentialActionTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.math;
+
+import dr.math.MatrixExponentialAction;
+
+import java.util.Random;
+
+public class MatrixExponentialActionTest extends MathTestCase {
+
+    public void testAgainstDenseExponential() {
+        Random random = new Random(7);
+        int order = 30;
+        double[] q = createGenerator(order, 0.2, random);
+
+        MatrixExponentialAction action = new MatrixExponentialAction(order);
+        action.setGenerator(q);
+        assertTrue(action.getNonZeroCount() < order * order);
+
+        int vectorCount = 3;
+        double[] v = new double[order * vectorCount];
+        for (int i = 0; i < v.length; i++) {
+            v[i] = random.nextDouble();
+        }
+
+        // short and long branches, the latter needing more than one uniformization step
+        for (double time : new double[]{0.0, 0.01, 0.5, 40.0}) {
+            double[] p = denseExponential(q, order, time);
+            double[] result = new double[v.length];
+            action.apply(time, v, 0, result, 0, vectorCount);
+
+            for (int m = 0; m < vectorCount; m++) {
+                for (int i = 0; i < order; i++) {
+                    double expected = 0.0;
+                    for (int j = 0; j < order; j++) {
+                        expected += p[i * order + j] * v[m * order + j];
+                    }
+                    assertEquals(expected, result[m * order + i], 1E-10);
+                }
+            }
+        }
+
+        // in place
+        double[] expected = new double[v.length];
+        action.apply(0.5, v, 0, expected, 0, vectorCount);
+        action.apply(0.5, v, 0, v, 0, vectorCount);
+        assertEquals(expected, v, 0.0);
+    }
+
+    private static double[] createGenerator(int order, double density, Random random) {
+        double[] q = new double[order * order];
+        for (int i = 0; i < order; i++) {
+            double total = 0.0;
+            for (int j = 0; j < order; j++) {
+                // keep a cycle so that the chain is irreducible
+                if (j != i && (j == (i + 1) % order || random.nextDouble() < density)) {
+                    q[i * order + j] = random.nextDouble();
+                    total += q[i * order + j];
+                }
+            }
+            q[i * order + i] = -total;
+        }
+        return q;
+    }
+
+    /**
+     * exp(Qt) by a Taylor series with scaling and squaring.
+     */
+    private static double[] denseExponential(double[] q, int order, double time) {
+        int squarings = 0;
+        double scale = time;
+        while (scale > 0.01) {
+            scale /= 2;
+            squarings++;
+        }
+
+        double[] result = new double[order * order];
+        double[] term = new double[order * order];
+        for (int i = 0; i < order; i++) {
+            result[i * order + i] = 1.0;
+            term[i * order + i] = 1.0;
+        }
+        for (int k = 1; k < 20; k++) {
+            double[] next = multiply(term, q, order);
+            for (int i = 0; i < next.length; i++) {
+                term[i] = next[i] * scale / k;
+                result[i] += term[i];
+            }
+        }
+        for (int s = 0; s < squarings; s++) {
+            result = multiply(result, result, order);
+        }
+        return result;
+    }
+
+    private static double[] multiply(double[] a, double[] b, int order) {
+        double[] c = new double[order * order];
+        for (int i = 0; i < order; i++) {
+            for (int k = 0; k < order; k++) {
+                for (int j = 0; j < order; j++) {
+                    c[i * order + j] += a[i * order + k] * b[k * order + j];
+                }
+            }
+        }
+        return c;
+    }
+}
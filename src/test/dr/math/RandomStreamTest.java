@@ -0,0 +1,105 @@
+/*
+ * RandomStreamTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.math;
+
+import dr.math.MathUtils;
+import dr.math.RandomStream;
+import junit.framework.TestCase;
+
+/**
+ * Tests that per-thread random streams are reproducible, independent of each other and
+ * don't disturb the shared generator.
+ */
+
+public class RandomStreamTest extends TestCase {
+
+    private static final int DRAWS = 1000;
+
+    public void testStreamsAreReproducible() {
+        MathUtils.setSeed(666);
+        double[] first = draw(MathUtils.createStream(3));
+
+        MathUtils.setSeed(666);
+        double[] second = draw(MathUtils.createStream(3));
+
+        for (int i = 0; i < DRAWS; i++) {
+            assertEquals(first[i], second[i], 0.0);
+        }
+    }
+
+    public void testStreamsAreDistinct() {
+        MathUtils.setSeed(666);
+        double[] first = draw(MathUtils.createStream(0));
+        double[] second = draw(MathUtils.createStream(1));
+
+        int same = 0;
+        for (int i = 0; i < DRAWS; i++) {
+            if (first[i] == second[i]) {
+                same++;
+            }
+        }
+        assertEquals(0, same);
+    }
+
+    public void testThreadStreamLeavesSharedGeneratorUntouched() throws InterruptedException {
+        MathUtils.setSeed(666);
+        final double expected = MathUtils.nextDouble();
+
+        MathUtils.setSeed(666);
+        final RandomStream stream = MathUtils.createStream(0);
+        final double[] fromThread = new double[1];
+        Thread thread = new Thread() {
+            public void run() {
+                MathUtils.setThreadStream(stream);
+                fromThread[0] = MathUtils.nextDouble();
+                MathUtils.setThreadStream(null);
+            }
+        };
+        thread.start();
+        thread.join();
+
+        assertEquals(expected, MathUtils.nextDouble(), 0.0);
+        assertNull(MathUtils.getThreadStream());
+
+        MathUtils.setSeed(666);
+        assertEquals(draw(MathUtils.createStream(0))[0], fromThread[0], 0.0);
+    }
+
+    private static double[] draw(RandomStream stream) {
+        double[] values = new double[DRAWS];
+        MathUtils.setThreadStream(stream);
+        try {
+            for (int i = 0; i < DRAWS; i++) {
+                values[i] = MathUtils.nextDouble();
+            }
+        } finally {
+            MathUtils.setThreadStream(null);
+        }
+        return values;
+    }
+}
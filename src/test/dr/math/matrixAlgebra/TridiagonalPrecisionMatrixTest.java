@@ -0,0 +1,181 @@
+/*
+ * TridiagonalPrecisionMatrixTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.math.matrixAlgebra;
+
+import dr.math.matrixAlgebra.TridiagonalPrecisionMatrix;
+import junit.framework.TestCase;
+import no.uib.cipr.matrix.BandCholesky;
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.SymmTridiagMatrix;
+import no.uib.cipr.matrix.UpperSPDBandMatrix;
+
+import java.util.Random;
+
+public class TridiagonalPrecisionMatrixTest extends TestCase {
+
+    private static final int DIM = 50;
+
+    private final Random random = new Random(666);
+
+    public void testQuadraticFormMatchesScaledWeightMatrix() {
+        double[] diag = new double[DIM];
+        double[] offDiag = new double[DIM - 1];
+        makeRandomWalkWeights(diag, offDiag);
+
+        TridiagonalPrecisionMatrix q = new TridiagonalPrecisionMatrix(diag, offDiag);
+        double[] x = randomVector(DIM);
+        double[] y = new double[DIM];
+
+        for (double lambda : new double[]{1.0, 0.3}) {
+            double precision = 0.5 + random.nextDouble() * 10.0;
+            SymmTridiagMatrix expected = scale(new SymmTridiagMatrix(diag.clone(), offDiag.clone()), precision, lambda);
+
+            DenseVector mult = new DenseVector(DIM);
+            expected.mult(new DenseVector(x), mult);
+
+            q.setScale(precision, lambda);
+            q.multiply(x, y);
+
+            for (int i = 0; i < DIM; i++) {
+                assertEquals(mult.get(i), y[i], 0.0);
+            }
+            assertEquals(new DenseVector(x).dot(mult), q.quadraticForm(x), 0.0);
+        }
+    }
+
+    public void testFactorisation() {
+        double[] diag = new double[DIM];
+        double[] offDiag = new double[DIM - 1];
+        makeRandomWalkWeights(diag, offDiag);
+
+        TridiagonalPrecisionMatrix q = new TridiagonalPrecisionMatrix(diag, offDiag);
+        double[] shift = randomVector(DIM);
+        for (int i = 0; i < DIM; i++) {
+            shift[i] = Math.abs(shift[i]) + 0.1;
+        }
+
+        q.setScale(2.5, 1.0);
+        assertTrue(q.factor(shift));
+
+        SymmTridiagMatrix shifted = scale(new SymmTridiagMatrix(diag.clone(), offDiag.clone()), 2.5, 1.0);
+        for (int i = 0; i < DIM; i++) {
+            shifted.set(i, i, shifted.get(i, i) + shift[i]);
+        }
+        BandCholesky cholesky = new BandCholesky(DIM, 1, true);
+        cholesky.factor(new UpperSPDBandMatrix(shifted, 1));
+
+        double logDet = 0.0;
+        for (int i = 0; i < DIM; i++) {
+            logDet += 2.0 * Math.log(cholesky.getU().get(i, i));
+        }
+        assertEquals(logDet, q.getLogDeterminant(), 1E-10);
+
+        double[] b = randomVector(DIM);
+        double[] x = new double[DIM];
+        q.solve(b, x);
+
+        DenseVector check = new DenseVector(DIM);
+        shifted.mult(new DenseVector(x), check);
+        for (int i = 0; i < DIM; i++) {
+            assertEquals(b[i], check.get(i), 1E-10);
+        }
+    }
+
+    public void testNotPositiveDefinite() {
+        TridiagonalPrecisionMatrix q = new TridiagonalPrecisionMatrix(new double[]{1.0, 1.0}, new double[]{-2.0});
+        q.setScale(1.0, 1.0);
+        assertFalse(q.factor(null));
+    }
+
+    public void testRescaledFactorisation() {
+        double[] diag = new double[DIM];
+        double[] offDiag = new double[DIM - 1];
+        makeRandomWalkWeights(diag, offDiag);
+
+        TridiagonalPrecisionMatrix q = new TridiagonalPrecisionMatrix(diag, offDiag);
+        q.setScale(1.0, 0.5);
+        assertTrue(q.factor(null));
+
+        q.setScale(3.0, 0.5);
+        assertTrue(q.factor(null));
+        double rescaled = q.getLogDeterminant();
+        double[] b = randomVector(DIM);
+        double[] rescaledSolution = new double[DIM];
+        q.solve(b, rescaledSolution);
+
+        TridiagonalPrecisionMatrix fresh = new TridiagonalPrecisionMatrix(diag, offDiag);
+        fresh.setScale(3.0, 0.5);
+        assertTrue(fresh.factor(null));
+        double[] freshSolution = new double[DIM];
+        fresh.solve(b, freshSolution);
+
+        assertEquals(fresh.getLogDeterminant(), rescaled, 1E-10);
+        for (int i = 0; i < DIM; i++) {
+            assertEquals(freshSolution[i], rescaledSolution[i], 1E-10);
+        }
+    }
+
+    private void makeRandomWalkWeights(double[] diag, double[] offDiag) {
+        for (int i = 0; i < offDiag.length; i++) {
+            offDiag[i] = -(0.5 + random.nextDouble());
+        }
+        for (int i = 1; i < diag.length - 1; i++) {
+            diag[i] = -(offDiag[i] + offDiag[i - 1]);
+        }
+        diag[0] = -offDiag[0];
+        diag[diag.length - 1] = -offDiag[offDiag.length - 1];
+    }
+
+    private double[] randomVector(int dim) {
+        double[] x = new double[dim];
+        for (int i = 0; i < dim; i++) {
+            x[i] = random.nextGaussian();
+        }
+        return x;
+    }
+
+    // as GMRFSkyrideLikelihood.getScaledWeightMatrix
+    private static SymmTridiagMatrix scale(SymmTridiagMatrix a, double precision, double lambda) {
+        for (int i = 0; i < a.numRows() - 1; i++) {
+            if (lambda == 1) {
+                a.set(i, i, a.get(i, i) * precision);
+                a.set(i + 1, i, a.get(i + 1, i) * precision);
+            } else {
+                a.set(i, i, precision * (1 - lambda + lambda * a.get(i, i)));
+                a.set(i + 1, i, a.get(i + 1, i) * precision * lambda);
+            }
+        }
+        int last = a.numRows() - 1;
+        if (lambda == 1) {
+            a.set(last, last, a.get(last, last) * precision);
+        } else {
+            a.set(last, last, precision * (1 - lambda + lambda * a.get(last, last)));
+        }
+        return a;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * MultiDimensionalScalingCoreImplTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package test.dr.multidimensionalscaling;
+
+import dr.inference.multidimensionalscaling.MultiDimensionalScalingCore;
+import dr.inference.multidimensionalscaling.MultiDimensionalScalingCoreImpl;
+import test.dr.math.MathTestCase;
+
+import java.util.Random;
+
+public class MultiDimensionalScalingCoreImplTest extends MathTestCase {
+
+    private static final int DIMENSION = 2;
+    private static final int LOCATION_COUNT = 30;
+
+    public void testIncrementalUpdates() {
+        testIncrementalUpdates(0);
+    }
+
+    public void testIncrementalUpdatesTruncated() {
+        testIncrementalUpdates(MultiDimensionalScalingCore.LEFT_TRUNCATION);
+    }
+
+    public void testGradient() {
+        testGradient(0);
+        testGradient(MultiDimensionalScalingCore.LEFT_TRUNCATION);
+    }
+
+    private void testIncrementalUpdates(long flags) {
+        Random random = new Random(666);
+        double[] locations = randomLocations(random);
+        MultiDimensionalScalingCore core = createCore(random, locations, flags);
+        core.calculateLogLikelihood();
+
+        // a copy of the core that always recomputes everything
+        MultiDimensionalScalingCore fullCore = new MultiDimensionalScalingCoreImpl();
+        fullCore.initialize(DIMENSION, LOCATION_COUNT, flags);
+        fullCore.setPairwiseData(core.getPairwiseData());
+        fullCore.setNonMissingObservationCount(observationCount);
+        fullCore.setParameters(new double[]{2.0});
+
+        for (int step = 0; step < 200; step++) {
+            double[] storedLocations = locations.clone();
+            core.storeState();
+            double storedLogLikelihood = core.calculateLogLikelihood();
+
+            int updateCount = (step % 10 == 0 ? 3 : 1);
+            for (int k = 0; k < updateCount; k++) {
+                int index = random.nextInt(LOCATION_COUNT);
+                double[] location = new double[DIMENSION];
+                for (int d = 0; d < DIMENSION; d++) {
+                    location[d] = random.nextGaussian();
+                    locations[index * DIMENSION + d] = location[d];
+                }
+                core.updateLocation(index, location);
+            }
+
+            double logLikelihood = core.calculateLogLikelihood();
+            fullCore.updateLocation(-1, locations);
+            assertEquals(fullCore.calculateLogLikelihood(), logLikelihood, 1E-8 * Math.abs(logLikelihood));
+
+            if (random.nextBoolean()) {
+                core.acceptState();
+            } else {
+                core.restoreState();
+                locations = storedLocations;
+                assertEquals(storedLogLikelihood, core.calculateLogLikelihood(), 1E-8 * Math.abs(storedLogLikelihood));
+            }
+        }
+    }
+
+    private void testGradient(long flags) {
+        Random random = new Random(42);
+        double[] locations = randomLocations(random);
+        MultiDimensionalScalingCore core = createCore(random, locations, flags);
+
+        double[] gradient = new double[LOCATION_COUNT * DIMENSION];
+        core.getGradient(gradient);
+
+        double h = 1E-6;
+        for (int i = 0; i < LOCATION_COUNT; i += 7) {
+            for (int d = 0; d < DIMENSION; d++) {
+                double[] location = new double[DIMENSION];
+                System.arraycopy(locations, i * DIMENSION, location, 0, DIMENSION);
+
+                location[d] += h;
+                core.updateLocation(i, location);
+                double upper = core.calculateLogLikelihood();
+                location[d] -= 2 * h;
+                core.updateLocation(i, location);
+                double lower = core.calculateLogLikelihood();
+                location[d] += h;
+                core.updateLocation(i, location);
+
+                assertEquals((upper - lower) / (2 * h), gradient[i * DIMENSION + d], 1E-4 * Math.max(1.0, Math.abs(gradient[i * DIMENSION + d])));
+            }
+        }
+    }
+
+    private double[] randomLocations(Random random) {
+        double[] locations = new double[LOCATION_COUNT * DIMENSION];
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = random.nextGaussian();
+        }
+        return locations;
+    }
+
+    private MultiDimensionalScalingCore createCore(Random random, double[] locations, long flags) {
+        double[] observations = new double[LOCATION_COUNT * LOCATION_COUNT];
+        observationCount = 0;
+        for (int i = 0; i < LOCATION_COUNT; i++) {
+            for (int j = i + 1; j < LOCATION_COUNT; j++) {
+                // some missing observations
+                double observation = (random.nextInt(10) == 0 ? Double.NaN : 3.0 * random.nextDouble());
+                observations[i * LOCATION_COUNT + j] = observation;
+                observations[j * LOCATION_COUNT + i] = observation;
+                if (!Double.isNaN(observation)) {
+                    observationCount++;
+                }
+            }
+        }
+
+        MultiDimensionalScalingCore core = new MultiDimensionalScalingCoreImpl();
+        core.initialize(DIMENSION, LOCATION_COUNT, flags);
+        core.setPairwiseData(observations);
+        core.setNonMissingObservationCount(observationCount);
+        core.setParameters(new double[]{2.0});
+        core.updateLocation(-1, locations);
+        return core;
+    }
+
+    private int observationCount;
+}